@@ -3,8 +3,10 @@
  */
 package com.microsoft.twins.spring.configuration;
 
+import java.util.Optional;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -23,7 +25,13 @@ import com.microsoft.twins.api.SystemApi;
 import com.microsoft.twins.api.TypesApi;
 import com.microsoft.twins.api.UserDefinedFunctionsApi;
 import com.microsoft.twins.api.UsersApi;
+import com.microsoft.twins.client.Http2Client;
+import com.microsoft.twins.client.InstrumentedConnectionManager;
 import com.microsoft.twins.client.TwinsApiClient;
+import com.microsoft.twins.client.TwinsHttpClients;
+import feign.Client;
+import feign.httpclient.ApacheHttpClient;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 @Configuration
 @EnableConfigurationProperties(DigitalTwinsClientProperties.class)
@@ -33,12 +41,35 @@ public class DigitalTwinClientAutoConfiguration {
   @Bean
   @ConditionalOnMissingBean
   @ConditionalOnClass(TwinsApiClient.class)
-  TwinsApiClient twinsApiClient(final DigitalTwinsClientProperties properties) {
+  TwinsApiClient twinsApiClient(final DigitalTwinsClientProperties properties,
+      final Client twinsHttpClient) {
 
     return new TwinsApiClient(properties.getAad().getAuthorityHost(),
         properties.getAad().getTenant(), properties.getAad().getClientId(),
         properties.getAad().getClientSecret(), properties.getAad().getTimeout(),
-        properties.getTwinsUrl().toString());
+        properties.getTwinsUrl().toString(), twinsHttpClient,
+        TwinsHttpClients.options(properties.getHttp()));
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.http", name = "transport",
+      havingValue = "apache", matchIfMissing = true)
+  InstrumentedConnectionManager twinsConnectionManager(
+      final DigitalTwinsClientProperties properties) {
+    return TwinsHttpClients.connectionManager(properties.getHttp());
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  Client twinsHttpClient(final DigitalTwinsClientProperties properties,
+      final Optional<InstrumentedConnectionManager> connectionManager) {
+    if (connectionManager.isPresent()) {
+      return new ApacheHttpClient(
+          TwinsHttpClients.apacheHttpClient(properties.getHttp(), connectionManager.get()));
+    }
+
+    return new Http2Client(TwinsHttpClients.http2Client(properties.getHttp()));
   }
 
   @Bean
@@ -110,4 +141,18 @@ public class DigitalTwinClientAutoConfiguration {
   UsersApi usersApi(final TwinsApiClient twinsApiClient) {
     return twinsApiClient.getUsersApi();
   }
+
+  @Configuration
+  @ConditionalOnClass(MeterBinder.class)
+  static class TwinsHttpMetricsConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "com.microsoft.twins.http", name = "transport",
+        havingValue = "apache", matchIfMissing = true)
+    TwinsConnectionPoolMetrics twinsConnectionPoolMetrics(
+        final InstrumentedConnectionManager twinsConnectionManager) {
+      return new TwinsConnectionPoolMetrics(twinsConnectionManager);
+    }
+  }
 }
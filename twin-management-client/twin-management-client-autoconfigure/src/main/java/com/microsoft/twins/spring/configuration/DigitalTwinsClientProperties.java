@@ -9,7 +9,9 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 import org.springframework.validation.annotation.Validated;
+import com.microsoft.twins.client.HttpTransportSettings;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -34,6 +36,13 @@ public class DigitalTwinsClientProperties {
   @Valid
   private AAD aad = new AAD();
 
+  /**
+   * HTTP transport ADT requests are sent with, i.e. client, connection pool and timeouts.
+   */
+  @NotNull
+  @NestedConfigurationProperty
+  private HttpTransportSettings http = new HttpTransportSettings();
+
   @Getter
   @Setter
   public static class AAD {
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.spring.configuration;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import com.microsoft.twins.client.InstrumentedConnectionManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Exports the state of the ADT connection pool, i.e. leased, available and maximum connections,
+ * requests waiting for a connection and the time waited per lease.
+ */
+public class TwinsConnectionPoolMetrics implements MeterBinder {
+  private static final String PREFIX = "twins.http.pool.";
+
+  private final InstrumentedConnectionManager connectionManager;
+
+  public TwinsConnectionPoolMetrics(final InstrumentedConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
+  }
+
+  @Override
+  public void bindTo(final MeterRegistry registry) {
+    Gauge.builder(PREFIX + "leased", connectionManager, pool -> pool.getTotalStats().getLeased())
+        .description("Connections to ADT in use").register(registry);
+    Gauge
+        .builder(PREFIX + "available", connectionManager,
+            pool -> pool.getTotalStats().getAvailable())
+        .description("Idle connections to ADT in the pool").register(registry);
+    Gauge.builder(PREFIX + "pending", connectionManager, pool -> pool.getTotalStats().getPending())
+        .description("Requests waiting for a connection to ADT").register(registry);
+    Gauge
+        .builder(PREFIX + "max", connectionManager,
+            PoolingHttpClientConnectionManager::getMaxTotal)
+        .description("Maximum number of connections to ADT").register(registry);
+
+    final Timer leased = Timer.builder(PREFIX + "wait").tag("result", "leased")
+        .description("Time waited for a connection to ADT").register(registry);
+    final Timer timedOut = Timer.builder(PREFIX + "wait").tag("result", "timeout")
+        .description("Time waited for a connection to ADT").register(registry);
+
+    connectionManager.setLeaseListener((waitNanos, success) -> (success ? leased : timedOut)
+        .record(waitNanos, TimeUnit.NANOSECONDS));
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+
+/**
+ * {@link Client} on the JDK {@link HttpClient}, which negotiates HTTP/2 and multiplexes concurrent
+ * requests on a connection instead of pooling connections. The connect timeout and TLS settings
+ * are the ones of the given {@link HttpClient}, the read timeout is taken from the request
+ * {@link Options}.
+ */
+public class Http2Client implements Client {
+  // Set by the JDK client itself, rejected if set by the request
+  private static final Set<String> RESTRICTED_HEADERS =
+      new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+  static {
+    RESTRICTED_HEADERS.addAll(Set.of("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+  }
+
+  private final HttpClient httpClient;
+
+  public Http2Client(final HttpClient httpClient) {
+    this.httpClient = httpClient;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.url()))
+        .timeout(Duration.ofMillis(options.readTimeoutMillis()));
+
+    request.headers().forEach((name, values) -> {
+      if (!RESTRICTED_HEADERS.contains(name)) {
+        values.forEach(value -> builder.header(name, value));
+      }
+    });
+
+    final byte[] body = request.body();
+    builder.method(request.httpMethod().name(),
+        body == null ? BodyPublishers.noBody() : BodyPublishers.ofByteArray(body));
+
+    final HttpResponse<byte[]> response;
+    try {
+      response = httpClient.send(builder.build(), BodyHandlers.ofByteArray());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+
+    final Map<String, Collection<String>> headers = new LinkedHashMap<>();
+    response.headers().map().forEach(headers::put);
+
+    return Response.builder().status(response.statusCode()).headers(headers).request(request)
+        .body(response.body()).build();
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings of the HTTP transport of the {@link TwinsApiClient}, see {@link TwinsHttpClients}.
+ */
+@Getter
+@Setter
+public class HttpTransportSettings {
+
+  /**
+   * HTTP client ADT requests are sent with.
+   */
+  private Transport transport = Transport.APACHE;
+
+  /**
+   * Maximum number of pooled connections per route, i.e. to the ADT instance.
+   */
+  private int maxConnectionsPerRoute = 50;
+
+  /**
+   * Maximum number of pooled connections in total.
+   */
+  private int maxConnectionsTotal = 100;
+
+  /**
+   * Timeout for establishing a connection.
+   */
+  private Duration connectTimeout = Duration.ofSeconds(10);
+
+  /**
+   * Timeout for waiting on a response.
+   */
+  private Duration readTimeout = Duration.ofSeconds(60);
+
+  /**
+   * Maximum time to wait for a pooled connection if all are leased.
+   */
+  private Duration connectionRequestTimeout = Duration.ofSeconds(10);
+
+  /**
+   * Time a connection is kept open for reuse if the server does not send a keep-alive timeout.
+   * Longer timeouts sent by the server are capped to it.
+   */
+  private Duration keepAlive = Duration.ofMinutes(1);
+
+  /**
+   * Time after which idle pooled connections are closed in the background.
+   */
+  private Duration idleEviction = Duration.ofSeconds(30);
+
+  /**
+   * Time of inactivity after which a pooled connection is checked before it is reused.
+   */
+  private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+  /**
+   * Number of TLS sessions cached for abbreviated handshakes of new connections.
+   */
+  private int tlsSessionCacheSize = 100;
+
+  /**
+   * Time TLS sessions are cached for abbreviated handshakes.
+   */
+  private Duration tlsSessionTimeout = Duration.ofHours(1);
+
+  public enum Transport {
+    /**
+     * Apache HttpClient with a connection pool, HTTP/1.1.
+     */
+    APACHE,
+
+    /**
+     * JDK {@link java.net.http.HttpClient} preferring HTTP/2, i.e. requests are multiplexed on a
+     * connection.
+     */
+    HTTP2;
+  }
+}
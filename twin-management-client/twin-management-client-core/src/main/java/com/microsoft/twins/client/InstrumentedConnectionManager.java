@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * {@link PoolingHttpClientConnectionManager} that reports the time requests wait for a pooled
+ * connection to a {@link LeaseListener}, e.g. to export it as metric next to the pool statistics.
+ */
+public class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+  private volatile LeaseListener leaseListener;
+
+  public InstrumentedConnectionManager(
+      final Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+    super(socketFactoryRegistry);
+  }
+
+  public void setLeaseListener(final LeaseListener leaseListener) {
+    this.leaseListener = leaseListener;
+  }
+
+  @Override
+  public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+    final ConnectionRequest request = super.requestConnection(route, state);
+    final LeaseListener listener = leaseListener;
+    if (listener == null) {
+      return request;
+    }
+
+    return new ConnectionRequest() {
+      @Override
+      public HttpClientConnection get(final long timeout, final TimeUnit unit)
+          throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+        final long start = System.nanoTime();
+        boolean leased = false;
+        try {
+          final HttpClientConnection connection = request.get(timeout, unit);
+          leased = true;
+          return connection;
+        } finally {
+          listener.onLease(System.nanoTime() - start, leased);
+        }
+      }
+
+      @Override
+      public boolean cancel() {
+        return request.cancel();
+      }
+    };
+  }
+
+  @FunctionalInterface
+  public interface LeaseListener {
+    /**
+     * @param waitNanos time waited for the connection
+     * @param leased <code>false</code> if no connection was leased, e.g. as the connection request
+     *        timeout elapsed
+     */
+    void onLease(long waitNanos, boolean leased);
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import java.io.IOException;
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+
+/**
+ * {@link Client} that reports the status and response time of every single ADT request to a
+ * {@link ResponseListener}, i.e. including the attempts the Feign retryer retries, e.g. on 429,
+ * before they are decoded into exceptions.
+ */
+public class ObservedClient implements Client {
+  private final Client delegate;
+
+  private volatile ResponseListener responseListener;
+
+  public ObservedClient(final Client delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setResponseListener(final ResponseListener responseListener) {
+    this.responseListener = responseListener;
+  }
+
+  /**
+   * @return listener reported to, <code>null</code> if not set
+   */
+  public ResponseListener getResponseListener() {
+    return responseListener;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    final ResponseListener listener = responseListener;
+    if (listener == null) {
+      return delegate.execute(request, options);
+    }
+
+    final long start = System.nanoTime();
+    int status = ResponseListener.NO_RESPONSE;
+    try {
+      final Response response = delegate.execute(request, options);
+      status = response.status();
+      return response;
+    } finally {
+      listener.onResponse(status, System.nanoTime() - start);
+    }
+  }
+
+  @FunctionalInterface
+  public interface ResponseListener {
+    /**
+     * Status reported if the request failed without a response, e.g. on a timeout.
+     */
+    int NO_RESPONSE = -1;
+
+    /**
+     * @param status of the response or {@link #NO_RESPONSE}
+     * @param latencyNanos time until the response headers were received
+     */
+    void onResponse(int status, long latencyNanos);
+  }
+}
@@ -30,9 +30,9 @@ import com.microsoft.twins.error.RetryOnStatusHandler;
 import feign.Client;
 import feign.Feign;
 import feign.Logger;
+import feign.Request;
 import feign.RequestTemplate;
 import feign.Retryer;
-import feign.httpclient.ApacheHttpClient;
 import feign.jackson.JacksonDecoder;
 import feign.jackson.JacksonEncoder;
 import feign.slf4j.Slf4jLogger;
@@ -42,10 +42,26 @@ public class TwinsApiClient {
   private final String twinsUrl;
   private Feign.Builder feignBuilder;
   private AadRequestInterceptor aadRequestInterceptor;
+  private final ObservedClient observedClient;
 
   public TwinsApiClient(final String authorityHost, final String tenant, final String clientId,
       final String clientSecret, final Duration timeout, final String twinsUrl) {
-    this(twinsUrl);
+    this(authorityHost, tenant, clientId, clientSecret, timeout, twinsUrl,
+        new HttpTransportSettings());
+  }
+
+  public TwinsApiClient(final String authorityHost, final String tenant, final String clientId,
+      final String clientSecret, final Duration timeout, final String twinsUrl,
+      final HttpTransportSettings httpSettings) {
+    this(authorityHost, tenant, clientId, clientSecret, timeout, twinsUrl,
+        TwinsHttpClients.client(httpSettings), TwinsHttpClients.options(httpSettings));
+  }
+
+  public TwinsApiClient(final String authorityHost, final String tenant, final String clientId,
+      final String clientSecret, final Duration timeout, final String twinsUrl,
+      final Client client, final Request.Options options) {
+    this(twinsUrl, client, new Retryer.Default());
+    feignBuilder.options(options);
 
     aadRequestInterceptor = new AadRequestInterceptor(authorityHost, tenant,
         "0b07f429-9f4b-4714-9392-cc5e8e80c8b0", clientId, clientSecret, timeout);
@@ -57,14 +73,15 @@ public class TwinsApiClient {
   public TwinsApiClient(final String twinsUrl, final Client client, final Retryer retryer) {
     this.twinsUrl = twinsUrl;
     objectMapper = createObjectMapper();
-    feignBuilder =
-        Feign.builder().encoder(new JacksonEncoderWithContentType(objectMapper)).client(client)
-            .retryer(retryer).errorDecoder(new RetryOnStatusHandler()).logLevel(Logger.Level.FULL)
-            .decoder(new JacksonDecoder(objectMapper)).logger(new Slf4jLogger());
+    observedClient = new ObservedClient(client);
+    feignBuilder = Feign.builder().encoder(new JacksonEncoderWithContentType(objectMapper))
+        .client(observedClient).retryer(retryer).errorDecoder(new RetryOnStatusHandler())
+        .logLevel(Logger.Level.FULL).decoder(new JacksonDecoder(objectMapper))
+        .logger(new Slf4jLogger());
   }
 
   public TwinsApiClient(final String twinsUrl) {
-    this(twinsUrl, new ApacheHttpClient(), new Retryer.Default());
+    this(twinsUrl, TwinsHttpClients.client(new HttpTransportSettings()), new Retryer.Default());
   }
 
   public Optional<String> getAccessTokenWithoutCache() {
@@ -75,10 +92,43 @@ public class TwinsApiClient {
     return aadRequestInterceptor.getAccessTokenWithoutCache();
   }
 
+  /**
+   * @return bearer token for ADT requests that are not sent through the Feign clients, e.g. by a
+   *         non-blocking HTTP client. Takes from cache if not expired.
+   */
+  public Optional<String> getAccessToken() {
+    if (aadRequestInterceptor == null) {
+      return Optional.empty();
+    }
+
+    return aadRequestInterceptor.getAccessToken();
+  }
+
+  public String getTwinsUrl() {
+    return twinsUrl;
+  }
+
   public Feign.Builder getFeignBuilder() {
     return feignBuilder;
   }
 
+  /**
+   * Reports every ADT request sent by the Feign clients, see {@link ObservedClient}.
+   *
+   * @param responseListener to report to, <code>null</code> to stop reporting
+   */
+  public void setResponseListener(final ObservedClient.ResponseListener responseListener) {
+    observedClient.setResponseListener(responseListener);
+  }
+
+  /**
+   * @return listener ADT requests are reported to, e.g. for requests that are not sent through the
+   *         Feign clients, <code>null</code> if not set
+   */
+  public ObservedClient.ResponseListener getResponseListener() {
+    return observedClient.getResponseListener();
+  }
+
   public TwinsApiClient setFeignBuilder(final Feign.Builder feignBuilder) {
     this.feignBuilder = feignBuilder;
     return this;
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import java.net.http.HttpClient;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import feign.Client;
+import feign.Request;
+import feign.httpclient.ApacheHttpClient;
+
+/**
+ * Creates the HTTP transport of the {@link TwinsApiClient} from {@link HttpTransportSettings}.
+ *
+ * <p>
+ * All ADT requests go to a single host, i.e. the connection pool of the Apache client is sized per
+ * route and connections are kept alive, validated after inactivity and evicted when idle. Both
+ * clients use an own {@link SSLContext} whose client session cache lets new connections resume
+ * TLS sessions instead of full handshakes.
+ * </p>
+ *
+ */
+public final class TwinsHttpClients {
+
+  private TwinsHttpClients() {}
+
+  /**
+   * @return Feign client of the configured transport, with its own connection pool in case of
+   *         {@link HttpTransportSettings.Transport#APACHE}
+   */
+  public static Client client(final HttpTransportSettings settings) {
+    if (HttpTransportSettings.Transport.HTTP2 == settings.getTransport()) {
+      return new Http2Client(http2Client(settings));
+    }
+
+    return new ApacheHttpClient(apacheHttpClient(settings, connectionManager(settings)));
+  }
+
+  /**
+   * @return request options with the connect and read timeouts
+   */
+  public static Request.Options options(final HttpTransportSettings settings) {
+    return new Request.Options((int) settings.getConnectTimeout().toMillis(),
+        (int) settings.getReadTimeout().toMillis());
+  }
+
+  public static InstrumentedConnectionManager connectionManager(
+      final HttpTransportSettings settings) {
+    final InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager(
+        RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https",
+                new SSLConnectionSocketFactory(sslContext(settings),
+                    SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+            .build());
+
+    connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+    connectionManager.setMaxTotal(settings.getMaxConnectionsTotal());
+    connectionManager
+        .setValidateAfterInactivity((int) settings.getValidateAfterInactivity().toMillis());
+
+    return connectionManager;
+  }
+
+  /**
+   * @param connectionManager owned by the client, i.e. shut down when the client is closed
+   */
+  public static CloseableHttpClient apacheHttpClient(final HttpTransportSettings settings,
+      final InstrumentedConnectionManager connectionManager) {
+    final long keepAlive = settings.getKeepAlive().toMillis();
+
+    return HttpClientBuilder.create().setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout((int) settings.getConnectTimeout().toMillis())
+            .setSocketTimeout((int) settings.getReadTimeout().toMillis())
+            .setConnectionRequestTimeout((int) settings.getConnectionRequestTimeout().toMillis())
+            .build())
+        .setKeepAliveStrategy((response, context) -> {
+          final long server =
+              DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+          return server > 0 ? Math.min(server, keepAlive) : keepAlive;
+        })
+        // Connections are not bound to a user, i.e. reusable by all requests
+        .disableConnectionState()
+        .evictExpiredConnections()
+        .evictIdleConnections(settings.getIdleEviction().toMillis(), TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * @return JDK client preferring HTTP/2, falls back to HTTP/1.1 if not supported by the server
+   */
+  public static HttpClient http2Client(final HttpTransportSettings settings) {
+    return HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+        .connectTimeout(settings.getConnectTimeout()).followRedirects(HttpClient.Redirect.NORMAL)
+        .sslContext(sslContext(settings)).build();
+  }
+
+  static SSLContext sslContext(final HttpTransportSettings settings) {
+    try {
+      final SSLContext sslContext = SSLContext.getInstance("TLS");
+      sslContext.init(null, null, null);
+      sslContext.getClientSessionContext().setSessionCacheSize(settings.getTlsSessionCacheSize());
+      sslContext.getClientSessionContext()
+          .setSessionTimeout((int) settings.getTlsSessionTimeout().getSeconds());
+      return sslContext;
+    } catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("Failed to create TLS context", e);
+    }
+  }
+}
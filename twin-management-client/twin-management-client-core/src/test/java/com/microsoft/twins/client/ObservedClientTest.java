@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import feign.Client;
+import feign.Request;
+import feign.Request.HttpMethod;
+import feign.Response;
+
+public class ObservedClientTest {
+  private final Client delegate = mock(Client.class);
+  private final ObservedClient client = new ObservedClient(delegate);
+  private final Request request =
+      Request.create(HttpMethod.GET, "http://localhost/devices", Map.of(), null,
+          StandardCharsets.UTF_8);
+
+  @Test
+  public void everyResponseIsReported() throws IOException {
+    final List<Integer> statuses = new ArrayList<>();
+    client.setResponseListener((status, latencyNanos) -> {
+      assertThat(latencyNanos).isNotNegative();
+      statuses.add(status);
+    });
+    when(delegate.execute(any(), any())).thenReturn(response(429), response(200));
+
+    client.execute(request, new Request.Options());
+    client.execute(request, new Request.Options());
+
+    assertThat(statuses).containsExactly(429, 200);
+  }
+
+  @Test
+  public void failedRequestIsReportedWithoutStatus() throws IOException {
+    final List<Integer> statuses = new ArrayList<>();
+    client.setResponseListener((status, latencyNanos) -> statuses.add(status));
+    when(delegate.execute(any(), any())).thenThrow(new IOException("timeout"));
+
+    assertThatExceptionOfType(IOException.class)
+        .isThrownBy(() -> client.execute(request, new Request.Options()));
+
+    assertThat(statuses).containsExactly(ObservedClient.ResponseListener.NO_RESPONSE);
+  }
+
+  private Response response(final int status) {
+    return Response.builder().status(status).headers(Map.of()).request(request).build();
+  }
+}
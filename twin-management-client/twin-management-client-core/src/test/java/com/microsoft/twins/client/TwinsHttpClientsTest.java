@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.sun.net.httpserver.HttpServer;
+import feign.Client;
+import feign.Request;
+import feign.Request.HttpMethod;
+import feign.Response;
+import feign.Util;
+import feign.httpclient.ApacheHttpClient;
+
+public class TwinsHttpClientsTest {
+  private final HttpTransportSettings settings = new HttpTransportSettings();
+
+  private HttpServer server;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      final byte[] body = (exchange.getRequestMethod() + " "
+          + new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8))
+              .getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("X-Echo",
+          exchange.getRequestHeaders().getFirst("X-Request"));
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void shutdown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void pooledConnectionsAreReusedAndLeasesReported() throws IOException {
+    settings.setMaxConnectionsPerRoute(2);
+    final InstrumentedConnectionManager connectionManager =
+        TwinsHttpClients.connectionManager(settings);
+    final AtomicInteger leases = new AtomicInteger();
+    connectionManager.setLeaseListener((waitNanos, leased) -> {
+      if (leased) {
+        leases.incrementAndGet();
+      }
+    });
+
+    try (CloseableHttpClient httpClient =
+        TwinsHttpClients.apacheHttpClient(settings, connectionManager)) {
+      final Client client = new ApacheHttpClient(httpClient);
+
+      for (int i = 0; i < 3; i++) {
+        assertThat(execute(client)).isEqualTo("POST hello");
+      }
+
+      assertThat(leases.get()).isEqualTo(3);
+      assertThat(connectionManager.getDefaultMaxPerRoute()).isEqualTo(2);
+      assertThat(connectionManager.getTotalStats().getLeased()).isZero();
+      assertThat(connectionManager.getTotalStats().getAvailable()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void http2ClientSendsHeadersAndBody() throws IOException {
+    settings.setTransport(HttpTransportSettings.Transport.HTTP2);
+
+    assertThat(execute(TwinsHttpClients.client(settings))).isEqualTo("POST hello");
+  }
+
+  private String execute(final Client client) throws IOException {
+    final Map<String, Collection<String>> headers =
+        Map.of("X-Request", List.of("value"), "Content-Length", List.of("5"));
+    final Request request = Request.create(HttpMethod.POST,
+        "http://localhost:" + server.getAddress().getPort() + "/devices", headers,
+        "hello".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+
+    try (Response response = client.execute(request, TwinsHttpClients.options(settings))) {
+      assertThat(response.status()).isEqualTo(200);
+      assertThat(response.headers().entrySet()).anySatisfy(header -> {
+        assertThat(header.getKey()).isEqualToIgnoringCase("X-Echo");
+        assertThat(header.getValue()).containsExactly("value");
+      });
+      return Util.toString(response.body().asReader());
+    }
+  }
+}
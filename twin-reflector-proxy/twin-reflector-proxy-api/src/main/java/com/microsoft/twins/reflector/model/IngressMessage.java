@@ -5,6 +5,7 @@ package com.microsoft.twins.reflector.model;
 
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
@@ -62,4 +63,11 @@ public class IngressMessage {
   @JsonProperty(value = "telemetry")
   private Object telemetry;
 
+  /**
+   * Correlation ID of a message in a batch, takes precedence over the correlation ID header of the
+   * batch record.
+   */
+  @JsonProperty(value = "correlation-id")
+  private UUID correlationId;
+
 }
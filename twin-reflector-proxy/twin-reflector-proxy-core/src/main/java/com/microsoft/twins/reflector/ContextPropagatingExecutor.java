@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import org.slf4j.MDC;
+import com.microsoft.twins.client.CorrelationIdContext;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executor for blocking ADT and IoT Hub calls that are offloaded from the calling thread. The
+ * {@link MDC} and the {@link CorrelationIdContext} of the submitting thread are propagated to the
+ * task so that logs and ADT requests keep the correlation ID of the ingress message. Fan-outs of
+ * {@link #forEach(Collection, Consumer)} are bounded by the configured parallelism.
+ *
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class ContextPropagatingExecutor implements Executor {
+  private final ExecutorService delegate;
+  private final int parallelism;
+  private final Duration shutdownTimeout;
+
+  @Override
+  public void execute(final Runnable task) {
+    final Map<String, String> mdc = MDC.getCopyOfContextMap();
+    final UUID correlationId = CorrelationIdContext.getCorrelationId();
+
+    delegate.execute(() -> {
+      final Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+      final UUID previousCorrelationId = CorrelationIdContext.getCorrelationId();
+
+      setContext(mdc, correlationId);
+      try {
+        task.run();
+      } finally {
+        setContext(previousMdc, previousCorrelationId);
+      }
+    });
+  }
+
+  /**
+   * @param task to run
+   * @return future of the task result
+   */
+  public <T> CompletableFuture<T> supply(final Supplier<T> task) {
+    return CompletableFuture.supplyAsync(task, this);
+  }
+
+  /**
+   * Applies the action to all items concurrently and waits for completion.
+   *
+   * @param items to process
+   * @param action to apply
+   * @throws RuntimeException first failure of the action
+   */
+  public <T> void forEach(final Collection<T> items, final Consumer<T> action) {
+    forEach(items, action, UnaryOperator.identity());
+  }
+
+  /**
+   * Applies the action to all items with at most the configured parallelism and waits for
+   * completion. The calling thread processes items as well, i.e. all items are processed even if
+   * no helper gets to run.
+   *
+   * @param items to process
+   * @param action to apply
+   * @param helper decorates the workers running on the executor, e.g. in order to skip them if no
+   *        permit of a limiter is available
+   * @throws RuntimeException first failure of the action
+   */
+  public <T> void forEach(final Collection<T> items, final Consumer<T> action,
+      final UnaryOperator<Runnable> helper) {
+    if (items.size() < 2 || parallelism < 2) {
+      items.forEach(action);
+      return;
+    }
+
+    final List<T> remaining = new ArrayList<>(items);
+    final AtomicInteger next = new AtomicInteger();
+    final Runnable worker = () -> {
+      for (int i = next.getAndIncrement(); i < remaining.size(); i = next.getAndIncrement()) {
+        try {
+          action.accept(remaining.get(i));
+        } catch (final RuntimeException e) {
+          // Fail fast, i.e. skip the items not taken yet
+          next.set(remaining.size());
+          throw e;
+        }
+      }
+    };
+
+    final List<CompletableFuture<Void>> helpers = new ArrayList<>();
+    try {
+      for (int i = 1; i < Math.min(parallelism, remaining.size()); i++) {
+        helpers.add(CompletableFuture.runAsync(helper.apply(worker), this));
+      }
+    } catch (final RejectedExecutionException e) {
+      log.debug("Executor shut down, processing remaining items on calling thread");
+    }
+
+    RuntimeException failure = null;
+    try {
+      worker.run();
+    } catch (final RuntimeException e) {
+      failure = e;
+    }
+
+    for (final CompletableFuture<Void> running : helpers) {
+      try {
+        running.join();
+      } catch (final CompletionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public void shutdown() {
+    delegate.shutdown();
+    try {
+      if (!delegate.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        log.warn("Executor did not terminate in time, [{}] tasks dropped",
+            delegate.shutdownNow().size());
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void setContext(final Map<String, String> mdc, final UUID correlationId) {
+    if (mdc == null) {
+      MDC.clear();
+    } else {
+      MDC.setContextMap(mdc);
+    }
+
+    if (correlationId == null) {
+      CorrelationIdContext.clear();
+    } else {
+      CorrelationIdContext.setCorrelationId(correlationId);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health.Builder;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import com.microsoft.twins.reflector.proxy.v1.TopologyWarmup;
+import lombok.RequiredArgsConstructor;
+
+
+/**
+ * Spring {@link HealthIndicator} for the readiness of the topology caches, i.e. out of service
+ * until {@link TopologyWarmup} has completed.
+ *
+ */
+@RequiredArgsConstructor
+public class TopologyWarmupHealthIndicator extends AbstractHealthIndicator {
+
+  private final TopologyWarmup topologyWarmup;
+
+  @Override
+  protected void doHealthCheck(final Builder builder) throws Exception {
+    builder.withDetail("state", topologyWarmup.getState());
+
+    switch (topologyWarmup.getState()) {
+      case COMPLETED:
+        builder.up().withDetail("spaces", topologyWarmup.getSpaces())
+            .withDetail("devices", topologyWarmup.getDevices())
+            .withDetail("sensors", topologyWarmup.getSensors())
+            .withDetail("duration", topologyWarmup.getDuration().toString());
+        break;
+      case FAILED:
+        // Caches are populated on demand, i.e. the proxy is still operational
+        builder.unknown().withException(topologyWarmup.getFailure());
+        break;
+      default:
+        builder.outOfService();
+        break;
+    }
+  }
+
+}
@@ -3,15 +3,28 @@
  */
 package com.microsoft.twins.reflector;
 
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
 import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.binding.InputBindingLifecycle;
+import org.springframework.cloud.stream.endpoint.BindingsEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
 import com.microsoft.twins.api.DevicesApi;
 import com.microsoft.twins.api.EndpointsApi;
 import com.microsoft.twins.api.PropertyKeysApi;
@@ -19,25 +32,65 @@ import com.microsoft.twins.api.SensorsApi;
 import com.microsoft.twins.api.SpacesApi;
 import com.microsoft.twins.api.TypesApi;
 import com.microsoft.twins.client.TwinsApiClient;
+import com.microsoft.twins.client.TwinsHttpClients;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.ConcurrencyLimit;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.ExecutionMode;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.GraphIndex;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.Maintenance;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.RefreshAhead;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.Snapshot;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.TopologyCache;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.Warmup;
+import com.microsoft.twins.reflector.cache.CacheRefresher;
+import com.microsoft.twins.reflector.cache.ReflectorCacheManager;
+import com.microsoft.twins.reflector.ingress.AdaptiveConcurrencyLimiter;
+import com.microsoft.twins.reflector.ingress.BatchIngressMessageListener;
+import com.microsoft.twins.reflector.ingress.IngressBindingController;
+import com.microsoft.twins.reflector.ingress.IngressDigestCache;
 import com.microsoft.twins.reflector.ingress.IngressMessageListener;
+import com.microsoft.twins.reflector.ingress.KeyOrderedDispatcher;
+import com.microsoft.twins.reflector.ingress.PartialUpdateCoalescer;
+import com.microsoft.twins.reflector.ingress.ReactiveIngressMessageListener;
+import com.microsoft.twins.reflector.ingress.RawTelemetryModule;
 import com.microsoft.twins.reflector.ingress.ReflectorIngressSink;
 import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
 import com.microsoft.twins.reflector.proxy.DigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.ReactiveDigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
 import com.microsoft.twins.reflector.proxy.TenantResolver;
 import com.microsoft.twins.reflector.proxy.v1.Cachedv1DigitalTwinMetadataProxy;
 import com.microsoft.twins.reflector.proxy.v1.Cachedv1DigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.v1.CompactTopologyCodec;
+import com.microsoft.twins.reflector.proxy.v1.MetadataLookupIndex;
 import com.microsoft.twins.reflector.proxy.v1.PropertBackedV1TenantResolver;
+import com.microsoft.twins.reflector.proxy.v1.Reactivev1DigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.v1.TopologyCacheMaintainer;
 import com.microsoft.twins.reflector.proxy.v1.TopologyCacheManager;
+import com.microsoft.twins.reflector.proxy.v1.TopologyGraphIndex;
 import com.microsoft.twins.reflector.proxy.v1.TopologyOperationSink;
+import com.microsoft.twins.reflector.proxy.v1.TopologySnapshot;
+import com.microsoft.twins.reflector.proxy.v1.TopologyWarmup;
 import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
 import com.microsoft.twins.reflector.topology.TopologyUpdater;
+import com.microsoft.twins.spring.configuration.DigitalTwinsClientProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import lombok.extern.slf4j.Slf4j;
 
 @Configuration
+@AutoConfigureBefore(CacheAutoConfiguration.class)
 @EnableBinding({ReflectorIngressSink.class, TopologyOperationSink.class})
 @EnableCaching
 @EnableConfigurationProperties(TwinReflectorProxyProperties.class)
 @PropertySource("classpath:/twins-reflector-proxy-defaults.properties")
+@Slf4j
 public class TwinReflectorProxyAutoConfiguration {
+  /**
+   * Deprecated, mapped onto the topology cache defaults as far as supported.
+   */
+  private static final String CAFFEINE_SPEC = "spring.cache.caffeine.spec";
 
   @Bean
   @ConditionalOnMissingBean
@@ -64,9 +117,70 @@ public class TwinReflectorProxyAutoConfiguration {
   @ConditionalOnMissingBean
   DigitalTwinTopologyProxy cachedDigitalTwinProxy(
       final DigitalTwinMetadataProxy cachedDigitalTwinMetadataProxy, final SpacesApi spacesApi,
-      final SensorsApi sensorsApi, final DevicesApi devicesApi, final CacheManager cacheManager) {
-    return new Cachedv1DigitalTwinTopologyProxy(cachedDigitalTwinMetadataProxy, spacesApi,
-        sensorsApi, devicesApi, cacheManager);
+      final SensorsApi sensorsApi, final DevicesApi devicesApi, final CacheManager cacheManager,
+      final Optional<CacheRefresher> cacheRefresher) {
+    final Cachedv1DigitalTwinTopologyProxy proxy = new Cachedv1DigitalTwinTopologyProxy(
+        cachedDigitalTwinMetadataProxy, spacesApi, sensorsApi, devicesApi, cacheManager);
+    cacheRefresher.ifPresent(proxy::registerReloaders);
+    return proxy;
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  CacheManager cacheManager(final TwinReflectorProxyProperties properties,
+      final Optional<CacheRefresher> cacheRefresher, final Optional<MeterRegistry> meterRegistry,
+      final Environment environment) {
+    final TopologyCache topologyCache = properties.getTopologyCache();
+    final String caffeineSpec = environment.getProperty(CAFFEINE_SPEC);
+    if (caffeineSpec != null) {
+      log.warn("{} is deprecated, configure com.microsoft.twins.reflector.topology-cache.defaults"
+          + " and com.microsoft.twins.reflector.topology-cache.caches.<name> instead."
+          + " Its maximumSize and expireAfterWrite are applied to the defaults", CAFFEINE_SPEC);
+      ReflectorCacheManager.applyCaffeineSpec(caffeineSpec, topologyCache.getDefaults());
+    }
+
+    final Map<String, CacheSpec> specs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // Own write markers are needed until the events of the write arrived only
+    specs.put(Cachedv1DigitalTwinTopologyProxy.CACHE_OWN_WRITE,
+        new CacheSpec(null, null, Cachedv1DigitalTwinTopologyProxy.OWN_WRITE_EXPIRY, null));
+    specs.putAll(topologyCache.getCaches());
+
+    final ReflectorCacheManager cacheManager = new ReflectorCacheManager(
+        topologyCache.getDefaults(), specs, cacheRefresher.orElse(null),
+        meterRegistry.orElse(null));
+
+    if (topologyCache.isCompact()) {
+      final CompactTopologyCodec codec = new CompactTopologyCodec();
+      CompactTopologyCodec.CACHES.forEach(name -> cacheManager.registerCodec(name, codec));
+    } else {
+      // Devices and spaces can be serialized in compact form only
+      for (final String name : topologyCache.getOffHeap().keySet()) {
+        if (CompactTopologyCodec.CACHES.stream().anyMatch(name::equalsIgnoreCase)) {
+          throw new IllegalStateException("Off-heap cache " + name
+              + " requires com.microsoft.twins.reflector.topology-cache.compact=true");
+        }
+      }
+    }
+    topologyCache.getOffHeap().forEach(cacheManager::registerOffHeap);
+    return cacheManager;
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.topology-cache.refresh-ahead",
+      name = "enabled", havingValue = "true")
+  CacheRefresher cacheRefresher(final TwinReflectorProxyProperties properties,
+      final Optional<MeterRegistry> meterRegistry) {
+    final RefreshAhead refreshAhead = properties.getTopologyCache().getRefreshAhead();
+
+    return new CacheRefresher(Cachedv1DigitalTwinTopologyProxy.REFRESHABLE_CACHES,
+        refreshAhead.getThreads(), refreshAhead.getMaxRate(), meterRegistry.orElse(null));
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  SingleFlight singleFlight(final Optional<MeterRegistry> meterRegistry) {
+    return new SingleFlight(meterRegistry.orElse(null));
   }
 
   @Bean
@@ -76,13 +190,211 @@ public class TwinReflectorProxyAutoConfiguration {
     return new TopologyCacheManager(endpointsApi, properties, cacheManager);
   }
 
+  @Bean(initMethod = "preload")
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.metadata-index", name = "enabled",
+      havingValue = "true")
+  MetadataLookupIndex metadataLookupIndex(final TenantResolver tenantResolver,
+      final PropertyKeysApi propertyKeysApi, final TypesApi typesApi,
+      final Optional<SingleFlight> singleFlight) {
+    return new MetadataLookupIndex(tenantResolver, propertyKeysApi, typesApi,
+        singleFlight.orElse(null));
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.topology-cache.maintenance",
+      name = "enabled", havingValue = "true")
+  TopologyCacheMaintainer topologyCacheMaintainer(final DevicesApi devicesApi,
+      final SpacesApi spacesApi, final SensorsApi sensorsApi, final CacheManager cacheManager,
+      final Optional<TopologyGraphIndex> graphIndex,
+      final TwinReflectorProxyProperties properties) {
+    final Maintenance maintenance = properties.getTopologyCache().getMaintenance();
+
+    return new TopologyCacheMaintainer(devicesApi, spacesApi, sensorsApi, cacheManager,
+        graphIndex.orElse(null), maintenance.getWindow());
+  }
+
   @Bean
   @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.topology-cache.graph-index",
+      name = "enabled", havingValue = "true")
+  TopologyGraphIndex topologyGraphIndex(final SpacesApi spacesApi, final DevicesApi devicesApi,
+      final CacheManager cacheManager, final TwinReflectorProxyProperties properties) {
+    final GraphIndex graphIndex = properties.getTopologyCache().getGraphIndex();
+
+    return new TopologyGraphIndex(spacesApi, devicesApi, cacheManager,
+        graphIndex.getRebuildInterval(), graphIndex.getMaxStale());
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnExpression("!${com.microsoft.twins.reflector.ingress.batch-mode:false}"
+      + " && !${com.microsoft.twins.reflector.ingress.reactive-enabled:false}")
   IngressMessageListener ingressMessageListener(final TopologyUpdater topologyUpdater,
       final TelemetryForwarder telemetryForwarder, final TwinReflectorProxyProperties properties) {
     return new IngressMessageListener(topologyUpdater, telemetryForwarder, properties);
   }
 
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress", name = "batch-mode",
+      havingValue = "true")
+  BatchIngressMessageListener batchIngressMessageListener(final TopologyUpdater topologyUpdater,
+      final TelemetryForwarder telemetryForwarder, final TwinReflectorProxyProperties properties) {
+    return new BatchIngressMessageListener(topologyUpdater, telemetryForwarder, properties);
+  }
+
+  @Bean(destroyMethod = "dispose")
+  @ConditionalOnMissingBean(name = "reactiveBlockingScheduler")
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress",
+      name = "reactive-enabled", havingValue = "true")
+  Scheduler reactiveBlockingScheduler(final TwinReflectorProxyProperties properties) {
+    return Schedulers.fromExecutorService(Executors.newFixedThreadPool(
+        properties.getIngress().getReactiveBlockingThreads(),
+        VirtualThreads.platformThreadFactory("reactive-blocking-")));
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress",
+      name = "reactive-enabled", havingValue = "true")
+  ReactiveDigitalTwinTopologyProxy reactiveDigitalTwinTopologyProxy(
+      final DigitalTwinMetadataProxy cachedDigitalTwinMetadataProxy,
+      final TwinsApiClient twinsApiClient, final CacheManager cacheManager,
+      final TwinReflectorProxyProperties properties,
+      final DigitalTwinsClientProperties clientProperties,
+      final Scheduler reactiveBlockingScheduler, final Optional<SingleFlight> singleFlight) {
+    return new Reactivev1DigitalTwinTopologyProxy(cachedDigitalTwinMetadataProxy, twinsApiClient,
+        TwinsHttpClients.http2Client(clientProperties.getHttp()), cacheManager,
+        properties.getIngress().getReactiveRequestTimeout(), reactiveBlockingScheduler,
+        singleFlight.orElse(null));
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress",
+      name = "reactive-enabled", havingValue = "true")
+  ReactiveIngressMessageListener reactiveIngressMessageListener(
+      final TopologyUpdater topologyUpdater, final TelemetryForwarder telemetryForwarder,
+      final TwinReflectorProxyProperties properties,
+      final ReactiveDigitalTwinTopologyProxy reactiveDigitalTwinTopologyProxy,
+      final Scheduler reactiveBlockingScheduler) {
+    return new ReactiveIngressMessageListener(topologyUpdater, telemetryForwarder, properties,
+        reactiveDigitalTwinTopologyProxy, reactiveBlockingScheduler);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress", name = "lanes")
+  KeyOrderedDispatcher keyOrderedDispatcher(final TwinReflectorProxyProperties properties) {
+    return new KeyOrderedDispatcher(properties.getIngress().getLanes(),
+        properties.getIngress().getLaneQueueCapacity(),
+        properties.getIngress().getLaneShutdownTimeout(),
+        properties.getExecutionMode() == ExecutionMode.VIRTUAL);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector", name = "execution-mode",
+      havingValue = "virtual")
+  ContextPropagatingExecutor reflectorTaskExecutor(final TwinReflectorProxyProperties properties) {
+    return new ContextPropagatingExecutor(
+        VirtualThreads.newThreadPerTaskExecutor("reflector-", properties.getTaskParallelism()),
+        properties.getTaskParallelism(), properties.getIngress().getLaneShutdownTimeout());
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress",
+      name = "coalescing-enabled", havingValue = "true")
+  PartialUpdateCoalescer partialUpdateCoalescer(final TopologyUpdater topologyUpdater,
+      final TelemetryForwarder telemetryForwarder, final TwinReflectorProxyProperties properties) {
+    return new PartialUpdateCoalescer(topologyUpdater, telemetryForwarder,
+        properties.getIngress().getCoalescingMaxMessages());
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress",
+      name = "digest-cache-enabled", havingValue = "true")
+  IngressDigestCache ingressDigestCache(final CacheManager cacheManager,
+      final Optional<MeterRegistry> meterRegistry) {
+    return new IngressDigestCache(cacheManager, meterRegistry.orElse(null));
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress",
+      name = "raw-telemetry-enabled", havingValue = "true")
+  RawTelemetryModule rawTelemetryModule() {
+    return new RawTelemetryModule();
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress", name = "lanes")
+  IngressBindingController ingressBindingController(
+      final List<InputBindingLifecycle> inputBindingLifecycles) {
+    return new IngressBindingController(new BindingsEndpoint(inputBindingLifecycles, List.of()));
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.ingress.concurrency-limit",
+      name = "enabled", havingValue = "true")
+  AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter(
+      final TwinReflectorProxyProperties properties, final TwinsApiClient twinsApiClient,
+      final Optional<IngressBindingController> bindingController) {
+    final ConcurrencyLimit limit = properties.getIngress().getConcurrencyLimit();
+
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+        limit.getInitialLimit(), limit.getMinLimit(), limit.getMaxLimit(),
+        limit.getBackoffRatio(), limit.getLatencyThreshold(), bindingController.orElse(null));
+
+    // Fed per ADT request, i.e. before 429 responses are retried by the ADT client
+    twinsApiClient.setResponseListener(limiter);
+    return limiter;
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.topology-cache.warmup",
+      name = "enabled", havingValue = "true")
+  TopologyWarmup topologyWarmup(final TenantResolver tenantResolver, final SpacesApi spacesApi,
+      final DevicesApi devicesApi, final SensorsApi sensorsApi, final CacheManager cacheManager,
+      final TwinReflectorProxyProperties properties) {
+    final Warmup warmup = properties.getTopologyCache().getWarmup();
+
+    return new TopologyWarmup(tenantResolver, spacesApi, devicesApi, sensorsApi, cacheManager,
+        warmup.getParallelism(), warmup.getTimeout());
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.topology-cache.snapshot",
+      name = "enabled", havingValue = "true")
+  TopologySnapshot topologySnapshot(final CacheManager cacheManager, final DevicesApi devicesApi,
+      final SpacesApi spacesApi, final TwinReflectorProxyProperties properties) {
+    if (!(cacheManager instanceof ReflectorCacheManager)) {
+      throw new IllegalStateException("Topology cache snapshots require the ReflectorCacheManager");
+    }
+    final Snapshot snapshot = properties.getTopologyCache().getSnapshot();
+
+    return new TopologySnapshot((ReflectorCacheManager) cacheManager, devicesApi, spacesApi,
+        Paths.get(snapshot.getFile()), snapshot.getInterval(), snapshot.getMaxAge(),
+        snapshot.isVerify());
+  }
+
+  @Bean
+  @ConditionalOnEnabledHealthIndicator("topologyWarmup")
+  @ConditionalOnProperty(prefix = "com.microsoft.twins.reflector.topology-cache.warmup",
+      name = "enabled", havingValue = "true")
+  TopologyWarmupHealthIndicator topologyWarmupHealthIndicator(
+      final TopologyWarmup topologyWarmup) {
+    return new TopologyWarmupHealthIndicator(topologyWarmup);
+  }
+
   @Bean
   @ConditionalOnEnabledHealthIndicator("aad")
   AadHealthIndicator aadHealthIndicator(final TwinsApiClient twinsApiClient) {
@@ -3,13 +3,22 @@
  */
 package com.microsoft.twins.reflector;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @ConfigurationProperties("com.microsoft.twins.reflector")
@@ -27,10 +36,392 @@ public class TwinReflectorProxyProperties {
 
   private Feedback feedback = Feedback.DISABLED;
 
+  /**
+   * Threads blocking ADT and IoT Hub calls are executed on, i.e. ingress lanes, orphan
+   * reassignment and IoT Hub client creation.
+   */
+  private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+  /**
+   * Maximum number of concurrent tasks of a single fan-out in virtual execution mode, e.g. orphan
+   * reassignment or space lookups, and maximum number of platform threads if virtual threads are
+   * not supported by the runtime.
+   */
+  @Min(1)
+  private int taskParallelism = 16;
+
+  @Valid
+  private final Ingress ingress = new Ingress();
+
+  @Valid
+  private final TopologyCache topologyCache = new TopologyCache();
+
+  @Valid
+  private final MetadataIndex metadataIndex = new MetadataIndex();
+
   public enum Feedback {
     ENABLED, ERROR_ONLY, DISABLED;
   }
 
+  public enum ExecutionMode {
+    PLATFORM, VIRTUAL;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class Ingress {
+
+    /**
+     * Set to true to consume ingress records that contain a list of ingress messages. Messages of
+     * a batch are resolved together and feedback is sent as one list per batch.
+     */
+    private boolean batchMode = false;
+
+    /**
+     * Number of worker lanes the messages of a batch record are dispatched to by ID, see
+     * batch-mode. Messages with the same ID are processed in order, different IDs in parallel. The
+     * consumer waits for the lanes before the offset is committed, i.e. lanes only parallelize
+     * within a batch record. Single ingress messages and batches without lanes are processed on
+     * the consumer thread.
+     */
+    @Min(1)
+    private Integer lanes;
+
+    /**
+     * Maximum number of messages queued per lane before the consumer is blocked.
+     */
+    @Min(1)
+    private int laneQueueCapacity = 100;
+
+    /**
+     * Time to wait for queued messages to complete on shutdown.
+     */
+    private Duration laneShutdownTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Set to true to merge the partial updates of the same entity within a batch record into a
+     * single ADT write. Ingress records are applied before their offset is committed, i.e. partial
+     * updates are not merged across records and single ingress messages are applied one by one.
+     */
+    private boolean coalescingEnabled = false;
+
+    /**
+     * Maximum number of partial updates merged before they are applied early.
+     */
+    @Min(1)
+    private int coalescingMaxMessages = 50;
+
+    /**
+     * Set to true to skip complete updates that are identical to the last applied one of the
+     * entity.
+     */
+    private boolean digestCacheEnabled = false;
+
+    /**
+     * Set to true to keep ingress telemetry as raw JSON and forward it without conversion.
+     */
+    private boolean rawTelemetryEnabled = false;
+
+    /**
+     * Set to true to forward partial device updates that carry telemetry only to IoT Hub without
+     * topology reconciliation if the device is known. Pending coalesced updates of the device are
+     * applied first.
+     */
+    private boolean telemetryFastPathEnabled = false;
+
+    @Valid
+    private final ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+
+    /**
+     * Set to true to apply partial updates through the non-blocking ADT client. Replaces the
+     * default ingress listener, lanes and batch mode are not used then.
+     */
+    private boolean reactiveEnabled = false;
+
+    /**
+     * Maximum number of ingress messages processed concurrently by the reactive listener. Consumer
+     * threads wait for their message to be applied before the record is acknowledged.
+     */
+    @Min(1)
+    private int reactiveMaxInFlight = 256;
+
+    /**
+     * Timeout of a single ADT request sent by the non-blocking ADT client.
+     */
+    private Duration reactiveRequestTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Number of threads of the reactive listener for blocking work, i.e. messages applied by the
+     * topology updater, metadata lookups and waiting for concurrency limit permits.
+     */
+    @Min(1)
+    private int reactiveBlockingThreads = 16;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class ConcurrencyLimit {
+
+    /**
+     * Set to true to adapt the number of ingress messages concurrently applied to ADT to its
+     * latency and throttling.
+     */
+    private boolean enabled = false;
+
+    @Min(1)
+    private int initialLimit = 10;
+
+    @Min(1)
+    private int minLimit = 1;
+
+    @Min(1)
+    private int maxLimit = 100;
+
+    /**
+     * Factor the limit is multiplied with on throttling, 5xx or exceeded latency threshold.
+     */
+    @DecimalMin(value = "0", inclusive = false)
+    @DecimalMax(value = "1", inclusive = false)
+    private double backoffRatio = 0.7;
+
+    /**
+     * Response time of a single ADT request that is considered as overload.
+     */
+    private Duration latencyThreshold = Duration.ofSeconds(2);
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class TopologyCache {
+
+    @Valid
+    private final Warmup warmup = new Warmup();
+
+    @Valid
+    private final GraphIndex graphIndex = new GraphIndex();
+
+    @Valid
+    private final RefreshAhead refreshAhead = new RefreshAhead();
+
+    @Valid
+    private final Snapshot snapshot = new Snapshot();
+
+    @Valid
+    private final Maintenance maintenance = new Maintenance();
+
+    /**
+     * Set to false to cache the devices and spaces as retrieved from ADT instead of compact
+     * projections of the fields needed by the reflector. Compact devices do not keep the
+     * connection string, i.e. it is retrieved on demand.
+     */
+    private boolean compact = true;
+
+    /**
+     * Applies to all caches and to the values that are not set for a cache in caches.
+     */
+    @Valid
+    private final CacheSpec defaults = new CacheSpec(10_000L, null, Duration.ofDays(7), null);
+
+    /**
+     * Configuration per cache name, e.g. deviceByName or gatewayIdByHardwareId.
+     */
+    @Valid
+    private final Map<String, CacheSpec> caches = new HashMap<>();
+
+    /**
+     * Caches kept in direct memory instead of on heap per cache name, e.g. gatewayIdByHardwareId.
+     * Refresh-after-write does not apply to these caches.
+     */
+    @Valid
+    private final Map<String, OffHeapSpec> offHeap = new HashMap<>();
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class OffHeapSpec {
+
+    /**
+     * Direct memory allocated for the entries on startup.
+     */
+    @NotNull
+    private DataSize capacity;
+
+    /**
+     * Fixed size of an entry including its key. Entries exceeding it are not cached.
+     */
+    @NotNull
+    private DataSize slotSize = DataSize.ofBytes(256);
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class MetadataIndex {
+
+    /**
+     * Set to true to load property keys and extended types once per scope and category and to
+     * look them up in memory instead of listing them from ADT on every cache miss.
+     */
+    private boolean enabled = false;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class Maintenance {
+
+    /**
+     * Set to true to re-read devices, spaces and sensors changed by topology operations in bulk
+     * and to update the caches in place instead of evicting the changed elements.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Time over which changed elements are collected before they are re-read.
+     */
+    @NotNull
+    private Duration window = Duration.ofMillis(250);
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class Snapshot {
+
+    /**
+     * Set to true to persist the device and space caches to a local file and to restore them on
+     * startup.
+     */
+    private boolean enabled = false;
+
+    /**
+     * File the snapshot is written to, preferably on a volume that survives restarts.
+     */
+    @NotEmpty
+    private String file =
+        System.getProperty("java.io.tmpdir") + "/twin-reflector-topology.snapshot";
+
+    /**
+     * Time between snapshots. A snapshot is written on shutdown as well.
+     */
+    @NotNull
+    private Duration interval = Duration.ofMinutes(10);
+
+    /**
+     * Snapshots older than this are ignored on startup.
+     */
+    @NotNull
+    private Duration maxAge = Duration.ofHours(1);
+
+    /**
+     * Set to false to use the restored devices and spaces without re-reading them from ADT in the
+     * background.
+     */
+    private boolean verify = true;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class RefreshAhead {
+
+    /**
+     * Set to true to reload the topology and gateway cache entries in the background once their
+     * refresh-after-write has elapsed instead of on the first access after expiry.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Number of threads reloading entries, i.e. the maximum number of concurrent reloads.
+     */
+    @Min(1)
+    private int threads = 2;
+
+    /**
+     * Maximum number of reloads per second. Reloads beyond are skipped.
+     */
+    @Min(1)
+    private int maxRate = 50;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class CacheSpec {
+
+    /**
+     * Maximum number of entries.
+     */
+    @Min(1)
+    private Long maximumSize;
+
+    /**
+     * Maximum estimated heap size of the entries. Takes precedence over maximum-size.
+     */
+    private DataSize maximumWeight;
+
+    /**
+     * Time after which an entry is removed once written.
+     */
+    private Duration expireAfterWrite;
+
+    /**
+     * Time after which an entry is reloaded in the background on access, for caches that support
+     * reloading.
+     */
+    private Duration refreshAfterWrite;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class GraphIndex {
+
+    /**
+     * Set to true to answer children lookups of spaces from an in-memory index instead of ADT.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Time after which the index is dropped and rebuilt from ADT on demand.
+     */
+    private Duration rebuildInterval = Duration.ofHours(1);
+
+    /**
+     * Maximum number of changed elements re-read from ADT before the index is rebuilt instead.
+     */
+    @Min(1)
+    private int maxStale = 500;
+  }
+
+  @Getter
+  @Setter
+  @Validated
+  public static class Warmup {
+
+    /**
+     * Set to true to preload the space and device caches from the tenant subtree before the
+     * ingress is consumed.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Number of chunks of parent spaces retrieved in parallel per topology level.
+     */
+    @Min(1)
+    private int parallelism = 4;
+
+    /**
+     * Time after which startup continues with partially populated caches.
+     */
+    private Duration timeout = Duration.ofMinutes(5);
+  }
 
   @Getter
   @Setter
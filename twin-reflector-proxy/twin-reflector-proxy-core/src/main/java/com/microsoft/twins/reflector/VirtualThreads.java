@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates virtual threads if the runtime supports them (Java 21+) and falls back to daemon
+ * platform threads otherwise. The lookup is reflective as the reflector is still built for Java
+ * 11.
+ *
+ */
+@Slf4j
+public final class VirtualThreads {
+  private static final Method OF_VIRTUAL;
+  private static final Method NAME;
+  private static final Method UNSTARTED;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      name = builder.getMethod("name", String.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+
+      // Fails on runtimes where virtual threads are a preview feature that is not enabled
+      unstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {
+      });
+    } catch (final ReflectiveOperationException | RuntimeException e) {
+      log.debug("Virtual threads not supported by this runtime", e);
+      ofVirtual = null;
+    }
+
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+  }
+
+  private VirtualThreads() {
+    // Utility class
+  }
+
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * @param name of the thread
+   * @param task to run
+   * @return unstarted virtual thread or daemon platform thread if virtual threads are not
+   *         supported
+   */
+  public static Thread newThread(final String name, final Runnable task) {
+    if (!isSupported()) {
+      final Thread thread = new Thread(task, name);
+      thread.setDaemon(true);
+      return thread;
+    }
+
+    try {
+      return (Thread) UNSTARTED.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name), task);
+    } catch (final IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (final InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @param prefix of the thread names, followed by a sequence number
+   * @return factory of virtual threads
+   */
+  public static ThreadFactory threadFactory(final String prefix) {
+    final AtomicLong sequence = new AtomicLong();
+    return task -> newThread(prefix + sequence.getAndIncrement(), task);
+  }
+
+  /**
+   * @param prefix of the thread names, followed by a sequence number
+   * @return factory of daemon platform threads
+   */
+  public static ThreadFactory platformThreadFactory(final String prefix) {
+    final AtomicLong sequence = new AtomicLong();
+    return task -> {
+      final Thread thread = new Thread(task, prefix + sequence.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Creates the executor like {@link Executors}<code>.newVirtualThreadPerTaskExecutor()</code> but
+   * with named threads.
+   *
+   * @param prefix of the thread names
+   * @param maxPlatformThreads bound of the platform thread pool if virtual threads are not
+   *        supported
+   * @return executor that runs every task on its own virtual thread or fixed pool of daemon
+   *         platform threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor(final String prefix,
+      final int maxPlatformThreads) {
+    if (isSupported()) {
+      try {
+        return (ExecutorService) Executors.class
+            .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+            .invoke(null, threadFactory(prefix));
+      } catch (final ReflectiveOperationException e) {
+        log.warn("Failed to create virtual thread per task executor, using platform threads.", e);
+      }
+    } else {
+      log.warn("Virtual threads are not supported by this runtime, using [{}] platform threads.",
+          maxPlatformThreads);
+    }
+
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxPlatformThreads,
+        maxPlatformThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        platformThreadFactory(prefix));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reloads entries of the configured caches in the background once their refresh-after-write has
+ * elapsed, i.e. the stale entry is served until the reload has replaced it (refresh-ahead).
+ *
+ * <p>
+ * Reloads run on an own thread pool, at most one per thread at a time and at most the configured
+ * number per second. Reloads beyond that are skipped, the entry is then kept until it is accessed
+ * after the next refresh interval or expires.
+ * </p>
+ *
+ */
+@Slf4j
+public class CacheRefresher {
+  private static final String METRIC_NAME = "twins.reflector.cache.refresh";
+
+  private final Set<String> cacheNames;
+  private final ExecutorService executor;
+  private final Semaphore inFlight;
+  private final long intervalNanos;
+  private final AtomicLong nextReload = new AtomicLong(System.nanoTime());
+  private final MeterRegistry meterRegistry;
+
+  private final Map<String, Function<Object, Object>> reloaders = new ConcurrentHashMap<>();
+
+  /**
+   * @param cacheNames of the caches that are refreshed
+   * @param threads reloading entries
+   * @param maxRate maximum reloads per second
+   * @param meterRegistry to count reloads with, might be <code>null</code>
+   */
+  public CacheRefresher(final Set<String> cacheNames, final int threads, final int maxRate,
+      final MeterRegistry meterRegistry) {
+    this.cacheNames = cacheNames;
+    this.meterRegistry = meterRegistry;
+    inFlight = new Semaphore(threads);
+    intervalNanos = TimeUnit.SECONDS.toNanos(1) / maxRate;
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      final Thread thread = new Thread(runnable, "cache-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param cacheName of the cache
+   * @param reloader of an entry by key, returns <code>null</code> if the entry no longer exists
+   */
+  public void setReloader(final String cacheName, final Function<Object, Object> reloader) {
+    reloaders.put(cacheName, reloader);
+  }
+
+  /**
+   * @param cacheName of the cache
+   * @return the loader to build the cache with, <code>null</code> if the cache is not refreshed
+   */
+  public CacheLoader<Object, Object> getLoader(final String cacheName) {
+    if (!cacheNames.contains(cacheName)) {
+      return null;
+    }
+
+    return new CacheLoader<>() {
+      // Spring's Caffeine adapter loads on every lookup, misses are left to the cache callers
+      @Override
+      public Object load(final Object key) {
+        return null;
+      }
+
+      @Override
+      public CompletableFuture<Object> asyncReload(final Object key, final Object oldValue,
+          final Executor ignored) {
+        return reloadAsync(cacheName, key, oldValue);
+      }
+    };
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private CompletableFuture<Object> reloadAsync(final String cacheName, final Object key,
+      final Object oldValue) {
+    final Function<Object, Object> reloader = reloaders.get(cacheName);
+
+    // The reloader might not be registered yet during startup
+    if (reloader == null || !tryAcquireRate() || !inFlight.tryAcquire()) {
+      count(cacheName, "skipped");
+      return CompletableFuture.completedFuture(oldValue);
+    }
+
+    try {
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          final Object reloaded = reloader.apply(key);
+          count(cacheName, "reloaded");
+          return reloaded;
+        } catch (final RuntimeException e) {
+          count(cacheName, "failed");
+          log.debug("Failed to reload [{}] of cache [{}]", key, cacheName, e);
+          throw e;
+        } finally {
+          inFlight.release();
+        }
+      }, executor);
+    } catch (final RejectedExecutionException e) {
+      // Shut down
+      inFlight.release();
+      return CompletableFuture.completedFuture(oldValue);
+    }
+  }
+
+  private boolean tryAcquireRate() {
+    while (true) {
+      final long now = System.nanoTime();
+      final long next = nextReload.get();
+      if (next - now > 0) {
+        return false;
+      }
+      if (nextReload.compareAndSet(next, Math.max(next, now) + intervalNanos)) {
+        return true;
+      }
+    }
+  }
+
+  private void count(final String cacheName, final String result) {
+    if (meterRegistry != null) {
+      meterRegistry.counter(METRIC_NAME, "cache", cacheName, "result", result).increment();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.NullValue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persists caches of the {@link ReflectorCacheManager} to a local file and restores them, e.g. to
+ * start with warm caches after a restart.
+ *
+ * <p>
+ * The file starts with a header (magic, version, creation time) followed by a section per cache:
+ * its name and the entries as length prefixed keys and values in the serialized form of the
+ * {@link OffHeapCache}, terminated by a negative length. Cached misses and values that cannot be
+ * serialized are not persisted. Snapshots are written to a temporary file first and moved into
+ * place, i.e. readers never see a partially written snapshot. The temporary file is deleted if
+ * writing fails. Snapshots are memory mapped on restore.
+ * </p>
+ *
+ */
+@Slf4j
+public final class CacheSnapshot {
+  private static final int MAGIC = 0x54524353; // TRCS
+  private static final int VERSION = 1;
+  private static final int MAX_ENTRY = Short.MAX_VALUE;
+  private static final short END_OF_CACHE = -1;
+
+  private CacheSnapshot() {}
+
+  /**
+   * @param cacheManager to snapshot the caches of
+   * @param cacheNames of the caches to persist
+   * @param file to write the snapshot to, replaced atomically
+   * @return number of entries written
+   * @throws IOException if the snapshot could not be written
+   */
+  public static long write(final ReflectorCacheManager cacheManager,
+      final Collection<String> cacheNames, final Path file) throws IOException {
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+    final long written;
+    try {
+      written = writeEntries(cacheManager, cacheNames, temp);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException | RuntimeException e) {
+      try {
+        Files.deleteIfExists(temp);
+      } catch (final IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+    return written;
+  }
+
+  private static long writeEntries(final ReflectorCacheManager cacheManager,
+      final Collection<String> cacheNames, final Path temp) throws IOException {
+    final ByteBuffer value = ByteBuffer.allocate(MAX_ENTRY);
+    final AtomicLong written = new AtomicLong();
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(System.currentTimeMillis());
+      out.writeInt(cacheNames.size());
+
+      for (final String cacheName : cacheNames) {
+        writeBytes(out, cacheName.getBytes(StandardCharsets.UTF_8));
+
+        final OffHeapSerializer serializer = cacheManager.getSerializer(cacheName);
+        cacheManager.forEachStored(cacheName, (key, stored) -> {
+          final byte[] keyBytes = OffHeapCache.encodeKey(key);
+          value.clear();
+          if (stored == NullValue.INSTANCE || keyBytes == null || keyBytes.length > MAX_ENTRY
+              || !OffHeapCache.encodeValue(stored, value, serializer)) {
+            return;
+          }
+
+          try {
+            writeBytes(out, keyBytes);
+            out.writeShort(value.position());
+            out.write(value.array(), 0, value.position());
+          } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          written.incrementAndGet();
+        });
+
+        out.writeShort(END_OF_CACHE);
+      }
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return written.get();
+  }
+
+  /**
+   * Puts the entries of the snapshot into the caches unless they contain the key already.
+   *
+   * @param file of the snapshot
+   * @param notBefore the snapshot has to be created at, older snapshots are ignored
+   * @param cacheManager to restore the caches of
+   * @param cacheNames of the caches to restore, other caches of the snapshot are skipped
+   * @return number of entries restored, zero if the file is missing, outdated or no snapshot
+   * @throws IOException if the snapshot could not be read
+   */
+  public static long restore(final Path file, final Instant notBefore,
+      final ReflectorCacheManager cacheManager, final Collection<String> cacheNames)
+      throws IOException {
+    if (!Files.isRegularFile(file)) {
+      log.info("No cache snapshot at [{}]", file);
+      return 0;
+    }
+
+    final MappedByteBuffer source;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      source = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (source.remaining() < 20 || source.getInt() != MAGIC || source.getInt() != VERSION) {
+      log.warn("Ignoring [{}] as it is no cache snapshot of version [{}]", file, VERSION);
+      return 0;
+    }
+
+    final Instant created = Instant.ofEpochMilli(source.getLong());
+    if (created.isBefore(notBefore)) {
+      log.info("Ignoring cache snapshot [{}] created [{}] as it is outdated", file, created);
+      return 0;
+    }
+
+    long restored = 0;
+    try {
+      final int caches = source.getInt();
+      for (int i = 0; i < caches; i++) {
+        final String cacheName = new String(readBytes(source), StandardCharsets.UTF_8);
+        final boolean skipped = !cacheNames.contains(cacheName);
+        final Cache cache = skipped ? null : cacheManager.getCache(cacheName);
+        final OffHeapSerializer serializer = cacheManager.getSerializer(cacheName);
+
+        for (byte[] key = readBytes(source); key != null; key = readBytes(source)) {
+          final byte[] value = readBytes(source);
+          if (!skipped) {
+            cache.putIfAbsent(OffHeapCache.decodeKey(key),
+                OffHeapCache.decodeValue(value, serializer));
+            restored++;
+          }
+        }
+      }
+    } catch (final BufferUnderflowException e) {
+      log.warn("Cache snapshot [{}] is truncated, restored [{}] entries only", file, restored);
+      return restored;
+    }
+
+    log.info("Restored [{}] entries of cache snapshot [{}] created [{}]", restored, file, created);
+    return restored;
+  }
+
+  private static void writeBytes(final DataOutputStream out, final byte[] bytes)
+      throws IOException {
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * @return the bytes, <code>null</code> at the end of a cache
+   */
+  private static byte[] readBytes(final ByteBuffer source) {
+    final short length = source.getShort();
+    if (length < 0) {
+      return null;
+    }
+
+    final byte[] bytes = new byte[length];
+    source.get(bytes);
+    return bytes;
+  }
+}
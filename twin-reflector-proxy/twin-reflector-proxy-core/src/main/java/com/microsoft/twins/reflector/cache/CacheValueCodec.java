@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+/**
+ * Converts the values of a cache into the form kept on the heap and back, e.g. into a compact
+ * projection of the fields the readers of the cache actually need.
+ *
+ * @see ReflectorCacheManager#registerCodec(String, CacheValueCodec)
+ */
+public interface CacheValueCodec {
+
+  /**
+   * @param value as put into the cache, never <code>null</code>
+   * @return the value to store, the given value if it is in stored form already
+   */
+  Object compact(Object value);
+
+  /**
+   * @param stored value, never <code>null</code>
+   * @return the value to hand out to the readers of the cache
+   */
+  Object expand(Object stored);
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * Weighs cache entries by their estimated heap size in bytes so that e.g. a device with sensors and
+ * properties counts more than a type ID.
+ *
+ * <p>
+ * The estimate assumes compressed references and walks the fields of the ADT model classes up to a
+ * limited depth. It is meant for sizing caches, not for exact accounting.
+ * </p>
+ *
+ */
+public class EstimatedSizeWeigher implements Weigher<Object, Object> {
+  private static final int OBJECT_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int MAX_DEPTH = 4;
+
+  private static final ClassValue<Layout> LAYOUTS = new ClassValue<>() {
+    @Override
+    protected Layout computeValue(final Class<?> type) {
+      return new Layout(type);
+    }
+  };
+
+  @Override
+  public int weigh(final Object key, final Object value) {
+    return (int) Math.min(Integer.MAX_VALUE, estimate(key) + estimate(value));
+  }
+
+  /**
+   * @param value to estimate
+   * @return estimated heap size of the value and everything it references in bytes
+   */
+  public static long estimate(final Object value) {
+    return estimate(value, 0);
+  }
+
+  private static long estimate(final Object value, final int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      // Compact strings, i.e. one byte per Latin-1 character
+      return OBJECT_HEADER + 8 + OBJECT_HEADER + ((String) value).length();
+    }
+    if (value instanceof UUID) {
+      return OBJECT_HEADER + 16;
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return OBJECT_HEADER + 8;
+    }
+    if (value instanceof Enum) {
+      // Shared instance
+      return 0;
+    }
+    if (depth >= MAX_DEPTH) {
+      return OBJECT_HEADER;
+    }
+    if (value instanceof Optional) {
+      return OBJECT_HEADER + REFERENCE + estimate(((Optional<?>) value).orElse(null), depth + 1);
+    }
+    if (value instanceof Collection) {
+      long size = OBJECT_HEADER * 2L;
+      for (final Object element : (Collection<?>) value) {
+        size += REFERENCE + estimate(element, depth + 1);
+      }
+      return size;
+    }
+    if (value instanceof Map) {
+      long size = OBJECT_HEADER * 2L;
+      for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        size += OBJECT_HEADER + REFERENCE * 3 + estimate(entry.getKey(), depth + 1)
+            + estimate(entry.getValue(), depth + 1);
+      }
+      return size;
+    }
+    if (value.getClass().isArray()) {
+      return OBJECT_HEADER + (value instanceof byte[] ? ((byte[]) value).length
+          : value instanceof Object[] ? ((Object[]) value).length * (long) REFERENCE : 0);
+    }
+
+    if (value.getClass().getName().startsWith("java.")) {
+      // Not walked, e.g. temporal values
+      return OBJECT_HEADER * 2L;
+    }
+
+    return estimateFields(value, depth);
+  }
+
+  private static long estimateFields(final Object value, final int depth) {
+    final Layout layout = LAYOUTS.get(value.getClass());
+    long size = layout.shallowSize;
+    for (final Field field : layout.references) {
+      try {
+        size += estimate(field.get(value), depth + 1);
+      } catch (final IllegalAccessException e) {
+        // Counted as reference only
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Fields of a class resolved once, i.e. the size of the instance itself and the accessible
+   * reference fields to walk.
+   */
+  private static final class Layout {
+    private final long shallowSize;
+    private final Field[] references;
+
+    private Layout(final Class<?> type) {
+      long size = OBJECT_HEADER;
+      final List<Field> walked = new ArrayList<>();
+      for (Class<?> current = type; current != null
+          && current != Object.class; current = current.getSuperclass()) {
+        for (final Field field : current.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          if (field.getType().isPrimitive()) {
+            size += field.getType() == long.class || field.getType() == double.class ? 8 : 4;
+            continue;
+          }
+
+          size += REFERENCE;
+          if (field.trySetAccessible()) {
+            walked.add(field);
+          }
+        }
+      }
+      shallowSize = size;
+      references = walked.toArray(new Field[0]);
+    }
+  }
+}
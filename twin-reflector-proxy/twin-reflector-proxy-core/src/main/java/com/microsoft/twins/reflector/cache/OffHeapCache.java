@@ -0,0 +1,549 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.cache.support.NullValue;
+
+/**
+ * {@link org.springframework.cache.Cache} that keeps its entries in direct memory, i.e. outside of
+ * the heap and invisible to the garbage collector.
+ *
+ * <p>
+ * The memory is split into fixed size slots that are grouped into buckets of {@value #WAYS}. The
+ * hash of the key selects the bucket and the slots of the bucket are probed in order. A full bucket
+ * evicts one of its entries in CLOCK order, i.e. entries read since the last sweep get a second
+ * chance. Buckets are guarded by striped locks.
+ * </p>
+ *
+ * <p>
+ * Keys have to be strings or UUIDs. Values are stored serialized, out of the box strings, UUIDs and
+ * <code>null</code>, other types with the {@link OffHeapSerializer} (see also
+ * {@link CacheValueCodec}). Entries that do not fit into a slot are not cached but counted as
+ * rejected.
+ * </p>
+ *
+ * <p>
+ * {@link #get(Object, Callable)} loads a missing value once, concurrent callers for the same key
+ * wait for that load.
+ * </p>
+ *
+ */
+public class OffHeapCache extends AbstractValueAdaptingCache {
+  private static final int WAYS = 8;
+  private static final int MAX_SEGMENT = 1 << 30;
+  private static final int LOCKS = 1024;
+
+  // Slot layout: state, reference bit, key hash, write time, key length, value length, key, value
+  private static final int STATE = 0;
+  private static final int REFERENCED = 1;
+  private static final int HASH = 2;
+  private static final int WRITTEN = 6;
+  private static final int KEY_LENGTH = 14;
+  private static final int VALUE_LENGTH = 16;
+  private static final int HEADER = 18;
+
+  private static final byte FREE = 0;
+  private static final byte USED = 1;
+
+  private static final byte KEY_STRING = 1;
+  private static final byte KEY_UUID = 2;
+
+  private static final byte VALUE_NULL = 0;
+  private static final byte VALUE_STRING = 1;
+  private static final byte VALUE_UUID = 2;
+  private static final byte VALUE_SERIALIZED = 3;
+
+  private final String name;
+  private final int slotSize;
+  private final int bucketSize;
+  private final int buckets;
+  private final int bucketsPerSegment;
+  private final ByteBuffer[] segments;
+  private final byte[] hands;
+  private final Object[] locks;
+  private final long expireAfterWriteNanos;
+  private final CacheValueCodec codec;
+  private final OffHeapSerializer serializer;
+  private final Map<Object, CompletableFuture<Object>> loads = new ConcurrentHashMap<>();
+
+  private final LongAdder size = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * @param name of the cache
+   * @param capacity in bytes of direct memory allocated up front
+   * @param slotSize in bytes of an entry, including about 20 bytes of header and key
+   * @param expireAfterWrite of the entries, might be <code>null</code>
+   * @param codec of the values, might be <code>null</code>
+   * @param serializer of stored values of other types than strings and UUIDs, might be
+   *        <code>null</code>
+   */
+  public OffHeapCache(final String name, final long capacity, final int slotSize,
+      final Duration expireAfterWrite, final CacheValueCodec codec,
+      final OffHeapSerializer serializer) {
+    super(true);
+
+    if (slotSize < HEADER + 32 || slotSize > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Slot size " + slotSize + " out of range");
+    }
+
+    this.name = name;
+    this.slotSize = slotSize;
+    this.codec = codec;
+    this.serializer = serializer;
+    expireAfterWriteNanos = expireAfterWrite == null ? 0 : expireAfterWrite.toNanos();
+    bucketSize = WAYS * slotSize;
+    buckets = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacity / bucketSize));
+    bucketsPerSegment = MAX_SEGMENT / bucketSize;
+    hands = new byte[buckets];
+
+    segments = new ByteBuffer[(buckets + bucketsPerSegment - 1) / bucketsPerSegment];
+    for (int i = 0; i < segments.length; i++) {
+      final int segmentBuckets = Math.min(bucketsPerSegment, buckets - i * bucketsPerSegment);
+      segments[i] = ByteBuffer.allocateDirect(segmentBuckets * bucketSize);
+    }
+
+    locks = new Object[Math.min(LOCKS, buckets)];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public Object getNativeCache() {
+    return this;
+  }
+
+  @Override
+  protected Object lookup(final Object key) {
+    final Object stored = read(key);
+    if (stored == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return stored;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(final Object key, final Callable<T> valueLoader) {
+    final ValueWrapper cached = get(key);
+    if (cached != null) {
+      return (T) cached.get();
+    }
+
+    final CompletableFuture<Object> load = new CompletableFuture<>();
+    final CompletableFuture<Object> running = loads.putIfAbsent(key, load);
+    if (running != null) {
+      try {
+        return (T) running.join();
+      } catch (final CompletionException e) {
+        throw new ValueRetrievalException(key, valueLoader, e.getCause());
+      }
+    }
+
+    try {
+      // Another load might have completed since the lookup
+      final Object stored = read(key);
+      final Object value = stored != null ? fromStoreValue(stored) : valueLoader.call();
+      if (stored == null) {
+        put(key, value);
+      }
+      load.complete(value);
+      return (T) value;
+    } catch (final Exception e) {
+      load.completeExceptionally(e);
+      throw new ValueRetrievalException(key, valueLoader, e);
+    } finally {
+      loads.remove(key, load);
+    }
+  }
+
+  @Override
+  public void put(final Object key, final Object value) {
+    store(key, value, false);
+  }
+
+  @Override
+  public ValueWrapper putIfAbsent(final Object key, final Object value) {
+    final byte[] existing = store(key, value, true);
+    return existing == null ? null : toValueWrapper(decodeValue(existing, serializer));
+  }
+
+  @Override
+  public void evict(final Object key) {
+    final byte[] keyBytes = encodeKey(key);
+    if (keyBytes == null) {
+      return;
+    }
+
+    final int hash = Arrays.hashCode(keyBytes);
+    final int bucket = bucket(hash);
+    synchronized (lock(bucket)) {
+      final int way = find(bucket, hash, keyBytes);
+      if (way >= 0) {
+        free(bucket, way);
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      synchronized (lock(bucket)) {
+        for (int way = 0; way < WAYS; way++) {
+          if (segment(bucket).get(offset(bucket, way) + STATE) == USED) {
+            free(bucket, way);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  protected Object toStoreValue(final Object userValue) {
+    return super.toStoreValue(
+        codec == null || userValue == null ? userValue : codec.compact(userValue));
+  }
+
+  @Override
+  protected Object fromStoreValue(final Object storeValue) {
+    final Object value = super.fromStoreValue(storeValue);
+    return codec == null || value == null ? value : codec.expand(value);
+  }
+
+  /**
+   * @param consumer of the keys and stored values, i.e. <code>NullValue</code> for misses and
+   *        values in the form of the {@link CacheValueCodec}
+   */
+  public void forEachStored(final BiConsumer<Object, Object> consumer) {
+    final List<byte[]> entries = new ArrayList<>(WAYS * 2);
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      entries.clear();
+      synchronized (lock(bucket)) {
+        for (int way = 0; way < WAYS; way++) {
+          if (segment(bucket).get(offset(bucket, way) + STATE) == USED
+              && !expired(bucket, way)) {
+            entries.add(readKey(bucket, way));
+            entries.add(readValue(bucket, way));
+          }
+        }
+      }
+
+      for (int i = 0; i < entries.size(); i += 2) {
+        consumer.accept(decodeKey(entries.get(i)), decodeValue(entries.get(i + 1), serializer));
+      }
+    }
+  }
+
+  public long size() {
+    return size.sum();
+  }
+
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  public long missCount() {
+    return misses.sum();
+  }
+
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return number of entries not cached as their key or value did not fit into a slot or were
+   *         not supported
+   */
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  public double hitRate() {
+    final long hitCount = hitCount();
+    final long requests = hitCount + missCount();
+    return requests == 0 ? 1.0 : (double) hitCount / requests;
+  }
+
+  /**
+   * @return the stored value, <code>null</code> if absent
+   */
+  private Object read(final Object key) {
+    final byte[] keyBytes = encodeKey(key);
+    if (keyBytes == null) {
+      return null;
+    }
+
+    final int hash = Arrays.hashCode(keyBytes);
+    final int bucket = bucket(hash);
+    final byte[] value;
+    synchronized (lock(bucket)) {
+      final int way = find(bucket, hash, keyBytes);
+      if (way < 0) {
+        value = null;
+      } else if (expired(bucket, way)) {
+        free(bucket, way);
+        value = null;
+      } else {
+        segment(bucket).put(offset(bucket, way) + REFERENCED, (byte) 1);
+        value = readValue(bucket, way);
+      }
+    }
+
+    return value == null ? null : decodeValue(value, serializer);
+  }
+
+  /**
+   * @return the existing value if only absent values are stored, <code>null</code> otherwise
+   */
+  private byte[] store(final Object key, final Object value, final boolean onlyIfAbsent) {
+    final byte[] keyBytes = encodeKey(key);
+    // A value takes one byte at least
+    final byte[] valueBytes = keyBytes == null || keyBytes.length >= slotSize - HEADER ? null
+        : encodeValue(toStoreValue(value), slotSize - HEADER - keyBytes.length, serializer);
+    if (valueBytes == null) {
+      rejected.increment();
+      // Keep no outdated entry
+      evict(key);
+      return null;
+    }
+
+    final int hash = Arrays.hashCode(keyBytes);
+    final int bucket = bucket(hash);
+    synchronized (lock(bucket)) {
+      int way = find(bucket, hash, keyBytes);
+      if (way >= 0 && expired(bucket, way)) {
+        free(bucket, way);
+        way = -1;
+      }
+
+      if (way >= 0) {
+        if (onlyIfAbsent) {
+          return readValue(bucket, way);
+        }
+      } else {
+        way = claim(bucket);
+      }
+
+      write(bucket, way, hash, keyBytes, valueBytes);
+    }
+    return null;
+  }
+
+  /**
+   * @return a free slot of the bucket, evicts an entry if there is none
+   */
+  private int claim(final int bucket) {
+    final ByteBuffer segment = segment(bucket);
+    for (int way = 0; way < WAYS; way++) {
+      if (segment.get(offset(bucket, way) + STATE) == FREE) {
+        size.increment();
+        return way;
+      }
+      if (expired(bucket, way)) {
+        return way;
+      }
+    }
+
+    int hand = hands[bucket];
+    while (segment.get(offset(bucket, hand) + REFERENCED) != 0) {
+      segment.put(offset(bucket, hand) + REFERENCED, (byte) 0);
+      hand = (hand + 1) % WAYS;
+    }
+    hands[bucket] = (byte) ((hand + 1) % WAYS);
+    evictions.increment();
+    return hand;
+  }
+
+  private int find(final int bucket, final int hash, final byte[] keyBytes) {
+    final ByteBuffer segment = segment(bucket);
+    for (int way = 0; way < WAYS; way++) {
+      final int offset = offset(bucket, way);
+      if (segment.get(offset + STATE) == USED && segment.getInt(offset + HASH) == hash
+          && segment.getShort(offset + KEY_LENGTH) == keyBytes.length
+          && keyEquals(segment, offset + HEADER, keyBytes)) {
+        return way;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean keyEquals(final ByteBuffer segment, final int index,
+      final byte[] keyBytes) {
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (segment.get(index + i) != keyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean expired(final int bucket, final int way) {
+    return expireAfterWriteNanos > 0 && System.nanoTime()
+        - segment(bucket).getLong(offset(bucket, way) + WRITTEN) > expireAfterWriteNanos;
+  }
+
+  private void free(final int bucket, final int way) {
+    segment(bucket).put(offset(bucket, way) + STATE, FREE);
+    size.decrement();
+  }
+
+  private void write(final int bucket, final int way, final int hash, final byte[] keyBytes,
+      final byte[] valueBytes) {
+    final ByteBuffer segment = segment(bucket);
+    final int offset = offset(bucket, way);
+    segment.put(offset + STATE, USED);
+    segment.put(offset + REFERENCED, (byte) 0);
+    segment.putInt(offset + HASH, hash);
+    segment.putLong(offset + WRITTEN, System.nanoTime());
+    segment.putShort(offset + KEY_LENGTH, (short) keyBytes.length);
+    segment.putShort(offset + VALUE_LENGTH, (short) valueBytes.length);
+    for (int i = 0; i < keyBytes.length; i++) {
+      segment.put(offset + HEADER + i, keyBytes[i]);
+    }
+    for (int i = 0; i < valueBytes.length; i++) {
+      segment.put(offset + HEADER + keyBytes.length + i, valueBytes[i]);
+    }
+  }
+
+  private byte[] readKey(final int bucket, final int way) {
+    final ByteBuffer segment = segment(bucket);
+    final int offset = offset(bucket, way);
+    final byte[] key = new byte[segment.getShort(offset + KEY_LENGTH)];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = segment.get(offset + HEADER + i);
+    }
+    return key;
+  }
+
+  private byte[] readValue(final int bucket, final int way) {
+    final ByteBuffer segment = segment(bucket);
+    final int offset = offset(bucket, way);
+    final int start = offset + HEADER + segment.getShort(offset + KEY_LENGTH);
+    final byte[] value = new byte[segment.getShort(offset + VALUE_LENGTH)];
+    for (int i = 0; i < value.length; i++) {
+      value[i] = segment.get(start + i);
+    }
+    return value;
+  }
+
+  private int bucket(final int hash) {
+    // Spread the higher bits as the bucket count is not necessarily a power of two
+    return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % buckets;
+  }
+
+  private Object lock(final int bucket) {
+    return locks[bucket % locks.length];
+  }
+
+  private ByteBuffer segment(final int bucket) {
+    return segments[bucket / bucketsPerSegment];
+  }
+
+  private int offset(final int bucket, final int way) {
+    return (bucket % bucketsPerSegment) * bucketSize + way * slotSize;
+  }
+
+  /**
+   * @return the key serialized, <code>null</code> if not supported
+   */
+  static byte[] encodeKey(final Object key) {
+    if (key instanceof String) {
+      final byte[] chars = ((String) key).getBytes(StandardCharsets.UTF_8);
+      final byte[] encoded = new byte[chars.length + 1];
+      encoded[0] = KEY_STRING;
+      System.arraycopy(chars, 0, encoded, 1, chars.length);
+      return encoded;
+    }
+    if (key instanceof UUID) {
+      return ByteBuffer.allocate(17).put(KEY_UUID)
+          .putLong(((UUID) key).getMostSignificantBits())
+          .putLong(((UUID) key).getLeastSignificantBits()).array();
+    }
+    return null;
+  }
+
+  static Object decodeKey(final byte[] key) {
+    if (key[0] == KEY_UUID) {
+      final ByteBuffer source = ByteBuffer.wrap(key, 1, 16);
+      return new UUID(source.getLong(), source.getLong());
+    }
+    return new String(key, 1, key.length - 1, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the stored value serialized, <code>null</code> if not supported or too large
+   */
+  static byte[] encodeValue(final Object stored, final int maxLength,
+      final OffHeapSerializer serializer) {
+    final ByteBuffer target = ByteBuffer.allocate(maxLength);
+    return encodeValue(stored, target, serializer)
+        ? Arrays.copyOf(target.array(), target.position())
+        : null;
+  }
+
+  /**
+   * @param target to serialize the stored value into from its position on
+   * @return <code>false</code> if not supported or too large for the remaining target
+   */
+  static boolean encodeValue(final Object stored, final ByteBuffer target,
+      final OffHeapSerializer serializer) {
+    try {
+      if (stored == NullValue.INSTANCE) {
+        target.put(VALUE_NULL);
+      } else if (stored instanceof String) {
+        target.put(VALUE_STRING).put(((String) stored).getBytes(StandardCharsets.UTF_8));
+      } else if (stored instanceof UUID) {
+        target.put(VALUE_UUID).putLong(((UUID) stored).getMostSignificantBits())
+            .putLong(((UUID) stored).getLeastSignificantBits());
+      } else {
+        target.put(VALUE_SERIALIZED);
+        return serializer != null && serializer.write(stored, target);
+      }
+    } catch (final BufferOverflowException e) {
+      return false;
+    }
+    return true;
+  }
+
+  static Object decodeValue(final byte[] value, final OffHeapSerializer serializer) {
+    final ByteBuffer source = ByteBuffer.wrap(value);
+    switch (source.get()) {
+      case VALUE_NULL:
+        return NullValue.INSTANCE;
+      case VALUE_STRING:
+        return new String(value, 1, value.length - 1, StandardCharsets.UTF_8);
+      case VALUE_UUID:
+        return new UUID(source.getLong(), source.getLong());
+      default:
+        return serializer.read(source);
+    }
+  }
+}
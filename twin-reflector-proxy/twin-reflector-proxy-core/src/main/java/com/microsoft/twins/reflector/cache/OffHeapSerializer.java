@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes stored cache values of types {@link OffHeapCache} does not support out of the box,
+ * e.g. the compact form of a {@link CacheValueCodec}.
+ */
+public interface OffHeapSerializer {
+
+  /**
+   * @param stored value to write
+   * @param target to write the value to, throws a
+   *        {@link java.nio.BufferOverflowException} if the value does not fit
+   * @return <code>false</code> if values of this type are not supported
+   */
+  boolean write(Object stored, ByteBuffer target);
+
+  /**
+   * @param source positioned at a value written by {@link #write(Object, ByteBuffer)}
+   * @return the stored value
+   */
+  Object read(ByteBuffer source);
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.OffHeapSpec;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caffeine based {@link CacheManager} that creates caches on demand, each with its own capacity
+ * and expiry (see {@link CacheSpec}). Capacity is either a number of entries or an estimated heap
+ * size (see {@link EstimatedSizeWeigher}). Caches supported by the {@link CacheRefresher} are
+ * refreshed ahead of expiry if configured. Values of caches with a registered
+ * {@link CacheValueCodec} are stored in compact form. Caches registered as off-heap are kept in
+ * direct memory by an {@link OffHeapCache} instead of Caffeine.
+ *
+ * <p>
+ * Hit, miss, eviction and size metrics of every cache are bound to the meter registry, the hit
+ * ratio as <code>twins.reflector.cache.hit.ratio</code>.
+ * </p>
+ *
+ */
+@Slf4j
+public class ReflectorCacheManager implements CacheManager {
+  private static final String METRIC_HIT_RATIO = "twins.reflector.cache.hit.ratio";
+  private static final String METRIC_OFF_HEAP_REJECTED = "twins.reflector.cache.offheap.rejected";
+  private static final String TAG_CACHE_MANAGER = "cacheManager";
+
+  private final CacheSpec defaults;
+  private final Map<String, CacheSpec> specs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final CacheRefresher refresher;
+  private final MeterRegistry meterRegistry;
+
+  private final Map<String, CacheValueCodec> codecs = new ConcurrentHashMap<>();
+  private final Map<String, OffHeapSpec> offHeapSpecs =
+      new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+
+  /**
+   * @param defaults for all caches and for the values not set per cache
+   * @param specs per cache name, case insensitive as relaxed binding might lower case the names
+   * @param refresher reloading entries after refresh-after-write, might be <code>null</code>
+   * @param meterRegistry to bind the cache metrics to, might be <code>null</code>
+   */
+  public ReflectorCacheManager(final CacheSpec defaults, final Map<String, CacheSpec> specs,
+      final CacheRefresher refresher, final MeterRegistry meterRegistry) {
+    this.defaults = defaults;
+    this.specs.putAll(specs);
+    this.refresher = refresher;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Has to be called before the cache is used first, i.e. on startup.
+   *
+   * @param cacheName of the cache
+   * @param codec to store the values of the cache with
+   */
+  public void registerCodec(final String cacheName, final CacheValueCodec codec) {
+    codecs.put(cacheName, codec);
+  }
+
+  /**
+   * Has to be called before the cache is used first, i.e. on startup.
+   *
+   * @param cacheName of the cache, case insensitive
+   * @param spec of the direct memory to keep the cache in
+   */
+  public void registerOffHeap(final String cacheName, final OffHeapSpec spec) {
+    offHeapSpecs.put(cacheName, spec);
+  }
+
+  @Override
+  public Cache getCache(final String name) {
+    return caches.computeIfAbsent(name, this::createCache);
+  }
+
+  @Override
+  public Collection<String> getCacheNames() {
+    return Collections.unmodifiableSet(caches.keySet());
+  }
+
+  /**
+   * Iterates the entries of a cache as stored, e.g. for persisting them (see
+   * {@link CacheSnapshot}). Stored values are <code>NullValue</code> for cached misses and in the
+   * form of the registered {@link CacheValueCodec} otherwise. Stored values can be put into the
+   * cache again as they are.
+   *
+   * @param cacheName of the cache, nothing is iterated if it has not been created yet
+   * @param consumer of the keys and stored values
+   */
+  @SuppressWarnings("unchecked")
+  public void forEachStored(final String cacheName, final BiConsumer<Object, Object> consumer) {
+    final Cache cache = caches.get(cacheName);
+    if (cache instanceof OffHeapCache) {
+      ((OffHeapCache) cache).forEachStored(consumer);
+    } else if (cache != null) {
+      ((com.github.benmanes.caffeine.cache.Cache<Object, Object>) cache.getNativeCache()).asMap()
+          .forEach(consumer);
+    }
+  }
+
+  /**
+   * @param cacheName of the cache
+   * @return serializer of the stored values of the cache, <code>null</code> if there is none
+   */
+  public OffHeapSerializer getSerializer(final String cacheName) {
+    final CacheValueCodec codec = codecs.get(cacheName);
+    return codec instanceof OffHeapSerializer ? (OffHeapSerializer) codec : null;
+  }
+
+  /**
+   * Maps a Caffeine spec, e.g. of the deprecated <code>spring.cache.caffeine.spec</code>, onto a
+   * {@link CacheSpec}. Only <code>maximumSize</code> and <code>expireAfterWrite</code> are mapped,
+   * other settings of the Caffeine spec are ignored.
+   *
+   * @param caffeineSpec to map, e.g. <code>maximumSize=500,expireAfterWrite=10m</code>
+   * @param target to set the mapped values on, a maximum size replaces its maximum weight
+   * @throws IllegalArgumentException if the Caffeine spec is invalid
+   */
+  public static void applyCaffeineSpec(final String caffeineSpec, final CacheSpec target) {
+    // Fails on what Spring's Caffeine cache manager would fail on as well
+    CaffeineSpec.parse(caffeineSpec);
+
+    for (final String option : caffeineSpec.split(",")) {
+      final String[] keyAndValue = option.split("=", 2);
+      final String key = keyAndValue[0].trim();
+      if ("maximumSize".equals(key)) {
+        target.setMaximumSize(Long.parseLong(keyAndValue[1].trim()));
+        target.setMaximumWeight(null);
+      } else if ("expireAfterWrite".equals(key)) {
+        target.setExpireAfterWrite(parseDuration(keyAndValue[1].trim()));
+      } else if (!key.isEmpty()) {
+        log.warn("Ignoring {} of the Caffeine spec, not supported by the topology caches", key);
+      }
+    }
+  }
+
+  /**
+   * @param value in the format of Caffeine specs, e.g. <code>10m</code>
+   */
+  private static Duration parseDuration(final String value) {
+    final long amount = Long.parseLong(value.substring(0, value.length() - 1));
+    switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+      case 'd':
+        return Duration.ofDays(amount);
+      case 'h':
+        return Duration.ofHours(amount);
+      case 'm':
+        return Duration.ofMinutes(amount);
+      default:
+        return Duration.ofSeconds(amount);
+    }
+  }
+
+  private Cache createCache(final String name) {
+    final CacheSpec spec = specs.get(name);
+    if (offHeapSpecs.containsKey(name)) {
+      return createOffHeapCache(name, offHeapSpecs.get(name), spec);
+    }
+    final Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+
+    // Bounds of a configured cache replace the default bounds as a whole
+    final CacheSpec bounds =
+        spec != null && (spec.getMaximumSize() != null || spec.getMaximumWeight() != null) ? spec
+            : defaults;
+    if (bounds.getMaximumWeight() != null) {
+      builder.maximumWeight(bounds.getMaximumWeight().toBytes())
+          .weigher(new EstimatedSizeWeigher());
+    } else if (bounds.getMaximumSize() != null) {
+      builder.maximumSize(bounds.getMaximumSize());
+    }
+
+    final CacheSpec expiry = spec != null && spec.getExpireAfterWrite() != null ? spec : defaults;
+    if (expiry.getExpireAfterWrite() != null) {
+      builder.expireAfterWrite(expiry.getExpireAfterWrite().toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    final CacheSpec refresh =
+        spec != null && spec.getRefreshAfterWrite() != null ? spec : defaults;
+    final CacheLoader<Object, Object> loader = refresher == null ? null : refresher.getLoader(name);
+    final CacheValueCodec codec = codecs.get(name);
+    final com.github.benmanes.caffeine.cache.Cache<Object, Object> cache;
+    if (loader != null && refresh.getRefreshAfterWrite() != null) {
+      builder.refreshAfterWrite(refresh.getRefreshAfterWrite().toNanos(), TimeUnit.NANOSECONDS);
+      cache = builder.build(codec == null ? loader : new CompactingCacheLoader(loader, codec));
+    } else {
+      cache = builder.build();
+    }
+
+    log.debug("Created cache [{}] with bounds [{}/{}], expiry [{}] and refresh [{}]", name,
+        bounds.getMaximumSize(), bounds.getMaximumWeight(), expiry.getExpireAfterWrite(),
+        loader == null ? null : refresh.getRefreshAfterWrite());
+
+    if (meterRegistry != null) {
+      // Same tags as the metrics Spring Boot binds for the caches that exist on startup
+      CaffeineCacheMetrics.monitor(meterRegistry, cache, name, TAG_CACHE_MANAGER,
+          TAG_CACHE_MANAGER);
+      Gauge.builder(METRIC_HIT_RATIO, cache, c -> c.stats().hitRate()).tag("cache", name)
+          .description("Ratio of cache lookups that have been hits").register(meterRegistry);
+    }
+
+    return new NonLoadingCaffeineCache(name, cache, codec);
+  }
+
+  private Cache createOffHeapCache(final String name, final OffHeapSpec offHeap,
+      final CacheSpec spec) {
+    final CacheSpec expiry = spec != null && spec.getExpireAfterWrite() != null ? spec : defaults;
+    final OffHeapCache cache = new OffHeapCache(name, offHeap.getCapacity().toBytes(),
+        (int) offHeap.getSlotSize().toBytes(), expiry.getExpireAfterWrite(), codecs.get(name),
+        getSerializer(name));
+
+    log.debug("Created off-heap cache [{}] with capacity [{}], slot size [{}] and expiry [{}]",
+        name, offHeap.getCapacity(), offHeap.getSlotSize(), expiry.getExpireAfterWrite());
+
+    if (meterRegistry != null) {
+      // Same meters as bound for the Caffeine caches, see CacheMeterBinder
+      Gauge.builder("cache.size", cache, OffHeapCache::size)
+          .tags("cache", name, TAG_CACHE_MANAGER, TAG_CACHE_MANAGER).register(meterRegistry);
+      FunctionCounter.builder("cache.gets", cache, OffHeapCache::hitCount)
+          .tags("cache", name, TAG_CACHE_MANAGER, TAG_CACHE_MANAGER, "result", "hit")
+          .register(meterRegistry);
+      FunctionCounter.builder("cache.gets", cache, OffHeapCache::missCount)
+          .tags("cache", name, TAG_CACHE_MANAGER, TAG_CACHE_MANAGER, "result", "miss")
+          .register(meterRegistry);
+      FunctionCounter.builder("cache.evictions", cache, OffHeapCache::evictionCount)
+          .tags("cache", name, TAG_CACHE_MANAGER, TAG_CACHE_MANAGER).register(meterRegistry);
+      FunctionCounter.builder(METRIC_OFF_HEAP_REJECTED, cache, OffHeapCache::rejectedCount)
+          .tag("cache", name).description("Entries too large for a slot of the off-heap cache")
+          .register(meterRegistry);
+      Gauge.builder(METRIC_HIT_RATIO, cache, OffHeapCache::hitRate).tag("cache", name)
+          .description("Ratio of cache lookups that have been hits").register(meterRegistry);
+    }
+
+    return cache;
+  }
+
+  /**
+   * Lookups never load missing entries, i.e. misses are left to the cached method also for caches
+   * with a loader, which is used for refreshing existing entries only.
+   */
+  private static class NonLoadingCaffeineCache extends CaffeineCache {
+    private final CacheValueCodec codec;
+
+    NonLoadingCaffeineCache(final String name,
+        final com.github.benmanes.caffeine.cache.Cache<Object, Object> cache,
+        final CacheValueCodec codec) {
+      super(name, cache, true);
+      this.codec = codec;
+    }
+
+    @Override
+    protected Object lookup(final Object key) {
+      return getNativeCache().getIfPresent(key);
+    }
+
+    @Override
+    protected Object toStoreValue(final Object userValue) {
+      return super.toStoreValue(
+          codec == null || userValue == null ? userValue : codec.compact(userValue));
+    }
+
+    @Override
+    protected Object fromStoreValue(final Object storeValue) {
+      final Object value = super.fromStoreValue(storeValue);
+      return codec == null || value == null ? value : codec.expand(value);
+    }
+  }
+
+  /**
+   * Stores reloaded values in compact form as well.
+   */
+  private static class CompactingCacheLoader implements CacheLoader<Object, Object> {
+    private final CacheLoader<Object, Object> loader;
+    private final CacheValueCodec codec;
+
+    CompactingCacheLoader(final CacheLoader<Object, Object> loader, final CacheValueCodec codec) {
+      this.loader = loader;
+      this.codec = codec;
+    }
+
+    @Override
+    public Object load(final Object key) throws Exception {
+      return compact(loader.load(key));
+    }
+
+    @Override
+    public CompletableFuture<Object> asyncReload(final Object key, final Object oldValue,
+        final Executor executor) {
+      return loader.asyncReload(key, oldValue, executor).thenApply(this::compact);
+    }
+
+    private Object compact(final Object value) {
+      return value == null ? null : codec.compact(value);
+    }
+  }
+}
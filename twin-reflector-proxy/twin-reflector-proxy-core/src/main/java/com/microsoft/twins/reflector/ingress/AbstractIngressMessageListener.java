@@ -0,0 +1,466 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import javax.validation.ConstraintViolationException;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.CollectionUtils;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.core.dependencies.google.common.collect.Maps;
+import com.microsoft.twins.client.CorrelationIdContext;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.Feedback;
+import com.microsoft.twins.reflector.error.AbstractIngressFailedException;
+import com.microsoft.twins.reflector.model.FeedbackMessage;
+import com.microsoft.twins.reflector.model.FeedbackMessage.FeedbackMessageBuilder;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Status;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Common base of the ingress listeners. Decodes the message headers and applies a single
+ * {@link IngressMessage} to the {@link TopologyUpdater} and {@link TelemetryForwarder}.
+ *
+ */
+@RequiredArgsConstructor(access = AccessLevel.PROTECTED)
+@Slf4j
+public abstract class AbstractIngressMessageListener {
+  protected static final String LOG_CORRELATION_ID = "correlationId";
+  private static final String LOG_TYPE = "type";
+  private static final String DEVICE_ID = "deviceId";
+
+  private static final String METRIC_PARTIAL_UPDATES = "twins.reflector.ingress.partial";
+  private static final String PATH_TELEMETRY_ONLY = "telemetry-only";
+  private static final String PATH_TOPOLOGY = "topology";
+
+  protected final TopologyUpdater topologyUpdater;
+  protected final TelemetryForwarder telemetryForwarder;
+  protected final TwinReflectorProxyProperties properties;
+
+  @Autowired(required = false)
+  private TelemetryClient telemetryClient;
+
+  @Autowired(required = false)
+  private KeyOrderedDispatcher dispatcher;
+
+  @Autowired(required = false)
+  private BinderAwareChannelResolver channelResolver;
+
+  @Autowired(required = false)
+  private PartialUpdateCoalescer coalescer;
+
+  @Autowired(required = false)
+  private IngressDigestCache digestCache;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  @Autowired(required = false)
+  private AdaptiveConcurrencyLimiter limiter;
+
+  /**
+   * @param type header value, either raw bytes or already converted by the binder
+   * @return message type
+   */
+  protected String decodeMessageType(final Object type) {
+    if (properties.getEventHubs().isAmqpHeaderDecodeEnabled()) {
+      return AmqpHeaderDecoder.decodeString(type);
+    }
+    return headerToString(type);
+  }
+
+  /**
+   * @param correl header value, either raw bytes or already converted by the binder
+   * @return correlation ID or <code>null</code> if not set
+   */
+  protected UUID decodeCorrelationId(final Optional<?> correl) {
+    if (properties.getEventHubs().isAmqpHeaderDecodeEnabled()) {
+      return correl.map(AmqpHeaderDecoder::decodeUuid).orElse(null);
+    }
+    return correl.map(AbstractIngressMessageListener::headerToString).map(UUID::fromString)
+        .orElse(null);
+  }
+
+  private static String headerToString(final Object header) {
+    if (header instanceof byte[]) {
+      return new String((byte[]) header, StandardCharsets.UTF_8);
+    }
+    return header == null ? null : header.toString();
+  }
+
+  /**
+   * Applies the given message according to its type and waits for partial updates handed over to
+   * the {@link PartialUpdateCoalescer}, i.e. the message has been applied once this method
+   * returns.
+   *
+   * @param message to apply
+   * @param messageType of the message, i.e. full, partial or delete
+   * @param correlationId of the message
+   * @return feedback for the message or <code>null</code> if the message type is unknown
+   */
+  protected FeedbackMessage process(final IngressMessage message, final String messageType,
+      final UUID correlationId) {
+    final CompletableFuture<FeedbackMessage> response =
+        processCoalesced(message, messageType, correlationId);
+
+    if (!response.isDone()) {
+      flushCoalesced(message);
+    }
+
+    try {
+      return response.join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Applies the given message according to its type. Partial updates with topology changes are
+   * handed over to the {@link PartialUpdateCoalescer} if configured, i.e. they are merged with the
+   * following partial updates of the same element until {@link #flushCoalesced(IngressMessage)}.
+   *
+   * <p>
+   * The {@link AdaptiveConcurrencyLimiter} is taken around the ADT update itself only, i.e. no
+   * permit is held while pending coalesced updates are flushed as the flush takes its own permit.
+   * </p>
+   *
+   * @param message to apply
+   * @param messageType of the message, i.e. full, partial or delete
+   * @param correlationId of the message
+   * @return future of the feedback for the message, completes once the message has been applied
+   */
+  protected CompletableFuture<FeedbackMessage> processCoalesced(final IngressMessage message,
+      final String messageType, final UUID correlationId) {
+    if ("full".equalsIgnoreCase(messageType)) {
+      flushCoalesced(message);
+      return CompletableFuture
+          .completedFuture(limited(() -> getCompleteTopologyUpdate(message, correlationId)));
+    } else if ("partial".equalsIgnoreCase(messageType)) {
+      if (isTelemetryOnly(message)) {
+        // Telemetry must not overtake coalesced topology changes of the same device
+        flushCoalesced(message);
+        if (forwardTelemetryOnly(message, correlationId)) {
+          return CompletableFuture.completedFuture(processed(correlationId));
+        }
+      }
+      evictDigest(message);
+      if (coalescer != null && hasTopologyChanges(message)) {
+        countPartialUpdate(PATH_TOPOLOGY);
+        return coalescer.submit(message, correlationId).thenApply(v -> processed(correlationId));
+      }
+      // Updates without topology changes, e.g. telemetry only, are not merged but keep the order
+      flushCoalesced(message);
+      return CompletableFuture
+          .completedFuture(limited(() -> getPartialTopologyUpdate(message, correlationId)));
+    } else if ("delete".equalsIgnoreCase(messageType)) {
+      evictDigest(message);
+      flushCoalesced(message);
+      return CompletableFuture
+          .completedFuture(limited(() -> getDeleteTopologyElement(message, correlationId)));
+    }
+
+    log.error("Got message with unknown messageType [{}]", messageType);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  private <T> T limited(final Supplier<T> update) {
+    return limiter == null ? update.get() : limiter.execute(update);
+  }
+
+  /**
+   * Applies the given message like {@link #process(IngressMessage, String, UUID)} but reports
+   * ingress failures as error feedback instead of throwing them.
+   *
+   * @param message to apply
+   * @param messageType of the message, i.e. full, partial or delete
+   * @param correlationId of the message
+   * @return feedback for the message or <code>null</code> if disabled by configuration
+   */
+  protected FeedbackMessage processAndReport(final IngressMessage message,
+      final String messageType, final UUID correlationId) {
+    try {
+      final FeedbackMessage response = process(message, messageType, correlationId);
+      return isFeedbackEnabled() ? response : null;
+    } catch (final AbstractIngressFailedException | ConstraintViolationException e) {
+      return report(message, correlationId, e);
+    }
+  }
+
+  /**
+   * Applies the given message like {@link #processCoalesced(IngressMessage, String, UUID)} but
+   * reports ingress failures as error feedback instead of failing the future.
+   *
+   * @param message to apply
+   * @param messageType of the message, i.e. full, partial or delete
+   * @param correlationId of the message
+   * @return future of the feedback for the message, <code>null</code> feedback if disabled by
+   *         configuration
+   */
+  protected CompletableFuture<FeedbackMessage> processAndReportCoalesced(
+      final IngressMessage message, final String messageType, final UUID correlationId) {
+    CompletableFuture<FeedbackMessage> response;
+    try {
+      response = processCoalesced(message, messageType, correlationId);
+    } catch (final RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+
+    return response.handle((feedback, e) -> {
+      if (e == null) {
+        return isFeedbackEnabled() ? feedback : null;
+      }
+
+      final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+      if (cause instanceof AbstractIngressFailedException
+          || cause instanceof ConstraintViolationException) {
+        return report(message, correlationId, (RuntimeException) cause);
+      }
+      throw new CompletionException(cause);
+    });
+  }
+
+  private FeedbackMessage report(final IngressMessage message, final UUID correlationId,
+      final RuntimeException e) {
+    final FeedbackMessageBuilder response =
+        FeedbackMessage.builder().correlationId(correlationId).status(Status.ERROR)
+            .errorMessage(e.getMessage());
+
+    if (e instanceof AbstractIngressFailedException) {
+      log.error("Failed to process message [{}]", message.getId(), e);
+      trackException((AbstractIngressFailedException) e, correlationId);
+      response.errorCode(((AbstractIngressFailedException) e).getErrorCode());
+    } else {
+      log.error("Invalid message [{}]", message.getId(), e);
+    }
+
+    return isErrorFeedbackEnabled() ? response.build() : null;
+  }
+
+  private static FeedbackMessage processed(final UUID correlationId) {
+    return FeedbackMessage.builder().correlationId(correlationId).status(Status.PROCESSED).build();
+  }
+
+  /**
+   * Runs the given task with the correlation ID set in the logging and ADT client context of the
+   * current thread.
+   *
+   * @param correlationId to set, might be <code>null</code>
+   * @param task to run
+   * @return result of the task
+   */
+  protected static <T> T withCorrelationId(final UUID correlationId, final Supplier<T> task) {
+    if (correlationId != null) {
+      MDC.put(LOG_CORRELATION_ID, correlationId.toString());
+      CorrelationIdContext.setCorrelationId(correlationId);
+    }
+
+    try {
+      return task.get();
+    } finally {
+      MDC.clear();
+      CorrelationIdContext.clear();
+    }
+  }
+
+  protected KeyOrderedDispatcher getDispatcher() {
+    return dispatcher;
+  }
+
+  protected AdaptiveConcurrencyLimiter getLimiter() {
+    return limiter;
+  }
+
+  /**
+   * @param message partial update
+   * @return <code>true</code> if the message is handed over to the {@link PartialUpdateCoalescer}
+   */
+  protected boolean isCoalesced(final IngressMessage message) {
+    return coalescer != null && hasTopologyChanges(message);
+  }
+
+  /**
+   * Sends feedback outside of the listener invocation, e.g. from an ingress lane.
+   *
+   * @param feedback to send, ignored if <code>null</code>
+   */
+  protected void sendFeedback(final Object feedback) {
+    if (feedback == null || channelResolver == null) {
+      return;
+    }
+
+    channelResolver.resolveDestination(FeedbackSource.OUTPUT)
+        .send(MessageBuilder.withPayload(feedback).build());
+  }
+
+  private boolean isTelemetryOnly(final IngressMessage message) {
+    return properties.getIngress().isTelemetryFastPathEnabled() && message.getTelemetry() != null
+        && IngressMessage.ENTITY_V1_DEVICE.equalsIgnoreCase(message.getEntityType())
+        && !hasTopologyChanges(message);
+  }
+
+  private static boolean hasTopologyChanges(final IngressMessage message) {
+    return !CollectionUtils.isEmpty(message.getAttributes())
+        || !CollectionUtils.isEmpty(message.getProperties())
+        || !CollectionUtils.isEmpty(message.getRelationships());
+  }
+
+  /**
+   * Forwards the telemetry of a message without topology changes straight to IoT Hub if the
+   * device is known, i.e. there is nothing to reconcile in ADT.
+   *
+   * @return <code>true</code> if forwarded, <code>false</code> if the device has to be created
+   *         first
+   */
+  private boolean forwardTelemetryOnly(final IngressMessage message, final UUID correlationId) {
+    if (!telemetryForwarder.isKnownHardwareId(message.getId())) {
+      return false;
+    }
+
+    forwardTelemetry(telemetryForwarder, message.getTelemetry(), correlationId, message.getId());
+    countPartialUpdate(PATH_TELEMETRY_ONLY);
+    return true;
+  }
+
+  private void countPartialUpdate(final String path) {
+    if (meterRegistry != null) {
+      meterRegistry.counter(METRIC_PARTIAL_UPDATES, "path", path).increment();
+    }
+  }
+
+  /**
+   * Applies the partial updates of the message's element pending in the
+   * {@link PartialUpdateCoalescer}, if any, on the calling thread.
+   *
+   * @param message whose element to flush
+   */
+  protected void flushCoalesced(final IngressMessage message) {
+    if (coalescer != null) {
+      coalescer.flush(message.getEntityType(), message.getId());
+    }
+  }
+
+  protected void evictDigest(final IngressMessage message) {
+    if (digestCache != null) {
+      digestCache.evict(message.getEntityType(), message.getId());
+    }
+  }
+
+  private FeedbackMessage getPartialTopologyUpdate(final IngressMessage message,
+      final UUID correlationId) {
+    countPartialUpdate(PATH_TOPOLOGY);
+    topologyUpdater.updateTopologyElementPartial(message, correlationId);
+
+    if (message.getTelemetry() != null) {
+      forwardTelemetry(telemetryForwarder, message.getTelemetry(), correlationId, message.getId());
+    }
+
+    return processed(correlationId);
+  }
+
+  private FeedbackMessage getCompleteTopologyUpdate(final IngressMessage message,
+      final UUID correlationId) {
+    log.trace("Got complete update ingress message {}", message);
+
+    if (digestCache == null) {
+      topologyUpdater.updateTopologyElementComplete(message, correlationId);
+    } else {
+      final String digest = digestCache.digest(message);
+
+      if (digestCache.isUnchanged(message, digest)) {
+        log.debug("Topology element [{}] unchanged since last complete update. Skipping update",
+            message.getId());
+      } else {
+        final UUID elementId =
+            topologyUpdater.updateTopologyElementComplete(message, correlationId);
+        digestCache.applied(message, digest, correlationId, elementId);
+      }
+    }
+
+    if (message.getTelemetry() != null) {
+      forwardTelemetry(telemetryForwarder, message.getTelemetry(), correlationId, message.getId());
+    }
+
+    return processed(correlationId);
+  }
+
+  private FeedbackMessage getDeleteTopologyElement(final IngressMessage message,
+      final UUID correlationId) {
+
+    topologyUpdater.deleteTopologyElement(message.getId(), correlationId, message.getEntityType());
+
+    return processed(correlationId);
+  }
+
+  /**
+   * Forwards telemetry either as raw JSON, if captured by the {@link RawTelemetryModule}, or as
+   * string.
+   */
+  static void forwardTelemetry(final TelemetryForwarder telemetryForwarder,
+      final Object telemetry, final UUID correlationId, final String hardwareId) {
+    if (telemetry instanceof byte[]) {
+      telemetryForwarder.sendMessage((byte[]) telemetry, correlationId, hardwareId);
+    } else {
+      telemetryForwarder.sendMessage(String.valueOf(telemetry), correlationId, hardwareId);
+    }
+  }
+
+  protected boolean isFeedbackEnabled() {
+    return properties.getFeedback() == Feedback.ENABLED;
+  }
+
+  protected boolean isErrorFeedbackEnabled() {
+    return properties.getFeedback() == Feedback.ENABLED
+        || properties.getFeedback() == Feedback.ERROR_ONLY;
+  }
+
+  protected void trackIngress(final String messageType, final UUID correlationId,
+      final String deviceID) {
+    if (telemetryClient == null) {
+      return;
+    }
+
+    final Map<String, String> eventProperties = Maps.newHashMapWithExpectedSize(3);
+    eventProperties.put(LOG_TYPE, messageType);
+    eventProperties.put(DEVICE_ID, deviceID);
+    if (correlationId != null) {
+      eventProperties.put(LOG_CORRELATION_ID, correlationId.toString());
+    }
+
+    telemetryClient.trackEvent("ingress", eventProperties, null);
+  }
+
+  protected void trackException(final AbstractIngressFailedException exception,
+      final UUID correlationId) {
+    if (telemetryClient == null) {
+      return;
+    }
+
+    final Map<String, String> eventProperties = new HashMap<>();
+    if (correlationId != null) {
+      eventProperties.put(LOG_CORRELATION_ID, correlationId.toString());
+    }
+
+    telemetryClient.trackException(exception, eventProperties, null);
+
+  }
+}
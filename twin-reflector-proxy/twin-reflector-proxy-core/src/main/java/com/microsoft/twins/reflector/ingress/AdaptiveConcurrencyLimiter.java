@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import com.microsoft.twins.client.ObservedClient;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits the number of ingress messages concurrently applied to ADT with an AIMD (additive
+ * increase, multiplicative decrease) algorithm.
+ *
+ * <p>
+ * Permits are taken per ingress message, the limit is adapted per ADT request though: it is
+ * decreased by the configured backoff ratio for every ADT response with 429 or 5xx and every
+ * response that exceeds the latency threshold, see {@link #onResponse(int, long)}. Responses are
+ * reported by the ADT client before it retries them, i.e. throttling is seen even if the message
+ * succeeds eventually. Otherwise the limit grows by one per limit's worth of messages that
+ * completed without a decrease in the meantime.
+ * </p>
+ *
+ * <p>
+ * The saturation callback is notified with <code>true</code> once all permits are in use and with
+ * <code>false</code> once permits are available again, e.g. in order to pause the ingress
+ * consumer instead of blocking it. It is invoked outside of the limiter lock, serialized and with
+ * the latest state only, i.e. a slow callback does not block acquiring or releasing permits.
+ * </p>
+ *
+ * <p>
+ * Permits are not reentrant. Callers take a permit around a single ADT operation and must not
+ * call {@link #execute(Supplier)} again while holding one, as the nested call might wait for its
+ * own permit to be released.
+ * </p>
+ *
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter implements ObservedClient.ResponseListener {
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final long latencyThresholdNanos;
+  private final Consumer<Boolean> saturationCallback;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitAvailable = lock.newCondition();
+  private final ReentrantLock callbackLock = new ReentrantLock();
+
+  private double limit;
+  private int inFlight;
+  private long decreases;
+  private volatile boolean saturated;
+  private volatile boolean notifiedSaturated;
+
+  public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit,
+      final int maxLimit, final double backoffRatio, final Duration latencyThreshold,
+      final Consumer<Boolean> saturationCallback) {
+    if (minLimit < 1 || maxLimit < minLimit) {
+      throw new IllegalArgumentException("Limit bounds invalid.");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("Backoff ratio has to be between 0 and 1.");
+    }
+
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+    this.saturationCallback = saturationCallback;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Runs the given task once a permit is available.
+   *
+   * @param task calling ADT
+   * @return result of the task
+   */
+  public <T> T execute(final Supplier<T> task) {
+    final long acquired = acquire();
+
+    try {
+      return task.get();
+    } finally {
+      release(acquired);
+    }
+  }
+
+  /**
+   * Runs the given task if a permit is available right away, e.g. for additional workers of a
+   * caller that holds a permit already and must not wait for another one.
+   *
+   * @param task calling ADT
+   * @return <code>true</code> if the task has been run, <code>false</code> if all permits are in
+   *         use
+   */
+  public boolean tryExecute(final Runnable task) {
+    final long acquired = tryAcquire();
+    if (acquired < 0) {
+      return false;
+    }
+
+    try {
+      task.run();
+      return true;
+    } finally {
+      release(acquired);
+    }
+  }
+
+  /**
+   * Takes a permit for an asynchronous ADT operation once available, i.e. blocks the calling thread
+   * like {@link #execute(Supplier)}.
+   *
+   * @return permit to release once the operation has completed
+   */
+  public Permit acquirePermit() {
+    return new Permit(acquire());
+  }
+
+  /**
+   * Decreases the limit if the given ADT response signals overload, i.e. 429, 5xx or a latency
+   * above the threshold.
+   *
+   * @param status of the response, {@link ObservedClient.ResponseListener#NO_RESPONSE} if none
+   * @param latencyNanos of the response
+   */
+  @Override
+  public void onResponse(final int status, final long latencyNanos) {
+    final boolean overloaded = status == 429 || status >= 500;
+    if (!overloaded && latencyNanos <= latencyThresholdNanos) {
+      return;
+    }
+
+    lock.lock();
+    try {
+      final double reduced = Math.max(minLimit, limit * backoffRatio);
+      if ((int) reduced < (int) limit) {
+        log.debug("Reducing ingress concurrency limit to [{}], status [{}], latency [{}ms]",
+            (int) reduced, status, latencyNanos / 1_000_000);
+      }
+      limit = reduced;
+      decreases++;
+
+      updateSaturation();
+    } finally {
+      lock.unlock();
+    }
+
+    notifySaturation();
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of decreases when the permit was taken
+   */
+  private long acquire() {
+    final long acquired;
+    lock.lock();
+    try {
+      while (inFlight >= (int) limit) {
+        permitAvailable.awaitUninterruptibly();
+      }
+      inFlight++;
+      acquired = decreases;
+      updateSaturation();
+    } finally {
+      lock.unlock();
+    }
+
+    notifySaturation();
+    return acquired;
+  }
+
+  /**
+   * @return number of decreases when the permit was taken, -1 if all permits are in use
+   */
+  private long tryAcquire() {
+    final long acquired;
+    lock.lock();
+    try {
+      if (inFlight >= (int) limit) {
+        return -1;
+      }
+      inFlight++;
+      acquired = decreases;
+      updateSaturation();
+    } finally {
+      lock.unlock();
+    }
+
+    notifySaturation();
+    return acquired;
+  }
+
+  private void release(final long acquired) {
+    lock.lock();
+    try {
+      inFlight--;
+
+      // Messages that overlapped a decrease do not grow the limit
+      if (decreases == acquired && inFlight + 1 >= (int) limit / 2) {
+        // Only grow if the current limit is actually used
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+
+      updateSaturation();
+      permitAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    notifySaturation();
+  }
+
+  private void updateSaturation() {
+    saturated = inFlight >= (int) limit;
+  }
+
+  private void notifySaturation() {
+    // A thread failing to take the callback lock leaves its change to the holder, which re-checks
+    // the state after unlocking
+    while (saturationCallback != null && saturated != notifiedSaturated
+        && callbackLock.tryLock()) {
+      try {
+        final boolean current = saturated;
+        if (current != notifiedSaturated) {
+          notifiedSaturated = current;
+          saturationCallback.accept(current);
+        }
+      } catch (final RuntimeException e) {
+        log.warn("Saturation callback failed", e);
+      } finally {
+        callbackLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Permit of an asynchronous ADT operation, see {@link #acquirePermit()}.
+   */
+  public final class Permit {
+    private final long acquired;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(final long acquired) {
+      this.acquired = acquired;
+    }
+
+    /**
+     * Releases the permit, subsequent calls are ignored.
+     */
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        AdaptiveConcurrencyLimiter.this.release(acquired);
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import org.apache.qpid.proton.codec.AMQPDefinedTypes;
+import org.apache.qpid.proton.codec.DecoderImpl;
+import org.apache.qpid.proton.codec.EncoderImpl;
+
+/**
+ * Thread safe decoder for AMQP encoded ingress message headers as set by Azure Event Hubs AMQP
+ * producers and passed through by the Kafka API.
+ *
+ * <p>
+ * Strings, symbols and UUIDs are decoded straight from the raw header bytes. Any other AMQP type
+ * falls back to a proton-j {@link DecoderImpl} that is set up once per thread.
+ * </p>
+ *
+ */
+public final class AmqpHeaderDecoder {
+  private static final int NULL = 0x40;
+  private static final int UUID_TYPE = 0x98;
+  private static final int STR8 = 0xa1;
+  private static final int STR32 = 0xb1;
+  private static final int SYM8 = 0xa3;
+  private static final int SYM32 = 0xb3;
+
+  private static final ThreadLocal<DecoderImpl> DECODER = ThreadLocal.withInitial(() -> {
+    final DecoderImpl decoder = new DecoderImpl();
+    final EncoderImpl encoder = new EncoderImpl(decoder);
+    AMQPDefinedTypes.registerAllTypes(decoder, encoder);
+    return decoder;
+  });
+
+  private AmqpHeaderDecoder() {
+    // Utility class
+  }
+
+  /**
+   * @param header value, either the raw <code>byte[]</code> or a {@link String} that contains the
+   *        AMQP encoded bytes
+   * @return decoded header value as string or <code>null</code> if header is <code>null</code> or
+   *         AMQP null
+   */
+  public static String decodeString(final Object header) {
+    if (header == null) {
+      return null;
+    }
+
+    final byte[] bytes = toBytes(header);
+
+    if (bytes.length == 0) {
+      return "";
+    }
+
+    switch (bytes[0] & 0xff) {
+      case NULL:
+        return null;
+      case STR8:
+        return new String(bytes, 2, bytes[1] & 0xff, StandardCharsets.UTF_8);
+      case SYM8:
+        return new String(bytes, 2, bytes[1] & 0xff, StandardCharsets.US_ASCII);
+      case STR32:
+        return new String(bytes, 5, readInt(bytes, 1), StandardCharsets.UTF_8);
+      case SYM32:
+        return new String(bytes, 5, readInt(bytes, 1), StandardCharsets.US_ASCII);
+      case UUID_TYPE:
+        return readUuid(bytes).toString();
+      default:
+        return String.valueOf(decodeObject(bytes));
+    }
+  }
+
+  /**
+   * @param header value, either the raw <code>byte[]</code> or a {@link String} that contains the
+   *        AMQP encoded bytes
+   * @return decoded header value as UUID or <code>null</code> if header is <code>null</code> or
+   *         AMQP null
+   * @throws IllegalArgumentException if the header value is no UUID
+   */
+  public static UUID decodeUuid(final Object header) {
+    if (header == null) {
+      return null;
+    }
+
+    final byte[] bytes = toBytes(header);
+
+    if (bytes.length > 0 && (bytes[0] & 0xff) == UUID_TYPE) {
+      return readUuid(bytes);
+    }
+
+    final String decoded = decodeString(bytes);
+    return decoded == null ? null : UUID.fromString(decoded);
+  }
+
+  private static byte[] toBytes(final Object header) {
+    if (header instanceof byte[]) {
+      return (byte[]) header;
+    }
+
+    return header.toString().getBytes();
+  }
+
+  private static Object decodeObject(final byte[] bytes) {
+    final DecoderImpl decoder = DECODER.get();
+    decoder.setByteBuffer(ByteBuffer.wrap(bytes));
+    try {
+      return decoder.readObject();
+    } finally {
+      decoder.setByteBuffer(null);
+    }
+  }
+
+  private static int readInt(final byte[] bytes, final int offset) {
+    return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+        | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+  }
+
+  private static long readLong(final byte[] bytes, final int offset) {
+    long result = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      result = result << 8 | bytes[i] & 0xff;
+    }
+    return result;
+  }
+
+  private static UUID readUuid(final byte[] bytes) {
+    return new UUID(readLong(bytes, 1), readLong(bytes, 9));
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.util.CollectionUtils;
+import org.springframework.validation.annotation.Validated;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.model.FeedbackMessage;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Status;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Batch mode ingress listener. Consumes a list of {@link IngressMessage}s per ingress record,
+ * resolves the referenced topology elements for the whole batch upfront and responds with one
+ * feedback list per batch.
+ *
+ * <p>
+ * The message type header applies to all messages of the batch, the correlation ID header to all
+ * messages that do not have an own {@link IngressMessage#getCorrelationId()}. Invalid messages
+ * reject the whole batch like a single invalid message. Errors applying a single message, e.g.
+ * failed ADT requests, are reported as part of the batch feedback and do not fail the batch. If a
+ * {@link KeyOrderedDispatcher} is configured the messages of a batch are applied in parallel
+ * while preserving the order per ID.
+ * </p>
+ *
+ */
+@Slf4j
+@Validated
+public class BatchIngressMessageListener extends AbstractIngressMessageListener {
+
+  public BatchIngressMessageListener(final TopologyUpdater topologyUpdater,
+      final TelemetryForwarder telemetryForwarder, final TwinReflectorProxyProperties properties) {
+    super(topologyUpdater, telemetryForwarder, properties);
+  }
+
+  @StreamListener(ReflectorIngressSink.INPUT)
+  @SendTo(FeedbackSource.OUTPUT)
+  List<FeedbackMessage> getIngressBatch(
+      @NotNull @Valid @Payload final List<IngressMessage> messages,
+      @Header(name = ReflectorIngressSink.HEADER_MESSAGE_TYPE, required = true) final Object type,
+      @Header(name = ReflectorIngressSink.HEADER_CORRELATION_ID,
+          required = false) final Optional<Object> correl) {
+
+    final String messageType = decodeMessageType(type);
+    final UUID correlationId = decodeCorrelationId(correl);
+
+    log.trace("Got ingress batch of {} messages", messages.size());
+
+    withCorrelationId(correlationId, () -> {
+      resolveReferences(messages);
+      return null;
+    });
+
+    messages.forEach(message -> trackIngress(messageType,
+        correlationIdOf(message, correlationId), message.getId()));
+
+    final List<FeedbackMessage> responses;
+    if (getDispatcher() != null) {
+      responses = dispatch(messages, messageType, correlationId);
+    } else {
+      final List<CompletableFuture<FeedbackMessage>> pending = messages.stream()
+          .map(message -> processIsolated(message, messageType,
+              correlationIdOf(message, correlationId)))
+          .collect(Collectors.toList());
+
+      // Applies the partial updates coalesced within the batch
+      messages.forEach(message -> flush(message, correlationIdOf(message, correlationId)));
+
+      responses = join(pending);
+    }
+
+    return CollectionUtils.isEmpty(responses) ? null : responses;
+  }
+
+  /**
+   * Resolves the references of the batch upfront. Failures are not propagated as every message
+   * resolves its references on its own as well.
+   */
+  private void resolveReferences(final List<IngressMessage> messages) {
+    try {
+      topologyUpdater.resolveReferences(messages);
+    } catch (final RuntimeException e) {
+      log.warn("Failed to resolve references of ingress batch, resolving per message instead", e);
+    }
+  }
+
+  private static UUID correlationIdOf(final IngressMessage message, final UUID correlationId) {
+    return message.getCorrelationId() == null ? correlationId : message.getCorrelationId();
+  }
+
+  /**
+   * Processes the messages of the batch on their ingress lanes and waits for all of them to
+   * complete, so that the next batch is not consumed before the current one is applied.
+   */
+  private List<FeedbackMessage> dispatch(final List<IngressMessage> messages,
+      final String messageType, final UUID correlationId) {
+    final List<CompletableFuture<FeedbackMessage>> pending = join(messages.stream()
+        .map(message -> getDispatcher().dispatch(message.getId(), () -> processIsolated(message,
+            messageType, correlationIdOf(message, correlationId))))
+        .collect(Collectors.toList()));
+
+    // The partial updates coalesced within the batch are applied on their lanes as well
+    join(messages.stream()
+        .map(message -> getDispatcher().dispatch(message.getId(),
+            () -> flush(message, correlationIdOf(message, correlationId))))
+        .collect(Collectors.toList()));
+
+    return join(pending);
+  }
+
+  /**
+   * Processes a single message of the batch and reports any failure, e.g. of an ADT request, as
+   * error feedback of that message instead of failing the batch.
+   *
+   * @return future of the feedback, completes once the message has been applied
+   */
+  private CompletableFuture<FeedbackMessage> processIsolated(final IngressMessage message,
+      final String messageType, final UUID correlationId) {
+    return withCorrelationId(correlationId,
+        () -> processAndReportCoalesced(message, messageType, correlationId)).exceptionally(e -> {
+          final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+          if (!(cause instanceof RuntimeException)) {
+            throw new CompletionException(cause);
+          }
+
+          log.error("Failed to process message [{}] of ingress batch", message.getId(), cause);
+          if (isErrorFeedbackEnabled()) {
+            return FeedbackMessage.builder().correlationId(correlationId).status(Status.ERROR)
+                .errorMessage(cause.getMessage()).build();
+          }
+          return null;
+        });
+  }
+
+  private Void flush(final IngressMessage message, final UUID correlationId) {
+    return withCorrelationId(correlationId, () -> {
+      flushCoalesced(message);
+      return null;
+    });
+  }
+
+  /**
+   * @return the results without <code>null</code>s
+   */
+  private static <T> List<T> join(final List<CompletableFuture<T>> futures) {
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+
+    return futures.stream().map(CompletableFuture::join).filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.springframework.cloud.stream.endpoint.BindingsEndpoint;
+import org.springframework.cloud.stream.endpoint.BindingsEndpoint.State;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pauses the ingress consumer binding while the {@link AdaptiveConcurrencyLimiter} is saturated
+ * and resumes it afterwards. Pausing keeps the consumer polling, so it is not considered dead by
+ * the broker while the ingress lanes are busy. The binding is paused like by the bindings actuator
+ * endpoint, which does not have to be exposed.
+ *
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class IngressBindingController implements Consumer<Boolean> {
+  private final BindingsEndpoint bindingsEndpoint;
+
+  private final AtomicBoolean paused = new AtomicBoolean();
+
+  @Override
+  public void accept(final Boolean saturated) {
+    if (saturated) {
+      pause();
+    } else {
+      resume();
+    }
+  }
+
+  public void pause() {
+    if (paused.compareAndSet(false, true)) {
+      log.debug("Pausing ingress consumer");
+      bindingsEndpoint.changeState(ReflectorIngressSink.INPUT, State.PAUSED);
+    }
+  }
+
+  public void resume() {
+    if (paused.compareAndSet(true, false)) {
+      log.debug("Resuming ingress consumer");
+      bindingsEndpoint.changeState(ReflectorIngressSink.INPUT, State.RESUMED);
+    }
+  }
+
+  public boolean isPaused() {
+    return paused.get();
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Property;
+import com.microsoft.twins.reflector.model.Relationship;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the digest of the last successfully applied complete update per entity so that unchanged
+ * re-sends can be acknowledged without touching ADT. The digest covers attributes, properties and
+ * relationships but not telemetry.
+ *
+ * <p>
+ * Entries are invalidated by partial and delete updates of the entity as well as by ADT topology
+ * operation events that have not been caused by the update itself (see
+ * {@link #evict(String, String, String)}). Digests are indexed by the ADT ID of the entity as
+ * events identify the entity by ADT ID only, i.e. an event is mapped to the digest of its entity
+ * without looking up the entity itself (see {@link #evict(UUID, String)}).
+ * </p>
+ *
+ */
+@Slf4j
+public class IngressDigestCache {
+  public static final String CACHE_INGRESS_DIGEST = "ingressDigest";
+
+  private static final String METRIC_NAME = "twins.reflector.ingress.digest";
+  private static final String ID_INDEX_PREFIX = "id:";
+
+  private static final Comparator<Property> PROPERTY_ORDER =
+      Comparator.comparing(Property::getName, Comparator.nullsFirst(Comparator.naturalOrder()));
+  private static final Comparator<Relationship> RELATIONSHIP_ORDER = Comparator
+      .comparing(Relationship::getName, Comparator.nullsFirst(Comparator.naturalOrder()))
+      .thenComparing(Relationship::getEntityType,
+          Comparator.nullsFirst(Comparator.naturalOrder()))
+      .thenComparing(Relationship::getTargetId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  private final Cache cache;
+  private final Counter hits;
+  private final Counter misses;
+
+  /**
+   * @param cacheManager providing the digest cache
+   * @param meterRegistry to count hits and misses with, might be <code>null</code>
+   */
+  public IngressDigestCache(final CacheManager cacheManager, final MeterRegistry meterRegistry) {
+    cache = cacheManager.getCache(CACHE_INGRESS_DIGEST);
+
+    if (meterRegistry == null) {
+      hits = null;
+      misses = null;
+    } else {
+      hits = Counter.builder(METRIC_NAME).tag("result", "hit")
+          .description("Complete updates skipped as unchanged").register(meterRegistry);
+      misses = Counter.builder(METRIC_NAME).tag("result", "miss")
+          .description("Complete updates applied to ADT").register(meterRegistry);
+    }
+  }
+
+  /**
+   * Calculates the digest of the topology relevant content of the given update.
+   *
+   * @param update to calculate the digest for
+   * @return Base64 encoded SHA-256 digest
+   */
+  public String digest(final IngressMessage update) {
+    final StringBuilder canonical = new StringBuilder(256);
+    canonical.append(String.valueOf(update.getEntityType()).toLowerCase()).append('\n')
+        .append(update.getId()).append('\n');
+
+    if (update.getAttributes() != null) {
+      new TreeMap<>(update.getAttributes()).forEach((name, value) -> canonical.append("a:")
+          .append(name).append('=').append(value).append('\n'));
+    }
+
+    if (update.getProperties() != null) {
+      update.getProperties().stream().sorted(PROPERTY_ORDER)
+          .forEach(property -> canonical.append("p:").append(property.getName()).append('=')
+              .append(property.getValue()).append('\n'));
+    }
+
+    if (update.getRelationships() != null) {
+      update.getRelationships().stream().sorted(RELATIONSHIP_ORDER)
+          .forEach(relationship -> canonical.append("r:").append(relationship.getName())
+              .append(':').append(relationship.getEntityType()).append('=')
+              .append(relationship.getTargetId()).append('\n'));
+    }
+
+    return Base64.getEncoder().encodeToString(
+        sha256().digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * @param update to check
+   * @param digest of the update
+   * @return <code>true</code> if the last applied complete update of the entity had the same
+   *         digest
+   */
+  public boolean isUnchanged(final IngressMessage update, final String digest) {
+    final Entry existing = cache.get(keyOf(update.getEntityType(), update.getId()), Entry.class);
+
+    if (existing != null && existing.digest.equals(digest)) {
+      count(hits);
+      return true;
+    }
+
+    count(misses);
+    return false;
+  }
+
+  private static void count(final Counter counter) {
+    if (counter != null) {
+      counter.increment();
+    }
+  }
+
+  /**
+   * Records the digest of a successfully applied complete update.
+   *
+   * @param update that has been applied
+   * @param digest of the update
+   * @param correlationId of the update, used to ignore the resulting topology operation events
+   */
+  public void applied(final IngressMessage update, final String digest, final UUID correlationId) {
+    applied(update, digest, correlationId, null);
+  }
+
+  /**
+   * Records the digest of a successfully applied complete update.
+   *
+   * @param update that has been applied
+   * @param digest of the update
+   * @param correlationId of the update, used to ignore the resulting topology operation events
+   * @param elementId ADT ID of the entity, might be <code>null</code> if unknown
+   */
+  public void applied(final IngressMessage update, final String digest, final UUID correlationId,
+      final UUID elementId) {
+    final String key = keyOf(update.getEntityType(), update.getId());
+    cache.put(key, new Entry(digest, correlationId));
+
+    if (elementId != null) {
+      cache.put(ID_INDEX_PREFIX + elementId, key);
+    }
+  }
+
+  /**
+   * Removes the digest of the given entity.
+   *
+   * @param entityType of the entity
+   * @param id of the entity, i.e. the ADT name
+   */
+  public void evict(final String entityType, final String id) {
+    cache.evict(keyOf(entityType, id));
+  }
+
+  /**
+   * Removes the digest of the given entity unless it has been recorded for an update with the
+   * given correlation ID, i.e. the event has been caused by applying that update.
+   *
+   * @param entityType of the entity
+   * @param id of the entity, i.e. the ADT name
+   * @param eventCorrelationId of the topology operation event, might be <code>null</code>
+   */
+  public void evict(final String entityType, final String id, final String eventCorrelationId) {
+    evictKey(keyOf(entityType, id), eventCorrelationId);
+  }
+
+  private void evictKey(final String key, final String eventCorrelationId) {
+    final Entry existing = cache.get(key, Entry.class);
+
+    if (existing == null) {
+      return;
+    }
+
+    if (existing.correlationId != null && eventCorrelationId != null
+        && existing.correlationId.toString().equalsIgnoreCase(eventCorrelationId)) {
+      log.trace("Keeping digest of [{}] as event has been caused by the digested update", key);
+      return;
+    }
+
+    cache.evict(key);
+  }
+
+  /**
+   * Removes the digest of the entity with the given ADT ID unless it has been recorded for an update
+   * with the given correlation ID. Does nothing if no digest has been recorded for the ID.
+   *
+   * @param elementId ADT ID of the entity
+   * @param eventCorrelationId of the topology operation event, might be <code>null</code>
+   */
+  public void evict(final UUID elementId, final String eventCorrelationId) {
+    final String key = cache.get(ID_INDEX_PREFIX + elementId, String.class);
+
+    if (key == null) {
+      log.trace("No ingress digest recorded for [{}]", elementId);
+      return;
+    }
+
+    evictKey(key, eventCorrelationId);
+  }
+
+  private static String keyOf(final String entityType, final String id) {
+    return String.valueOf(entityType).toLowerCase() + ":" + id;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not supported by JVM", e);
+    }
+  }
+
+  private static final class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String digest;
+    private final UUID correlationId;
+
+    private Entry(final String digest, final UUID correlationId) {
+      this.digest = Objects.requireNonNull(digest);
+      this.correlationId = correlationId;
+    }
+  }
+}
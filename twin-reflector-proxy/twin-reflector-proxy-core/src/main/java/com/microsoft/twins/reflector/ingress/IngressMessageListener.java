@@ -3,18 +3,11 @@
  */
 package com.microsoft.twins.reflector.ingress;
 
-import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
-import org.apache.qpid.proton.codec.AMQPDefinedTypes;
-import org.apache.qpid.proton.codec.DecoderImpl;
-import org.apache.qpid.proton.codec.EncoderImpl;
 import org.slf4j.MDC;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.handler.annotation.Header;
@@ -22,11 +15,8 @@ import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.support.ErrorMessage;
 import org.springframework.validation.annotation.Validated;
-import com.microsoft.applicationinsights.TelemetryClient;
-import com.microsoft.applicationinsights.core.dependencies.google.common.collect.Maps;
 import com.microsoft.twins.client.CorrelationIdContext;
 import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
-import com.microsoft.twins.reflector.TwinReflectorProxyProperties.Feedback;
 import com.microsoft.twins.reflector.error.AbstractIngressFailedException;
 import com.microsoft.twins.reflector.model.FeedbackMessage;
 import com.microsoft.twins.reflector.model.FeedbackMessage.FeedbackMessageBuilder;
@@ -34,44 +24,32 @@ import com.microsoft.twins.reflector.model.IngressMessage;
 import com.microsoft.twins.reflector.model.Status;
 import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
 import com.microsoft.twins.reflector.topology.TopologyUpdater;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-@RequiredArgsConstructor
 @Slf4j
 @Validated
-public class IngressMessageListener {
-  private static final String LOG_CORRELATION_ID = "correlationId";
-  private static final String LOG_TYPE = "type";
-  private static final String DEVICE_ID = "deviceId";
+public class IngressMessageListener extends AbstractIngressMessageListener {
 
-  private final TopologyUpdater topologyUpdater;
-  private final TelemetryForwarder telemetryForwarder;
-  private final TwinReflectorProxyProperties properties;
-
-  @Autowired(required = false)
-  private TelemetryClient telemetryClient;
+  public IngressMessageListener(final TopologyUpdater topologyUpdater,
+      final TelemetryForwarder telemetryForwarder, final TwinReflectorProxyProperties properties) {
+    super(topologyUpdater, telemetryForwarder, properties);
+  }
 
   @StreamListener(ReflectorIngressSink.INPUT)
   @SendTo(FeedbackSource.OUTPUT)
   FeedbackMessage getIngress(@NotNull @Valid @Payload final IngressMessage message,
-      @Header(name = ReflectorIngressSink.HEADER_MESSAGE_TYPE, required = true) final String type,
+      @Header(name = ReflectorIngressSink.HEADER_MESSAGE_TYPE, required = true) final Object type,
       @Header(name = ReflectorIngressSink.HEADER_CORRELATION_ID,
-          required = false) final Optional<String> correl) {
-
-    String messageType;
-    UUID correlationId;
-    if (properties.getEventHubs().isAmqpHeaderDecodeEnabled()) {
-      messageType = decodeMessageHeader(type);
-      correlationId = correl.map(IngressMessageListener::decodeMessageHeader).map(UUID::fromString)
-          .orElse(null);
-    } else {
-      messageType = type;
-      correlationId = correl.map(UUID::fromString).orElse(null);
-    }
+          required = false) final Optional<Object> correl) {
+
+    final String messageType = decodeMessageType(type);
+    final UUID correlationId = decodeCorrelationId(correl);
 
     trackIngress(messageType, correlationId, message.getId());
 
+    // Ingress lanes are not used for single messages: the offset of a record is committed once
+    // the listener returns, i.e. the consumer would wait for the lane of every message anyway
+
     if (correlationId != null) {
       MDC.put(LOG_CORRELATION_ID, correlationId.toString());
       CorrelationIdContext.setCorrelationId(correlationId);
@@ -81,18 +59,9 @@ public class IngressMessageListener {
 
     try {
 
-      FeedbackMessage response = null;
-      if ("full".equalsIgnoreCase(messageType)) {
-        response = getCompleteTopologyUpdate(message, correlationId);
-      } else if ("partial".equalsIgnoreCase(messageType)) {
-        response = getPartialTopologyUpdate(message, correlationId);
-      } else if ("delete".equalsIgnoreCase(messageType)) {
-        response = getDeleteTopologyElement(message, correlationId);
-      } else {
-        log.error("Got message with unknown messageType [{}]", messageType);
-      }
+      final FeedbackMessage response = process(message, messageType, correlationId);
 
-      if (properties.getFeedback() == Feedback.ENABLED) {
+      if (isFeedbackEnabled()) {
         return response;
       }
 
@@ -104,87 +73,14 @@ public class IngressMessageListener {
     return null;
   }
 
-  private static String decodeMessageHeader(final String header) {
-    if (header == null) {
-      return null;
-    }
-
-    final DecoderImpl decoder = new DecoderImpl();
-    final EncoderImpl encoder = new EncoderImpl(decoder);
-    AMQPDefinedTypes.registerAllTypes(decoder, encoder);
-
-    decoder.setByteBuffer(ByteBuffer.wrap(header.getBytes()));
-    final Object obj = decoder.readObject();
-    return obj.toString();
-  }
-
-  private void trackIngress(final String messageType, final UUID correlationId,
-      final String deviceID) {
-    if (telemetryClient == null) {
-      return;
-    }
-
-    final Map<String, String> eventProperties = Maps.newHashMapWithExpectedSize(3);
-    eventProperties.put(LOG_TYPE, messageType);
-    eventProperties.put(DEVICE_ID, deviceID);
-    if (correlationId != null) {
-      eventProperties.put(LOG_CORRELATION_ID, correlationId.toString());
-    }
-
-    telemetryClient.trackEvent("ingress", eventProperties, null);
-  }
-
-  private FeedbackMessage getPartialTopologyUpdate(final IngressMessage message,
-      final UUID correlationId) {
-    topologyUpdater.updateTopologyElementPartial(message, correlationId);
-
-    if (message.getTelemetry() != null) {
-      telemetryForwarder.sendMessage(String.valueOf(message.getTelemetry()), correlationId,
-          message.getId());
-    }
-
-    return FeedbackMessage.builder().correlationId(correlationId).status(Status.PROCESSED).build();
-  }
-
-  private FeedbackMessage getCompleteTopologyUpdate(final IngressMessage message,
-      final UUID correlationId) {
-    if (correlationId != null) {
-      MDC.put(LOG_CORRELATION_ID, correlationId.toString());
-    }
-
-    log.trace("Got complete update ingress message {}", message);
-
-    topologyUpdater.updateTopologyElementComplete(message, correlationId);
-
-    if (message.getTelemetry() != null) {
-      telemetryForwarder.sendMessage(String.valueOf(message.getTelemetry()), correlationId,
-          message.getId());
-    }
-
-    MDC.clear();
-
-    return FeedbackMessage.builder().correlationId(correlationId).status(Status.PROCESSED).build();
-  }
-
-
-  private FeedbackMessage getDeleteTopologyElement(final IngressMessage message,
-      final UUID correlationId) {
-
-    topologyUpdater.deleteTopologyElement(message.getId(), correlationId, message.getEntityType());
-
-    return FeedbackMessage.builder().correlationId(correlationId).status(Status.PROCESSED).build();
-  }
-
   @StreamListener("errorChannel")
   @SendTo(FeedbackSource.OUTPUT)
   FeedbackMessage error(final ErrorMessage message) {
-    if ((properties.getFeedback() == Feedback.ENABLED
-        || properties.getFeedback() == Feedback.ERROR_ONLY)
-        && message.getOriginalMessage().getHeaders()
-            .containsKey(ReflectorIngressSink.HEADER_CORRELATION_ID)) {
+    if (isErrorFeedbackEnabled() && message.getOriginalMessage().getHeaders()
+        .containsKey(ReflectorIngressSink.HEADER_CORRELATION_ID)) {
 
-      final UUID correlationId = UUID.fromString((String) message.getOriginalMessage().getHeaders()
-          .get(ReflectorIngressSink.HEADER_CORRELATION_ID));
+      final UUID correlationId = decodeCorrelationId(Optional.ofNullable(message
+          .getOriginalMessage().getHeaders().get(ReflectorIngressSink.HEADER_CORRELATION_ID)));
 
       final FeedbackMessageBuilder response =
           FeedbackMessage.builder().correlationId(correlationId).status(Status.ERROR);
@@ -207,19 +103,4 @@ public class IngressMessageListener {
 
     return null;
   }
-
-  private void trackException(final AbstractIngressFailedException exception,
-      final UUID correlationId) {
-    if (telemetryClient == null) {
-      return;
-    }
-
-    final Map<String, String> eventProperties = new HashMap<>();
-    if (correlationId != null) {
-      eventProperties.put(LOG_CORRELATION_ID, correlationId.toString());
-    }
-
-    telemetryClient.trackException(exception, eventProperties, null);
-
-  }
 }
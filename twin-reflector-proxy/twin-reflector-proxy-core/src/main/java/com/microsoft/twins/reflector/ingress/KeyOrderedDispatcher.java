@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import com.microsoft.twins.reflector.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Dispatches ingress processing to a fixed number of worker lanes. Each lane is served by exactly
+ * one thread so that all tasks with the same key (i.e. {@link IngressMessageListener} uses the
+ * {@link com.microsoft.twins.reflector.model.IngressMessage} ID) are executed strictly in
+ * submission order while tasks with different keys are executed in parallel.
+ *
+ * <p>
+ * Each lane has a bounded queue. If the queue of a lane is full the submitting (i.e. consumer)
+ * thread blocks until there is room again, which throttles the ingress consumption.
+ * </p>
+ *
+ */
+@Slf4j
+public class KeyOrderedDispatcher {
+
+  private final ThreadPoolExecutor[] lanes;
+  private final Duration shutdownTimeout;
+
+  public KeyOrderedDispatcher(final int laneCount, final int queueCapacity,
+      final Duration shutdownTimeout) {
+    this(laneCount, queueCapacity, shutdownTimeout, false);
+  }
+
+  /**
+   * @param laneCount number of lanes
+   * @param queueCapacity per lane
+   * @param shutdownTimeout to wait for queued tasks
+   * @param virtualThreads <code>true</code> to serve the lanes by virtual threads
+   */
+  public KeyOrderedDispatcher(final int laneCount, final int queueCapacity,
+      final Duration shutdownTimeout, final boolean virtualThreads) {
+    if (laneCount < 1) {
+      throw new IllegalArgumentException("At least one lane is required.");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Lane queue capacity has to be positive.");
+    }
+
+    this.shutdownTimeout = shutdownTimeout;
+    lanes = new ThreadPoolExecutor[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(queueCapacity), new LaneThreadFactory(i, virtualThreads),
+          KeyOrderedDispatcher::blockUntilQueued);
+    }
+  }
+
+  /**
+   * Runs the given task on the lane the key is mapped to.
+   *
+   * @param key that determines the lane
+   * @param task to execute
+   * @return future of the task result
+   */
+  public <T> CompletableFuture<T> dispatch(final String key, final Supplier<T> task) {
+    final LaneTask<T> laneTask = new LaneTask<>(task);
+    laneOf(key).execute(laneTask);
+    return laneTask.result;
+  }
+
+  public int getLaneCount() {
+    return lanes.length;
+  }
+
+  private ThreadPoolExecutor laneOf(final String key) {
+    if (key == null) {
+      return lanes[0];
+    }
+
+    return lanes[Math.floorMod(key.hashCode(), lanes.length)];
+  }
+
+  /**
+   * Stops accepting new tasks and waits for the queued ones to complete. Tasks that are dropped as
+   * they did not complete in time fail with a {@link RejectedExecutionException}.
+   */
+  public void shutdown() {
+    for (final ThreadPoolExecutor lane : lanes) {
+      lane.shutdown();
+    }
+
+    final long deadline = System.nanoTime() + shutdownTimeout.toNanos();
+    try {
+      for (final ThreadPoolExecutor lane : lanes) {
+        if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()),
+            TimeUnit.NANOSECONDS)) {
+          final List<Runnable> dropped = lane.shutdownNow();
+          log.warn("Ingress lane did not terminate in time, [{}] messages dropped",
+              dropped.size());
+          dropped.forEach(KeyOrderedDispatcher::reject);
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void blockUntilQueued(final Runnable task, final ThreadPoolExecutor lane) {
+    if (lane.isShutdown()) {
+      throw new RejectedExecutionException("Ingress lane has been shut down.");
+    }
+
+    try {
+      lane.getQueue().put(task);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting for ingress lane.", e);
+    }
+
+    // The lane might have been shut down while waiting, i.e. its thread might be gone already
+    if (lane.isShutdown() && lane.remove(task)) {
+      throw new RejectedExecutionException("Ingress lane has been shut down.");
+    }
+  }
+
+  private static void reject(final Runnable task) {
+    if (task instanceof LaneTask) {
+      ((LaneTask<?>) task).result.completeExceptionally(
+          new RejectedExecutionException("Ingress lane has been shut down."));
+    }
+  }
+
+  /**
+   * Completes its future with the result of the task, including errors, so that callers waiting
+   * for the result never hang.
+   */
+  private static class LaneTask<T> implements Runnable {
+    private final Supplier<T> task;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    LaneTask(final Supplier<T> task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        result.complete(task.get());
+      } catch (final Throwable e) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+
+  private static class LaneThreadFactory implements ThreadFactory {
+    private final String name;
+    private final boolean virtual;
+
+    LaneThreadFactory(final int lane, final boolean virtual) {
+      name = "ingress-lane-" + lane;
+      this.virtual = virtual;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      if (virtual) {
+        return VirtualThreads.newThread(name, runnable);
+      }
+
+      final Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Property;
+import com.microsoft.twins.reflector.model.Relationship;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Merges consecutive partial updates of the same entity within an ingress record into a single
+ * {@link TopologyUpdater#updateTopologyElementPartial(IngressMessage, UUID)} call, i.e. updates are
+ * coalesced within a batch record only as the offset of a record is committed once it has been
+ * applied.
+ *
+ * <p>
+ * Attributes and properties of later updates overwrite earlier ones, parent and gateway
+ * relationships are replaced and child relationships are accumulated. Telemetry is forwarded in
+ * arrival order after the merged topology update has been applied.
+ * </p>
+ *
+ * <p>
+ * {@link #flush(String, String)} has to be called before any full or delete update of the entity
+ * in order to retain the order of updates per entity, and by the ingress listeners at the end of a
+ * record in order to commit its offset only after the merged update has been applied. The pending
+ * updates of an entity are applied early once the maximum number of merged messages is reached.
+ * </p>
+ *
+ */
+@Slf4j
+public class PartialUpdateCoalescer {
+  private static final int LOCK_STRIPES = 64;
+
+  private final TopologyUpdater topologyUpdater;
+  private final TelemetryForwarder telemetryForwarder;
+  private final int maxMessages;
+
+  private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+  @Autowired(required = false)
+  private AdaptiveConcurrencyLimiter limiter;
+
+  public PartialUpdateCoalescer(final TopologyUpdater topologyUpdater,
+      final TelemetryForwarder telemetryForwarder, final int maxMessages) {
+    this.topologyUpdater = topologyUpdater;
+    this.telemetryForwarder = telemetryForwarder;
+    this.maxMessages = maxMessages;
+
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Adds the given partial update to the pending updates of its entity.
+   *
+   * @param update partial update
+   * @param correlationId of the update
+   * @return future that completes once the merged update has been applied
+   */
+  public CompletableFuture<Void> submit(final IngressMessage update, final UUID correlationId) {
+    final String key = keyOf(update.getEntityType(), update.getId());
+
+    final Pending merged = pending.compute(key, (k, existing) -> {
+      final Pending result = existing == null ? new Pending(update) : existing;
+      result.merge(update, correlationId);
+      return result;
+    });
+
+    if (merged.size() >= maxMessages) {
+      flush(key);
+    }
+
+    return merged.future;
+  }
+
+  /**
+   * Applies the pending updates of the given entity, if any, on the calling thread.
+   *
+   * @param entityType of the entity
+   * @param id of the entity
+   */
+  public void flush(final String entityType, final String id) {
+    flush(keyOf(entityType, id));
+  }
+
+  /**
+   * Applies all pending updates.
+   */
+  public void shutdown() {
+    new ArrayList<>(pending.keySet()).forEach(this::flush);
+  }
+
+  private void flush(final String key) {
+    final ReentrantLock lock = locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+
+    lock.lock();
+    try {
+      final Pending entry = pending.get(key);
+      if (entry == null || !pending.remove(key, entry)) {
+        return;
+      }
+
+      apply(entry);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void apply(final Pending entry) {
+    log.trace("Applying [{}] coalesced partial updates of [{}]", entry.size(), entry.id);
+
+    try {
+      if (limiter == null) {
+        topologyUpdater.updateTopologyElementPartial(entry.toMessage(), entry.lastCorrelationId);
+      } else {
+        limiter.execute(() -> {
+          topologyUpdater.updateTopologyElementPartial(entry.toMessage(), entry.lastCorrelationId);
+          return null;
+        });
+      }
+
+      for (final Telemetry telemetry : entry.telemetry) {
+        AbstractIngressMessageListener.forwardTelemetry(telemetryForwarder, telemetry.payload,
+            telemetry.correlationId, entry.id);
+      }
+
+      entry.future.complete(null);
+    } catch (final RuntimeException e) {
+      entry.future.completeExceptionally(e);
+    }
+  }
+
+  private static String keyOf(final String entityType, final String id) {
+    return String.valueOf(entityType).toLowerCase() + ":" + id;
+  }
+
+  private static final class Telemetry {
+    private final Object payload;
+    private final UUID correlationId;
+
+    private Telemetry(final Object payload, final UUID correlationId) {
+      this.payload = payload;
+      this.correlationId = correlationId;
+    }
+  }
+
+  private static final class Pending {
+    private final String id;
+    private final String entityType;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    private final Map<String, Property> properties = new LinkedHashMap<>();
+    private final Map<String, Relationship> relationships = new LinkedHashMap<>();
+    private final List<Telemetry> telemetry = new ArrayList<>();
+
+    private boolean hasAttributes;
+    private boolean hasProperties;
+    private boolean hasRelationships;
+    private UUID lastCorrelationId;
+    private int count;
+
+    private Pending(final IngressMessage first) {
+      id = first.getId();
+      entityType = first.getEntityType();
+    }
+
+    private void merge(final IngressMessage update, final UUID correlationId) {
+      count++;
+      lastCorrelationId = correlationId;
+
+      if (update.getAttributes() != null) {
+        hasAttributes = true;
+        attributes.putAll(update.getAttributes());
+      }
+
+      if (update.getProperties() != null) {
+        hasProperties = true;
+        update.getProperties().forEach(property -> properties.put(property.getName(), property));
+      }
+
+      if (update.getRelationships() != null) {
+        hasRelationships = true;
+        update.getRelationships()
+            .forEach(relationship -> relationships.put(keyOf(relationship), relationship));
+      }
+
+      if (update.getTelemetry() != null) {
+        telemetry.add(new Telemetry(update.getTelemetry(), correlationId));
+      }
+    }
+
+    private static String keyOf(final Relationship relationship) {
+      // Parent and gateway are single valued, i.e. the latest one wins
+      if (Relationship.RELATIONSHIP_CHILD.equalsIgnoreCase(relationship.getName())) {
+        return relationship.getName().toLowerCase() + ":" + relationship.getEntityType() + ":"
+            + relationship.getTargetId();
+      }
+
+      return String.valueOf(relationship.getName()).toLowerCase() + ":"
+          + relationship.getEntityType();
+    }
+
+    private int size() {
+      return count;
+    }
+
+    private IngressMessage toMessage() {
+      return IngressMessage.builder().id(id).entityType(entityType)
+          .attributes(hasAttributes ? new LinkedHashMap<>(attributes) : null)
+          .properties(hasProperties ? new ArrayList<>(properties.values()) : null)
+          .relationships(hasRelationships ? new ArrayList<>(relationships.values()) : null)
+          .build();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.microsoft.twins.reflector.model.IngressMessage;
+
+/**
+ * Jackson module that keeps {@link IngressMessage#getTelemetry()} as raw UTF-8 JSON
+ * <code>byte[]</code> instead of materializing it as map tree. If the message is parsed from a
+ * byte array telemetry objects and arrays are sliced out of the input without building any
+ * intermediate representation.
+ *
+ */
+public class RawTelemetryModule extends SimpleModule {
+  private static final long serialVersionUID = 1L;
+
+  public RawTelemetryModule() {
+    super(RawTelemetryModule.class.getSimpleName());
+    setMixInAnnotation(IngressMessage.class, IngressMessageMixin.class);
+  }
+
+  abstract static class IngressMessageMixin {
+    @JsonDeserialize(using = RawJsonDeserializer.class)
+    @JsonSerialize(using = RawJsonSerializer.class)
+    private Object telemetry;
+  }
+
+  static class RawJsonDeserializer extends JsonDeserializer<Object> {
+
+    @Override
+    public Object deserialize(final JsonParser parser, final DeserializationContext context)
+        throws IOException {
+      final Object source = parser.getTokenLocation().getSourceRef();
+      final long start = parser.getTokenLocation().getByteOffset();
+
+      // Slicing requires the offsets to be relative to the source array, i.e. the token has to
+      // start where the offset points to. Scalars are rare and simply copied.
+      if (source instanceof byte[] && start >= 0 && start < ((byte[]) source).length
+          && startsToken(((byte[]) source)[(int) start], parser.getCurrentToken())) {
+        parser.skipChildren();
+        return Arrays.copyOfRange((byte[]) source, (int) start,
+            (int) parser.getCurrentLocation().getByteOffset());
+      }
+
+      try (ByteArrayBuilder buffer = new ByteArrayBuilder();
+          JsonGenerator generator = parser.getCodec().getFactory().createGenerator(buffer)) {
+        generator.copyCurrentStructure(parser);
+        generator.flush();
+        return buffer.toByteArray();
+      }
+    }
+
+    @Override
+    public Object getNullValue(final DeserializationContext context) {
+      return null;
+    }
+
+    private static boolean startsToken(final byte first, final JsonToken token) {
+      switch (token) {
+        case START_OBJECT:
+          return first == '{';
+        case START_ARRAY:
+          return first == '[';
+        default:
+          return false;
+      }
+    }
+  }
+
+  static class RawJsonSerializer extends JsonSerializer<Object> {
+
+    @Override
+    public void serialize(final Object value, final JsonGenerator generator,
+        final SerializerProvider serializers) throws IOException {
+      if (value instanceof byte[]) {
+        generator.writeRawValue(new String((byte[]) value, StandardCharsets.UTF_8));
+      } else {
+        generator.writeObject(value);
+      }
+    }
+  }
+}
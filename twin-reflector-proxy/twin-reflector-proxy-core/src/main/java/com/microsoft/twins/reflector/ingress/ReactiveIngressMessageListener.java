@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.util.CollectionUtils;
+import org.springframework.validation.annotation.Validated;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.error.AbstractIngressFailedException;
+import com.microsoft.twins.reflector.model.FeedbackMessage;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Relationship;
+import com.microsoft.twins.reflector.model.Status;
+import com.microsoft.twins.reflector.proxy.ReactiveDigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+/**
+ * Ingress listener that applies partial updates of existing devices and spaces through the
+ * {@link ReactiveDigitalTwinTopologyProxy}, i.e. without blocking a thread per ADT request.
+ *
+ * <p>
+ * Messages of all consumer threads are processed by one pipeline with at most the configured
+ * number of messages in flight. A consumer thread waits for its message to be applied, i.e. the
+ * record is acknowledged afterwards. Messages with the same ID are applied in order. Messages the
+ * reactive proxy does not cover, e.g. full updates, deletes, creations, child and gateway
+ * relationships or partial updates handed over to the {@link PartialUpdateCoalescer}, are applied
+ * by the blocking {@link TopologyUpdater} on the bounded blocking scheduler.
+ * </p>
+ *
+ * <p>
+ * Reactive updates take a permit of the {@link AdaptiveConcurrencyLimiter}, if configured, like
+ * blocking ones do.
+ * </p>
+ *
+ */
+@Slf4j
+@Validated
+public class ReactiveIngressMessageListener extends AbstractIngressMessageListener {
+  private final ReactiveDigitalTwinTopologyProxy reactiveProxy;
+  private final Scheduler blockingScheduler;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final Map<String, Mono<Void>> pendingById = new ConcurrentHashMap<>();
+  private final FluxSink<Pending> pipeline;
+
+  public ReactiveIngressMessageListener(final TopologyUpdater topologyUpdater,
+      final TelemetryForwarder telemetryForwarder, final TwinReflectorProxyProperties properties,
+      final ReactiveDigitalTwinTopologyProxy reactiveProxy, final Scheduler blockingScheduler) {
+    super(topologyUpdater, telemetryForwarder, properties);
+    this.reactiveProxy = reactiveProxy;
+    this.blockingScheduler = blockingScheduler;
+
+    final int maxInFlight = properties.getIngress().getReactiveMaxInFlight();
+    final UnicastProcessor<Pending> processor = UnicastProcessor.create();
+
+    // Buffered messages are bounded by the consumer threads as each waits for its message
+    pipeline = processor.sink();
+    processor.limitRate(maxInFlight).flatMap(this::process, maxInFlight).subscribe();
+  }
+
+  @StreamListener(ReflectorIngressSink.INPUT)
+  void getIngress(@NotNull @Valid @Payload final IngressMessage message,
+      @Header(name = ReflectorIngressSink.HEADER_MESSAGE_TYPE, required = true) final Object type,
+      @Header(name = ReflectorIngressSink.HEADER_CORRELATION_ID,
+          required = false) final Optional<Object> correl) {
+
+    final String messageType = decodeMessageType(type);
+    final UUID correlationId = decodeCorrelationId(correl);
+
+    trackIngress(messageType, correlationId, message.getId());
+    log.trace("Got ingress message {}", message);
+
+    final Pending pending = new Pending(message, messageType, correlationId);
+    pipeline.next(pending);
+
+    try {
+      sendFeedback(pending.done.join());
+    } catch (final CompletionException e) {
+      log.error("Failed to process message [{}] with correlation ID [{}]", message.getId(),
+          correlationId, e.getCause());
+      if (isErrorFeedbackEnabled()) {
+        sendFeedback(FeedbackMessage.builder().correlationId(correlationId).status(Status.ERROR)
+            .errorMessage(e.getCause().getMessage()).build());
+      }
+    }
+  }
+
+  /**
+   * @return number of messages that are currently processed
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  private Mono<Void> process(final Pending pending) {
+    inFlight.incrementAndGet();
+
+    return inOrder(pending.message.getId(),
+        () -> apply(pending.message, pending.messageType, pending.correlationId))
+            .subscriberContext(pending.correlationId == null ? Context.empty()
+                : Context.of(ReactiveDigitalTwinTopologyProxy.CONTEXT_CORRELATION_ID,
+                    pending.correlationId))
+            .doOnSuccess(feedback -> {
+              inFlight.decrementAndGet();
+              pending.done.complete(feedback);
+            }).doOnError(e -> {
+              inFlight.decrementAndGet();
+              pending.done.completeExceptionally(e);
+            }).onErrorResume(e -> Mono.empty()).then();
+  }
+
+  /**
+   * Subscribes the task once the previous task with the same ID has completed.
+   */
+  private <T> Mono<T> inOrder(final String id, final Supplier<Mono<T>> task) {
+    final String key = id == null ? "" : id;
+    final MonoProcessor<Void> done = MonoProcessor.create();
+    final Mono<Void> previous = pendingById.put(key, done);
+
+    return (previous == null ? Mono.<Void>empty() : previous).then(Mono.defer(task))
+        .doFinally(signal -> {
+          pendingById.remove(key, done);
+          done.onComplete();
+        });
+  }
+
+  private Mono<FeedbackMessage> apply(final IngressMessage message, final String messageType,
+      final UUID correlationId) {
+    if (!"partial".equalsIgnoreCase(messageType) || !isReactive(message)
+        || isCoalesced(message)) {
+      return applyBlocking(message, messageType, correlationId);
+    }
+
+    evictDigest(message);
+
+    final Mono<Boolean> updated;
+    if (IngressMessage.ENTITY_V1_DEVICE.equalsIgnoreCase(message.getEntityType())) {
+      updated = reactiveProxy.getDeviceByName(message.getId())
+          .flatMap(existing -> getParent(message).map(Optional::of)
+              .defaultIfEmpty(Optional.empty())
+              .flatMap(parent -> limited(reactiveProxy.updateDevicePartial(existing,
+                  parent.orElse(null), message.getProperties(), message.getAttributes())))
+              .thenReturn(true))
+          .defaultIfEmpty(false);
+    } else {
+      updated = reactiveProxy.getSpaceByName(message.getId())
+          .flatMap(existing -> getParent(message).map(Optional::of)
+              .defaultIfEmpty(Optional.empty())
+              .flatMap(parent -> limited(reactiveProxy.updateSpacePartial(existing.getId(),
+                  parent.orElse(null), message.getProperties(), message.getAttributes())))
+              .thenReturn(true))
+          .defaultIfEmpty(false);
+    }
+
+    return updated.flatMap(exists -> {
+      if (!exists) {
+        // Creation of the element including its defaults is left to the topology updater
+        return applyBlocking(message, messageType, correlationId);
+      }
+
+      return forwardTelemetryAsync(message, correlationId)
+          .then(Mono.fromCallable(() -> isFeedbackEnabled()
+              ? FeedbackMessage.builder().correlationId(correlationId).status(Status.PROCESSED)
+                  .build()
+              : null));
+    }).onErrorResume(AbstractIngressFailedException.class, e -> {
+      log.error("Failed to process message [{}]", message.getId(), e);
+      trackException(e, correlationId);
+
+      return Mono.fromCallable(() -> isErrorFeedbackEnabled()
+          ? FeedbackMessage.builder().correlationId(correlationId).status(Status.ERROR)
+              .errorCode(e.getErrorCode()).errorMessage(e.getMessage()).build()
+          : null);
+    });
+  }
+
+  /**
+   * Subscribes the update with a permit of the {@link AdaptiveConcurrencyLimiter}, which is waited
+   * for on the blocking scheduler.
+   */
+  private <T> Mono<T> limited(final Mono<T> update) {
+    final AdaptiveConcurrencyLimiter limiter = getLimiter();
+    if (limiter == null) {
+      return update;
+    }
+
+    return Mono.using(limiter::acquirePermit, permit -> update.doOnError(e -> permit.release()),
+        AdaptiveConcurrencyLimiter.Permit::release).subscribeOn(blockingScheduler);
+  }
+
+  private Mono<FeedbackMessage> applyBlocking(final IngressMessage message,
+      final String messageType, final UUID correlationId) {
+    return Mono
+        .fromCallable(() -> withCorrelationId(correlationId,
+            () -> processAndReport(message, messageType, correlationId)))
+        .subscribeOn(blockingScheduler);
+  }
+
+  private Mono<Void> forwardTelemetryAsync(final IngressMessage message,
+      final UUID correlationId) {
+    if (message.getTelemetry() == null) {
+      return Mono.empty();
+    }
+
+    // Sending is asynchronous but opening an IoT Hub client on first use is not
+    return Mono
+        .<Void>fromRunnable(() -> withCorrelationId(correlationId, () -> {
+          forwardTelemetry(telemetryForwarder, message.getTelemetry(), correlationId,
+              message.getId());
+          return null;
+        })).subscribeOn(blockingScheduler);
+  }
+
+  private Mono<UUID> getParent(final IngressMessage message) {
+    if (CollectionUtils.isEmpty(message.getRelationships())) {
+      return Mono.empty();
+    }
+
+    return message.getRelationships().stream()
+        .filter(relationShip -> IngressMessage.ENTITY_V1_SPACE
+            .equalsIgnoreCase(relationShip.getEntityType()))
+        .filter(relationShip -> Relationship.RELATIONSHIP_PARENT
+            .equalsIgnoreCase(relationShip.getName()))
+        .findAny().map(relationShip -> reactiveProxy.getSpaceByName(relationShip.getTargetId())
+            .map(SpaceRetrieve::getId))
+        .orElse(Mono.empty());
+  }
+
+  /**
+   * @return <code>true</code> if the reactive proxy covers the message, i.e. a device or space
+   *         with parent relationship at most
+   */
+  private static boolean isReactive(final IngressMessage message) {
+    if (!IngressMessage.ENTITY_V1_DEVICE.equalsIgnoreCase(message.getEntityType())
+        && !IngressMessage.ENTITY_V1_SPACE.equalsIgnoreCase(message.getEntityType())) {
+      return false;
+    }
+
+    return CollectionUtils.isEmpty(message.getRelationships())
+        || message.getRelationships().stream()
+            .allMatch(relationShip -> Relationship.RELATIONSHIP_PARENT
+                .equalsIgnoreCase(relationShip.getName()));
+  }
+
+  private static final class Pending {
+    private final IngressMessage message;
+    private final String messageType;
+    private final UUID correlationId;
+    private final CompletableFuture<FeedbackMessage> done = new CompletableFuture<>();
+
+    private Pending(final IngressMessage message, final String messageType,
+        final UUID correlationId) {
+      this.message = message;
+      this.messageType = messageType;
+      this.correlationId = correlationId;
+    }
+  }
+}
@@ -121,14 +121,48 @@ public interface DigitalTwinTopologyProxy {
 
   Optional<SpaceRetrieve> getSpaceByName(@NotEmpty String name);
 
+  /**
+   * Looks up multiple devices at once, i.e. cached devices locally and the others in bulk.
+   *
+   * @param names of the devices
+   * @return the existing devices by name, names of devices that do not exist are missing
+   */
+  Map<String, DeviceRetrieve> getDevicesByNames(@NotNull Collection<String> names);
+
+  /**
+   * Looks up multiple spaces at once, i.e. cached spaces locally and the others in bulk.
+   *
+   * @param names of the spaces
+   * @return the existing spaces by name, names of spaces that do not exist are missing
+   */
+  Map<String, SpaceRetrieve> getSpacesByNames(@NotNull Collection<String> names);
+
   List<SpaceRetrieve> getSpaceChildrenOf(@NotNull UUID space);
 
   Optional<DeviceRetrieve> getDeviceByDeviceId(@NotNull UUID deviceId);
 
+  /**
+   * Retrieves the connection string of a device from ADT, i.e. it is not part of the cached
+   * devices.
+   *
+   * @param deviceId of the device
+   * @return the connection string, empty if the device does not exist or has none
+   */
+  Optional<String> getDeviceConnectionString(@NotNull UUID deviceId);
+
   Optional<SpaceRetrieve> getSpaceBySpaceId(@NotNull UUID deviceId);
 
   Optional<UUID> getGatewayIdByHardwareId(@NotEmpty String hardwareId);
 
+  /**
+   * Looks up the gateways of multiple hardware IDs at once, i.e. cached hardware IDs locally and
+   * the others in bulk.
+   *
+   * @param hardwareIds of sensors or devices
+   * @return the gateway IDs by hardware ID, hardware IDs that do not exist are missing
+   */
+  Map<String, UUID> getGatewayIdsByHardwareIds(@NotNull Collection<String> hardwareIds);
+
   void deleteDeviceByName(@NotEmpty String name);
 
   void deleteSpaceByName(@NotEmpty String name);
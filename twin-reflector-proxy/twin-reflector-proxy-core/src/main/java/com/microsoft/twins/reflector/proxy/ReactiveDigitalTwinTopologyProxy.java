@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.model.MessageType;
+import com.microsoft.twins.reflector.model.Property;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link DigitalTwinTopologyProxy} for the lookups and partial updates
+ * on the hot ingress path. Requests are sent when subscribed. The correlation ID of the ingress
+ * message is taken from the subscriber context key {@link #CONTEXT_CORRELATION_ID}.
+ *
+ */
+public interface ReactiveDigitalTwinTopologyProxy {
+  String CONTEXT_CORRELATION_ID = "correlationId";
+
+  /**
+   * @param name of the device
+   * @return the device or empty if it does not exist
+   */
+  Mono<DeviceRetrieve> getDeviceByName(String name);
+
+  /**
+   * @param name of the space
+   * @return the space or empty if it does not exist
+   */
+  Mono<SpaceRetrieve> getSpaceByName(String name);
+
+  /**
+   * Updates device partial, i.e. all properties or attributes not provided by the caller are kept
+   * on the device and only the provided ones are set.
+   *
+   * @param existing device element to update
+   * @param parent of the device, e.g. space, might be <code>null</code>.
+   * @param properties of the device
+   * @param attributes of the device
+   * @return completes once the device has been updated
+   *
+   * @see MessageType#PARTIAL
+   */
+  Mono<Void> updateDevicePartial(DeviceRetrieve existing, UUID parent,
+      Collection<Property> properties, Map<String, String> attributes);
+
+  /**
+   * Updates space partial, i.e. all properties or attributes not provided by the caller are kept on
+   * the space and only the provided ones are set.
+   *
+   * @param id of the space
+   * @param parent of the space, might be <code>null</code>.
+   * @param properties of the space
+   * @param attributes of the space
+   * @return completes once the space has been updated
+   *
+   * @see MessageType#PARTIAL
+   */
+  Mono<Void> updateSpacePartial(UUID id, UUID parent, Collection<Property> properties,
+      Map<String, String> attributes);
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.springframework.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Collapses concurrent loads of the same key into one, i.e. only one ADT request per key is in
+ * flight and all other callers wait for its result. Used by the proxies for cache misses as
+ * Spring's {@link org.springframework.cache.annotation.Cacheable} does not synchronize them.
+ *
+ * <p>
+ * Results are not kept once the load has completed, caching is left to the caller. Callers that
+ * cache the result after the load, e.g. by {@link org.springframework.cache.annotation.Cacheable},
+ * use {@link #load(Cache, Object, Supplier)} so that the result is cached before the flight is
+ * removed, i.e. no further load of the key starts in between. The duration of the loads is
+ * recorded per cache as <code>twins.reflector.proxy.load</code>.
+ * </p>
+ *
+ */
+public class SingleFlight {
+  private static final String METRIC_NAME = "twins.reflector.proxy.collapsed";
+  private static final String METRIC_LOAD = "twins.reflector.proxy.load";
+
+  private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+  private final MeterRegistry meterRegistry;
+  private final LongAdder collapsed = new LongAdder();
+  private final Map<String, Counter> collapsedCounters = new ConcurrentHashMap<>();
+  private final Map<String, Timer> loadTimers = new ConcurrentHashMap<>();
+
+  /**
+   * @param meterRegistry to count collapsed requests per cache with, might be <code>null</code>
+   */
+  public SingleFlight(final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Runs the loader unless a load of the same key is already in flight, in which case its result
+   * is returned.
+   *
+   * @param cacheName the result is cached in, part of the key
+   * @param key of the result
+   * @param loader of the result
+   * @return result of the load
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T load(final String cacheName, final Object key, final Supplier<T> loader) {
+    final List<Object> flightKey = List.of(cacheName, key);
+    final CompletableFuture<Object> flight = new CompletableFuture<>();
+    final CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, flight);
+
+    if (existing != null) {
+      collapsed(cacheName);
+      return (T) await(existing);
+    }
+
+    final long start = System.nanoTime();
+    try {
+      final T result = loader.get();
+      flight.complete(result);
+      return result;
+    } catch (final RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(flightKey, flight);
+      loaded(cacheName, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Like {@link #load(String, Object, Supplier)} but puts the result into the cache before the
+   * flight completes. Empty {@link Optional} results are cached as <code>null</code> like
+   * {@link org.springframework.cache.annotation.Cacheable} does.
+   *
+   * @param cache to put the result into, its name is part of the key
+   * @param key of the result in the cache
+   * @param loader of the result
+   * @return result of the load
+   */
+  public <T> T load(final Cache cache, final Object key, final Supplier<T> loader) {
+    return load(cache.getName(), key, () -> {
+      final T result = loader.get();
+      cache.put(key, result instanceof Optional ? ((Optional<?>) result).orElse(null) : result);
+      return result;
+    });
+  }
+
+  /**
+   * Asynchronous variant of {@link #load(String, Object, Supplier)}, shares the flights of the same
+   * key with it.
+   *
+   * @param cacheName the result is cached in, part of the key
+   * @param key of the result
+   * @param loader starting the load of the result
+   * @return future of the result of the load
+   */
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> loadAsync(final String cacheName, final Object key,
+      final Supplier<CompletableFuture<T>> loader) {
+    final List<Object> flightKey = List.of(cacheName, key);
+    final CompletableFuture<Object> flight = new CompletableFuture<>();
+    final CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, flight);
+
+    if (existing != null) {
+      collapsed(cacheName);
+      return existing.thenApply(result -> (T) result);
+    }
+
+    final long start = System.nanoTime();
+    CompletableFuture<T> loading;
+    try {
+      loading = loader.get();
+    } catch (final RuntimeException e) {
+      loading = CompletableFuture.failedFuture(e);
+    }
+
+    loading.whenComplete((result, e) -> {
+      inFlight.remove(flightKey, flight);
+      loaded(cacheName, System.nanoTime() - start);
+
+      if (e == null) {
+        flight.complete(result);
+      } else {
+        flight.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+      }
+    });
+
+    return flight.thenApply(result -> (T) result);
+  }
+
+  /**
+   * @return number of requests that waited for a load in flight instead of sending their own
+   */
+  public long getCollapsed() {
+    return collapsed.sum();
+  }
+
+  private void collapsed(final String cacheName) {
+    collapsed.increment();
+
+    if (meterRegistry != null) {
+      collapsedCounters.computeIfAbsent(cacheName,
+          name -> Counter.builder(METRIC_NAME).tag("cache", name)
+              .description("Cache misses served by a load already in flight")
+              .register(meterRegistry))
+          .increment();
+    }
+  }
+
+  private void loaded(final String cacheName, final long nanos) {
+    if (meterRegistry != null) {
+      loadTimers.computeIfAbsent(cacheName,
+          name -> Timer.builder(METRIC_LOAD).tag("cache", name)
+              .description("Time to load cache misses from ADT").register(meterRegistry))
+          .record(nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static Object await(final CompletableFuture<Object> flight) {
+    try {
+      return flight.join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
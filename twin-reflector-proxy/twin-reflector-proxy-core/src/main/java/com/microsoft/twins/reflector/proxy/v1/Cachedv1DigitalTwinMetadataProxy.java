@@ -5,8 +5,12 @@ package com.microsoft.twins.reflector.proxy.v1;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.interceptor.SimpleKeyGenerator;
 import org.springframework.util.CollectionUtils;
 import org.springframework.validation.annotation.Validated;
 import com.microsoft.twins.api.PropertyKeysApi;
@@ -20,6 +24,7 @@ import com.microsoft.twins.model.ExtendedTypeRetrieve;
 import com.microsoft.twins.model.PrimitiveDataTypeEnum;
 import com.microsoft.twins.model.ScopeEnum;
 import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
 import com.microsoft.twins.reflector.proxy.TenantResolver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -34,14 +39,35 @@ public class Cachedv1DigitalTwinMetadataProxy implements DigitalTwinMetadataProx
 
   private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
 
+  private final TypeIdTable typeIds = new TypeIdTable();
 
   private final TenantResolver tenantResolver;
   private final PropertyKeysApi propertyKeysApi;
   private final TypesApi typesApi;
 
+  @Autowired(required = false)
+  private SingleFlight singleFlight;
+
+  @Autowired(required = false)
+  private CacheManager cacheManager;
+
+  @Autowired(required = false)
+  private MetadataLookupIndex metadataIndex;
+
   @Override
   @Cacheable(CACHE_PROPERTY_KEY_BY_NAME_AND_SCOPE)
   public String getOrCreatePropertykey(final String name, final ScopeEnum scope) {
+    // Same key as the Cacheable
+    return loadCached(CACHE_PROPERTY_KEY_BY_NAME_AND_SCOPE,
+        SimpleKeyGenerator.generateKey(name, scope),
+        () -> retrieveOrCreatePropertykey(name, scope));
+  }
+
+  private String retrieveOrCreatePropertykey(final String name, final ScopeEnum scope) {
+    if (metadataIndex != null) {
+      return metadataIndex.getOrCreatePropertyKey(name, scope);
+    }
+
     final Optional<ExtendedPropertyKeyRetrieve> found = propertyKeysApi
         .propertyKeysRetrieve(new PropertyKeysApi.PropertyKeysRetrieveQueryParams()
             .spaceId(tenantResolver.getTenant()).scope(scope))
@@ -58,9 +84,42 @@ public class Cachedv1DigitalTwinMetadataProxy implements DigitalTwinMetadataProx
   }
 
 
+  /**
+   * Looks the type up in a {@link TypeIdTable} instead of a Spring cache, i.e. without key and
+   * value allocations, and only retrieves or creates types missing in there.
+   */
   @Override
-  @Cacheable(CACHE_TYPE_BY_NAME_AND_CATEGORY)
   public int getOrCreateType(final String name, final CategoryEnum category) {
+    final int id = typeIds.get(category, name);
+    if (id != TypeIdTable.MISSING) {
+      return id;
+    }
+
+    return load(CACHE_TYPE_BY_NAME_AND_CATEGORY, List.of(TypeIdTable.normalize(name), category),
+        () -> {
+          final int existing = typeIds.get(category, name);
+          if (existing != TypeIdTable.MISSING) {
+            return existing;
+          }
+
+          final int created = retrieveOrCreateType(name, category);
+          typeIds.put(category, name, created);
+          return created;
+        });
+  }
+
+  /**
+   * Drops the known types, e.g. after types were updated or deleted in ADT.
+   */
+  public void evictTypes() {
+    typeIds.clear();
+  }
+
+  private int retrieveOrCreateType(final String name, final CategoryEnum category) {
+    if (metadataIndex != null) {
+      return metadataIndex.getOrCreateType(name, category);
+    }
+
     final List<ExtendedTypeRetrieve> found =
         typesApi.typesRetrieve(new TypesRetrieveQueryParams().spaceId(tenantResolver.getTenant())
             .names(WHITE_SPACE.matcher(name).replaceAll("")).categories(category));
@@ -74,4 +133,23 @@ public class Cachedv1DigitalTwinMetadataProxy implements DigitalTwinMetadataProx
 
     return found.get(0).getId();
   }
+
+  private <T> T load(final String cacheName, final Object key, final Supplier<T> loader) {
+    if (singleFlight == null) {
+      return loader.get();
+    }
+
+    return singleFlight.load(cacheName, key, loader);
+  }
+
+  /**
+   * Caches the result before the flight is removed, Cacheable would put it only afterwards.
+   */
+  private <T> T loadCached(final String cacheName, final Object key, final Supplier<T> loader) {
+    if (singleFlight == null || cacheManager == null) {
+      return load(cacheName, key, loader);
+    }
+
+    return singleFlight.load(cacheManager.getCache(cacheName), key, loader);
+  }
 }
@@ -3,14 +3,24 @@
  */
 package com.microsoft.twins.reflector.proxy.v1;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.validation.constraints.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache.ValueWrapper;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
@@ -29,17 +39,22 @@ import com.microsoft.twins.model.DeviceCreate;
 import com.microsoft.twins.model.DeviceRetrieve;
 import com.microsoft.twins.model.DeviceStatusEnum;
 import com.microsoft.twins.model.DeviceUpdate;
+import com.microsoft.twins.model.EncodingUtils;
 import com.microsoft.twins.model.ExtendedPropertyCreate;
+import com.microsoft.twins.model.ExtendedPropertyRetrieve;
 import com.microsoft.twins.model.ScopeEnum;
 import com.microsoft.twins.model.SensorRetrieve;
 import com.microsoft.twins.model.SpaceCreate;
 import com.microsoft.twins.model.SpaceRetrieve;
 import com.microsoft.twins.model.SpaceUpdate;
+import com.microsoft.twins.reflector.cache.CacheRefresher;
 import com.microsoft.twins.reflector.error.AttributeNotSupportedException;
 import com.microsoft.twins.reflector.model.IngressMessage;
 import com.microsoft.twins.reflector.model.Property;
 import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
 import com.microsoft.twins.reflector.proxy.DigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -52,9 +67,28 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
   public static final String CACHE_DEVICE_BY_NAME = "deviceByName";
   public static final String CACHE_SPACE_BY_NAME = "spaceByName";
   public static final String CACHE_SPACE_BY_ID = "spaceById";
+  /**
+   * Marker per element ID and correlation ID of the updates by this proxy, see
+   * {@link #ownWriteKey}. Used to keep the written through cache entries on all the topology
+   * operation events resulting from an update, until the markers expire.
+   */
+  public static final String CACHE_OWN_WRITE = "topologyOwnWrite";
+  /**
+   * Expiry of the markers in {@link #CACHE_OWN_WRITE} unless configured for the cache.
+   */
+  public static final Duration OWN_WRITE_EXPIRY = Duration.ofMinutes(5);
+  /**
+   * Caches whose entries can be reloaded in the background, see {@link #registerReloaders}.
+   */
+  public static final Set<String> REFRESHABLE_CACHES = Set.of(CACHE_GATEWAY_ID_BY_HARDWARE_ID,
+      CACHE_DEVICE_BY_ID, CACHE_DEVICE_BY_NAME, CACHE_SPACE_BY_NAME, CACHE_SPACE_BY_ID);
 
   private static final String UNKOWN_TYPE = "None";
   private static final String UNKOWN_SPACE_STATUS = "None";
+  private static final String SPACE_INCLUDES = "properties,description";
+  private static final String CONNECTION_STRING_INCLUDES = "ConnectionString";
+  private static final int BULK_SIZE = 50;
+  private static final String METRIC_SKIPPED_WRITES = "twins.reflector.proxy.writes.skipped";
 
 
   private final DigitalTwinMetadataProxy metadataProxy;
@@ -63,6 +97,15 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
   private final DevicesApi devicesApi;
   private final CacheManager cacheManager;
 
+  @Autowired(required = false)
+  private TopologyGraphIndex graphIndex;
+
+  @Autowired(required = false)
+  private SingleFlight singleFlight;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
   @Override
   public UUID createDevice(final String name, final UUID parent, final UUID gateway,
       final Collection<Property> properties, final Map<String, String> attributes) {
@@ -82,11 +125,18 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
     }
 
     if (!CollectionUtils.isEmpty(attributes)) {
-      attributes.entrySet().forEach(e -> setDeviceAttribute(device, e));
+      attributes.entrySet().forEach(e -> setDeviceAttribute(metadataProxy, device, e));
     }
 
     log.debug("I will create device [{}]", device);
-    return devicesApi.devicesCreate(device);
+    final UUID id = devicesApi.devicesCreate(device);
+    writeThroughDevice(writtenDevice(new DeviceRetrieve().id(id).properties(new ArrayList<>()),
+        device, device.getProperties()));
+
+    if (graphIndex != null) {
+      graphIndex.deviceChanged(id);
+    }
+    return id;
   }
 
   @Override
@@ -96,22 +146,43 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
     final DeviceUpdate device = new DeviceUpdate();
     device.setSpaceId(parent);
     device.setGatewayId(gateway);
+    List<ExtendedPropertyCreate> changed = List.of();
+    boolean written = false;
 
     if (!CollectionUtils.isEmpty(properties)) {
-      devicesApi.devicesUpdateProperties(properties.stream()
-          .map(p -> new ExtendedPropertyCreate()
-              .name(metadataProxy.getOrCreatePropertykey(p.getName(), ScopeEnum.DEVICES))
-              .value(p.getValue()))
-          .collect(Collectors.toList()), existing.getId());
+      changed = changedProperties(existing.getProperties(),
+          toPropertyCreates(properties, ScopeEnum.DEVICES));
+
+      if (changed.isEmpty()) {
+        log.debug("Device [{}] properties need no change. Skipping update", existing.getId());
+        skippedWrite(IngressMessage.ENTITY_V1_DEVICE, "properties");
+      } else {
+        markOwnWrite(existing.getId());
+        devicesApi.devicesUpdateProperties(changed, existing.getId());
+        written = true;
+      }
     }
 
     setAllDeviceAttributes(device, attributes);
 
     if (deviceEquals(existing, device)) {
-      log.debug("Device [{}] needs no change to comply with [{}]. Skipping update", existing.getId(), device);
+      log.debug("Device [{}] needs no change to comply with [{}]. Skipping update",
+          existing.getId(), device);
+      skippedWrite(IngressMessage.ENTITY_V1_DEVICE, "entity");
     } else {
       log.debug("I will update device with [{}]", device);
+      markOwnWrite(existing.getId());
       devicesApi.devicesUpdate(device, existing.getId());
+      written = true;
+
+      if (graphIndex != null && !Objects.equals(parent, existing.getSpaceId())) {
+        graphIndex.deviceMoved(existing.getId(), parent);
+      }
+    }
+
+    // The diff of the next update relies on the cached properties and fields
+    if (written) {
+      writeThroughDevice(writtenDevice(existing, device, changed));
     }
   }
 
@@ -125,6 +196,49 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
         && Objects.equals(update.getStatus(), existing.getStatus());
   }
 
+  static boolean spaceEquals(final SpaceRetrieve existing, final SpaceUpdate update) {
+    return existing != null
+        && Objects.equals(update.getParentSpaceId(), existing.getParentSpaceId())
+        && Objects.equals(update.getDescription(), existing.getDescription())
+        && Objects.equals(update.getFriendlyName(), existing.getFriendlyName())
+        && Objects.equals(update.getTypeId(), existing.getTypeId())
+        && Objects.equals(update.getSubtypeId(), existing.getSubtypeId())
+        && Objects.equals(update.getStatusId(), existing.getStatusId());
+  }
+
+  /**
+   * @param existing properties of the element, <code>null</code> if not known
+   * @param update properties to write
+   * @return the properties that are not set to the same value on the element yet
+   */
+  static List<ExtendedPropertyCreate> changedProperties(
+      final List<ExtendedPropertyRetrieve> existing, final List<ExtendedPropertyCreate> update) {
+    if (existing == null) {
+      return update;
+    }
+
+    final Map<String, String> values = new HashMap<>();
+    existing.forEach(property -> values.put(property.getName(), property.getValue()));
+
+    return update.stream().filter(property -> !values.containsKey(property.getName())
+        || !Objects.equals(values.get(property.getName()), property.getValue()))
+        .collect(Collectors.toList());
+  }
+
+  private List<ExtendedPropertyCreate> toPropertyCreates(final Collection<Property> properties,
+      final ScopeEnum scope) {
+    return properties.stream()
+        .map(p -> new ExtendedPropertyCreate()
+            .name(metadataProxy.getOrCreatePropertykey(p.getName(), scope)).value(p.getValue()))
+        .collect(Collectors.toList());
+  }
+
+  private void skippedWrite(final String entityType, final String write) {
+    if (meterRegistry != null) {
+      meterRegistry.counter(METRIC_SKIPPED_WRITES, "type", entityType, "write", write).increment();
+    }
+  }
+
   private void setAllDeviceAttributes(final DeviceUpdate device,
       final Map<String, String> attributes) {
 
@@ -186,20 +300,35 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
       device.setGatewayId(gateway);
     }
 
-    if (!CollectionUtils.isEmpty(properties)) {
-      devicesApi.devicesUpdateProperties(properties.stream()
-          .map(p -> new ExtendedPropertyCreate()
-              .name(metadataProxy.getOrCreatePropertykey(p.getName(), ScopeEnum.DEVICES))
-              .value(p.getValue()))
-          .collect(Collectors.toList()), existing.getId());
+    final List<ExtendedPropertyCreate> propertyCreates =
+        CollectionUtils.isEmpty(properties) ? List.of()
+            : toPropertyCreates(properties, ScopeEnum.DEVICES);
+    if (!propertyCreates.isEmpty()) {
+      markOwnWrite(existing.getId());
+      devicesApi.devicesUpdateProperties(propertyCreates, existing.getId());
     }
 
     if (!CollectionUtils.isEmpty(attributes)) {
-      attributes.entrySet().forEach(e -> setDeviceAttribute(device, e));
+      attributes.entrySet().forEach(e -> setDeviceAttribute(metadataProxy, device, e));
+    }
+
+    if (new DeviceUpdate().equals(device)) {
+      log.debug("Device [{}] partial update has no device fields. Skipping update",
+          existing.getId());
+      if (!propertyCreates.isEmpty()) {
+        writeThroughDevice(writtenDevice(existing, device, propertyCreates));
+      }
+      return;
     }
 
     log.debug("I will update device with [{}]", device);
+    markOwnWrite(existing.getId());
     devicesApi.devicesUpdate(device, existing.getId());
+    writeThroughDevice(writtenDevice(existing, device, propertyCreates));
+
+    if (graphIndex != null && parent != null) {
+      graphIndex.deviceMoved(existing.getId(), parent);
+    }
   }
 
 
@@ -221,11 +350,18 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
     }
 
     if (!CollectionUtils.isEmpty(attributes)) {
-      attributes.entrySet().forEach(e -> setSpaceAttribute(space, e));
+      attributes.entrySet().forEach(e -> setSpaceAttribute(metadataProxy, space, e));
     }
 
     log.debug("I will create space [{}]", space);
-    return spacesApi.spacesCreate(space);
+    final UUID id = spacesApi.spacesCreate(space);
+    writeThroughSpace(id, writtenSpace(new SpaceRetrieve().id(id).properties(new ArrayList<>()),
+        space, space.getProperties()));
+
+    if (graphIndex != null) {
+      graphIndex.spaceChanged(id);
+    }
+    return id;
 
   }
 
@@ -235,19 +371,46 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
 
     final SpaceUpdate space = new SpaceUpdate();
     space.setParentSpaceId(parent);
+    // Looked up by the caller, i.e. cached unless evicted in the meantime
+    final SpaceRetrieve existing = cacheManager.getCache(CACHE_SPACE_BY_ID).get(id,
+        SpaceRetrieve.class);
+    List<ExtendedPropertyCreate> changed = List.of();
+    boolean written = false;
 
     if (!CollectionUtils.isEmpty(properties)) {
-      spacesApi.spacesUpdateProperties(properties.stream()
-          .map(p -> new ExtendedPropertyCreate()
-              .name(metadataProxy.getOrCreatePropertykey(p.getName(), ScopeEnum.SPACES))
-              .value(p.getValue()))
-          .collect(Collectors.toList()), id);
+      changed = changedProperties(existing == null ? null : existing.getProperties(),
+          toPropertyCreates(properties, ScopeEnum.SPACES));
+
+      if (changed.isEmpty()) {
+        log.debug("Space [{}] properties need no change. Skipping update", id);
+        skippedWrite(IngressMessage.ENTITY_V1_SPACE, "properties");
+      } else {
+        markOwnWrite(id);
+        spacesApi.spacesUpdateProperties(changed, id);
+        written = true;
+      }
     }
 
     setAllSpaceAttributes(space, attributes);
 
-    log.debug("I will update space with [{}]", space);
-    spacesApi.spacesUpdate(space, id);
+    if (spaceEquals(existing, space)) {
+      log.debug("Space [{}] needs no change to comply with [{}]. Skipping update", id, space);
+      skippedWrite(IngressMessage.ENTITY_V1_SPACE, "entity");
+    } else {
+      log.debug("I will update space with [{}]", space);
+      markOwnWrite(id);
+      spacesApi.spacesUpdate(space, id);
+      written = true;
+
+      if (graphIndex != null) {
+        graphIndex.spaceMoved(id, parent);
+      }
+    }
+
+    // The diff of the next update relies on the cached properties and fields
+    if (written) {
+      writeThroughSpace(id, writtenSpace(existing, space, changed));
+    }
   }
 
   @Override
@@ -260,25 +423,203 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
       space.setParentSpaceId(parent);
     }
 
-    if (!CollectionUtils.isEmpty(properties)) {
-      spacesApi.spacesUpdateProperties(properties.stream()
-          .map(p -> new ExtendedPropertyCreate()
-              .name(metadataProxy.getOrCreatePropertykey(p.getName(), ScopeEnum.SPACES))
-              .value(p.getValue()))
-          .collect(Collectors.toList()), id);
+    final List<ExtendedPropertyCreate> propertyCreates =
+        CollectionUtils.isEmpty(properties) ? List.of()
+            : toPropertyCreates(properties, ScopeEnum.SPACES);
+    if (!propertyCreates.isEmpty()) {
+      markOwnWrite(id);
+      spacesApi.spacesUpdateProperties(propertyCreates, id);
     }
 
     if (!CollectionUtils.isEmpty(attributes)) {
-      attributes.entrySet().forEach(e -> setSpaceAttribute(space, e));
+      attributes.entrySet().forEach(e -> setSpaceAttribute(metadataProxy, space, e));
+    }
+
+    if (new SpaceUpdate().equals(space)) {
+      log.debug("Space [{}] partial update has no space fields. Skipping update", id);
+      if (!propertyCreates.isEmpty()) {
+        writeThroughSpace(id, writtenSpace(cachedSpace(id), space, propertyCreates));
+      }
+      return;
     }
 
     log.debug("I will update space with [{}]", space);
+    markOwnWrite(id);
     spacesApi.spacesUpdate(space, id);
+    writeThroughSpace(id, writtenSpace(cachedSpace(id), space, propertyCreates));
+
+    if (graphIndex != null && parent != null) {
+      graphIndex.spaceMoved(id, parent);
+    }
   }
 
 
-  private void setDeviceAttribute(final DeviceUpdate device,
-      final Map.Entry<String, String> attribute) {
+  /**
+   * Lets the refresher reload the entries of the {@link #REFRESHABLE_CACHES} the same way as the
+   * lookups load them, i.e. with <code>null</code> for elements that no longer exist.
+   *
+   * @param refresher to register the reloaders with
+   */
+  public void registerReloaders(final CacheRefresher refresher) {
+    refresher.setReloader(CACHE_DEVICE_BY_NAME,
+        name -> retrieveDeviceByName((String) name).orElse(null));
+    refresher.setReloader(CACHE_DEVICE_BY_ID, id -> retrieveDeviceById((UUID) id).orElse(null));
+    refresher.setReloader(CACHE_SPACE_BY_NAME,
+        name -> retrieveSpaceByName((String) name).orElse(null));
+    refresher.setReloader(CACHE_SPACE_BY_ID, id -> retrieveSpaceById((UUID) id).orElse(null));
+    refresher.setReloader(CACHE_GATEWAY_ID_BY_HARDWARE_ID,
+        hardwareId -> retrieveGatewayIdByHardwareId((String) hardwareId).orElse(null));
+  }
+
+  private <T> T load(final String cacheName, final Object key, final Supplier<T> loader) {
+    if (singleFlight == null) {
+      return loader.get();
+    }
+
+    // Cached before the flight is removed, Cacheable would put it only afterwards
+    return singleFlight.load(cacheManager.getCache(cacheName), key, loader);
+  }
+
+  private void markOwnWrite(final UUID id) {
+    final UUID correlationId = CorrelationIdContext.getCorrelationId();
+    if (correlationId != null) {
+      cacheManager.getCache(CACHE_OWN_WRITE).put(ownWriteKey(id, correlationId.toString()),
+          Boolean.TRUE);
+    }
+  }
+
+  /**
+   * @param id of the updated element
+   * @param correlationId of the update
+   * @return key of the marker of the update in {@link #CACHE_OWN_WRITE}
+   */
+  public static String ownWriteKey(final UUID id, final String correlationId) {
+    return id + ":" + correlationId.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Writes the device through to the caches, i.e. without retrieving it again after the write.
+   */
+  private void writeThroughDevice(final DeviceRetrieve device) {
+    cacheManager.getCache(CACHE_DEVICE_BY_ID).put(device.getId(), device);
+    cacheManager.getCache(CACHE_DEVICE_BY_NAME).put(device.getName(), device);
+
+    if (!StringUtils.isEmpty(device.getHardwareId())) {
+      cacheManager.getCache(CACHE_GATEWAY_ID_BY_HARDWARE_ID).put(device.getHardwareId(),
+          gatewayOf(device));
+    }
+  }
+
+  /**
+   * Writes the space through to the caches, i.e. without retrieving it again after the write. The
+   * entries are evicted instead if the space was not cached before the write, i.e. the fields not
+   * written are not known.
+   *
+   * @param space as written, <code>null</code> if not known
+   */
+  private void writeThroughSpace(final UUID id, final SpaceRetrieve space) {
+    if (space == null) {
+      log.debug("Space [{}] not cached before the write, evicting it", id);
+      cacheManager.getCache(CACHE_SPACE_BY_ID).evict(id);
+      return;
+    }
+
+    cacheManager.getCache(CACHE_SPACE_BY_ID).put(id, space);
+    cacheManager.getCache(CACHE_SPACE_BY_NAME).put(space.getName(), space);
+  }
+
+  private SpaceRetrieve cachedSpace(final UUID id) {
+    return cacheManager.getCache(CACHE_SPACE_BY_ID).get(id, SpaceRetrieve.class);
+  }
+
+  /**
+   * Applies a successful write to the device as cached, i.e. the fields set on the update and the
+   * written properties. Fields ADT defaults on create are <code>null</code>, at worst the next
+   * complete update writes them once.
+   *
+   * @param existing device before the write, not modified
+   * @param update fields written, <code>null</code> fields were not written
+   * @param properties written, <code>null</code> if none
+   * @return new device in the written state
+   */
+  static DeviceRetrieve writtenDevice(final DeviceRetrieve existing, final DeviceUpdate update,
+      final List<ExtendedPropertyCreate> properties) {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(existing.getId());
+    device.setName(Optional.ofNullable(update.getName()).orElse(existing.getName()));
+    device.setHardwareId(
+        Optional.ofNullable(update.getHardwareId()).orElse(existing.getHardwareId()));
+    device.setSpaceId(Optional.ofNullable(update.getSpaceId()).orElse(existing.getSpaceId()));
+    device.setGatewayId(
+        Optional.ofNullable(update.getGatewayId()).orElse(existing.getGatewayId()));
+    device.setFriendlyName(
+        Optional.ofNullable(update.getFriendlyName()).orElse(existing.getFriendlyName()));
+    device.setDescription(
+        Optional.ofNullable(update.getDescription()).orElse(existing.getDescription()));
+    device.setTypeId(Optional.ofNullable(update.getTypeId()).orElse(existing.getTypeId()));
+    device.setSubtypeId(
+        Optional.ofNullable(update.getSubtypeId()).orElse(existing.getSubtypeId()));
+    device.setStatus(Optional.ofNullable(update.getStatus()).orElse(existing.getStatus()));
+    device.setConnectionString(existing.getConnectionString());
+    device.setProperties(writtenProperties(existing.getProperties(), properties));
+    return device;
+  }
+
+  /**
+   * Applies a successful write to the space as cached, see
+   * {@link #writtenDevice(DeviceRetrieve, DeviceUpdate, List)}.
+   *
+   * @param existing space before the write, <code>null</code> if not known
+   * @return new space in the written state, <code>null</code> if not known
+   */
+  static SpaceRetrieve writtenSpace(final SpaceRetrieve existing, final SpaceUpdate update,
+      final List<ExtendedPropertyCreate> properties) {
+    if (existing == null) {
+      return null;
+    }
+
+    final SpaceRetrieve space = new SpaceRetrieve();
+    space.setId(existing.getId());
+    space.setName(Optional.ofNullable(update.getName()).orElse(existing.getName()));
+    space.setParentSpaceId(
+        Optional.ofNullable(update.getParentSpaceId()).orElse(existing.getParentSpaceId()));
+    space.setFriendlyName(
+        Optional.ofNullable(update.getFriendlyName()).orElse(existing.getFriendlyName()));
+    space.setDescription(
+        Optional.ofNullable(update.getDescription()).orElse(existing.getDescription()));
+    space.setTypeId(Optional.ofNullable(update.getTypeId()).orElse(existing.getTypeId()));
+    space.setSubtypeId(
+        Optional.ofNullable(update.getSubtypeId()).orElse(existing.getSubtypeId()));
+    space.setStatusId(Optional.ofNullable(update.getStatusId()).orElse(existing.getStatusId()));
+    space.setProperties(writtenProperties(existing.getProperties(), properties));
+    return space;
+  }
+
+  /**
+   * @param existing properties of the element, <code>null</code> if not known
+   * @param written properties that are created or replaced by name, <code>null</code> if none
+   * @return new properties after the write, <code>null</code> if still not known
+   */
+  static List<ExtendedPropertyRetrieve> writtenProperties(
+      final List<ExtendedPropertyRetrieve> existing, final List<ExtendedPropertyCreate> written) {
+    if (existing == null) {
+      return null;
+    }
+
+    final Map<String, ExtendedPropertyRetrieve> properties = new LinkedHashMap<>();
+    existing.forEach(property -> properties.put(property.getName(),
+        new ExtendedPropertyRetrieve().name(property.getName()).value(property.getValue())
+            .dataType(property.getDataType())));
+    if (written != null) {
+      written.forEach(property -> properties
+          .computeIfAbsent(property.getName(), name -> new ExtendedPropertyRetrieve().name(name))
+          .setValue(property.getValue()));
+    }
+    return new ArrayList<>(properties.values());
+  }
+
+  static void setDeviceAttribute(final DigitalTwinMetadataProxy metadataProxy,
+      final DeviceUpdate device, final Map.Entry<String, String> attribute) {
 
     switch (attribute.getKey()) {
       case IngressMessage.ATTRIBUTE_V1_DESCRIPTION:
@@ -303,8 +644,8 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
 
   }
 
-  private void setSpaceAttribute(final SpaceUpdate space,
-      final Map.Entry<String, String> attribute) {
+  static void setSpaceAttribute(final DigitalTwinMetadataProxy metadataProxy,
+      final SpaceUpdate space, final Map.Entry<String, String> attribute) {
 
     switch (attribute.getKey()) {
       case IngressMessage.ATTRIBUTE_V1_DESCRIPTION:
@@ -335,16 +676,163 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
       put = {@CachePut(cacheNames = CACHE_DEVICE_BY_ID, key = "#result.id",
           condition = "#result != null")})
   public Optional<DeviceRetrieve> getDeviceByName(final String name) {
-    return devicesApi.devicesRetrieve(new DevicesRetrieveQueryParams().names(name)
-        .includes("ConnectionString,properties,description")).stream().findAny();
+    return load(CACHE_DEVICE_BY_NAME, name, () -> retrieveDeviceByName(name));
+  }
+
+  private Optional<DeviceRetrieve> retrieveDeviceByName(final String name) {
+    return devicesApi.devicesRetrieve(
+        new DevicesRetrieveQueryParams().names(name).includes(deviceIncludes())).stream()
+        .findAny();
   }
 
   @Override
   @Caching(cacheable = {@Cacheable(cacheNames = CACHE_SPACE_BY_NAME)}, put = {
       @CachePut(cacheNames = CACHE_SPACE_BY_ID, key = "#result.id", condition = "#result != null")})
   public Optional<SpaceRetrieve> getSpaceByName(final String name) {
-    return spacesApi.spacesRetrieve(new SpacesRetrieveQueryParams().name(name)).stream()
-        .map(srwc -> (SpaceRetrieve) srwc).findAny();
+    return load(CACHE_SPACE_BY_NAME, name, () -> retrieveSpaceByName(name));
+  }
+
+  private Optional<SpaceRetrieve> retrieveSpaceByName(final String name) {
+    return spacesApi
+        .spacesRetrieve(new SpacesRetrieveQueryParams().name(name).includes(SPACE_INCLUDES))
+        .stream().map(srwc -> (SpaceRetrieve) srwc).findAny();
+  }
+
+  @Override
+  public Map<String, DeviceRetrieve> getDevicesByNames(final Collection<String> names) {
+    final Map<String, DeviceRetrieve> result = new HashMap<>();
+    final Map<Boolean, List<String>> misses =
+        getCachedByNames(CACHE_DEVICE_BY_NAME, names, DeviceRetrieve.class, result).stream()
+            .collect(Collectors.partitioningBy(name -> name.indexOf(',') < 0));
+
+    // Names that cannot be part of a comma separated list are looked up one by one
+    misses.get(false).forEach(name -> cacheDeviceByName(name,
+        load(CACHE_DEVICE_BY_NAME, name, () -> retrieveDeviceByName(name)).orElse(null), result));
+
+    final List<String> bulk = misses.get(true);
+    for (int i = 0; i < bulk.size(); i += BULK_SIZE) {
+      final List<String> chunk = bulk.subList(i, Math.min(i + BULK_SIZE, bulk.size()));
+      final Map<String, DeviceRetrieve> found = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      devicesApi
+          .devicesRetrieve(withValues(new DevicesRetrieveQueryParams().includes(deviceIncludes()),
+              "names", chunk))
+          .forEach(device -> found.put(device.getName(), device));
+
+      chunk.forEach(name -> cacheDeviceByName(name, found.get(name), result));
+    }
+
+    return result;
+  }
+
+  @Override
+  public Map<String, SpaceRetrieve> getSpacesByNames(final Collection<String> names) {
+    final Map<String, SpaceRetrieve> result = new HashMap<>();
+
+    // ADT supports a single space name per request only
+    getCachedByNames(CACHE_SPACE_BY_NAME, names, SpaceRetrieve.class, result)
+        .forEach(name -> {
+          final SpaceRetrieve space =
+              load(CACHE_SPACE_BY_NAME, name, () -> retrieveSpaceByName(name)).orElse(null);
+
+          // Like @Cacheable spaces that do not exist are cached as well
+          cacheManager.getCache(CACHE_SPACE_BY_NAME).put(name, space);
+          if (space != null) {
+            cacheManager.getCache(CACHE_SPACE_BY_ID).put(space.getId(), space);
+            result.put(name, space);
+          }
+        });
+
+    return result;
+  }
+
+  @Override
+  public Map<String, UUID> getGatewayIdsByHardwareIds(final Collection<String> hardwareIds) {
+    final Map<String, UUID> result = new HashMap<>();
+    final Map<Boolean, List<String>> misses =
+        getCachedByNames(CACHE_GATEWAY_ID_BY_HARDWARE_ID, hardwareIds, UUID.class, result).stream()
+            .collect(Collectors.partitioningBy(hardwareId -> hardwareId.indexOf(',') < 0));
+
+    // Hardware IDs that cannot be part of a comma separated list are looked up one by one
+    misses.get(false)
+        .forEach(hardwareId -> cacheGatewayId(hardwareId,
+            load(CACHE_GATEWAY_ID_BY_HARDWARE_ID, hardwareId,
+                () -> retrieveGatewayIdByHardwareId(hardwareId)).orElse(null),
+            result));
+
+    final List<String> bulk = misses.get(true);
+    for (int i = 0; i < bulk.size(); i += BULK_SIZE) {
+      final List<String> chunk = bulk.subList(i, Math.min(i + BULK_SIZE, bulk.size()));
+      final Map<String, UUID> found = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      devicesApi.devicesRetrieve(withValues(new DevicesRetrieveQueryParams(), "hardwareIds", chunk))
+          .forEach(device -> found.put(device.getHardwareId(), gatewayOf(device)));
+
+      // Sensor hardware IDs take precedence like in the single lookup
+      sensorsApi
+          .sensorsRetrieve(withValues(
+              new SensorsApi.SensorsRetrieveQueryParams().includes("device"), "hardwareIds",
+              chunk))
+          .stream().filter(sensor -> sensor.getDevice() != null)
+          .forEach(sensor -> found.put(sensor.getHardwareId(), gatewayOf(sensor.getDevice())));
+
+      chunk.forEach(hardwareId -> cacheGatewayId(hardwareId, found.get(hardwareId), result));
+    }
+
+    return result;
+  }
+
+  private void cacheGatewayId(final String hardwareId, final UUID gatewayId,
+      final Map<String, UUID> result) {
+    // Like @Cacheable hardware IDs that do not exist are cached as well
+    cacheManager.getCache(CACHE_GATEWAY_ID_BY_HARDWARE_ID).put(hardwareId, gatewayId);
+    if (gatewayId != null) {
+      result.put(hardwareId, gatewayId);
+    }
+  }
+
+  private static UUID gatewayOf(final DeviceRetrieve device) {
+    return device.getGatewayId() == null ? device.getId() : device.getGatewayId();
+  }
+
+  private void cacheDeviceByName(final String name, final DeviceRetrieve device,
+      final Map<String, DeviceRetrieve> result) {
+    // Like @Cacheable devices that do not exist are cached as well
+    cacheManager.getCache(CACHE_DEVICE_BY_NAME).put(name, device);
+    if (device != null) {
+      cacheManager.getCache(CACHE_DEVICE_BY_ID).put(device.getId(), device);
+      result.put(name, device);
+    }
+  }
+
+  /**
+   * Adds the cached elements to the result.
+   *
+   * @return the names not cached yet
+   */
+  private <T> List<String> getCachedByNames(final String cacheName,
+      final Collection<String> names, final Class<T> type, final Map<String, T> result) {
+    final List<String> misses = new ArrayList<>();
+
+    names.stream().filter(Objects::nonNull).distinct().forEach(name -> {
+      final ValueWrapper cached = cacheManager.getCache(cacheName).get(name);
+      if (cached == null) {
+        misses.add(name);
+      } else if (type.isInstance(cached.get())) {
+        result.put(name, type.cast(cached.get()));
+      }
+    });
+
+    return misses;
+  }
+
+  /**
+   * Sets a multi-value query parameter. The generated query parameters support a single value
+   * only while ADT accepts a comma separated list.
+   */
+  static <T extends Map<String, Object>> T withValues(final T params, final String name,
+      final Collection<?> values) {
+    params.put(name,
+        values.stream().map(EncodingUtils::encode).collect(Collectors.joining(",")));
+    return params;
   }
 
   @Override
@@ -352,8 +840,29 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
       put = {@CachePut(cacheNames = CACHE_DEVICE_BY_NAME, key = "#result.name",
           condition = "#result != null")})
   public Optional<DeviceRetrieve> getDeviceByDeviceId(final UUID deviceId) {
-    return devicesApi.devicesRetrieve(new DevicesRetrieveQueryParams().ids(deviceId)
-        .includes("ConnectionString,properties,description")).stream().findAny();
+    return load(CACHE_DEVICE_BY_ID, deviceId, () -> retrieveDeviceById(deviceId));
+  }
+
+  @Override
+  public Optional<String> getDeviceConnectionString(final UUID deviceId) {
+    // Devices not stored in compact form are cached including the connection string
+    final DeviceRetrieve cached =
+        cacheManager.getCache(CACHE_DEVICE_BY_ID).get(deviceId, DeviceRetrieve.class);
+    if (cached != null && !StringUtils.isEmpty(cached.getConnectionString())) {
+      return Optional.of(cached.getConnectionString());
+    }
+
+    return devicesApi
+        .devicesRetrieve(
+            new DevicesRetrieveQueryParams().ids(deviceId).includes(CONNECTION_STRING_INCLUDES))
+        .stream().findAny().map(DeviceRetrieve::getConnectionString)
+        .filter(connectionString -> !StringUtils.isEmpty(connectionString));
+  }
+
+  private Optional<DeviceRetrieve> retrieveDeviceById(final UUID deviceId) {
+    return devicesApi.devicesRetrieve(
+        new DevicesRetrieveQueryParams().ids(deviceId).includes(deviceIncludes())).stream()
+        .findAny();
   }
 
   @Override
@@ -361,8 +870,13 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
       put = {@CachePut(cacheNames = CACHE_SPACE_BY_NAME, key = "#result.name",
           condition = "#result != null")})
   public Optional<SpaceRetrieve> getSpaceBySpaceId(final UUID deviceId) {
-    return spacesApi.spacesRetrieve(new SpacesRetrieveQueryParams().ids(deviceId)).stream()
-        .map(srwc -> (SpaceRetrieve) srwc).findAny();
+    return load(CACHE_SPACE_BY_ID, deviceId, () -> retrieveSpaceById(deviceId));
+  }
+
+  private Optional<SpaceRetrieve> retrieveSpaceById(final UUID spaceId) {
+    return spacesApi
+        .spacesRetrieve(new SpacesRetrieveQueryParams().ids(spaceId).includes(SPACE_INCLUDES))
+        .stream().map(srwc -> (SpaceRetrieve) srwc).findAny();
   }
 
   @Override
@@ -377,6 +891,10 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
 
     devicesApi.devicesDelete(device.get().getId());
     cacheManager.getCache(CACHE_DEVICE_BY_ID).evict(device.get().getId());
+
+    if (graphIndex != null) {
+      graphIndex.deviceDeleted(device.get().getId());
+    }
   }
 
   @Override
@@ -391,12 +909,21 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
 
     spacesApi.spacesDelete(space.get().getId());
     cacheManager.getCache(CACHE_SPACE_BY_ID).evict(space.get().getId());
+
+    if (graphIndex != null) {
+      graphIndex.spaceDeleted(space.get().getId());
+    }
   }
 
 
   @Override
   @Cacheable(cacheNames = CACHE_GATEWAY_ID_BY_HARDWARE_ID)
   public Optional<UUID> getGatewayIdByHardwareId(final String hardwareId) {
+    return load(CACHE_GATEWAY_ID_BY_HARDWARE_ID, hardwareId,
+        () -> retrieveGatewayIdByHardwareId(hardwareId));
+  }
+
+  private Optional<UUID> retrieveGatewayIdByHardwareId(final String hardwareId) {
     // Check first if hardware ID belongs to sensor
     final List<SensorRetrieve> sensors = sensorsApi.sensorsRetrieve(
         new SensorsApi.SensorsRetrieveQueryParams().hardwareIds(hardwareId).includes("device"));
@@ -425,16 +952,25 @@ public class Cachedv1DigitalTwinTopologyProxy implements DigitalTwinTopologyProx
 
   @Override
   public List<DeviceRetrieve> getDeviceChildrenOf(@NotNull final UUID space) {
+    if (graphIndex != null) {
+      return graphIndex.getDeviceChildrenOf(space);
+    }
+
     return devicesApi.devicesRetrieve(new DevicesRetrieveQueryParams().spaceId(space));
   }
 
   @Override
   public List<SpaceRetrieve> getSpaceChildrenOf(@NotNull final UUID space) {
+    if (graphIndex != null) {
+      return graphIndex.getSpaceChildrenOf(space);
+    }
+
     return spacesApi
         .spacesRetrieve(new SpacesRetrieveQueryParams().spaceId(space).useParentSpace(true))
         .stream().map(s -> (SpaceRetrieve) s).collect(Collectors.toList());
   }
 
-
-
+  private String deviceIncludes() {
+    return CompactTopologyCodec.deviceIncludes(cacheManager);
+  }
 }
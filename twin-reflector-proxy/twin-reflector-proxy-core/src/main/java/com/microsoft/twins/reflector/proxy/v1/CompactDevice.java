@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.nio.ByteBuffer;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.DeviceStatusEnum;
+
+/**
+ * Immutable projection of a {@link DeviceRetrieve} onto the fields the reflector reads from the
+ * device caches. Heavy fields like the connection string, sensors or the space are dropped.
+ *
+ * @see CompactTopologyCodec
+ */
+final class CompactDevice {
+  private final long idMsb;
+  private final long idLsb;
+  private final long spaceIdMsb;
+  private final long spaceIdLsb;
+  private final long gatewayIdMsb;
+  private final long gatewayIdLsb;
+  private final String name;
+  private final String hardwareId;
+  private final String friendlyName;
+  private final String description;
+  private final int typeId;
+  private final int subtypeId;
+  private final DeviceStatusEnum status;
+  private final String[] properties;
+
+  CompactDevice(final DeviceRetrieve device) {
+    idMsb = CompactTopologyCodec.msb(device.getId());
+    idLsb = CompactTopologyCodec.lsb(device.getId());
+    spaceIdMsb = CompactTopologyCodec.msb(device.getSpaceId());
+    spaceIdLsb = CompactTopologyCodec.lsb(device.getSpaceId());
+    gatewayIdMsb = CompactTopologyCodec.msb(device.getGatewayId());
+    gatewayIdLsb = CompactTopologyCodec.lsb(device.getGatewayId());
+    name = device.getName();
+    // Devices created by the reflector use the name as hardware ID
+    hardwareId = name != null && name.equals(device.getHardwareId()) ? name
+        : device.getHardwareId();
+    friendlyName = device.getFriendlyName();
+    description = CompactTopologyCodec.intern(device.getDescription());
+    typeId = CompactTopologyCodec.toInt(device.getTypeId());
+    subtypeId = CompactTopologyCodec.toInt(device.getSubtypeId());
+    status = device.getStatus();
+    properties = CompactTopologyCodec.packProperties(device.getProperties());
+  }
+
+  private CompactDevice(final ByteBuffer source) {
+    idMsb = source.getLong();
+    idLsb = source.getLong();
+    spaceIdMsb = source.getLong();
+    spaceIdLsb = source.getLong();
+    gatewayIdMsb = source.getLong();
+    gatewayIdLsb = source.getLong();
+    name = CompactTopologyCodec.getString(source);
+    hardwareId = source.get() == 1 ? name : CompactTopologyCodec.getString(source);
+    friendlyName = CompactTopologyCodec.getString(source);
+    description = CompactTopologyCodec.getString(source);
+    typeId = source.getInt();
+    subtypeId = source.getInt();
+    final byte statusOrdinal = source.get();
+    status = statusOrdinal < 0 ? null : DeviceStatusEnum.values()[statusOrdinal];
+    properties = CompactTopologyCodec.getStrings(source);
+  }
+
+  static CompactDevice read(final ByteBuffer source) {
+    return new CompactDevice(source);
+  }
+
+  void write(final ByteBuffer target) {
+    target.putLong(idMsb).putLong(idLsb).putLong(spaceIdMsb).putLong(spaceIdLsb)
+        .putLong(gatewayIdMsb).putLong(gatewayIdLsb);
+    CompactTopologyCodec.putString(target, name);
+    // Hardware ID same as the name is written once only
+    final boolean sameAsName = name != null && name.equals(hardwareId);
+    target.put((byte) (sameAsName ? 1 : 0));
+    if (!sameAsName) {
+      CompactTopologyCodec.putString(target, hardwareId);
+    }
+    CompactTopologyCodec.putString(target, friendlyName);
+    CompactTopologyCodec.putString(target, description);
+    target.putInt(typeId).putInt(subtypeId);
+    target.put((byte) (status == null ? -1 : status.ordinal()));
+    CompactTopologyCodec.putStrings(target, properties);
+  }
+
+  DeviceRetrieve toDevice() {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(CompactTopologyCodec.uuid(idMsb, idLsb));
+    device.setSpaceId(CompactTopologyCodec.uuid(spaceIdMsb, spaceIdLsb));
+    device.setGatewayId(CompactTopologyCodec.uuid(gatewayIdMsb, gatewayIdLsb));
+    device.setName(name);
+    device.setHardwareId(hardwareId);
+    device.setFriendlyName(friendlyName);
+    device.setDescription(description);
+    device.setTypeId(CompactTopologyCodec.toInteger(typeId));
+    device.setSubtypeId(CompactTopologyCodec.toInteger(subtypeId));
+    device.setStatus(status);
+    device.setProperties(CompactTopologyCodec.unpackProperties(properties));
+    return device;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.nio.ByteBuffer;
+import com.microsoft.twins.model.SpaceRetrieve;
+
+/**
+ * Immutable projection of a {@link SpaceRetrieve} onto the fields the reflector reads from the
+ * space caches. Heavy fields like the space paths, locations or children are dropped.
+ *
+ * @see CompactTopologyCodec
+ */
+final class CompactSpace {
+  private final long idMsb;
+  private final long idLsb;
+  private final long parentSpaceIdMsb;
+  private final long parentSpaceIdLsb;
+  private final String name;
+  private final String friendlyName;
+  private final String description;
+  private final int typeId;
+  private final int subtypeId;
+  private final int statusId;
+  private final String[] properties;
+
+  CompactSpace(final SpaceRetrieve space) {
+    idMsb = CompactTopologyCodec.msb(space.getId());
+    idLsb = CompactTopologyCodec.lsb(space.getId());
+    parentSpaceIdMsb = CompactTopologyCodec.msb(space.getParentSpaceId());
+    parentSpaceIdLsb = CompactTopologyCodec.lsb(space.getParentSpaceId());
+    name = space.getName();
+    friendlyName = space.getFriendlyName();
+    description = CompactTopologyCodec.intern(space.getDescription());
+    typeId = CompactTopologyCodec.toInt(space.getTypeId());
+    subtypeId = CompactTopologyCodec.toInt(space.getSubtypeId());
+    statusId = CompactTopologyCodec.toInt(space.getStatusId());
+    properties = CompactTopologyCodec.packProperties(space.getProperties());
+  }
+
+  private CompactSpace(final ByteBuffer source) {
+    idMsb = source.getLong();
+    idLsb = source.getLong();
+    parentSpaceIdMsb = source.getLong();
+    parentSpaceIdLsb = source.getLong();
+    name = CompactTopologyCodec.getString(source);
+    friendlyName = CompactTopologyCodec.getString(source);
+    description = CompactTopologyCodec.getString(source);
+    typeId = source.getInt();
+    subtypeId = source.getInt();
+    statusId = source.getInt();
+    properties = CompactTopologyCodec.getStrings(source);
+  }
+
+  static CompactSpace read(final ByteBuffer source) {
+    return new CompactSpace(source);
+  }
+
+  void write(final ByteBuffer target) {
+    target.putLong(idMsb).putLong(idLsb).putLong(parentSpaceIdMsb).putLong(parentSpaceIdLsb);
+    CompactTopologyCodec.putString(target, name);
+    CompactTopologyCodec.putString(target, friendlyName);
+    CompactTopologyCodec.putString(target, description);
+    target.putInt(typeId).putInt(subtypeId).putInt(statusId);
+    CompactTopologyCodec.putStrings(target, properties);
+  }
+
+  SpaceRetrieve toSpace() {
+    final SpaceRetrieve space = new SpaceRetrieve();
+    space.setId(CompactTopologyCodec.uuid(idMsb, idLsb));
+    space.setParentSpaceId(CompactTopologyCodec.uuid(parentSpaceIdMsb, parentSpaceIdLsb));
+    space.setName(name);
+    space.setFriendlyName(friendlyName);
+    space.setDescription(description);
+    space.setTypeId(CompactTopologyCodec.toInteger(typeId));
+    space.setSubtypeId(CompactTopologyCodec.toInteger(subtypeId));
+    space.setStatusId(CompactTopologyCodec.toInteger(statusId));
+    space.setProperties(CompactTopologyCodec.unpackProperties(properties));
+    return space;
+  }
+}
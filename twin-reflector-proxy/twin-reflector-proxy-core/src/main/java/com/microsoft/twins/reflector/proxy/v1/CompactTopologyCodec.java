@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import org.springframework.cache.CacheManager;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.ExtendedPropertyRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.cache.CacheValueCodec;
+import com.microsoft.twins.reflector.cache.OffHeapSerializer;
+import com.microsoft.twins.reflector.cache.ReflectorCacheManager;
+
+/**
+ * Stores devices and spaces in the topology caches as compact immutable projections, see
+ * {@link CompactDevice} and {@link CompactSpace}. IDs are kept as two longs, strings of few
+ * distinct values that repeat across elements, i.e. property names and descriptions, are shared
+ * through a bounded interner that holds them weakly.
+ *
+ * <p>
+ * Every lookup hands out a new {@link DeviceRetrieve} or {@link SpaceRetrieve}, i.e. readers cannot
+ * modify the cached state. Fields not part of the projection are <code>null</code> and have to be
+ * retrieved on demand, e.g. the connection string with
+ * {@link Cachedv1DigitalTwinTopologyProxy#getDeviceConnectionString(UUID)}. Devices are therefore
+ * retrieved without the connection string if stored in compact form, see
+ * {@link #deviceIncludes(CacheManager)}.
+ * </p>
+ *
+ * <p>
+ * The compact form can be serialized for caches kept off heap, see
+ * {@link com.microsoft.twins.reflector.cache.OffHeapCache}.
+ * </p>
+ *
+ */
+public class CompactTopologyCodec implements CacheValueCodec, OffHeapSerializer {
+  /**
+   * Caches whose values are stored in compact form.
+   */
+  public static final Set<String> CACHES =
+      Set.of(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID,
+          Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME,
+          Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID,
+          Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME);
+
+  private static final String DEVICE_INCLUDES = "properties,description";
+  private static final String DEVICE_INCLUDES_CONNECTION_STRING =
+      "ConnectionString,properties,description";
+  private static final int NO_ID = Integer.MIN_VALUE;
+  private static final byte DEVICE = 1;
+  private static final byte SPACE = 2;
+  private static final int MAX_INTERNED = 10_000;
+
+  private static final Cache<String, String> INTERNED =
+      Caffeine.newBuilder().maximumSize(MAX_INTERNED).weakValues().build();
+
+  /**
+   * @param cacheManager of the topology caches
+   * @return includes of devices to retrieve for the caches, i.e. with the connection string unless
+   *         devices are stored in compact form
+   */
+  public static String deviceIncludes(final CacheManager cacheManager) {
+    return cacheManager instanceof ReflectorCacheManager
+        && ((ReflectorCacheManager) cacheManager).getSerializer(
+            Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID) instanceof CompactTopologyCodec
+                ? DEVICE_INCLUDES
+                : DEVICE_INCLUDES_CONNECTION_STRING;
+  }
+
+  @Override
+  public Object compact(final Object value) {
+    if (value instanceof DeviceRetrieve) {
+      return new CompactDevice((DeviceRetrieve) value);
+    }
+    if (value instanceof SpaceRetrieve) {
+      return new CompactSpace((SpaceRetrieve) value);
+    }
+    return value;
+  }
+
+  @Override
+  public Object expand(final Object stored) {
+    if (stored instanceof CompactDevice) {
+      return ((CompactDevice) stored).toDevice();
+    }
+    if (stored instanceof CompactSpace) {
+      return ((CompactSpace) stored).toSpace();
+    }
+    return stored;
+  }
+
+  @Override
+  public boolean write(final Object stored, final ByteBuffer target) {
+    if (stored instanceof CompactDevice) {
+      target.put(DEVICE);
+      ((CompactDevice) stored).write(target);
+      return true;
+    }
+    if (stored instanceof CompactSpace) {
+      target.put(SPACE);
+      ((CompactSpace) stored).write(target);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Object read(final ByteBuffer source) {
+    return source.get() == DEVICE ? CompactDevice.read(source) : CompactSpace.read(source);
+  }
+
+  static void putString(final ByteBuffer target, final String value) {
+    if (value == null) {
+      target.putShort((short) -1);
+      return;
+    }
+
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > Short.MAX_VALUE) {
+      throw new BufferOverflowException();
+    }
+    target.putShort((short) bytes.length).put(bytes);
+  }
+
+  static String getString(final ByteBuffer source) {
+    final short length = source.getShort();
+    if (length < 0) {
+      return null;
+    }
+
+    final byte[] bytes = new byte[length];
+    source.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void putStrings(final ByteBuffer target, final String[] values) {
+    if (values == null) {
+      target.putShort((short) -1);
+      return;
+    }
+
+    target.putShort((short) values.length);
+    for (final String value : values) {
+      putString(target, value);
+    }
+  }
+
+  static String[] getStrings(final ByteBuffer source) {
+    final short length = source.getShort();
+    if (length < 0) {
+      return null;
+    }
+
+    final String[] values = new String[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = getString(source);
+    }
+    return values;
+  }
+
+  /**
+   * @return shared instance of the value, for strings of few distinct values only as the interner
+   *         is bounded
+   */
+  static String intern(final String value) {
+    return value == null ? null : INTERNED.get(value, Function.identity());
+  }
+
+  // The nil UUID is not used by ADT and stands for null
+  static long msb(final UUID id) {
+    return id == null ? 0 : id.getMostSignificantBits();
+  }
+
+  static long lsb(final UUID id) {
+    return id == null ? 0 : id.getLeastSignificantBits();
+  }
+
+  static UUID uuid(final long msb, final long lsb) {
+    return msb == 0 && lsb == 0 ? null : new UUID(msb, lsb);
+  }
+
+  static int toInt(final Integer id) {
+    return id == null ? NO_ID : id;
+  }
+
+  static Integer toInteger(final int id) {
+    return id == NO_ID ? null : id;
+  }
+
+  /**
+   * @return names and values alternating, <code>null</code> if the properties are not known
+   */
+  static String[] packProperties(final List<ExtendedPropertyRetrieve> properties) {
+    if (properties == null) {
+      return null;
+    }
+
+    final String[] packed = new String[properties.size() * 2];
+    for (int i = 0; i < properties.size(); i++) {
+      packed[i * 2] = intern(properties.get(i).getName());
+      packed[i * 2 + 1] = properties.get(i).getValue();
+    }
+    return packed;
+  }
+
+  static List<ExtendedPropertyRetrieve> unpackProperties(final String[] packed) {
+    if (packed == null) {
+      return null;
+    }
+
+    final List<ExtendedPropertyRetrieve> properties = new ArrayList<>(packed.length / 2);
+    for (int i = 0; i < packed.length; i += 2) {
+      properties.add(new ExtendedPropertyRetrieve().name(packed[i]).value(packed[i + 1]));
+    }
+    return properties;
+  }
+}
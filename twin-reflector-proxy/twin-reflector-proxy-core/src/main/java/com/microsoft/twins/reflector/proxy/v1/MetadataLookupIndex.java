@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import com.microsoft.twins.api.PropertyKeysApi;
+import com.microsoft.twins.api.PropertyKeysApi.PropertyKeysRetrieveQueryParams;
+import com.microsoft.twins.api.TypesApi;
+import com.microsoft.twins.api.TypesApi.TypesRetrieveQueryParams;
+import com.microsoft.twins.event.model.TopologyOperationEvent;
+import com.microsoft.twins.model.CategoryEnum;
+import com.microsoft.twins.model.ExtendedPropertyKeyCreate;
+import com.microsoft.twins.model.ExtendedTypeCreate;
+import com.microsoft.twins.model.PrimitiveDataTypeEnum;
+import com.microsoft.twins.model.ScopeEnum;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
+import com.microsoft.twins.reflector.proxy.TenantResolver;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory index of the property keys and extended types of the tenant for
+ * {@link Cachedv1DigitalTwinMetadataProxy}. Each scope and category is loaded with one request and
+ * looked up case insensitively by hash instead of listing and scanning all keys per cache miss.
+ * The scopes and categories the reflector writes are preloaded on startup, others on first use.
+ *
+ * <p>
+ * Missing entries are created under single-flight and added to the index. If a creation fails,
+ * e.g. as another instance created the entry meanwhile, the scope or category is re-read before
+ * the failure is passed on. Updated or deleted property keys and types, see
+ * {@link #onTopologyOperation(TopologyOperationEvent)}, drop the index to be re-read on demand.
+ * </p>
+ *
+ */
+@Slf4j
+public class MetadataLookupIndex {
+  static final Set<ScopeEnum> PRELOAD_SCOPES = Set.of(ScopeEnum.DEVICES, ScopeEnum.SPACES);
+  static final Set<CategoryEnum> PRELOAD_CATEGORIES =
+      Set.of(CategoryEnum.DEVICETYPE, CategoryEnum.DEVICESUBTYPE, CategoryEnum.SPACETYPE,
+          CategoryEnum.SPACESUBTYPE, CategoryEnum.SPACESTATUS);
+
+  private static final String FLIGHT_PROPERTY_KEYS = "metadataIndexPropertyKeys";
+  private static final String FLIGHT_TYPES = "metadataIndexTypes";
+  private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+  private final TenantResolver tenantResolver;
+  private final PropertyKeysApi propertyKeysApi;
+  private final TypesApi typesApi;
+  private final SingleFlight singleFlight;
+
+  // Lower case names per scope, absent until loaded
+  private final Map<ScopeEnum, Set<String>> propertyKeys = new ConcurrentHashMap<>();
+
+  // Lower case names without white space to IDs per category, absent until loaded
+  private final Map<CategoryEnum, Map<String, Integer>> types = new ConcurrentHashMap<>();
+
+  /**
+   * @param singleFlight to collapse concurrent loads and creations with, might be
+   *        <code>null</code>
+   */
+  public MetadataLookupIndex(final TenantResolver tenantResolver,
+      final PropertyKeysApi propertyKeysApi, final TypesApi typesApi,
+      final SingleFlight singleFlight) {
+    this.tenantResolver = tenantResolver;
+    this.propertyKeysApi = propertyKeysApi;
+    this.typesApi = typesApi;
+    this.singleFlight = singleFlight;
+  }
+
+  /**
+   * Loads the scopes and categories written by the reflector. Failures are logged, the index is
+   * loaded on demand then.
+   */
+  public void preload() {
+    final long start = System.nanoTime();
+    try {
+      final int keys = PRELOAD_SCOPES.stream().mapToInt(scope -> propertyKeys(scope).size()).sum();
+      final int loadedTypes =
+          PRELOAD_CATEGORIES.stream().mapToInt(category -> types(category).size()).sum();
+      log.info("Preloaded [{}] property keys and [{}] types in [{}ms]", keys, loadedTypes,
+          (System.nanoTime() - start) / 1_000_000);
+    } catch (final RuntimeException e) {
+      log.warn("Preloading property keys and types failed, they are loaded on demand", e);
+    }
+  }
+
+  /**
+   * @param name of the property key
+   * @param scope of the property key
+   * @return the name
+   */
+  public String getOrCreatePropertyKey(final String name, final ScopeEnum scope) {
+    final String key = name.toLowerCase(Locale.ROOT);
+    if (propertyKeys(scope).contains(key)) {
+      return name;
+    }
+
+    return load(FLIGHT_PROPERTY_KEYS, List.of(key, scope), () -> {
+      if (propertyKeys(scope).contains(key)) {
+        return name;
+      }
+
+      log.debug("PropertyKey [{}] in scope [{}] not found. I will create one", name, scope);
+      try {
+        propertyKeysApi.propertyKeysCreate(
+            new ExtendedPropertyKeyCreate().name(name).spaceId(tenantResolver.getTenant())
+                .scope(scope).primitiveDataType(PrimitiveDataTypeEnum.STRING));
+      } catch (final RuntimeException e) {
+        if (!loadPropertyKeys(scope).contains(key)) {
+          throw e;
+        }
+        return name;
+      }
+
+      propertyKeys(scope).add(key);
+      return name;
+    });
+  }
+
+  /**
+   * @param name of the type, white space is ignored
+   * @param category of the type
+   * @return ID of the type
+   */
+  public int getOrCreateType(final String name, final CategoryEnum category) {
+    final String compactName = WHITE_SPACE.matcher(name).replaceAll("");
+    final String key = typeKey(name);
+    final Integer id = types(category).get(key);
+    if (id != null) {
+      return id;
+    }
+
+    return load(FLIGHT_TYPES, List.of(key, category), () -> {
+      final Integer existing = types(category).get(key);
+      if (existing != null) {
+        return existing;
+      }
+
+      log.debug("Type [{}] in category [{}] not found. I will create one", name, category);
+      final int created;
+      try {
+        created = typesApi.typesCreate(new ExtendedTypeCreate().name(compactName)
+            .friendlyName(name).category(category).spaceId(tenantResolver.getTenant()));
+      } catch (final RuntimeException e) {
+        final Integer reloaded = loadTypes(category).get(key);
+        if (reloaded == null) {
+          throw e;
+        }
+        return reloaded;
+      }
+
+      types(category).put(key, created);
+      return created;
+    });
+  }
+
+  /**
+   * Drops the property keys or types on updates and deletions. Created entries are found on
+   * demand.
+   *
+   * @param event of a change of a property key or type
+   */
+  public void onTopologyOperation(final TopologyOperationEvent event) {
+    if (TopologyOperationEvent.AccessType.CREATE == event.getAccessType()) {
+      return;
+    }
+
+    switch (event.getType()) {
+      case EXTENDEDPROPERTYKEY:
+        log.debug("Property key [{}] changed, dropping indexed property keys", event.getId());
+        propertyKeys.clear();
+        break;
+      case EXTENDEDTYPE:
+        log.debug("Type [{}] changed, dropping indexed types", event.getId());
+        types.clear();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private Set<String> propertyKeys(final ScopeEnum scope) {
+    final Set<String> keys = propertyKeys.get(scope);
+    return keys != null ? keys
+        : load(FLIGHT_PROPERTY_KEYS, scope, () -> propertyKeys.containsKey(scope)
+            ? propertyKeys.get(scope)
+            : loadPropertyKeys(scope));
+  }
+
+  private Set<String> loadPropertyKeys(final ScopeEnum scope) {
+    final Set<String> keys = ConcurrentHashMap.newKeySet();
+    propertyKeysApi.propertyKeysRetrieve(
+        new PropertyKeysRetrieveQueryParams().spaceId(tenantResolver.getTenant()).scope(scope))
+        .forEach(propertyKey -> keys.add(propertyKey.getName().toLowerCase(Locale.ROOT)));
+
+    propertyKeys.put(scope, keys);
+    log.debug("Indexed [{}] property keys in scope [{}]", keys.size(), scope);
+    return keys;
+  }
+
+  private Map<String, Integer> types(final CategoryEnum category) {
+    final Map<String, Integer> ids = types.get(category);
+    return ids != null ? ids
+        : load(FLIGHT_TYPES, category,
+            () -> types.containsKey(category) ? types.get(category) : loadTypes(category));
+  }
+
+  private Map<String, Integer> loadTypes(final CategoryEnum category) {
+    final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    typesApi.typesRetrieve(new TypesRetrieveQueryParams().spaceId(tenantResolver.getTenant())
+        .categories(category))
+        .forEach(type -> ids.putIfAbsent(typeKey(type.getName()), type.getId()));
+
+    types.put(category, ids);
+    log.debug("Indexed [{}] types in category [{}]", ids.size(), category);
+    return ids;
+  }
+
+  private static String typeKey(final String name) {
+    return WHITE_SPACE.matcher(name).replaceAll("").toLowerCase(Locale.ROOT);
+  }
+
+  private <T> T load(final String flight, final Object key, final Supplier<T> loader) {
+    if (singleFlight == null) {
+      return loader.get();
+    }
+
+    return singleFlight.load(flight, key, loader);
+  }
+}
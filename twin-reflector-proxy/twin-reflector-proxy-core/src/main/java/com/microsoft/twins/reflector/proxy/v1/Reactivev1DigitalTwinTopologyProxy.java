@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.util.CollectionUtils;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.twins.client.ObservedClient.ResponseListener;
+import com.microsoft.twins.client.TwinsApiClient;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.DeviceUpdate;
+import com.microsoft.twins.model.ExtendedPropertyCreate;
+import com.microsoft.twins.model.ScopeEnum;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.model.SpaceUpdate;
+import com.microsoft.twins.reflector.model.Property;
+import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
+import com.microsoft.twins.reflector.proxy.ReactiveDigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
+import feign.FeignException;
+import feign.Request;
+import feign.Response;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * {@link ReactiveDigitalTwinTopologyProxy} for the ADT v1 management API based on the non-blocking
+ * JDK {@link HttpClient}. Lookups share the caches of {@link Cachedv1DigitalTwinTopologyProxy} so
+ * that both proxies are kept consistent by the {@link TopologyCacheManager}.
+ *
+ * <p>
+ * Metadata (property keys, types) is resolved by the blocking, but cached,
+ * {@link DigitalTwinMetadataProxy} on the given bounded scheduler. Concurrent lookups of the same
+ * name are collapsed by the {@link SingleFlight} shared with the blocking proxy. 429 and 503
+ * responses are retried with a delay like the ADT Feign clients do. Other failed requests result
+ * in a {@link FeignException} with the response status.
+ * </p>
+ *
+ */
+@Slf4j
+public class Reactivev1DigitalTwinTopologyProxy implements ReactiveDigitalTwinTopologyProxy {
+  private static final String HEADER_CORRELATION_ID = "X-Ms-Client-Request-Id";
+  private static final String SPACE_INCLUDES = "properties,description";
+  private static final int MAX_RETRIES = 3;
+  private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+  private final DigitalTwinMetadataProxy metadataProxy;
+  private final TwinsApiClient twinsApiClient;
+  private final HttpClient httpClient;
+  private final CacheManager cacheManager;
+  private final Duration requestTimeout;
+  private final Scheduler blockingScheduler;
+  private final SingleFlight singleFlight;
+
+  private final ObjectMapper objectMapper;
+  private final JavaType devices;
+  private final JavaType spaces;
+
+  /**
+   * @param blockingScheduler bounded scheduler the metadata is resolved on
+   * @param singleFlight to collapse concurrent lookups with, might be <code>null</code>
+   */
+  public Reactivev1DigitalTwinTopologyProxy(final DigitalTwinMetadataProxy metadataProxy,
+      final TwinsApiClient twinsApiClient, final HttpClient httpClient,
+      final CacheManager cacheManager, final Duration requestTimeout,
+      final Scheduler blockingScheduler, final SingleFlight singleFlight) {
+    this.metadataProxy = metadataProxy;
+    this.twinsApiClient = twinsApiClient;
+    this.httpClient = httpClient;
+    this.cacheManager = cacheManager;
+    this.requestTimeout = requestTimeout;
+    this.blockingScheduler = blockingScheduler;
+    this.singleFlight = singleFlight;
+
+    objectMapper = twinsApiClient.getObjectMapper();
+    devices = objectMapper.getTypeFactory().constructCollectionType(List.class,
+        DeviceRetrieve.class);
+    spaces =
+        objectMapper.getTypeFactory().constructCollectionType(List.class, SpaceRetrieve.class);
+  }
+
+  @Override
+  public Mono<DeviceRetrieve> getDeviceByName(final String name) {
+    final DeviceRetrieve cached = getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME)
+        .get(name, DeviceRetrieve.class);
+    if (cached != null) {
+      return Mono.just(cached);
+    }
+
+    return load(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME, name,
+        this.<List<DeviceRetrieve>>send("GET",
+            "/api/v1.0/devices?names=" + encode(name) + "&includes=" + deviceIncludes(), null,
+            devices).flatMapMany(Flux::fromIterable).next().doOnNext(device -> {
+              getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).put(name, device);
+              getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).put(device.getId(),
+                  device);
+            }));
+  }
+
+  @Override
+  public Mono<SpaceRetrieve> getSpaceByName(final String name) {
+    final SpaceRetrieve cached = getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME)
+        .get(name, SpaceRetrieve.class);
+    if (cached != null) {
+      return Mono.just(cached);
+    }
+
+    return load(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME, name,
+        this.<List<SpaceRetrieve>>send("GET",
+            "/api/v1.0/spaces?name=" + encode(name) + "&includes=" + SPACE_INCLUDES, null, spaces)
+            .flatMapMany(Flux::fromIterable).next().doOnNext(space -> {
+              getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME).put(name, space);
+              getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).put(space.getId(),
+                  space);
+            }));
+  }
+
+  @Override
+  public Mono<Void> updateDevicePartial(final DeviceRetrieve existing, final UUID parent,
+      final Collection<Property> properties, final Map<String, String> attributes) {
+    return Mono.fromCallable(() -> {
+      final DeviceUpdate device = new DeviceUpdate();
+      if (parent != null) {
+        device.setSpaceId(parent);
+      }
+      if (!CollectionUtils.isEmpty(attributes)) {
+        attributes.entrySet().forEach(e -> Cachedv1DigitalTwinTopologyProxy
+            .setDeviceAttribute(metadataProxy, device, e));
+      }
+      return device;
+    }).subscribeOn(blockingScheduler)
+        .flatMap(device -> updateProperties("/api/v1.0/devices/" + existing.getId(),
+            properties, ScopeEnum.DEVICES, () -> evictDevice(existing)).then(Mono.defer(() -> {
+              if (new DeviceUpdate().equals(device)) {
+                log.debug("Device [{}] partial update has no device fields. Skipping update",
+                    existing.getId());
+                return Mono.empty();
+              }
+
+              log.debug("I will update device with [{}]", device);
+              return send("PATCH", "/api/v1.0/devices/" + existing.getId(), device, null).then();
+            })));
+  }
+
+  @Override
+  public Mono<Void> updateSpacePartial(final UUID id, final UUID parent,
+      final Collection<Property> properties, final Map<String, String> attributes) {
+    return Mono.fromCallable(() -> {
+      final SpaceUpdate space = new SpaceUpdate();
+      if (parent != null) {
+        space.setParentSpaceId(parent);
+      }
+      if (!CollectionUtils.isEmpty(attributes)) {
+        attributes.entrySet().forEach(e -> Cachedv1DigitalTwinTopologyProxy
+            .setSpaceAttribute(metadataProxy, space, e));
+      }
+      return space;
+    }).subscribeOn(blockingScheduler)
+        .flatMap(space -> updateProperties("/api/v1.0/spaces/" + id, properties, ScopeEnum.SPACES,
+            () -> evictSpace(id)).then(Mono.defer(() -> {
+              if (new SpaceUpdate().equals(space)) {
+                log.debug("Space [{}] partial update has no space fields. Skipping update", id);
+                return Mono.empty();
+              }
+
+              log.debug("I will update space with [{}]", space);
+              return send("PATCH", "/api/v1.0/spaces/" + id, space, null).then();
+            })));
+  }
+
+  /**
+   * @param written called once the properties have been written, i.e. to evict the cached element
+   *        whose properties the complete updates of {@link Cachedv1DigitalTwinTopologyProxy} are
+   *        compared with
+   */
+  private Mono<Void> updateProperties(final String path, final Collection<Property> properties,
+      final ScopeEnum scope, final Runnable written) {
+    if (CollectionUtils.isEmpty(properties)) {
+      return Mono.empty();
+    }
+
+    return Mono
+        .fromCallable(() -> properties.stream()
+            .map(p -> new ExtendedPropertyCreate()
+                .name(metadataProxy.getOrCreatePropertykey(p.getName(), scope))
+                .value(p.getValue()))
+            .collect(Collectors.toList()))
+        .subscribeOn(blockingScheduler)
+        .flatMap(body -> send("PUT", path + "/properties", body, null))
+        .then(Mono.fromRunnable(written));
+  }
+
+  private void evictDevice(final DeviceRetrieve device) {
+    if (device.getName() != null) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).evict(device.getName());
+    }
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).evict(device.getId());
+  }
+
+  private void evictSpace(final UUID id) {
+    final SpaceRetrieve cached =
+        getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).get(id, SpaceRetrieve.class);
+    if (cached != null) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME).evict(cached.getName());
+    }
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).evict(id);
+  }
+
+  /**
+   * Subscribes the lookup unless a lookup of the same key is in flight already, either by this or
+   * by the blocking proxy. The lookup keeps the subscriber context, i.e. the correlation ID, of
+   * the first caller.
+   */
+  private <T> Mono<T> load(final String cacheName, final Object key, final Mono<T> lookup) {
+    if (singleFlight == null) {
+      return lookup;
+    }
+
+    return Mono.subscriberContext()
+        .flatMap(context -> Mono.fromFuture(singleFlight.loadAsync(cacheName, key,
+            () -> lookup.subscriberContext(context).toFuture())));
+  }
+
+  private Cache getCache(final String name) {
+    return cacheManager.getCache(name);
+  }
+
+  private <T> Mono<T> send(final String method, final String path, final Object body,
+      final JavaType responseType) {
+    return Mono.subscriberContext().flatMap(context -> Mono.fromCallable(() -> {
+      final HttpRequest.Builder builder =
+          HttpRequest.newBuilder(URI.create(twinsApiClient.getTwinsUrl() + path))
+              .method(method,
+                  body == null ? BodyPublishers.noBody()
+                      : BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+              .timeout(requestTimeout).header("Content-Type", "application/json")
+              .header("Accept", "*/*");
+
+      context.<UUID>getOrEmpty(CONTEXT_CORRELATION_ID).ifPresent(
+          correlationId -> builder.header(HEADER_CORRELATION_ID, correlationId.toString()));
+      twinsApiClient.getAccessToken()
+          .ifPresent(token -> builder.header("Authorization", "Bearer " + token));
+
+      return builder.build();
+    })).flatMap(request -> Mono.defer(() -> {
+      final long start = System.nanoTime();
+      return Mono.fromFuture(httpClient.sendAsync(request, BodyHandlers.ofByteArray()))
+          .doOnNext(response -> onResponse(response.statusCode(), start))
+          .doOnError(e -> onResponse(ResponseListener.NO_RESPONSE, start));
+    }).flatMap(response -> this.<T>read(request, response, responseType)))
+        .retryWhen(errors -> errors.zipWith(Flux.range(1, MAX_RETRIES + 1))
+            .flatMap(failure -> isRetryable(failure.getT1()) && failure.getT2() <= MAX_RETRIES
+                ? Mono.delay(RETRY_DELAY)
+                : Mono.error(failure.getT1())));
+  }
+
+  /**
+   * Reports every attempt like the ADT Feign clients do, see
+   * {@link TwinsApiClient#setResponseListener(ResponseListener)}.
+   */
+  private void onResponse(final int status, final long start) {
+    final ResponseListener listener = twinsApiClient.getResponseListener();
+    if (listener != null) {
+      listener.onResponse(status, System.nanoTime() - start);
+    }
+  }
+
+  private <T> Mono<T> read(final HttpRequest request, final HttpResponse<byte[]> response,
+      final JavaType responseType) {
+    if (response.statusCode() < 200 || response.statusCode() >= 300) {
+      return Mono.error(toFeignException(request, response));
+    }
+
+    if (responseType == null || response.body().length == 0) {
+      return Mono.empty();
+    }
+
+    try {
+      return Mono.just(objectMapper.readValue(response.body(), responseType));
+    } catch (final IOException e) {
+      return Mono.error(e);
+    }
+  }
+
+  private static boolean isRetryable(final Throwable failure) {
+    return failure instanceof FeignException
+        && (((FeignException) failure).status() == 429
+            || ((FeignException) failure).status() == 503);
+  }
+
+  private static FeignException toFeignException(final HttpRequest request,
+      final HttpResponse<byte[]> response) {
+    final Map<String, Collection<String>> headers = response.headers().map().entrySet().stream()
+        .collect(Collectors.toMap(Map.Entry::getKey, e -> (Collection<String>) e.getValue()));
+
+    return FeignException.errorStatus(request.method() + " " + request.uri().getPath(),
+        Response.builder().status(response.statusCode()).headers(headers)
+            .body(response.body())
+            .request(Request.create(Request.HttpMethod.valueOf(request.method()),
+                request.uri().toString(), Map.of(), null, StandardCharsets.UTF_8))
+            .build());
+  }
+
+  private static String encode(final String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private String deviceIncludes() {
+    return CompactTopologyCodec.deviceIncludes(cacheManager);
+  }
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.util.StringUtils;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.DevicesApi.DevicesRetrieveQueryParams;
+import com.microsoft.twins.api.SensorsApi;
+import com.microsoft.twins.api.SensorsApi.SensorsRetrieveQueryParams;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.api.SpacesApi.SpacesRetrieveQueryParams;
+import com.microsoft.twins.event.model.TopologyOperationEvent;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the topology and gateway caches of {@link Cachedv1DigitalTwinTopologyProxy} up to date
+ * from topology operations instead of evicting changed elements, i.e. the next ingress message
+ * for a changed element does not wait for a synchronous reload.
+ *
+ * <p>
+ * IDs of created and updated devices, spaces and sensors, including changes of their extended
+ * properties, are collected over a short window and re-read with one retrieval per type and up to
+ * {@value #BULK_SIZE} IDs. Re-read elements replace their entries by ID, name and hardware ID,
+ * cached misses included. Updates of elements that are not cached are ignored. Deleted elements
+ * are evicted right away.
+ * </p>
+ *
+ * <p>
+ * Devices whose gateway changed have the hardware IDs of their sensors re-read as well. The
+ * hardware IDs of the sensors re-read are kept by sensor ID, i.e. the gateway entry of the previous
+ * hardware ID is evicted if a sensor is updated or deleted. Gateway entries of other sensors, e.g.
+ * found on demand or beyond {@value #MAX_SENSORS} sensors, remain until expiry.
+ * </p>
+ *
+ * <p>
+ * Device and space changes are forwarded to the {@link TopologyGraphIndex} once the caches are
+ * up to date so that the index picks up the re-read elements.
+ * </p>
+ *
+ */
+@Slf4j
+public class TopologyCacheMaintainer {
+  private static final String SPACE_INCLUDES = "properties,description";
+  private static final String SENSOR_INCLUDES = "device";
+  private static final int BULK_SIZE = 50;
+  private static final int MAX_SENSORS = 100_000;
+
+  private final DevicesApi devicesApi;
+  private final SpacesApi spacesApi;
+  private final SensorsApi sensorsApi;
+  private final CacheManager cacheManager;
+  private final TopologyGraphIndex graphIndex;
+  private final Duration window;
+
+  // Latest event per element, forwarded to the graph index once maintained
+  private final Map<UUID, TopologyOperationEvent> devices = new ConcurrentHashMap<>();
+  private final Map<UUID, TopologyOperationEvent> spaces = new ConcurrentHashMap<>();
+  private final Set<UUID> sensors = ConcurrentHashMap.newKeySet();
+  private final com.github.benmanes.caffeine.cache.Cache<UUID, String> sensorHardwareIds =
+      Caffeine.newBuilder().maximumSize(MAX_SENSORS).build();
+
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "topology-cache-maintainer");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * @param graphIndex to forward device and space changes to, might be <code>null</code>
+   * @param window over which changed IDs are collected before they are re-read
+   */
+  public TopologyCacheMaintainer(final DevicesApi devicesApi, final SpacesApi spacesApi,
+      final SensorsApi sensorsApi, final CacheManager cacheManager,
+      final TopologyGraphIndex graphIndex, final Duration window) {
+    this.devicesApi = devicesApi;
+    this.spacesApi = spacesApi;
+    this.sensorsApi = sensorsApi;
+    this.cacheManager = cacheManager;
+    this.graphIndex = graphIndex;
+    this.window = window;
+  }
+
+  /**
+   * @param event of a change not written through to the caches already
+   */
+  public void onTopologyOperation(final TopologyOperationEvent event) {
+    final boolean deleted = TopologyOperationEvent.AccessType.DELETE == event.getAccessType();
+    final boolean created = TopologyOperationEvent.AccessType.CREATE == event.getAccessType();
+
+    switch (event.getType()) {
+      case DEVICE:
+        if (deleted) {
+          devices.remove(event.getId());
+          evictDevice(event.getId());
+          forward(event);
+        } else if (created || isCached(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID,
+            event.getId())) {
+          devices.put(event.getId(), event);
+          schedule();
+        } else {
+          forward(event);
+        }
+        break;
+      case DEVICEEXTENDEDPROPERTY:
+        if (isCached(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID, event.getId())) {
+          devices.putIfAbsent(event.getId(), event);
+          schedule();
+        }
+        break;
+      case SPACE:
+        if (deleted) {
+          spaces.remove(event.getId());
+          evictSpace(event.getId());
+          forward(event);
+        } else if (created || isCached(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID,
+            event.getId())) {
+          spaces.put(event.getId(), event);
+          schedule();
+        } else {
+          forward(event);
+        }
+        break;
+      case SPACEEXTENDEDPROPERTY:
+        if (isCached(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID, event.getId())) {
+          spaces.putIfAbsent(event.getId(), event);
+          schedule();
+        }
+        break;
+      case SENSOR:
+        if (deleted) {
+          sensors.remove(event.getId());
+          evictSensor(event.getId());
+        } else {
+          sensors.add(event.getId());
+          schedule();
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Re-reads the changed elements collected so far.
+   */
+  public void flush() {
+    scheduled.set(false);
+
+    final Map<UUID, TopologyOperationEvent> changedDevices = drain(devices);
+    final Map<UUID, TopologyOperationEvent> changedSpaces = drain(spaces);
+    final List<UUID> changedSensors = new ArrayList<>(sensors);
+    sensors.removeAll(changedSensors);
+
+    maintain(changedDevices.keySet(), this::refreshDevices, this::evictDevice, "devices");
+    maintain(changedSpaces.keySet(), this::refreshSpaces, this::evictSpace, "spaces");
+    maintain(changedSensors, this::refreshSensors, this::evictSensor, "sensors");
+
+    changedDevices.values().forEach(this::forward);
+    changedSpaces.values().forEach(this::forward);
+  }
+
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this::flush, window.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static Map<UUID, TopologyOperationEvent> drain(
+      final Map<UUID, TopologyOperationEvent> pending) {
+    final Map<UUID, TopologyOperationEvent> drained = Map.copyOf(pending);
+    drained.forEach(pending::remove);
+    return drained;
+  }
+
+  /**
+   * Falls back to eviction of the changed elements if they cannot be re-read.
+   */
+  private static void maintain(final Iterable<UUID> ids, final Consumer<List<UUID>> refresh,
+      final Consumer<UUID> evict, final String type) {
+    final List<UUID> chunk = new ArrayList<>(BULK_SIZE);
+    for (final UUID id : ids) {
+      chunk.add(id);
+      if (chunk.size() == BULK_SIZE) {
+        refreshChunk(chunk, refresh, evict, type);
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      refreshChunk(chunk, refresh, evict, type);
+    }
+  }
+
+  private static void refreshChunk(final List<UUID> chunk, final Consumer<List<UUID>> refresh,
+      final Consumer<UUID> evict, final String type) {
+    try {
+      refresh.accept(chunk);
+      log.trace("Re-read [{}] changed {}", chunk.size(), type);
+    } catch (final RuntimeException e) {
+      log.warn("Failed to re-read [{}] changed {}, evicting them", chunk.size(), type, e);
+      chunk.forEach(evict);
+    }
+  }
+
+  private void refreshDevices(final List<UUID> ids) {
+    final Set<UUID> found = new HashSet<>();
+    final List<UUID> gatewayChanged = new ArrayList<>();
+
+    devicesApi
+        .devicesRetrieve(Cachedv1DigitalTwinTopologyProxy
+            .withValues(new DevicesRetrieveQueryParams().includes(deviceIncludes()), "ids", ids))
+        .forEach(device -> {
+          final DeviceRetrieve cached =
+              getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).get(device.getId(),
+                  DeviceRetrieve.class);
+          if (cached != null) {
+            evictIfChanged(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME,
+                cached.getName(), device.getName());
+            evictIfChanged(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID,
+                cached.getHardwareId(), device.getHardwareId());
+            if (!Objects.equals(cached.getGatewayId(), device.getGatewayId())) {
+              gatewayChanged.add(device.getId());
+            }
+          }
+
+          putDevice(device);
+          found.add(device.getId());
+        });
+
+    ids.stream().filter(id -> !found.contains(id)).forEach(this::evictDevice);
+
+    if (!gatewayChanged.isEmpty()) {
+      retrieveSensors("deviceIds", gatewayChanged).forEach(this::putSensor);
+    }
+  }
+
+  private void refreshSpaces(final List<UUID> ids) {
+    final Set<UUID> found = new HashSet<>();
+
+    spacesApi
+        .spacesRetrieve(Cachedv1DigitalTwinTopologyProxy
+            .withValues(new SpacesRetrieveQueryParams().includes(SPACE_INCLUDES), "ids", ids))
+        .forEach(space -> {
+          final SpaceRetrieve cached =
+              getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).get(space.getId(),
+                  SpaceRetrieve.class);
+          if (cached != null) {
+            evictIfChanged(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME, cached.getName(),
+                space.getName());
+          }
+
+          getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).put(space.getId(), space);
+          getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME).put(space.getName(),
+              space);
+          found.add(space.getId());
+        });
+
+    ids.stream().filter(id -> !found.contains(id)).forEach(this::evictSpace);
+  }
+
+  private void refreshSensors(final List<UUID> ids) {
+    final Set<UUID> found = new HashSet<>();
+
+    retrieveSensors("ids", ids).forEach(sensor -> {
+      putSensor(sensor);
+      found.add(sensor.getId());
+    });
+
+    ids.stream().filter(id -> !found.contains(id)).forEach(this::evictSensor);
+  }
+
+  private List<SensorRetrieve> retrieveSensors(final String filter, final List<UUID> ids) {
+    final List<SensorRetrieve> retrieved = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i += BULK_SIZE) {
+      retrieved.addAll(sensorsApi.sensorsRetrieve(Cachedv1DigitalTwinTopologyProxy.withValues(
+          new SensorsRetrieveQueryParams().includes(SENSOR_INCLUDES), filter,
+          ids.subList(i, Math.min(i + BULK_SIZE, ids.size())))));
+    }
+    return retrieved;
+  }
+
+  private void putDevice(final DeviceRetrieve device) {
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).put(device.getId(), device);
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).put(device.getName(), device);
+
+    if (!StringUtils.isEmpty(device.getHardwareId())) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID).put(
+          device.getHardwareId(), gatewayOf(device));
+    }
+  }
+
+  private void putSensor(final SensorRetrieve sensor) {
+    evictIfChanged(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID,
+        sensorHardwareIds.getIfPresent(sensor.getId()), sensor.getHardwareId());
+
+    if (StringUtils.isEmpty(sensor.getHardwareId()) || sensor.getDevice() == null) {
+      sensorHardwareIds.invalidate(sensor.getId());
+      return;
+    }
+
+    sensorHardwareIds.put(sensor.getId(), sensor.getHardwareId());
+    // Sensor hardware IDs take precedence like in the on demand lookup
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+        .put(sensor.getHardwareId(), gatewayOf(sensor.getDevice()));
+  }
+
+  private static UUID gatewayOf(final DeviceRetrieve device) {
+    return device.getGatewayId() == null ? device.getId() : device.getGatewayId();
+  }
+
+  private void evictDevice(final UUID id) {
+    final DeviceRetrieve cached =
+        getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).get(id, DeviceRetrieve.class);
+
+    if (cached != null) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).evict(cached.getName());
+      if (!StringUtils.isEmpty(cached.getHardwareId())) {
+        getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+            .evict(cached.getHardwareId());
+      }
+    }
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).evict(id);
+  }
+
+  private void evictSensor(final UUID id) {
+    final String hardwareId = sensorHardwareIds.getIfPresent(id);
+
+    if (hardwareId != null) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID).evict(hardwareId);
+      sensorHardwareIds.invalidate(id);
+    }
+  }
+
+  private void evictSpace(final UUID id) {
+    final SpaceRetrieve cached =
+        getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).get(id, SpaceRetrieve.class);
+
+    if (cached != null) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME).evict(cached.getName());
+    }
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).evict(id);
+  }
+
+  private void evictIfChanged(final String cacheName, final String previous,
+      final String current) {
+    if (!StringUtils.isEmpty(previous) && !previous.equals(current)) {
+      getCache(cacheName).evict(previous);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the element or its absence is cached
+   */
+  private boolean isCached(final String cacheName, final UUID id) {
+    return getCache(cacheName).get(id) != null;
+  }
+
+  private void forward(final TopologyOperationEvent event) {
+    if (graphIndex != null) {
+      graphIndex.onTopologyOperation(event);
+    }
+  }
+
+  private Cache getCache(final String name) {
+    return cacheManager.getCache(name);
+  }
+
+  private String deviceIncludes() {
+    return CompactTopologyCodec.deviceIncludes(cacheManager);
+  }
+}
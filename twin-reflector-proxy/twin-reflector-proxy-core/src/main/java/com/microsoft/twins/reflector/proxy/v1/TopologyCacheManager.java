@@ -22,6 +22,9 @@ import com.microsoft.twins.model.EventTypesEnum;
 import com.microsoft.twins.model.SpaceRetrieve;
 import com.microsoft.twins.model.TypeEnum;
 import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.ingress.IngressDigestCache;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -39,12 +42,29 @@ public class TopologyCacheManager {
   @Autowired(required = false)
   private TelemetryClient telemetryClient;
 
+  @Autowired(required = false)
+  private IngressDigestCache digestCache;
+
+  @Autowired(required = false)
+  private TopologyGraphIndex graphIndex;
+
+  @Autowired(required = false)
+  private TopologyCacheMaintainer cacheMaintainer;
+
+  @Autowired(required = false)
+  private MetadataLookupIndex metadataIndex;
+
+  @Autowired(required = false)
+  private DigitalTwinMetadataProxy metadataProxy;
+
   @StreamListener(target = TopologyOperationSink.INPUT)
   void getTopologyUpdate(final TopologyOperationEvent topologyOperationEvent) {
     log.trace("Got TopologyOperationEvent [{}] ", topologyOperationEvent);
 
     trackTelemetry(topologyOperationEvent);
 
+    final boolean ownWrite = isOwnWrite(topologyOperationEvent);
+
     if (TopologyOperationEvent.AccessType.UPDATE == topologyOperationEvent.getAccessType()
         || TopologyOperationEvent.AccessType.DELETE == topologyOperationEvent.getAccessType()) {
 
@@ -54,15 +74,117 @@ public class TopologyCacheManager {
 
       switch (topologyOperationEvent.getType()) {
         case DEVICE:
-          evictDeviceCache(topologyOperationEvent.getId());
+          evictDeviceDigest(topologyOperationEvent);
+          if (!ownWrite && cacheMaintainer == null) {
+            evictDeviceCache(topologyOperationEvent.getId());
+          }
           break;
         case SPACE:
-          evictSpaceCache(topologyOperationEvent.getId());
+          evictSpaceDigest(topologyOperationEvent);
+          if (!ownWrite && cacheMaintainer == null) {
+            evictSpaceCache(topologyOperationEvent.getId());
+          }
           break;
         default:
           break;
       }
     }
+
+    if (TopologyOperationEvent.AccessType.CREATE != topologyOperationEvent.getAccessType()) {
+      switch (topologyOperationEvent.getType()) {
+        case DEVICEEXTENDEDPROPERTY:
+          evictDeviceDigest(topologyOperationEvent);
+          break;
+        case SPACEEXTENDEDPROPERTY:
+          evictSpaceDigest(topologyOperationEvent);
+          break;
+        case EXTENDEDTYPE:
+          if (metadataProxy instanceof Cachedv1DigitalTwinMetadataProxy) {
+            ((Cachedv1DigitalTwinMetadataProxy) metadataProxy).evictTypes();
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    if (metadataIndex != null) {
+      metadataIndex.onTopologyOperation(topologyOperationEvent);
+    }
+
+    if (cacheMaintainer != null && !ownWrite) {
+      // Updates the caches in place and forwards the event to the index afterwards
+      cacheMaintainer.onTopologyOperation(topologyOperationEvent);
+    } else if (graphIndex != null && !ownWrite) {
+      // After cache eviction so that the index re-reads changed elements
+      graphIndex.onTopologyOperation(topologyOperationEvent);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the event is the update of a device or space written through to
+   *         the caches by {@link Cachedv1DigitalTwinTopologyProxy}, i.e. the cache entries are
+   *         already up to date. The marker of the update is kept as an update might cause several
+   *         events, it expires instead.
+   */
+  private boolean isOwnWrite(final TopologyOperationEvent topologyOperationEvent) {
+    if (TopologyOperationEvent.AccessType.UPDATE != topologyOperationEvent.getAccessType()
+        || topologyOperationEvent.getCorrelationId() == null
+        || (TopologyOperationEvent.Type.DEVICE != topologyOperationEvent.getType()
+            && TopologyOperationEvent.Type.SPACE != topologyOperationEvent.getType())) {
+      return false;
+    }
+
+    final ValueWrapper marker =
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_OWN_WRITE)
+            .get(Cachedv1DigitalTwinTopologyProxy.ownWriteKey(topologyOperationEvent.getId(),
+                topologyOperationEvent.getCorrelationId()));
+
+    if (marker == null) {
+      return false;
+    }
+
+    log.trace("Keeping cached [{}] as event has been caused by own update",
+        topologyOperationEvent.getId());
+    return true;
+  }
+
+  private void evictDeviceDigest(final TopologyOperationEvent topologyOperationEvent) {
+    if (digestCache == null) {
+      return;
+    }
+
+    final ValueWrapper inCache =
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID)
+            .get(topologyOperationEvent.getId());
+
+    if (inCache == null || inCache.get() == null) {
+      digestCache.evict(topologyOperationEvent.getId(),
+          topologyOperationEvent.getCorrelationId());
+      return;
+    }
+
+    digestCache.evict(IngressMessage.ENTITY_V1_DEVICE, ((DeviceRetrieve) inCache.get()).getName(),
+        topologyOperationEvent.getCorrelationId());
+  }
+
+  private void evictSpaceDigest(final TopologyOperationEvent topologyOperationEvent) {
+    if (digestCache == null) {
+      return;
+    }
+
+    final ValueWrapper inCache = cacheManager
+        .getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID)
+        .get(topologyOperationEvent.getId());
+
+    if (inCache == null || inCache.get() == null) {
+      digestCache.evict(topologyOperationEvent.getId(),
+          topologyOperationEvent.getCorrelationId());
+      return;
+    }
+
+    digestCache.evict(IngressMessage.ENTITY_V1_SPACE, ((SpaceRetrieve) inCache.get()).getName(),
+        topologyOperationEvent.getCorrelationId());
   }
 
   private void trackTelemetry(final TopologyOperationEvent topologyOperationEvent) {
@@ -118,24 +240,28 @@ public class TopologyCacheManager {
     final ValueWrapper inCache =
         cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).get(deviceId);
 
-    if (inCache != null) {
+    if (inCache != null && inCache.get() != null) {
       cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME)
           .evict(((DeviceRetrieve) inCache.get()).getName());
-      cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
-          .evict(((DeviceRetrieve) inCache.get()).getHardwareId());
-      cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).evict(deviceId);
+      final String hardwareId = ((DeviceRetrieve) inCache.get()).getHardwareId();
+      if (hardwareId != null) {
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+            .evict(hardwareId);
+      }
     }
+    // Cached misses included
+    cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).evict(deviceId);
   }
 
   private void evictSpaceCache(final UUID spaceId) {
     final ValueWrapper inCache =
         cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).get(spaceId);
 
-    if (inCache != null) {
+    if (inCache != null && inCache.get() != null) {
       cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME)
           .evict(((SpaceRetrieve) inCache.get()).getName());
-      cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).evict(spaceId);
     }
+    cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).evict(spaceId);
   }
 
 }
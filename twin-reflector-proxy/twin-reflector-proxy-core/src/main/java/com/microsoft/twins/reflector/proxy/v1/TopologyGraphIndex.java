@@ -0,0 +1,473 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.cache.CacheManager;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.DevicesApi.DevicesRetrieveQueryParams;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.api.SpacesApi.SpacesRetrieveQueryParams;
+import com.microsoft.twins.event.model.TopologyOperationEvent;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory parent to children adjacency index of spaces and devices that answers the children
+ * lookups of {@link Cachedv1DigitalTwinTopologyProxy} locally.
+ *
+ * <p>
+ * The index holds IDs only, the children themselves are taken from the by ID caches of the proxy
+ * and retrieved in bulk where evicted. The children of a parent are retrieved from ADT once on
+ * first lookup. Afterwards the index is maintained from the writes of the proxy and from
+ * {@link TopologyOperationEvent}s, see {@link TopologyCacheManager}. As the events do not carry the
+ * new parent of an element, created or updated elements are marked as stale and re-read in one
+ * bulk request on the next lookup. Children retrieved while the index has changed are returned but
+ * not indexed, i.e. a lookup never overwrites a newer change. The index is dropped and rebuilt on
+ * demand once the rebuild interval has elapsed or too many elements are stale, which bounds drift
+ * e.g. by missed events.
+ * </p>
+ *
+ */
+@Slf4j
+public class TopologyGraphIndex {
+  private static final int BULK_SIZE = 50;
+  private static final String SPACE_INCLUDES = "properties,description";
+
+  private final SpacesApi spacesApi;
+  private final DevicesApi devicesApi;
+  private final CacheManager cacheManager;
+  private final Duration rebuildInterval;
+  private final int maxStale;
+
+  private final Map<UUID, Set<UUID>> spaceChildren = new HashMap<>();
+  private final Map<UUID, Set<UUID>> deviceChildren = new HashMap<>();
+  private final Map<UUID, UUID> spaceParents = new HashMap<>();
+  private final Map<UUID, UUID> deviceParents = new HashMap<>();
+  private final Set<UUID> staleSpaces = new HashSet<>();
+  private final Set<UUID> staleDevices = new HashSet<>();
+
+  // Incremented on every change, children retrieved meanwhile might be outdated
+  private long spaceGeneration;
+  private long deviceGeneration;
+
+  private long lastRebuild = System.nanoTime();
+
+  public TopologyGraphIndex(final SpacesApi spacesApi, final DevicesApi devicesApi,
+      final CacheManager cacheManager, final Duration rebuildInterval, final int maxStale) {
+    this.spacesApi = spacesApi;
+    this.devicesApi = devicesApi;
+    this.cacheManager = cacheManager;
+    this.rebuildInterval = rebuildInterval;
+    this.maxStale = maxStale;
+  }
+
+  /**
+   * @param parent space
+   * @return the child spaces of the given parent
+   */
+  public List<SpaceRetrieve> getSpaceChildrenOf(final UUID parent) {
+    resolveStaleSpaces();
+
+    final long generation;
+    final List<UUID> indexed;
+    synchronized (this) {
+      final Set<UUID> children = spaceChildren.get(parent);
+      indexed = children == null ? null : new ArrayList<>(children);
+      generation = spaceGeneration;
+    }
+
+    if (indexed != null) {
+      return materializeSpaces(indexed);
+    }
+
+    final List<SpaceRetrieve> loaded = spacesApi
+        .spacesRetrieve(new SpacesRetrieveQueryParams().spaceId(parent).useParentSpace(true)
+            .includes(SPACE_INCLUDES))
+        .stream().map(srwc -> (SpaceRetrieve) srwc).collect(Collectors.toList());
+
+    synchronized (this) {
+      if (generation == spaceGeneration && !spaceChildren.containsKey(parent)) {
+        final Set<UUID> children = new HashSet<>();
+        loaded.forEach(child -> {
+          detach(spaceChildren, spaceParents, child.getId());
+          children.add(child.getId());
+          spaceParents.put(child.getId(), parent);
+          putIfAbsent(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID, child.getId(), child);
+        });
+        spaceChildren.put(parent, children);
+      }
+    }
+
+    return loaded;
+  }
+
+  /**
+   * @param parent space
+   * @return the devices of the given parent
+   */
+  public List<DeviceRetrieve> getDeviceChildrenOf(final UUID parent) {
+    resolveStaleDevices();
+
+    final long generation;
+    final List<UUID> indexed;
+    synchronized (this) {
+      final Set<UUID> children = deviceChildren.get(parent);
+      indexed = children == null ? null : new ArrayList<>(children);
+      generation = deviceGeneration;
+    }
+
+    if (indexed != null) {
+      return materializeDevices(indexed);
+    }
+
+    final List<DeviceRetrieve> loaded = devicesApi.devicesRetrieve(
+        new DevicesRetrieveQueryParams().spaceId(parent).includes(deviceIncludes()));
+
+    synchronized (this) {
+      if (generation == deviceGeneration && !deviceChildren.containsKey(parent)) {
+        final Set<UUID> children = new HashSet<>();
+        loaded.forEach(child -> {
+          detach(deviceChildren, deviceParents, child.getId());
+          children.add(child.getId());
+          deviceParents.put(child.getId(), parent);
+          putIfAbsent(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID, child.getId(), child);
+        });
+        deviceChildren.put(parent, children);
+      }
+    }
+
+    return loaded;
+  }
+
+  /**
+   * Space has been created or moved to a parent whose children are not known yet.
+   *
+   * @param id of the space
+   */
+  public synchronized void spaceChanged(final UUID id) {
+    spaceGeneration++;
+    markStale(spaceChildren, spaceParents, staleSpaces, id);
+  }
+
+  /**
+   * Device has been created or moved to a parent whose children are not known yet.
+   *
+   * @param id of the device
+   */
+  public synchronized void deviceChanged(final UUID id) {
+    deviceGeneration++;
+    markStale(deviceChildren, deviceParents, staleDevices, id);
+  }
+
+  /**
+   * @param id of the space
+   * @param parent the space has been moved to
+   */
+  public synchronized void spaceMoved(final UUID id, final UUID parent) {
+    final UUID previous = spaceParents.get(id);
+    if (parent.equals(previous)) {
+      return;
+    }
+    if (previous == null || !spaceChildren.containsKey(parent)) {
+      spaceChanged(id);
+      return;
+    }
+
+    spaceGeneration++;
+    detach(spaceChildren, spaceParents, id);
+    spaceChildren.get(parent).add(id);
+    spaceParents.put(id, parent);
+  }
+
+  /**
+   * @param id of the device
+   * @param parent the device has been moved to
+   */
+  public synchronized void deviceMoved(final UUID id, final UUID parent) {
+    final UUID previous = deviceParents.get(id);
+    if (parent.equals(previous)) {
+      return;
+    }
+    if (previous == null || !deviceChildren.containsKey(parent)) {
+      deviceChanged(id);
+      return;
+    }
+
+    deviceGeneration++;
+    detach(deviceChildren, deviceParents, id);
+    deviceChildren.get(parent).add(id);
+    deviceParents.put(id, parent);
+  }
+
+  /**
+   * @param id of the deleted space
+   */
+  public synchronized void spaceDeleted(final UUID id) {
+    spaceGeneration++;
+    deviceGeneration++;
+    detach(spaceChildren, spaceParents, id);
+
+    // Devices and child spaces of a deleted space are deleted as well, i.e. the whole subtree
+    final Deque<UUID> subtree = new ArrayDeque<>(List.of(id));
+    while (!subtree.isEmpty()) {
+      final UUID space = subtree.pop();
+      staleSpaces.remove(space);
+
+      final Set<UUID> children = spaceChildren.remove(space);
+      if (children != null) {
+        children.forEach(spaceParents::remove);
+        subtree.addAll(children);
+      }
+
+      final Set<UUID> devices = deviceChildren.remove(space);
+      if (devices != null) {
+        devices.forEach(device -> {
+          deviceParents.remove(device);
+          staleDevices.remove(device);
+        });
+      }
+    }
+  }
+
+  /**
+   * @param id of the deleted device
+   */
+  public synchronized void deviceDeleted(final UUID id) {
+    deviceGeneration++;
+    detach(deviceChildren, deviceParents, id);
+    staleDevices.remove(id);
+  }
+  /**
+   * Applies a topology change not necessarily caused by this proxy.
+   *
+   * @param event of the change
+   */
+  public void onTopologyOperation(final TopologyOperationEvent event) {
+    final boolean deleted = TopologyOperationEvent.AccessType.DELETE == event.getAccessType();
+
+    switch (event.getType()) {
+      case DEVICE:
+        if (deleted) {
+          deviceDeleted(event.getId());
+        } else {
+          deviceChanged(event.getId());
+        }
+        break;
+      case SPACE:
+        if (deleted) {
+          spaceDeleted(event.getId());
+        } else {
+          spaceChanged(event.getId());
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Drops the index, children are retrieved from ADT again on next lookup.
+   */
+  public synchronized void rebuild() {
+    log.debug("Rebuilding topology graph index of [{}] spaces and [{}] devices",
+        spaceParents.size(), deviceParents.size());
+
+    spaceChildren.clear();
+    deviceChildren.clear();
+    spaceParents.clear();
+    deviceParents.clear();
+    staleSpaces.clear();
+    staleDevices.clear();
+    spaceGeneration++;
+    deviceGeneration++;
+    lastRebuild = System.nanoTime();
+  }
+
+  /**
+   * @return number of indexed spaces and devices
+   */
+  public synchronized int size() {
+    return spaceParents.size() + deviceParents.size();
+  }
+
+  private static void markStale(final Map<UUID, Set<UUID>> children,
+      final Map<UUID, UUID> parents, final Set<UUID> stale, final UUID id) {
+    // Nothing to keep consistent as long as no children are known
+    if (children.isEmpty()) {
+      return;
+    }
+
+    detach(children, parents, id);
+    stale.add(id);
+  }
+
+  private static void detach(final Map<UUID, Set<UUID>> children,
+      final Map<UUID, UUID> parents, final UUID id) {
+    final UUID parent = parents.remove(id);
+    if (parent != null && children.containsKey(parent)) {
+      children.get(parent).remove(id);
+    }
+  }
+
+  private void resolveStaleSpaces() {
+    final long generation;
+    synchronized (this) {
+      generation = spaceGeneration;
+    }
+
+    final List<UUID> stale = drainStale(staleSpaces);
+    if (stale.isEmpty()) {
+      return;
+    }
+
+    final List<SpaceRetrieve> resolved = resolveSpaces(stale);
+
+    synchronized (this) {
+      if (generation != spaceGeneration) {
+        // Changed meanwhile, resolved again on next lookup
+        staleSpaces.addAll(stale);
+        return;
+      }
+
+      resolved.stream().filter(space -> spaceChildren.containsKey(space.getParentSpaceId()))
+          .forEach(space -> {
+            spaceChildren.get(space.getParentSpaceId()).add(space.getId());
+            spaceParents.put(space.getId(), space.getParentSpaceId());
+          });
+    }
+  }
+
+  private void resolveStaleDevices() {
+    final long generation;
+    synchronized (this) {
+      generation = deviceGeneration;
+    }
+
+    final List<UUID> stale = drainStale(staleDevices);
+    if (stale.isEmpty()) {
+      return;
+    }
+
+    final List<DeviceRetrieve> resolved = resolveDevices(stale);
+
+    synchronized (this) {
+      if (generation != deviceGeneration) {
+        // Changed meanwhile, resolved again on next lookup
+        staleDevices.addAll(stale);
+        return;
+      }
+
+      resolved.stream().filter(device -> deviceChildren.containsKey(device.getSpaceId()))
+          .forEach(device -> {
+            deviceChildren.get(device.getSpaceId()).add(device.getId());
+            deviceParents.put(device.getId(), device.getSpaceId());
+          });
+    }
+  }
+
+  private List<SpaceRetrieve> materializeSpaces(final List<UUID> ids) {
+    final List<SpaceRetrieve> spaces = resolveSpaces(ids);
+    if (spaces.size() < ids.size()) {
+      forgetDeleted(ids, spaces.stream().map(SpaceRetrieve::getId), this::spaceDeleted);
+    }
+    return spaces;
+  }
+
+  private List<DeviceRetrieve> materializeDevices(final List<UUID> ids) {
+    final List<DeviceRetrieve> devices = resolveDevices(ids);
+    if (devices.size() < ids.size()) {
+      forgetDeleted(ids, devices.stream().map(DeviceRetrieve::getId), this::deviceDeleted);
+    }
+    return devices;
+  }
+
+  /**
+   * Drops indexed children that ADT does not know anymore, e.g. by a missed delete event.
+   */
+  private static void forgetDeleted(final List<UUID> ids, final Stream<UUID> existing,
+      final Consumer<UUID> deleted) {
+    final Set<UUID> found = existing.collect(Collectors.toSet());
+    ids.stream().filter(id -> !found.contains(id)).forEach(deleted);
+  }
+
+  private List<SpaceRetrieve> resolveSpaces(final List<UUID> ids) {
+    return resolve(ids, Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID, SpaceRetrieve.class,
+        chunk -> spacesApi.spacesRetrieve(Cachedv1DigitalTwinTopologyProxy
+            .withValues(new SpacesRetrieveQueryParams().includes(SPACE_INCLUDES), "ids", chunk))
+            .stream().map(srwc -> (SpaceRetrieve) srwc).collect(Collectors.toList()),
+        SpaceRetrieve::getId);
+  }
+
+  private List<DeviceRetrieve> resolveDevices(final List<UUID> ids) {
+    return resolve(ids, Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID, DeviceRetrieve.class,
+        chunk -> devicesApi.devicesRetrieve(Cachedv1DigitalTwinTopologyProxy
+            .withValues(new DevicesRetrieveQueryParams().includes(deviceIncludes()), "ids", chunk)),
+        DeviceRetrieve::getId);
+  }
+
+  private synchronized List<UUID> drainStale(final Set<UUID> stale) {
+    if (System.nanoTime() - lastRebuild > rebuildInterval.toNanos()
+        || staleSpaces.size() + staleDevices.size() > maxStale) {
+      rebuild();
+      return List.of();
+    }
+
+    final List<UUID> drained = new ArrayList<>(stale);
+    stale.clear();
+    return drained;
+  }
+
+  /**
+   * Takes the elements from the cache where possible, i.e. re-read since the change, and
+   * retrieves the others in bulk, which are then cached unless cached meanwhile.
+   */
+  private <T> List<T> resolve(final List<UUID> ids, final String cacheName, final Class<T> type,
+      final Function<List<UUID>, List<T>> retrieve, final Function<T, UUID> idOf) {
+    final List<T> resolved = new ArrayList<>();
+    final List<UUID> missing = new ArrayList<>();
+
+    ids.forEach(id -> {
+      final ValueWrapper cached = cacheManager.getCache(cacheName).get(id);
+      if (cached != null && type.isInstance(cached.get())) {
+        resolved.add(type.cast(cached.get()));
+      } else {
+        missing.add(id);
+      }
+    });
+
+    for (int i = 0; i < missing.size(); i += BULK_SIZE) {
+      retrieve.apply(missing.subList(i, Math.min(i + BULK_SIZE, missing.size())))
+          .forEach(element -> {
+            putIfAbsent(cacheName, idOf.apply(element), element);
+            resolved.add(element);
+          });
+    }
+
+    return resolved;
+  }
+
+  private void putIfAbsent(final String cacheName, final UUID id, final Object element) {
+    cacheManager.getCache(cacheName).putIfAbsent(id, element);
+  }
+
+  private String deviceIncludes() {
+    return CompactTopologyCodec.deviceIncludes(cacheManager);
+  }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.StringUtils;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.DevicesApi.DevicesRetrieveQueryParams;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.api.SpacesApi.SpacesRetrieveQueryParams;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.cache.CacheSnapshot;
+import com.microsoft.twins.reflector.cache.ReflectorCacheManager;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persists the device and space caches of {@link Cachedv1DigitalTwinTopologyProxy} to a local file
+ * periodically and on shutdown, and restores them on startup (see {@link CacheSnapshot}), i.e. a
+ * restarted reflector does not have to re-learn the topology from ADT.
+ *
+ * <p>
+ * Snapshots older than the maximum age are ignored. Restored devices and spaces are verified in
+ * the background with bulk retrievals by ID: changed elements are replaced and deleted ones
+ * evicted, unless the {@link TopologyCacheManager} changed their entries meanwhile as topology
+ * operations are newer than the verification. Gateway entries cannot be verified by ID and are
+ * not persisted, verified devices add theirs.
+ * </p>
+ *
+ * <p>
+ * The restore runs in a lifecycle phase before the {@link TopologyWarmup}, which only adds
+ * elements missing in the snapshot.
+ * </p>
+ *
+ */
+@Slf4j
+public class TopologySnapshot implements SmartLifecycle {
+  /**
+   * Before the {@link TopologyWarmup} and the input bindings of Spring Cloud Stream.
+   */
+  public static final int PHASE = TopologyWarmup.PHASE - 1000;
+  /**
+   * Caches persisted in the snapshot.
+   */
+  public static final Set<String> CACHES = Set.of(
+      Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID,
+      Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME,
+      Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID,
+      Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME);
+
+  private static final String SPACE_INCLUDES = "properties,description";
+  private static final int BULK_SIZE = 50;
+
+  private final ReflectorCacheManager cacheManager;
+  private final DevicesApi devicesApi;
+  private final SpacesApi spacesApi;
+  private final Path file;
+  private final Duration interval;
+  private final Duration maxAge;
+  private final boolean verify;
+
+  @Getter
+  private volatile long restored;
+
+  @Getter
+  private volatile Instant lastWritten;
+
+  private final AtomicInteger verified = new AtomicInteger();
+  private final AtomicInteger removed = new AtomicInteger();
+
+  private ScheduledExecutorService scheduler;
+  private volatile boolean running;
+
+  public TopologySnapshot(final ReflectorCacheManager cacheManager, final DevicesApi devicesApi,
+      final SpacesApi spacesApi, final Path file, final Duration interval, final Duration maxAge,
+      final boolean verify) {
+    this.cacheManager = cacheManager;
+    this.devicesApi = devicesApi;
+    this.spacesApi = spacesApi;
+    this.file = file;
+    this.interval = interval;
+    this.maxAge = maxAge;
+    this.verify = verify;
+  }
+
+  @Override
+  public synchronized void start() {
+    restore();
+    running = true;
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "topology-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (verify && restored > 0) {
+      scheduler.execute(this::verify);
+    }
+    scheduler.scheduleWithFixedDelay(this::write, interval.toMillis(), interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void stop() {
+    running = false;
+    scheduler.shutdownNow();
+    write();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return PHASE;
+  }
+
+  /**
+   * @return number of restored devices and spaces confirmed or updated by ADT
+   */
+  public int getVerified() {
+    return verified.get();
+  }
+
+  /**
+   * @return number of restored devices and spaces evicted as they no longer exist in ADT
+   */
+  public int getRemoved() {
+    return removed.get();
+  }
+
+  /**
+   * Restores the caches from the snapshot file, if there is a recent one.
+   */
+  public void restore() {
+    try {
+      restored = CacheSnapshot.restore(file, Instant.now().minus(maxAge), cacheManager, CACHES);
+    } catch (final IOException | RuntimeException e) {
+      log.warn("Failed to restore topology cache snapshot [{}], caches are populated on demand",
+          file, e);
+    }
+  }
+
+  /**
+   * Writes the caches to the snapshot file.
+   */
+  public void write() {
+    try {
+      final long start = System.nanoTime();
+      final long written = CacheSnapshot.write(cacheManager, CACHES, file);
+      lastWritten = Instant.now();
+      log.debug("Wrote [{}] entries to topology cache snapshot [{}] in [{}]", written, file,
+          Duration.ofNanos(System.nanoTime() - start));
+    } catch (final IOException | RuntimeException e) {
+      log.warn("Failed to write topology cache snapshot [{}]", file, e);
+    }
+  }
+
+  /**
+   * Re-reads the cached devices and spaces from ADT in bulk.
+   */
+  public void verify() {
+    final long start = System.nanoTime();
+    try {
+      verifyDevices();
+      verifySpaces();
+      log.info("Verified [{}] and removed [{}] restored topology elements in [{}]", verified.get(),
+          removed.get(), Duration.ofNanos(System.nanoTime() - start));
+    } catch (final RuntimeException e) {
+      log.warn("Verification of the restored topology caches failed after [{}]",
+          Duration.ofNanos(System.nanoTime() - start), e);
+    }
+  }
+
+  private void verifyDevices() {
+    final Cache byId = cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID);
+    final Cache byName =
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME);
+    final Cache gateways =
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID);
+
+    final List<UUID> ids = cachedIds(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID,
+        Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME, DeviceRetrieve.class,
+        DeviceRetrieve::getId);
+
+    for (int i = 0; i < ids.size() && running; i += BULK_SIZE) {
+      final List<UUID> chunk = ids.subList(i, Math.min(i + BULK_SIZE, ids.size()));
+      final Map<UUID, DeviceRetrieve> before = cached(byId, chunk, DeviceRetrieve.class);
+      final Set<UUID> found = new HashSet<>();
+      devicesApi.devicesRetrieve(Cachedv1DigitalTwinTopologyProxy.withValues(
+          new DevicesRetrieveQueryParams().includes(deviceIncludes()), "ids", chunk))
+          .forEach(device -> {
+            found.add(device.getId());
+            final DeviceRetrieve cached = byId.get(device.getId(), DeviceRetrieve.class);
+            if (!Objects.equals(cached, before.get(device.getId()))) {
+              return;
+            }
+
+            if (cached != null && !cached.getName().equalsIgnoreCase(device.getName())) {
+              byName.evict(cached.getName());
+            }
+            byId.put(device.getId(), device);
+            byName.put(device.getName(), device);
+            if (!StringUtils.isEmpty(device.getHardwareId())) {
+              gateways.put(device.getHardwareId(),
+                  device.getGatewayId() == null ? device.getId() : device.getGatewayId());
+            }
+            verified.incrementAndGet();
+          });
+
+      chunk.stream().filter(id -> !found.contains(id)).forEach(id -> {
+        final DeviceRetrieve cached = byId.get(id, DeviceRetrieve.class);
+        if (!Objects.equals(cached, before.get(id))) {
+          return;
+        }
+
+        if (cached != null) {
+          byName.evict(cached.getName());
+          if (!StringUtils.isEmpty(cached.getHardwareId())) {
+            gateways.evict(cached.getHardwareId());
+          }
+        }
+        byId.evict(id);
+        removed.incrementAndGet();
+      });
+    }
+  }
+
+  private void verifySpaces() {
+    final Cache byId = cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID);
+    final Cache byName =
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME);
+
+    final List<UUID> ids = cachedIds(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID,
+        Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME, SpaceRetrieve.class,
+        SpaceRetrieve::getId);
+
+    for (int i = 0; i < ids.size() && running; i += BULK_SIZE) {
+      final List<UUID> chunk = ids.subList(i, Math.min(i + BULK_SIZE, ids.size()));
+      final Map<UUID, SpaceRetrieve> before = cached(byId, chunk, SpaceRetrieve.class);
+      final Set<UUID> found = new HashSet<>();
+      spacesApi.spacesRetrieve(Cachedv1DigitalTwinTopologyProxy
+          .withValues(new SpacesRetrieveQueryParams().includes(SPACE_INCLUDES), "ids", chunk))
+          .forEach(space -> {
+            found.add(space.getId());
+            final SpaceRetrieve cached = byId.get(space.getId(), SpaceRetrieve.class);
+            if (!Objects.equals(cached, before.get(space.getId()))) {
+              return;
+            }
+
+            if (cached != null && !cached.getName().equalsIgnoreCase(space.getName())) {
+              byName.evict(cached.getName());
+            }
+            byId.put(space.getId(), space);
+            byName.put(space.getName(), space);
+            verified.incrementAndGet();
+          });
+
+      chunk.stream().filter(id -> !found.contains(id)).forEach(id -> {
+        final SpaceRetrieve cached = byId.get(id, SpaceRetrieve.class);
+        if (!Objects.equals(cached, before.get(id))) {
+          return;
+        }
+
+        if (cached != null) {
+          byName.evict(cached.getName());
+        }
+        byId.evict(id);
+        removed.incrementAndGet();
+      });
+    }
+  }
+
+  /**
+   * @return entries by ID before the verification, changed entries are left to the
+   *         {@link TopologyCacheManager}
+   */
+  private static <T> Map<UUID, T> cached(final Cache byId, final List<UUID> ids,
+      final Class<T> type) {
+    final Map<UUID, T> cached = new HashMap<>();
+    ids.forEach(id -> cached.put(id, byId.get(id, type)));
+    return cached;
+  }
+
+  /**
+   * @return IDs of the elements cached by ID or by name
+   */
+  private <T> List<UUID> cachedIds(final String byIdCache, final String byNameCache,
+      final Class<T> type, final Function<T, UUID> id) {
+    // Cached misses are not verified
+    final Set<UUID> ids = new LinkedHashSet<>();
+    cacheManager.forEachStored(byIdCache, (key, stored) -> {
+      if (stored != NullValue.INSTANCE) {
+        ids.add((UUID) key);
+      }
+    });
+
+    final List<Object> names = new ArrayList<>();
+    cacheManager.forEachStored(byNameCache, (key, stored) -> {
+      if (stored != NullValue.INSTANCE) {
+        names.add(key);
+      }
+    });
+    final Cache byName = cacheManager.getCache(byNameCache);
+    ids.addAll(names.stream().map(name -> byName.get(name, type)).filter(element -> element != null)
+        .map(id).collect(Collectors.toList()));
+
+    return new ArrayList<>(ids);
+  }
+
+  private String deviceIncludes() {
+    return CompactTopologyCodec.deviceIncludes(cacheManager);
+  }
+}
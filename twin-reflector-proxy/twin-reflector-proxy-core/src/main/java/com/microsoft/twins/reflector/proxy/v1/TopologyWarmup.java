@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.StringUtils;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.DevicesApi.DevicesRetrieveQueryParams;
+import com.microsoft.twins.api.SensorsApi;
+import com.microsoft.twins.api.SensorsApi.SensorsRetrieveQueryParams;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.api.SpacesApi.SpacesRetrieveQueryParams;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.VirtualThreads;
+import com.microsoft.twins.reflector.proxy.TenantResolver;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Preloads the space and device caches of {@link Cachedv1DigitalTwinTopologyProxy} on startup by
+ * walking the tenant subtree level by level. The parent spaces of a level are split into chunks
+ * that are retrieved in parallel on a bounded executor, i.e. one request each for the child
+ * spaces, devices and sensors of a parent.
+ *
+ * <p>
+ * The warm-up runs in a lifecycle phase before the Spring Cloud Stream input bindings so that the
+ * first ingress messages after a deployment hit warm caches. A failed or timed out warm-up is
+ * logged and startup continues, the caches are then populated on demand. A timed out walk is
+ * cancelled, i.e. neither retrieves nor preloads anything afterwards.
+ * </p>
+ *
+ */
+@Slf4j
+public class TopologyWarmup implements SmartLifecycle {
+  /**
+   * Before the input bindings of Spring Cloud Stream (<code>Integer.MAX_VALUE - 1000</code>).
+   */
+  public static final int PHASE = Integer.MAX_VALUE - 2000;
+
+  private static final String TRAVERSE_DOWN = "Down";
+  private static final String SPACE_INCLUDES = "properties,description";
+
+  public enum State {
+    PENDING, RUNNING, COMPLETED, FAILED;
+  }
+
+  private final TenantResolver tenantResolver;
+  private final SpacesApi spacesApi;
+  private final DevicesApi devicesApi;
+  private final SensorsApi sensorsApi;
+  private final CacheManager cacheManager;
+  private final int parallelism;
+  private final Duration timeout;
+
+  @Getter
+  private volatile State state = State.PENDING;
+
+  @Getter
+  private volatile Duration duration;
+
+  @Getter
+  private volatile Throwable failure;
+
+  private final AtomicInteger spaces = new AtomicInteger();
+  private final AtomicInteger devices = new AtomicInteger();
+  private final AtomicInteger sensors = new AtomicInteger();
+
+  private volatile boolean running;
+  private volatile boolean cancelled;
+
+  public TopologyWarmup(final TenantResolver tenantResolver, final SpacesApi spacesApi,
+      final DevicesApi devicesApi, final SensorsApi sensorsApi, final CacheManager cacheManager,
+      final int parallelism, final Duration timeout) {
+    this.tenantResolver = tenantResolver;
+    this.spacesApi = spacesApi;
+    this.devicesApi = devicesApi;
+    this.sensorsApi = sensorsApi;
+    this.cacheManager = cacheManager;
+    this.parallelism = parallelism;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    warmup();
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return PHASE;
+  }
+
+  /**
+   * @return number of spaces preloaded
+   */
+  public int getSpaces() {
+    return spaces.get();
+  }
+
+  /**
+   * @return number of devices preloaded
+   */
+  public int getDevices() {
+    return devices.get();
+  }
+
+  /**
+   * @return number of sensor hardware IDs preloaded
+   */
+  public int getSensors() {
+    return sensors.get();
+  }
+
+  /**
+   * Walks the tenant subtree and populates the caches. Blocks until done or the timeout elapsed,
+   * in which case the walk is cancelled.
+   */
+  public void warmup() {
+    state = State.RUNNING;
+    final long start = System.nanoTime();
+    // One thread walks the levels, the others retrieve the chunks of a level
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelism + 1,
+        VirtualThreads.platformThreadFactory("topology-warmup-"));
+
+    try {
+      final Future<Void> walk = executor.submit(() -> {
+        walk(tenantResolver.getTenant(), executor);
+        return null;
+      });
+
+      try {
+        walk.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (final TimeoutException e) {
+        cancelled = true;
+        walk.cancel(true);
+        throw e;
+      }
+
+      duration = Duration.ofNanos(System.nanoTime() - start);
+      state = State.COMPLETED;
+      log.info("Preloaded [{}] spaces, [{}] devices and [{}] sensors in [{}]", spaces.get(),
+          devices.get(), sensors.get(), duration);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancelled = true;
+      fail(e, start);
+    } catch (final Exception e) {
+      fail(e, start);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void fail(final Exception e, final long start) {
+    duration = Duration.ofNanos(System.nanoTime() - start);
+    failure = e;
+    state = State.FAILED;
+    log.warn("Topology warm-up failed after [{}], caches are populated on demand", duration, e);
+  }
+
+  private void walk(final UUID tenant, final ExecutorService executor)
+      throws InterruptedException, ExecutionException {
+    final Map<UUID, DeviceRetrieve> devicesById = new ConcurrentHashMap<>();
+    final Queue<SensorRetrieve> allSensors = new ConcurrentLinkedQueue<>();
+
+    // The tenant space itself is not preloaded, only its devices, sensors and subtree
+    List<UUID> parents = List.of(tenant);
+    while (!parents.isEmpty()) {
+      final Queue<UUID> children = new ConcurrentLinkedQueue<>();
+      final List<CompletableFuture<Void>> chunks = new ArrayList<>();
+
+      for (final List<UUID> chunk : chunk(parents)) {
+        chunks.add(CompletableFuture.runAsync(() -> chunk.forEach(parent -> {
+          final List<SpaceRetrieve> spacesOfParent = retrieveChildSpaces(parent);
+          final List<DeviceRetrieve> devicesOfParent = retrieveDevices(parent);
+          final List<SensorRetrieve> sensorsOfParent = retrieveSensors(parent);
+
+          checkCancelled();
+          spacesOfParent.forEach(space -> {
+            putSpace(space);
+            children.add(space.getId());
+          });
+          devicesOfParent.forEach(device -> {
+            putDevice(device);
+            devicesById.put(device.getId(), device);
+          });
+          allSensors.addAll(sensorsOfParent);
+        }), executor));
+      }
+
+      // Interruptible unlike join, i.e. a cancelled walk stops here
+      CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).get();
+      parents = new ArrayList<>(children);
+    }
+
+    checkCancelled();
+    allSensors.forEach(sensor -> putSensor(sensor, devicesById));
+  }
+
+  /**
+   * Splits the parent spaces of a level into at most {@link #parallelism} chunks.
+   */
+  private List<List<UUID>> chunk(final List<UUID> parents) {
+    final int size = (parents.size() + parallelism - 1) / parallelism;
+    final List<List<UUID>> chunks = new ArrayList<>();
+    for (int i = 0; i < parents.size(); i += size) {
+      chunks.add(parents.subList(i, Math.min(i + size, parents.size())));
+    }
+    return chunks;
+  }
+
+  private void checkCancelled() {
+    if (cancelled) {
+      throw new CancellationException("Topology warm-up timed out");
+    }
+  }
+
+  private List<SpaceRetrieve> retrieveChildSpaces(final UUID parent) {
+    return spacesApi
+        .spacesRetrieve(new SpacesRetrieveQueryParams().spaceId(parent).includes(SPACE_INCLUDES)
+            .traverse(TRAVERSE_DOWN).minLevel(1).maxLevel(1).minRelative(true).maxRelative(true))
+        .stream().map(srwc -> (SpaceRetrieve) srwc).collect(Collectors.toList());
+  }
+
+  private List<DeviceRetrieve> retrieveDevices(final UUID space) {
+    return devicesApi.devicesRetrieve(new DevicesRetrieveQueryParams().spaceId(space)
+        .includes(deviceIncludes()).traverse(TRAVERSE_DOWN).minLevel(0).maxLevel(0)
+        .minRelative(true).maxRelative(true));
+  }
+
+  private List<SensorRetrieve> retrieveSensors(final UUID space) {
+    return sensorsApi.sensorsRetrieve(new SensorsRetrieveQueryParams().spaceId(space)
+        .traverse(TRAVERSE_DOWN).minLevel(0).maxLevel(0).minRelative(true).maxRelative(true));
+  }
+
+  private void putSpace(final SpaceRetrieve space) {
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME).putIfAbsent(space.getName(),
+        space);
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).putIfAbsent(space.getId(),
+        space);
+    spaces.incrementAndGet();
+  }
+
+  private void putDevice(final DeviceRetrieve device) {
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).putIfAbsent(device.getName(),
+        device);
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).putIfAbsent(device.getId(),
+        device);
+
+    if (!StringUtils.isEmpty(device.getHardwareId())) {
+      getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID).putIfAbsent(
+          device.getHardwareId(),
+          device.getGatewayId() == null ? device.getId() : device.getGatewayId());
+    }
+    devices.incrementAndGet();
+  }
+
+  private void putSensor(final SensorRetrieve sensor, final Map<UUID, DeviceRetrieve> devicesById) {
+    final DeviceRetrieve device = devicesById.get(sensor.getDeviceId());
+    if (StringUtils.isEmpty(sensor.getHardwareId()) || device == null) {
+      return;
+    }
+
+    // Sensor hardware IDs take precedence like in the on demand lookup
+    getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID).put(
+        sensor.getHardwareId(),
+        device.getGatewayId() == null ? device.getId() : device.getGatewayId());
+    sensors.incrementAndGet();
+  }
+
+  private Cache getCache(final String name) {
+    return cacheManager.getCache(name);
+  }
+
+  private String deviceIncludes() {
+    return CompactTopologyCodec.deviceIncludes(cacheManager);
+  }
+}
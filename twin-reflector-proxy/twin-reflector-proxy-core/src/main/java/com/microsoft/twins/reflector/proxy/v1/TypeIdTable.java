@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import com.microsoft.twins.model.CategoryEnum;
+
+/**
+ * Type IDs by name, one open addressing table per {@link CategoryEnum}. Names are compared case
+ * insensitively and without white space, as the types are created in ADT, directly on the given
+ * {@link String}, i.e. lookups neither allocate keys nor box the IDs.
+ *
+ * <p>
+ * Tables are replaced on write as types are created rarely compared to the lookups of every
+ * ingress message. Reads are lock free.
+ * </p>
+ *
+ */
+final class TypeIdTable {
+  /**
+   * Returned by {@link #get(CategoryEnum, String)} if the type is not known.
+   */
+  static final int MISSING = Integer.MIN_VALUE;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final AtomicReferenceArray<Table> tables =
+      new AtomicReferenceArray<>(CategoryEnum.values().length);
+
+  /**
+   * @param category of the type
+   * @param name of the type
+   * @return ID of the type or {@link #MISSING}
+   */
+  int get(final CategoryEnum category, final String name) {
+    final Table table = tables.get(category.ordinal());
+    return table == null ? MISSING : table.get(name);
+  }
+
+  /**
+   * @param category of the type
+   * @param name of the type
+   * @param id of the type
+   */
+  synchronized void put(final CategoryEnum category, final String name, final int id) {
+    final Table table = tables.get(category.ordinal());
+    tables.set(category.ordinal(),
+        table == null ? new Table(INITIAL_CAPACITY).with(normalize(name), id)
+            : table.with(normalize(name), id));
+  }
+
+  /**
+   * Drops all types, e.g. after types were changed in ADT.
+   */
+  synchronized void clear() {
+    for (int i = 0; i < tables.length(); i++) {
+      tables.set(i, null);
+    }
+  }
+
+  /**
+   * @return number of types of the category
+   */
+  int size(final CategoryEnum category) {
+    final Table table = tables.get(category.ordinal());
+    return table == null ? 0 : table.size;
+  }
+
+  static String normalize(final String name) {
+    final StringBuilder normalized = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (!isWhiteSpace(c)) {
+        normalized.append(Character.toLowerCase(c));
+      }
+    }
+    return normalized.toString();
+  }
+
+  static int hash(final String name) {
+    int hash = 0;
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (!isWhiteSpace(c)) {
+        hash = 31 * hash + Character.toLowerCase(c);
+      }
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * @param normalized name as of {@link #normalize(String)}
+   * @param name to compare
+   * @return <code>true</code> if the name normalizes to the given one
+   */
+  static boolean matches(final String normalized, final String name) {
+    int position = 0;
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (isWhiteSpace(c)) {
+        continue;
+      }
+      if (position == normalized.length()
+          || normalized.charAt(position++) != Character.toLowerCase(c)) {
+        return false;
+      }
+    }
+    return position == normalized.length();
+  }
+
+  // White space as of \s, which the type names are created with
+  private static boolean isWhiteSpace(final char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static final class Table {
+    private final String[] names;
+    private final int[] ids;
+    private final int size;
+
+    private Table(final int capacity) {
+      this(new String[capacity], new int[capacity], 0);
+    }
+
+    private Table(final String[] names, final int[] ids, final int size) {
+      this.names = names;
+      this.ids = ids;
+      this.size = size;
+    }
+
+    private int get(final String name) {
+      final int mask = names.length - 1;
+      for (int i = hash(name) & mask;; i = (i + 1) & mask) {
+        final String candidate = names[i];
+        if (candidate == null) {
+          return MISSING;
+        }
+        if (matches(candidate, name)) {
+          return ids[i];
+        }
+      }
+    }
+
+    private Table with(final String normalized, final int id) {
+      // Kept at most half full so that probing ends at a free slot
+      final int capacity = (size + 1) * 2 > names.length ? names.length * 2 : names.length;
+      final Table copy = new Table(new String[capacity], new int[capacity], 0);
+
+      int copySize = 0;
+      for (int i = 0; i < names.length; i++) {
+        if (names[i] != null && !names[i].equals(normalized)) {
+          copy.insert(names[i], ids[i]);
+          copySize++;
+        }
+      }
+      copy.insert(normalized, id);
+
+      return new Table(copy.names, copy.ids, copySize + 1);
+    }
+
+    private void insert(final String normalized, final int id) {
+      final int mask = names.length - 1;
+      int i = hash(normalized) & mask;
+      while (names[i] != null) {
+        i = (i + 1) & mask;
+      }
+      names[i] = normalized;
+      ids[i] = id;
+    }
+  }
+}
@@ -12,14 +12,18 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import com.microsoft.azure.sdk.iot.device.DeviceClient;
 import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.twins.reflector.ContextPropagatingExecutor;
 import com.microsoft.twins.reflector.error.TopologyElementDoesNotExistException;
 import com.microsoft.twins.reflector.proxy.DigitalTwinTopologyProxy;
 import lombok.RequiredArgsConstructor;
@@ -31,10 +35,16 @@ public class TelemetryForwarder implements Closeable {
 
   private static final int D2C_MESSAGE_TIMEOUT = 2000; // 2 seconds
 
-  private final Map<UUID, DeviceClient> knownClients = new ConcurrentHashMap<>();
+  // Clients are opened on the task executor if present so that slow AMQP connection setup does
+  // not block other gateways
+  private final Map<UUID, CompletableFuture<DeviceClient>> knownClients =
+      new ConcurrentHashMap<>();
 
   private final DigitalTwinTopologyProxy cachedDigitalTwinProxy;
 
+  @Autowired(required = false)
+  private ContextPropagatingExecutor taskExecutor;
+
   @Slf4j
   protected static class EventCallback implements IotHubEventCallback {
 
@@ -56,31 +66,38 @@ public class TelemetryForwarder implements Closeable {
     }
   }
 
+  /**
+   * @param hardwareId to check
+   * @return <code>true</code> if telemetry of the given hardware ID can be forwarded, i.e. there is
+   *         a device or sensor with that hardware ID known to ADT
+   */
+  public boolean isKnownHardwareId(final String hardwareId) {
+    return cachedDigitalTwinProxy.getGatewayIdByHardwareId(hardwareId).isPresent();
+  }
+
   public void sendMessage(final String message, final UUID correlationId, final String hardwareId) {
+    sendMessage(new Message(message), correlationId, hardwareId);
+  }
+
+  /**
+   * Forwards telemetry that is already UTF-8 encoded JSON, e.g. captured by
+   * {@link com.microsoft.twins.reflector.ingress.RawTelemetryModule}, without conversion.
+   *
+   * @param message UTF-8 encoded JSON telemetry
+   * @param correlationId of the ingress message
+   * @param hardwareId the telemetry belongs to
+   */
+  public void sendMessage(final byte[] message, final UUID correlationId,
+      final String hardwareId) {
+    sendMessage(new Message(message), correlationId, hardwareId);
+  }
+
+  private void sendMessage(final Message msg, final UUID correlationId, final String hardwareId) {
+    final DeviceClient client = getClient(
+        cachedDigitalTwinProxy.getGatewayIdByHardwareId(hardwareId)
+            .orElseThrow(() -> new TopologyElementDoesNotExistException(hardwareId, correlationId)),
+        correlationId);
 
-    final DeviceClient client =
-        knownClients
-            .computeIfAbsent(
-                cachedDigitalTwinProxy.getGatewayIdByHardwareId(hardwareId).orElseThrow(
-                    () -> new TopologyElementDoesNotExistException(hardwareId, correlationId)),
-                key -> {
-                  try {
-                    final DeviceClient cl = new DeviceClient(
-                        cachedDigitalTwinProxy.getDeviceByDeviceId(key)
-                            .orElseThrow(() -> new TopologyElementDoesNotExistException(
-                                key.toString(), correlationId))
-                            .getConnectionString(),
-                        IotHubClientProtocol.AMQPS);
-                    cl.open();
-                    return cl;
-                  } catch (IllegalArgumentException | URISyntaxException | IOException e) {
-                    LOG.error("Could not create client", e);
-                    return null;
-                  }
-                });
-
-
-    final Message msg = new Message(message);
     msg.setContentTypeFinal("application/json");
     msg.setExpiryTime(D2C_MESSAGE_TIMEOUT);
 
@@ -97,10 +114,49 @@ public class TelemetryForwarder implements Closeable {
     }
   }
 
+  private DeviceClient getClient(final UUID gatewayId, final UUID correlationId) {
+    final CompletableFuture<DeviceClient> pending = knownClients.computeIfAbsent(gatewayId,
+        key -> taskExecutor == null
+            ? CompletableFuture.completedFuture(createClient(key, correlationId))
+            : taskExecutor.supply(() -> createClient(key, correlationId)));
+
+    try {
+      final DeviceClient client = pending.join();
+      if (client == null) {
+        knownClients.remove(gatewayId, pending);
+      }
+      return client;
+    } catch (final CompletionException e) {
+      knownClients.remove(gatewayId, pending);
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private DeviceClient createClient(final UUID gatewayId, final UUID correlationId) {
+    try {
+      final DeviceClient cl = new DeviceClient(
+          cachedDigitalTwinProxy.getDeviceConnectionString(gatewayId)
+              .orElseThrow(() -> new TopologyElementDoesNotExistException(gatewayId.toString(),
+                  correlationId)),
+          IotHubClientProtocol.AMQPS);
+      cl.open();
+      return cl;
+    } catch (IllegalArgumentException | URISyntaxException | IOException e) {
+      LOG.error("Could not create client", e);
+      return null;
+    }
+  }
+
   @Override
   public void close() throws IOException {
-    for (final DeviceClient client : knownClients.values()) {
-      client.closeNow();
+    for (final CompletableFuture<DeviceClient> client : knownClients.values()) {
+      final DeviceClient opened = client.getNow(null);
+      if (opened != null) {
+        opened.closeNow();
+      }
     }
   }
 }
@@ -4,19 +4,26 @@
 package com.microsoft.twins.reflector.topology;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.validation.Valid;
 import javax.validation.constraints.NotBlank;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.CollectionUtils;
 import org.springframework.validation.annotation.Validated;
 import com.microsoft.twins.model.DeviceRetrieve;
 import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.ContextPropagatingExecutor;
 import com.microsoft.twins.reflector.error.EntityTypeNotSupportedException;
 import com.microsoft.twins.reflector.error.TopologyElementDoesNotExistException;
+import com.microsoft.twins.reflector.ingress.AdaptiveConcurrencyLimiter;
 import com.microsoft.twins.reflector.model.IngressMessage;
 import com.microsoft.twins.reflector.model.Relationship;
 import com.microsoft.twins.reflector.proxy.DigitalTwinTopologyProxy;
@@ -32,6 +39,12 @@ public class TopologyUpdater {
   private final TenantResolver tenantResolver;
   private final DigitalTwinTopologyProxy cachedDigitalTwinProxy;
 
+  @Autowired(required = false)
+  private ContextPropagatingExecutor taskExecutor;
+
+  @Autowired(required = false)
+  private AdaptiveConcurrencyLimiter limiter;
+
 
   // Note: for the time being we assume the ID is stored in the name fields and we only handle the
   // topology element device for now.
@@ -50,22 +63,27 @@ public class TopologyUpdater {
   }
 
 
-  public void updateTopologyElementComplete(@Valid final IngressMessage update,
+  /**
+   * @param update to apply
+   * @param correlationId of the update
+   * @return ADT ID of the updated or created element
+   */
+  public UUID updateTopologyElementComplete(@Valid final IngressMessage update,
       final UUID correlationId) {
     log.trace("Got complete topology update: [{}] with correlation ID: [{}]", update,
         correlationId);
 
     if (IngressMessage.ENTITY_V1_DEVICE.equalsIgnoreCase(update.getEntityType())) {
-      updateDeviceComplete(update, correlationId);
+      return updateDeviceComplete(update, correlationId);
     } else if (IngressMessage.ENTITY_V1_SPACE.equalsIgnoreCase(update.getEntityType())) {
-      updateSpaceComplete(update, correlationId);
+      return updateSpaceComplete(update, correlationId);
     } else {
       throw new EntityTypeNotSupportedException(update.getEntityType(), correlationId);
     }
   }
 
 
-  private void updateSpaceComplete(final IngressMessage update, final UUID correlationId) {
+  private UUID updateSpaceComplete(final IngressMessage update, final UUID correlationId) {
     final Optional<SpaceRetrieve> existing = cachedDigitalTwinProxy.getSpaceByName(update.getId());
 
     if (existing.isPresent()) {
@@ -75,6 +93,7 @@ public class TopologyUpdater {
 
       updateChildSpaces(existing.get().getId(), update.getRelationships(), correlationId, true);
       updateChildDevices(existing.get().getId(), update.getRelationships(), correlationId, true);
+      return existing.get().getId();
     } else {
       final UUID created = cachedDigitalTwinProxy.createSpace(update.getId(),
           getParent(update.getRelationships()).orElseGet(tenantResolver::getTenant),
@@ -82,7 +101,7 @@ public class TopologyUpdater {
 
       updateChildSpaces(created, update.getRelationships(), correlationId, false);
       updateChildDevices(created, update.getRelationships(), correlationId, false);
-
+      return created;
     }
   }
 
@@ -125,7 +144,7 @@ public class TopologyUpdater {
     }
   }
 
-  private void updateDeviceComplete(final IngressMessage update, final UUID correlationId) {
+  private UUID updateDeviceComplete(final IngressMessage update, final UUID correlationId) {
     final Optional<DeviceRetrieve> existing =
         cachedDigitalTwinProxy.getDeviceByName(update.getId());
 
@@ -135,8 +154,9 @@ public class TopologyUpdater {
           getGateway(update.getRelationships(), correlationId).orElseGet(
               tenantResolver::getGateway),
           update.getProperties(), update.getAttributes());
+      return existing.get().getId();
     } else {
-      cachedDigitalTwinProxy.createDevice(update.getId(),
+      return cachedDigitalTwinProxy.createDevice(update.getId(),
           getParent(update.getRelationships()).orElseGet(tenantResolver::getTenant),
           getGateway(update.getRelationships(), correlationId).orElseGet(
               tenantResolver::getGateway),
@@ -144,6 +164,61 @@ public class TopologyUpdater {
     }
   }
 
+  /**
+   * Resolves all topology elements referenced by the given updates, i.e. the elements themselves as
+   * well as their parents, children and gateways. Every distinct element is looked up once so that
+   * the subsequent processing of the single updates is served by the proxy cache.
+   *
+   * @param updates to resolve the references for
+   */
+  public void resolveReferences(final Collection<IngressMessage> updates) {
+    final Set<String> spaces = new HashSet<>();
+    final Set<String> devices = new HashSet<>();
+    final Set<String> gateways = new HashSet<>();
+
+    for (final IngressMessage update : updates) {
+      if (update.getId() != null) {
+        if (IngressMessage.ENTITY_V1_DEVICE.equalsIgnoreCase(update.getEntityType())) {
+          devices.add(update.getId());
+        } else if (IngressMessage.ENTITY_V1_SPACE.equalsIgnoreCase(update.getEntityType())) {
+          spaces.add(update.getId());
+        }
+      }
+
+      if (CollectionUtils.isEmpty(update.getRelationships())) {
+        continue;
+      }
+
+      for (final Relationship relationShip : update.getRelationships()) {
+        if (relationShip.getTargetId() == null) {
+          continue;
+        }
+
+        if (IngressMessage.ENTITY_V1_SPACE.equalsIgnoreCase(relationShip.getEntityType())) {
+          spaces.add(relationShip.getTargetId());
+        } else if (IngressMessage.ENTITY_V1_DEVICE.equalsIgnoreCase(relationShip.getEntityType())) {
+          if (Relationship.RELATIONSHIP_GATEWAY.equalsIgnoreCase(relationShip.getName())) {
+            gateways.add(relationShip.getTargetId());
+          } else {
+            devices.add(relationShip.getTargetId());
+          }
+        }
+      }
+    }
+
+    log.trace("Resolving [{}] spaces, [{}] devices and [{}] gateways for [{}] updates",
+        spaces.size(), devices.size(), gateways.size(), updates.size());
+
+    // ADT supports a single space name per request only, i.e. spaces are looked up concurrently
+    if (taskExecutor == null) {
+      cachedDigitalTwinProxy.getSpacesByNames(spaces);
+    } else {
+      taskExecutor.forEach(spaces, cachedDigitalTwinProxy::getSpaceByName);
+    }
+    cachedDigitalTwinProxy.getDevicesByNames(devices);
+    cachedDigitalTwinProxy.getGatewayIdsByHardwareIds(gateways);
+  }
+
   public void deleteTopologyElement(@NotBlank final String id, final UUID correlationId,
       final String entityType) {
     log.trace("Got delete topology element with ID: [{}] with correlation ID: [{}]", id,
@@ -159,6 +234,22 @@ public class TopologyUpdater {
   }
 
 
+  /**
+   * Reassigns parents concurrently on the {@link ContextPropagatingExecutor} if present, e.g. in
+   * virtual thread execution mode. The calling thread applies an update under a permit of the
+   * {@link AdaptiveConcurrencyLimiter} already, i.e. additional workers only run on permits that
+   * are available right away and the calling thread reassigns the rest.
+   */
+  private <T> void reassign(final Collection<T> elements, final Consumer<T> reassignment) {
+    if (taskExecutor == null) {
+      elements.forEach(reassignment);
+    } else if (limiter == null) {
+      taskExecutor.forEach(elements, reassignment);
+    } else {
+      taskExecutor.forEach(elements, reassignment, worker -> () -> limiter.tryExecute(worker));
+    }
+  }
+
   private Optional<UUID> getParent(final Collection<Relationship> relationShips) {
     if (CollectionUtils.isEmpty(relationShips)) {
       return Optional.empty();
@@ -177,21 +268,17 @@ public class TopologyUpdater {
       final UUID correlationId, final boolean removeOrphans) {
     if (CollectionUtils.isEmpty(relationShips)) {
       if (removeOrphans) {
-        cachedDigitalTwinProxy.getSpaceChildrenOf(parent).forEach(orphan -> cachedDigitalTwinProxy
+        reassign(cachedDigitalTwinProxy.getSpaceChildrenOf(parent), orphan -> cachedDigitalTwinProxy
             .updateSpaceParent(orphan.getId(), tenantResolver.getTenant()));
       }
 
       return;
     }
 
-    final List<SpaceRetrieve> children = relationShips.stream()
-        .filter(relationShip -> IngressMessage.ENTITY_V1_SPACE
-            .equalsIgnoreCase(relationShip.getEntityType()))
-        .filter(relationShip -> Relationship.RELATIONSHIP_CHILD
-            .equalsIgnoreCase(relationShip.getName()))
-        .map(relationShip -> cachedDigitalTwinProxy.getSpaceByName(relationShip.getTargetId())
-            .orElse(null))
-        .collect(Collectors.toList());
+    final List<String> childNames = getChildNames(relationShips, IngressMessage.ENTITY_V1_SPACE);
+    final Map<String, SpaceRetrieve> found = cachedDigitalTwinProxy.getSpacesByNames(childNames);
+    final List<SpaceRetrieve> children = childNames.stream().map(found::get)
+        .filter(Objects::nonNull).collect(Collectors.toList());
 
     if (removeOrphans) {
       final List<SpaceRetrieve> existing = cachedDigitalTwinProxy.getSpaceChildrenOf(parent);
@@ -200,33 +287,32 @@ public class TopologyUpdater {
       existing.removeIf(child -> childIds.contains(child.getId()));
 
       if (!CollectionUtils.isEmpty(existing)) {
-        existing.forEach(orphan -> cachedDigitalTwinProxy.updateSpaceParent(orphan.getId(),
+        reassign(existing, orphan -> cachedDigitalTwinProxy.updateSpaceParent(orphan.getId(),
             tenantResolver.getTenant()));
       }
     }
 
-    children.forEach(child -> cachedDigitalTwinProxy.updateSpaceParent(child.getId(), parent));
+    reassign(children, child -> cachedDigitalTwinProxy.updateSpaceParent(child.getId(), parent));
   }
 
   private void updateChildDevices(final UUID parent, final Collection<Relationship> relationShips,
       final UUID correlationId, final boolean removeOrphans) {
     if (CollectionUtils.isEmpty(relationShips)) {
       if (removeOrphans) {
-        cachedDigitalTwinProxy.getDeviceChildrenOf(parent).forEach(orphan -> cachedDigitalTwinProxy
-            .updateDeviceParent(orphan, tenantResolver.getTenant()));
+        reassign(cachedDigitalTwinProxy.getDeviceChildrenOf(parent),
+            orphan -> cachedDigitalTwinProxy
+                .updateDeviceParent(orphan, tenantResolver.getTenant()));
       }
 
       return;
     }
 
-    final List<DeviceRetrieve> children = relationShips.stream()
-        .filter(relationShip -> IngressMessage.ENTITY_V1_DEVICE
-            .equalsIgnoreCase(relationShip.getEntityType()))
-        .filter(relationShip -> Relationship.RELATIONSHIP_CHILD
-            .equalsIgnoreCase(relationShip.getName()))
-        .map(relationShip -> cachedDigitalTwinProxy.getDeviceByName(relationShip.getTargetId())
-            .orElse(null))
-        .collect(Collectors.toList());
+    final List<String> childNames =
+        getChildNames(relationShips, IngressMessage.ENTITY_V1_DEVICE);
+    final Map<String, DeviceRetrieve> found =
+        cachedDigitalTwinProxy.getDevicesByNames(childNames);
+    final List<DeviceRetrieve> children = childNames.stream().map(found::get)
+        .filter(Objects::nonNull).collect(Collectors.toList());
 
     if (removeOrphans) {
       final List<DeviceRetrieve> existing = cachedDigitalTwinProxy.getDeviceChildrenOf(parent);
@@ -235,17 +321,27 @@ public class TopologyUpdater {
       existing.removeIf(child -> childIds.contains(child.getId()));
 
       if (!CollectionUtils.isEmpty(existing)) {
-        existing.forEach(orphan -> cachedDigitalTwinProxy.updateDeviceParent(orphan,
+        reassign(existing, orphan -> cachedDigitalTwinProxy.updateDeviceParent(orphan,
             tenantResolver.getTenant()));
       }
     }
 
-    children.forEach(child -> cachedDigitalTwinProxy.updateDeviceParent(child, parent));
+    reassign(children, child -> cachedDigitalTwinProxy.updateDeviceParent(child, parent));
 
 
 
   }
 
+  private static List<String> getChildNames(final Collection<Relationship> relationShips,
+      final String entityType) {
+    return relationShips.stream()
+        .filter(relationShip -> entityType.equalsIgnoreCase(relationShip.getEntityType()))
+        .filter(relationShip -> Relationship.RELATIONSHIP_CHILD
+            .equalsIgnoreCase(relationShip.getName()))
+        .map(Relationship::getTargetId).filter(Objects::nonNull).distinct()
+        .collect(Collectors.toList());
+  }
+
   private Optional<UUID> getGateway(final Collection<Relationship> relationShips,
       final UUID correlationId) {
     if (CollectionUtils.isEmpty(relationShips)) {
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import com.microsoft.twins.client.CorrelationIdContext;
+
+public class ContextPropagatingExecutorTest {
+
+  private final ContextPropagatingExecutor executor = new ContextPropagatingExecutor(
+      VirtualThreads.newThreadPerTaskExecutor("test-", 4), 2, Duration.ofSeconds(5));
+
+  @AfterEach
+  public void shutdown() {
+    executor.shutdown();
+    MDC.clear();
+    CorrelationIdContext.clear();
+  }
+
+  @Test
+  public void correlationIdIsPropagated() {
+    final UUID correlationId = UUID.randomUUID();
+    MDC.put("correlationId", correlationId.toString());
+    CorrelationIdContext.setCorrelationId(correlationId);
+
+    assertThat(executor.supply(CorrelationIdContext::getCorrelationId).join())
+        .isEqualTo(correlationId);
+    assertThat(executor.supply(() -> MDC.get("correlationId")).join())
+        .isEqualTo(correlationId.toString());
+  }
+
+  @Test
+  public void contextIsRestoredOnPooledThread() {
+    final ContextPropagatingExecutor pooled = new ContextPropagatingExecutor(
+        Executors.newSingleThreadExecutor(), 2, Duration.ofSeconds(5));
+    try {
+      CorrelationIdContext.setCorrelationId(UUID.randomUUID());
+      pooled.supply(CorrelationIdContext::getCorrelationId).join();
+
+      CorrelationIdContext.clear();
+      assertThat(pooled.supply(CorrelationIdContext::getCorrelationId).join()).isNull();
+    } finally {
+      pooled.shutdown();
+    }
+  }
+
+  @Test
+  public void forEachAppliesToAllAndPropagatesFailure() {
+    final Set<Integer> processed = ConcurrentHashMap.newKeySet();
+
+    executor.forEach(List.of(1, 2, 3, 4), processed::add);
+    assertThat(processed).containsExactlyInAnyOrder(1, 2, 3, 4);
+
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> executor.forEach(List.of(1, 2), element -> {
+          throw new IllegalStateException();
+        }));
+  }
+
+  @Test
+  public void forEachIsBoundedByParallelism() {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    executor.forEach(IntStream.range(0, 20).boxed().collect(Collectors.toList()), element -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      sleep(5);
+      running.decrementAndGet();
+    });
+
+    assertThat(maxRunning.get()).isBetween(1, 2);
+  }
+
+  @Test
+  public void forEachProcessesAllItemsIfHelpersAreSkipped() {
+    final Set<Integer> processed = ConcurrentHashMap.newKeySet();
+
+    executor.forEach(List.of(1, 2, 3, 4), processed::add, worker -> () -> {
+    });
+
+    assertThat(processed).containsExactlyInAnyOrder(1, 2, 3, 4);
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.DevicesApi.DevicesRetrieveQueryParams;
+import com.microsoft.twins.client.HttpTransportSettings;
+import com.microsoft.twins.client.TwinsApiClient;
+import com.microsoft.twins.client.TwinsHttpClients;
+import com.sun.net.httpserver.HttpServer;
+import feign.Retryer;
+
+/**
+ * Compares the throughput of blocking ADT calls on a bounded platform thread pool with virtual
+ * threads against a local stub that responds after a fixed latency. Calls go through the Feign
+ * client and pooled HTTP transport of the reflector. Virtual threads require a Java 21+ runtime,
+ * otherwise both modes run on platform threads.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionModeBenchmark {
+  private static final int CALLS = 1000;
+  private static final int PLATFORM_THREADS = 50;
+  private static final long ADT_LATENCY_MILLIS = 20;
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  private String mode;
+
+  private HttpServer adtStub;
+  private DevicesApi devicesApi;
+  private ContextPropagatingExecutor executor;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    adtStub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    adtStub.setExecutor(Executors.newCachedThreadPool());
+    adtStub.createContext("/api/v1.0/devices", exchange -> {
+      try {
+        Thread.sleep(ADT_LATENCY_MILLIS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      final byte[] body = "[]".getBytes();
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    adtStub.start();
+
+    // The connection pool must not be the bottleneck of either mode
+    final HttpTransportSettings settings = new HttpTransportSettings();
+    settings.setMaxConnectionsPerRoute(CALLS);
+    settings.setMaxConnectionsTotal(CALLS);
+    devicesApi = new TwinsApiClient("http://localhost:" + adtStub.getAddress().getPort(),
+        TwinsHttpClients.client(settings), Retryer.NEVER_RETRY).getDevicesApi();
+
+    executor = new ContextPropagatingExecutor(
+        "VIRTUAL".equals(mode)
+            ? VirtualThreads.newThreadPerTaskExecutor("benchmark-", PLATFORM_THREADS)
+            : Executors.newFixedThreadPool(PLATFORM_THREADS),
+        PLATFORM_THREADS, Duration.ofSeconds(10));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executor.shutdown();
+    adtStub.stop(0);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CALLS)
+  public void blockingAdtCalls() {
+    final CompletableFuture<?>[] calls = new CompletableFuture<?>[CALLS];
+    for (int i = 0; i < CALLS; i++) {
+      calls[i] = executor.supply(this::call);
+    }
+    CompletableFuture.allOf(calls).join();
+  }
+
+  private Integer call() {
+    return devicesApi.devicesRetrieve(new DevicesRetrieveQueryParams().names("device")).size();
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ExecutionModeBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CacheRefresherTest {
+  private static final Duration REFRESH = Duration.ofMillis(50);
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger reloads = new AtomicInteger();
+
+  private CacheRefresher refresher;
+
+  @AfterEach
+  public void shutdown() {
+    refresher.shutdown();
+  }
+
+  private ReflectorCacheManager cacheManager(final int maxRate) {
+    refresher = new CacheRefresher(Set.of("refreshed"), 1, maxRate, meterRegistry);
+    refresher.setReloader("refreshed", key -> key + "-" + reloads.incrementAndGet());
+
+    return new ReflectorCacheManager(new CacheSpec(100L, null, Duration.ofDays(1), REFRESH),
+        Map.of(), refresher, meterRegistry);
+  }
+
+  private static Object awaitValue(final Cache cache, final Object key, final Object expected)
+      throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5_000;
+    Object value = cache.get(key, Object.class);
+    while (!expected.equals(value) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      value = cache.get(key, Object.class);
+    }
+    return value;
+  }
+
+  @Test
+  public void staleEntryIsServedWhileReloaded() throws InterruptedException {
+    final Cache cache = cacheManager(100).getCache("refreshed");
+    cache.put("key", "initial");
+
+    Thread.sleep(REFRESH.toMillis() * 2);
+
+    // The access triggering the reload still gets the stale entry
+    assertThat(cache.get("key", Object.class)).isEqualTo("initial");
+    assertThat(awaitValue(cache, "key", "key-1")).isEqualTo("key-1");
+    assertThat(meterRegistry.get("twins.reflector.cache.refresh").tag("cache", "refreshed")
+        .tag("result", "reloaded").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void missesAreNotLoaded() {
+    final Cache cache = cacheManager(100).getCache("refreshed");
+
+    assertThat(cache.get("missing")).isNull();
+    assertThat(reloads).hasValue(0);
+  }
+
+  @Test
+  public void reloadsBeyondRateAreSkipped() throws InterruptedException {
+    final Cache cache = cacheManager(1).getCache("refreshed");
+    cache.put("key1", "initial");
+    cache.put("key2", "initial");
+
+    Thread.sleep(REFRESH.toMillis() * 2);
+    cache.get("key1");
+    cache.get("key2");
+
+    assertThat(awaitValue(cache, "key1", "key1-1")).isEqualTo("key1-1");
+    assertThat(cache.get("key2", Object.class)).isEqualTo("initial");
+    assertThat(reloads).hasValue(1);
+    assertThat(meterRegistry.get("twins.reflector.cache.refresh").tag("result", "skipped")
+        .counter().count()).isPositive();
+  }
+
+  @Test
+  public void cachesWithoutReloaderAreNotRefreshed() {
+    final Cache cache = cacheManager(100).getCache("other");
+
+    assertThat(((com.github.benmanes.caffeine.cache.Cache<?, ?>) cache.getNativeCache()).policy()
+        .refreshAfterWrite()).isEmpty();
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.util.unit.DataSize;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+
+/**
+ * Compares get and put throughput of the gateway cache, i.e. hardware IDs to UUIDs, kept by
+ * Caffeine on heap with the {@link OffHeapCache}. Run with <code>-prof gc</code> to compare
+ * allocation rates and GC time, e.g. through {@link #main(String[])}.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-XX:MaxDirectMemorySize=1g"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class OffHeapCacheBenchmark {
+  private static final int ENTRIES = 1_000_000;
+
+  @Param({"CAFFEINE", "OFF_HEAP"})
+  private String store;
+
+  private Cache cache;
+  private String[] hardwareIds;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    if ("OFF_HEAP".equals(store)) {
+      cache = new OffHeapCache("gatewayIdByHardwareId", DataSize.ofMegabytes(256).toBytes(), 96,
+          Duration.ofHours(1), null, null);
+    } else {
+      cache = new ReflectorCacheManager(
+          new CacheSpec((long) ENTRIES * 2, null, Duration.ofHours(1), null), Map.of(), null,
+          null).getCache("gatewayIdByHardwareId");
+    }
+
+    hardwareIds = new String[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      hardwareIds[i] = "hardware-" + UUID.randomUUID();
+      cache.put(hardwareIds[i], UUID.randomUUID());
+    }
+  }
+
+  @Benchmark
+  public Object get() {
+    return cache.get(hardwareIds[ThreadLocalRandom.current().nextInt(ENTRIES)]);
+  }
+
+  @Benchmark
+  public void put() {
+    cache.put(hardwareIds[ThreadLocalRandom.current().nextInt(ENTRIES)], UUID.randomUUID());
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(OffHeapCacheBenchmark.class.getSimpleName())
+        .addProfiler("gc").build()).run();
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache.ValueWrapper;
+
+public class OffHeapCacheTest {
+  private static final int SLOT_SIZE = 64;
+
+  // A single bucket of eight slots
+  private final OffHeapCache cache =
+      new OffHeapCache("test", 8 * SLOT_SIZE, SLOT_SIZE, null, null, null);
+
+  @Test
+  public void stringsUuidsAndNullsAreStored() {
+    final UUID gatewayId = UUID.randomUUID();
+    cache.put("hardware1", gatewayId);
+    cache.put(gatewayId, "device1");
+    cache.put("missing", null);
+
+    assertThat(cache.get("hardware1", UUID.class)).isEqualTo(gatewayId);
+    assertThat(cache.get(gatewayId, String.class)).isEqualTo("device1");
+    final ValueWrapper missing = cache.get("missing");
+    assertThat(missing).isNotNull();
+    assertThat(missing.get()).isNull();
+    assertThat(cache.get("unknown")).isNull();
+    assertThat(cache.size()).isEqualTo(3);
+
+    cache.evict("hardware1");
+    assertThat(cache.get("hardware1")).isNull();
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void recentlyReadEntriesSurviveEviction() {
+    for (int i = 0; i < 8; i++) {
+      cache.put("key" + i, UUID.randomUUID());
+    }
+    cache.get("key0");
+
+    cache.put("key8", UUID.randomUUID());
+
+    assertThat(cache.get("key0")).isNotNull();
+    assertThat(cache.get("key1")).isNull();
+    assertThat(cache.get("key8")).isNotNull();
+    assertThat(cache.size()).isEqualTo(8);
+    assertThat(cache.evictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void entriesNotFittingASlotAreRejected() {
+    cache.put("key", "small");
+    cache.put("key", "x".repeat(SLOT_SIZE));
+
+    // The outdated entry is not kept either
+    assertThat(cache.get("key")).isNull();
+    assertThat(cache.rejectedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void keysNotFittingASlotAreRejected() {
+    cache.put("k".repeat(SLOT_SIZE), "value");
+
+    assertThat(cache.get("k".repeat(SLOT_SIZE))).isNull();
+    assertThat(cache.size()).isZero();
+    assertThat(cache.rejectedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void concurrentCallersOfKeyShareLoad() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CompletableFuture<String> first =
+        CompletableFuture.supplyAsync(() -> cache.get("key", () -> {
+          loads.incrementAndGet();
+          loading.countDown();
+          release.await();
+          return "loaded";
+        }));
+    loading.await();
+    final CompletableFuture<String> second =
+        CompletableFuture.supplyAsync(() -> cache.get("key", () -> {
+          loads.incrementAndGet();
+          return "second";
+        }));
+    release.countDown();
+
+    assertThat(first.get()).isEqualTo("loaded");
+    assertThat(second.get()).isEqualTo("loaded");
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  public void putIfAbsentKeepsExistingEntry() {
+    assertThat(cache.putIfAbsent("key", "first")).isNull();
+    assertThat(cache.putIfAbsent("key", "second").get()).isEqualTo("first");
+    assertThat(cache.get("key", String.class)).isEqualTo("first");
+  }
+
+  @Test
+  public void entriesExpireAfterWrite() throws InterruptedException {
+    final OffHeapCache expiring =
+        new OffHeapCache("test", 8 * SLOT_SIZE, SLOT_SIZE, Duration.ofMillis(20), null, null);
+    expiring.put("key", "value");
+
+    Thread.sleep(50);
+
+    assertThat(expiring.get("key")).isNull();
+    assertThat(expiring.size()).isZero();
+  }
+}
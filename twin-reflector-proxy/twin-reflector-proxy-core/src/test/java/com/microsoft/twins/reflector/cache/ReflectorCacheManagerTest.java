@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.util.unit.DataSize;
+import com.github.benmanes.caffeine.cache.Policy.Expiration;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.ExtendedPropertyRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ReflectorCacheManagerTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final ReflectorCacheManager cacheManager = new ReflectorCacheManager(
+      new CacheSpec(10L, null, Duration.ofDays(7), null),
+      Map.of("gatewayidbyhardwareid", new CacheSpec(null, null, Duration.ofHours(1), null),
+          "deviceByName", new CacheSpec(null, DataSize.ofKilobytes(10), null, null)),
+      null, meterRegistry);
+
+  @SuppressWarnings("unchecked")
+  private static com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache(
+      final Cache cache) {
+    return (com.github.benmanes.caffeine.cache.Cache<Object, Object>) cache.getNativeCache();
+  }
+
+  @Test
+  public void cachesAreConfiguredByName() {
+    final Expiration<Object, Object> gatewayExpiry = nativeCache(
+        cacheManager.getCache("gatewayIdByHardwareId")).policy().expireAfterWrite().get();
+    assertThat(gatewayExpiry.getExpiresAfter(TimeUnit.MINUTES)).isEqualTo(60);
+    // Bounds not configured for the cache are taken from the defaults
+    assertThat(nativeCache(cacheManager.getCache("gatewayIdByHardwareId")).policy().eviction()
+        .get().getMaximum()).isEqualTo(10L);
+
+    final Expiration<Object, Object> otherExpiry =
+        nativeCache(cacheManager.getCache("other")).policy().expireAfterWrite().get();
+    assertThat(otherExpiry.getExpiresAfter(TimeUnit.DAYS)).isEqualTo(7);
+
+    assertThat(nativeCache(cacheManager.getCache("deviceByName")).policy().eviction().get()
+        .isWeighted()).isTrue();
+    assertThat(cacheManager.getCacheNames()).contains("gatewayIdByHardwareId", "other",
+        "deviceByName");
+  }
+
+  @Test
+  public void devicesWeighMoreThanTypeIds() {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setName("device1");
+    device.setConnectionString("HostName=hub.azure-devices.net;DeviceId=device1;SharedAccessKey=k");
+    device.setProperties(List.of(new ExtendedPropertyRetrieve().name("prop1").value("1")));
+    final SensorRetrieve sensor = new SensorRetrieve();
+    sensor.setHardwareId("sensor1");
+    device.setSensors(List.of(sensor));
+
+    final EstimatedSizeWeigher weigher = new EstimatedSizeWeigher();
+    assertThat(weigher.weigh("device1", device)).isGreaterThan(weigher.weigh("device1", 42) * 5);
+  }
+
+  @Test
+  public void hitRatioAndEvictionsAreExposed() {
+    final Cache cache = cacheManager.getCache("other");
+    cache.put("key", "value");
+    cache.get("key");
+    cache.get("missing");
+
+    assertThat(meterRegistry.get("twins.reflector.cache.hit.ratio").tag("cache", "other").gauge()
+        .value()).isEqualTo(0.5);
+
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, i);
+    }
+    nativeCache(cache).cleanUp();
+
+    assertThat(nativeCache(cache).estimatedSize()).isLessThanOrEqualTo(10);
+    assertThat(meterRegistry.get("cache.evictions").tag("cache", "other").functionCounter()
+        .count()).isGreaterThan(0);
+  }
+
+  @Test
+  public void caffeineSpecIsMappedOntoCacheSpec() {
+    final CacheSpec spec = new CacheSpec(null, DataSize.ofMegabytes(1), Duration.ofDays(7), null);
+
+    ReflectorCacheManager.applyCaffeineSpec("maximumSize=500,expireAfterWrite=10m,recordStats",
+        spec);
+
+    assertThat(spec.getMaximumSize()).isEqualTo(500L);
+    assertThat(spec.getMaximumWeight()).isNull();
+    assertThat(spec.getExpireAfterWrite()).isEqualTo(Duration.ofMinutes(10));
+  }
+
+  @Test
+  public void invalidCaffeineSpecIsRejected() {
+    assertThatIllegalArgumentException().isThrownBy(() -> ReflectorCacheManager
+        .applyCaffeineSpec("expireAfterWrite=10x", new CacheSpec()));
+  }
+}
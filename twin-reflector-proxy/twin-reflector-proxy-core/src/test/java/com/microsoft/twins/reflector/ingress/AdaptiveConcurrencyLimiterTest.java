@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+  @Test
+  public void throttlingReducesLimit() {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(10, 2, 20, 0.5, Duration.ofSeconds(5), null);
+
+    // Reported per ADT request, i.e. also if the request is retried and the message succeeds
+    limiter.execute(() -> {
+      limiter.onResponse(429, TimeUnit.MILLISECONDS.toNanos(10));
+      limiter.onResponse(200, TimeUnit.MILLISECONDS.toNanos(10));
+      return null;
+    });
+    assertThat(limiter.getLimit()).isEqualTo(5);
+
+    limiter.onResponse(503, TimeUnit.MILLISECONDS.toNanos(10));
+    limiter.onResponse(429, TimeUnit.MILLISECONDS.toNanos(10));
+    assertThat(limiter.getLimit()).isEqualTo(2);
+    assertThat(limiter.getInFlight()).isZero();
+  }
+
+  @Test
+  public void slowRequestsReduceLimit() {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(10, 1, 20, 0.5, Duration.ofMillis(100), null);
+
+    limiter.onResponse(200, TimeUnit.MILLISECONDS.toNanos(50));
+    assertThat(limiter.getLimit()).isEqualTo(10);
+
+    limiter.onResponse(200, TimeUnit.MILLISECONDS.toNanos(150));
+    assertThat(limiter.getLimit()).isEqualTo(5);
+  }
+
+  @Test
+  public void messagesOverlappingDecreaseDoNotGrowLimit() {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(2, 1, 3, 0.5, Duration.ofSeconds(5), null);
+
+    for (int i = 0; i < 100; i++) {
+      limiter.execute(() -> {
+        limiter.onResponse(429, 0);
+        return null;
+      });
+    }
+
+    assertThat(limiter.getLimit()).isEqualTo(1);
+  }
+
+  @Test
+  public void successfulCallsGrowLimitUpToMax() {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 3, 0.5, Duration.ofSeconds(5), null);
+
+    for (int i = 0; i < 100; i++) {
+      limiter.execute(() -> null);
+    }
+
+    assertThat(limiter.getLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void saturationIsReported() throws InterruptedException {
+    final List<Boolean> saturation = Collections.synchronizedList(new ArrayList<>());
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, Duration.ofSeconds(5), saturation::add);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CompletableFuture<Void> running = CompletableFuture.runAsync(() -> limiter.execute(() -> {
+      started.countDown();
+      await(release);
+      return null;
+    }));
+
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(limiter.getInFlight()).isEqualTo(1);
+    assertThat(saturation).containsExactly(true);
+
+    release.countDown();
+    running.join();
+
+    assertThat(saturation).containsExactly(true, false);
+  }
+
+  @Test
+  public void saturationCallbackRunsOutsideOfLimiterLock() {
+    final List<Integer> inFlight = Collections.synchronizedList(new ArrayList<>());
+    final AdaptiveConcurrencyLimiter[] limiter = new AdaptiveConcurrencyLimiter[1];
+    limiter[0] = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, Duration.ofSeconds(5),
+        saturated -> inFlight.add(CompletableFuture.supplyAsync(limiter[0]::getInFlight)
+            .completeOnTimeout(-1, 5, TimeUnit.SECONDS).join()));
+
+    limiter[0].execute(() -> null);
+
+    assertThat(inFlight).containsExactly(1, 0);
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.qpid.proton.codec.AMQPDefinedTypes;
+import org.apache.qpid.proton.codec.DecoderImpl;
+import org.apache.qpid.proton.codec.EncoderImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link AmqpHeaderDecoder} with the former per header proton-j decoder setup. Run with
+ * <code>-prof gc</code> to compare allocation rates, e.g. through {@link #main(String[])}.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AmqpHeaderDecoderBenchmark {
+
+  private byte[] messageType;
+  private byte[] correlationId;
+  private String messageTypeAsString;
+  private String correlationIdAsString;
+
+  @Setup
+  public void setup() {
+    messageType = AmqpHeaderDecoderTest.encode("partial");
+    correlationId = AmqpHeaderDecoderTest.encode(UUID.randomUUID().toString());
+    messageTypeAsString = new String(messageType);
+    correlationIdAsString = new String(correlationId);
+  }
+
+  @Benchmark
+  public Object[] perHeaderDecoder() {
+    return new Object[] {legacyDecode(messageTypeAsString),
+        UUID.fromString(legacyDecode(correlationIdAsString))};
+  }
+
+  @Benchmark
+  public Object[] reusableDecoder() {
+    return new Object[] {AmqpHeaderDecoder.decodeString(messageType),
+        AmqpHeaderDecoder.decodeUuid(correlationId)};
+  }
+
+  private static String legacyDecode(final String header) {
+    final DecoderImpl decoder = new DecoderImpl();
+    final EncoderImpl encoder = new EncoderImpl(decoder);
+    AMQPDefinedTypes.registerAllTypes(decoder, encoder);
+
+    decoder.setByteBuffer(ByteBuffer.wrap(header.getBytes()));
+    return decoder.readObject().toString();
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(AmqpHeaderDecoderBenchmark.class.getSimpleName())
+        .addProfiler("gc").build()).run();
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.codec.AMQPDefinedTypes;
+import org.apache.qpid.proton.codec.DecoderImpl;
+import org.apache.qpid.proton.codec.EncoderImpl;
+import org.junit.jupiter.api.Test;
+
+public class AmqpHeaderDecoderTest {
+
+  static byte[] encode(final Object value) {
+    final DecoderImpl decoder = new DecoderImpl();
+    final EncoderImpl encoder = new EncoderImpl(decoder);
+    AMQPDefinedTypes.registerAllTypes(decoder, encoder);
+
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    encoder.setByteBuffer(buffer);
+    encoder.writeObject(value);
+
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  @Test
+  public void shortAndLongStringsAreDecoded() {
+    final String longValue = "x".repeat(300);
+
+    assertThat(AmqpHeaderDecoder.decodeString(encode("partial"))).isEqualTo("partial");
+    assertThat(AmqpHeaderDecoder.decodeString(encode(longValue))).isEqualTo(longValue);
+    assertThat(AmqpHeaderDecoder.decodeString(encode(Symbol.valueOf("full")))).isEqualTo("full");
+  }
+
+  @Test
+  public void uuidIsDecodedFromUuidAndString() {
+    final UUID correlationId = UUID.randomUUID();
+
+    assertThat(AmqpHeaderDecoder.decodeUuid(encode(correlationId))).isEqualTo(correlationId);
+    assertThat(AmqpHeaderDecoder.decodeUuid(encode(correlationId.toString())))
+        .isEqualTo(correlationId);
+    assertThat(AmqpHeaderDecoder.decodeString(encode(correlationId)))
+        .isEqualTo(correlationId.toString());
+  }
+
+  @Test
+  public void otherTypesFallBackToProtonDecoder() {
+    assertThat(AmqpHeaderDecoder.decodeString(encode(42L))).isEqualTo("42");
+  }
+
+  @Test
+  public void nullIsDecoded() {
+    assertThat(AmqpHeaderDecoder.decodeString(null)).isNull();
+    assertThat(AmqpHeaderDecoder.decodeUuid(null)).isNull();
+    assertThat(AmqpHeaderDecoder.decodeString(encode(null))).isNull();
+  }
+}
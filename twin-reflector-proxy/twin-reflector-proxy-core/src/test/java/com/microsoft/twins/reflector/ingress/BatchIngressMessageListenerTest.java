@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.Feedback;
+import com.microsoft.twins.reflector.model.FeedbackMessage;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Status;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+
+public class BatchIngressMessageListenerTest {
+  private static final String PARTIAL = "partial";
+
+  private final TopologyUpdater topologyUpdater = mock(TopologyUpdater.class);
+  private final TelemetryForwarder telemetryForwarder = mock(TelemetryForwarder.class);
+  private final TwinReflectorProxyProperties properties = new TwinReflectorProxyProperties();
+
+  private BatchIngressMessageListener listener;
+
+  @BeforeEach
+  public void setup() {
+    properties.setFeedback(Feedback.ENABLED);
+    listener = new BatchIngressMessageListener(topologyUpdater, telemetryForwarder, properties);
+  }
+
+  @Test
+  public void failedMessageDoesNotFailBatch() {
+    final UUID correlationId = UUID.randomUUID();
+    final IngressMessage failing = device("device1", null);
+    final IngressMessage succeeding = device("device2", null);
+    doThrow(new IllegalStateException("ADT unavailable")).when(topologyUpdater)
+        .updateTopologyElementPartial(failing, correlationId);
+
+    final List<FeedbackMessage> feedback = listener.getIngressBatch(List.of(failing, succeeding),
+        PARTIAL, Optional.of(correlationId.toString()));
+
+    assertThat(feedback).extracting(FeedbackMessage::getStatus).containsExactly(Status.ERROR,
+        Status.PROCESSED);
+    assertThat(feedback.get(0).getErrorMessage()).isEqualTo("ADT unavailable");
+    verify(topologyUpdater).resolveReferences(List.of(failing, succeeding));
+    verify(topologyUpdater).updateTopologyElementPartial(succeeding, correlationId);
+  }
+
+  @Test
+  public void messagesKeepOwnCorrelationId() {
+    final UUID batchCorrelationId = UUID.randomUUID();
+    final UUID messageCorrelationId = UUID.randomUUID();
+    final IngressMessage own = device("device1", messageCorrelationId);
+    final IngressMessage inherited = device("device2", null);
+
+    final List<FeedbackMessage> feedback = listener.getIngressBatch(List.of(own, inherited),
+        PARTIAL, Optional.of(batchCorrelationId.toString()));
+
+    assertThat(feedback).extracting(FeedbackMessage::getCorrelationId)
+        .containsExactly(messageCorrelationId, batchCorrelationId);
+    verify(topologyUpdater).updateTopologyElementPartial(own, messageCorrelationId);
+    verify(topologyUpdater).updateTopologyElementPartial(inherited, batchCorrelationId);
+  }
+
+  @Test
+  public void failedReferenceResolutionDoesNotFailBatch() {
+    final IngressMessage message = device("device1", null);
+    doThrow(new IllegalStateException("ADT unavailable")).when(topologyUpdater)
+        .resolveReferences(any());
+
+    final List<FeedbackMessage> feedback =
+        listener.getIngressBatch(List.of(message), PARTIAL, Optional.empty());
+
+    assertThat(feedback).extracting(FeedbackMessage::getStatus).containsExactly(Status.PROCESSED);
+    verify(topologyUpdater).updateTopologyElementPartial(eq(message), any());
+  }
+
+  @Test
+  public void partialUpdatesOfBatchAreAppliedCoalescedBeforeReturning() {
+    final PartialUpdateCoalescer coalescer = new PartialUpdateCoalescer(topologyUpdater,
+        telemetryForwarder, 100);
+    ReflectionTestUtils.setField(listener, "coalescer", coalescer);
+
+    try {
+      final IngressMessage first = IngressMessage.builder().id("device1")
+          .entityType(IngressMessage.ENTITY_V1_DEVICE)
+          .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_STATUS, "active")).build();
+      final IngressMessage second = IngressMessage.builder().id("device1")
+          .entityType(IngressMessage.ENTITY_V1_DEVICE)
+          .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_DESCRIPTION, "second")).build();
+
+      final List<FeedbackMessage> feedback =
+          listener.getIngressBatch(List.of(first, second), PARTIAL, Optional.empty());
+
+      assertThat(feedback).extracting(FeedbackMessage::getStatus)
+          .containsExactly(Status.PROCESSED, Status.PROCESSED);
+
+      final ArgumentCaptor<IngressMessage> merged = ArgumentCaptor.forClass(IngressMessage.class);
+      verify(topologyUpdater).updateTopologyElementPartial(merged.capture(), isNull());
+      assertThat(merged.getValue().getAttributes()).containsOnly(
+          Map.entry(IngressMessage.ATTRIBUTE_V1_STATUS, "active"),
+          Map.entry(IngressMessage.ATTRIBUTE_V1_DESCRIPTION, "second"));
+    } finally {
+      coalescer.shutdown();
+    }
+  }
+
+  @Test
+  public void telemetryFastPathWaitsForCoalescedUpdatesOfDevice() {
+    properties.getIngress().setTelemetryFastPathEnabled(true);
+    final PartialUpdateCoalescer coalescer = new PartialUpdateCoalescer(topologyUpdater,
+        telemetryForwarder, 100);
+    ReflectionTestUtils.setField(listener, "coalescer", coalescer);
+    when(telemetryForwarder.isKnownHardwareId("device1")).thenReturn(true);
+
+    try {
+      final IngressMessage update = IngressMessage.builder().id("device1")
+          .entityType(IngressMessage.ENTITY_V1_DEVICE)
+          .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_STATUS, "active")).build();
+      final IngressMessage telemetry = IngressMessage.builder().id("device1")
+          .entityType(IngressMessage.ENTITY_V1_DEVICE).telemetry("t1").build();
+
+      listener.getIngressBatch(List.of(update, telemetry), PARTIAL, Optional.empty());
+
+      final InOrder order = inOrder(topologyUpdater, telemetryForwarder);
+      order.verify(topologyUpdater).updateTopologyElementPartial(any(), isNull());
+      order.verify(telemetryForwarder).sendMessage(eq("t1"), isNull(), eq("device1"));
+    } finally {
+      coalescer.shutdown();
+    }
+  }
+
+  @Test
+  public void flushOfCoalescedUpdatesDoesNotNestLimiterPermits() {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, Duration.ofSeconds(5), null);
+    final PartialUpdateCoalescer coalescer = new PartialUpdateCoalescer(topologyUpdater,
+        telemetryForwarder, 100);
+    ReflectionTestUtils.setField(coalescer, "limiter", limiter);
+    ReflectionTestUtils.setField(listener, "coalescer", coalescer);
+    ReflectionTestUtils.setField(listener, "limiter", limiter);
+
+    try {
+      final IngressMessage coalesced = IngressMessage.builder().id("device1")
+          .entityType(IngressMessage.ENTITY_V1_DEVICE)
+          .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_STATUS, "active")).build();
+      // Flushes the coalesced update before being applied itself
+      final IngressMessage uncoalesced = device("device1", null);
+
+      final List<FeedbackMessage> feedback = assertTimeoutPreemptively(Duration.ofSeconds(5),
+          () -> listener.getIngressBatch(List.of(coalesced, uncoalesced), PARTIAL,
+              Optional.empty()));
+
+      assertThat(feedback).extracting(FeedbackMessage::getStatus)
+          .containsExactly(Status.PROCESSED, Status.PROCESSED);
+      assertThat(limiter.getInFlight()).isZero();
+    } finally {
+      coalescer.shutdown();
+    }
+  }
+
+  private static IngressMessage device(final String id, final UUID correlationId) {
+    return IngressMessage.builder().id(id).entityType(IngressMessage.ENTITY_V1_DEVICE)
+        .correlationId(correlationId).build();
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Property;
+import com.microsoft.twins.reflector.model.Relationship;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class IngressDigestCacheTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final IngressDigestCache digestCache =
+      new IngressDigestCache(new ConcurrentMapCacheManager(), meterRegistry);
+
+  @Test
+  public void digestIgnoresOrderAndTelemetry() {
+    final IngressMessage first = IngressMessage.builder().id("device1")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE)
+        .properties(List.of(Property.builder().name("prop1").value("1").build(),
+            Property.builder().name("prop2").value("2").build()))
+        .relationships(List.of(Relationship.builder().entityType(IngressMessage.ENTITY_V1_SPACE)
+            .name(Relationship.RELATIONSHIP_PARENT).targetId("space1").build()))
+        .telemetry("t1").build();
+
+    final IngressMessage second = IngressMessage.builder().id("device1")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE)
+        .properties(List.of(Property.builder().name("prop2").value("2").build(),
+            Property.builder().name("prop1").value("1").build()))
+        .relationships(List.of(Relationship.builder().entityType(IngressMessage.ENTITY_V1_SPACE)
+            .name(Relationship.RELATIONSHIP_PARENT).targetId("space1").build()))
+        .telemetry("t2").build();
+
+    assertThat(digestCache.digest(first)).isEqualTo(digestCache.digest(second));
+
+    second.setAttributes(Map.of(IngressMessage.ATTRIBUTE_V1_STATUS, "active"));
+    assertThat(digestCache.digest(first)).isNotEqualTo(digestCache.digest(second));
+  }
+
+  @Test
+  public void unchangedUpdateIsDetected() {
+    final IngressMessage update = IngressMessage.builder().id("space1")
+        .entityType(IngressMessage.ENTITY_V1_SPACE).build();
+    final String digest = digestCache.digest(update);
+
+    assertThat(digestCache.isUnchanged(update, digest)).isFalse();
+
+    digestCache.applied(update, digest, null);
+    assertThat(digestCache.isUnchanged(update, digest)).isTrue();
+
+    digestCache.evict(IngressMessage.ENTITY_V1_SPACE, "space1");
+    assertThat(digestCache.isUnchanged(update, digest)).isFalse();
+
+    assertThat(meterRegistry.get("twins.reflector.ingress.digest").tag("result", "hit").counter()
+        .count()).isEqualTo(1);
+    assertThat(meterRegistry.get("twins.reflector.ingress.digest").tag("result", "miss")
+        .counter().count()).isEqualTo(2);
+  }
+
+  @Test
+  public void eventOfOwnUpdateKeepsDigest() {
+    final UUID correlationId = UUID.randomUUID();
+    final IngressMessage update = IngressMessage.builder().id("device1")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE).build();
+    final String digest = digestCache.digest(update);
+
+    digestCache.applied(update, digest, correlationId);
+
+    digestCache.evict(IngressMessage.ENTITY_V1_DEVICE, "device1", correlationId.toString());
+    assertThat(digestCache.isUnchanged(update, digest)).isTrue();
+
+    digestCache.evict(IngressMessage.ENTITY_V1_DEVICE, "device1", UUID.randomUUID().toString());
+    assertThat(digestCache.isUnchanged(update, digest)).isFalse();
+  }
+
+  @Test
+  public void eventOfUnknownElementEvictsIndexedDigestOnly() {
+    final UUID elementId = UUID.randomUUID();
+    final IngressMessage indexed = IngressMessage.builder().id("device1")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE).build();
+    final IngressMessage other = IngressMessage.builder().id("device2")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE).build();
+
+    digestCache.applied(indexed, digestCache.digest(indexed), null, elementId);
+    digestCache.applied(other, digestCache.digest(other), null, UUID.randomUUID());
+
+    digestCache.evict(UUID.randomUUID(), null);
+    assertThat(digestCache.isUnchanged(indexed, digestCache.digest(indexed))).isTrue();
+
+    digestCache.evict(elementId, null);
+    assertThat(digestCache.isUnchanged(indexed, digestCache.digest(indexed))).isFalse();
+    assertThat(digestCache.isUnchanged(other, digestCache.digest(other))).isTrue();
+  }
+}
@@ -10,6 +10,7 @@ import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import java.util.UUID;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -52,8 +53,9 @@ public class IngressMessageListenerTest extends AbstractTest {
 
     @Bean
     IngressMessageListener ingressMessageListener() {
-      return new IngressMessageListener(topologyUpdater, telemetryForwarder,
-          new TwinReflectorProxyProperties());
+      final TwinReflectorProxyProperties properties = new TwinReflectorProxyProperties();
+      properties.getIngress().setTelemetryFastPathEnabled(true);
+      return new IngressMessageListener(topologyUpdater, telemetryForwarder, properties);
     }
 
   }
@@ -219,4 +221,26 @@ public class IngressMessageListenerTest extends AbstractTest {
         eq(correlationId), eq(testId));
   }
 
+  @Test
+  public void partialUpdateWithTelemetryOnlyBypassesTopology() {
+    final String testId = UUID.randomUUID().toString();
+    final String testTelemetry = "test";
+
+    final IngressMessage testMessage = new IngressMessage();
+    testMessage.setId(testId);
+    testMessage.setTelemetry(testTelemetry);
+    testMessage.setEntityType("devices");
+
+    when(testConfiguration.getTelemetryForwarder().isKnownHardwareId(testId)).thenReturn(true);
+
+    sink.inputChannel().send(
+        MessageBuilder.withPayload(testMessage).setHeader(ReflectorIngressSink.HEADER_MESSAGE_TYPE,
+            MessageType.PARTIAL.toString().toLowerCase()).build());
+
+    verify(testConfiguration.getTelemetryForwarder(), timeout(2_000)).sendMessage(eq(testTelemetry),
+        isNull(), eq(testId));
+    verify(testConfiguration.getTopologyUpdater(), never()).updateTopologyElementPartial(any(),
+        any());
+  }
+
 }
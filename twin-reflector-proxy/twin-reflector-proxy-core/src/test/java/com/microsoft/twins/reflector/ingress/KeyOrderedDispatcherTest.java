@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class KeyOrderedDispatcherTest {
+
+  private final KeyOrderedDispatcher dispatcher =
+      new KeyOrderedDispatcher(4, 10, Duration.ofSeconds(5));
+
+  @AfterEach
+  public void shutdown() {
+    dispatcher.shutdown();
+  }
+
+  @Test
+  public void tasksWithSameKeyAreExecutedInOrder() {
+    final List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+    final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      final int sequence = i;
+      futures.add(dispatcher.dispatch("twin", () -> {
+        executed.add(sequence);
+        return sequence;
+      }));
+    }
+
+    futures.forEach(CompletableFuture::join);
+
+    assertThat(executed).hasSize(100).isSorted();
+  }
+
+  @Test
+  public void slowKeyDoesNotBlockOtherLanes() throws InterruptedException {
+    final String slowKey = "slow";
+    final String fastKey = findKeyOnOtherLane(slowKey);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CompletableFuture<Boolean> slow = dispatcher.dispatch(slowKey, () -> {
+      try {
+        return release.await(5, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    });
+
+    final CompletableFuture<String> fast = dispatcher.dispatch(fastKey, () -> fastKey);
+
+    assertThat(fast.join()).isEqualTo(fastKey);
+    assertThat(slow).isNotDone();
+
+    release.countDown();
+    assertThat(slow.join()).isTrue();
+  }
+
+  @Test
+  public void failuresAreReportedThroughFuture() {
+    final CompletableFuture<Object> result = dispatcher.dispatch("twin", () -> {
+      throw new IllegalStateException("test");
+    });
+
+    assertThatExceptionOfType(CompletionException.class).isThrownBy(result::join)
+        .withCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void errorsAreReportedThroughFuture() {
+    final CompletableFuture<Object> result = dispatcher.dispatch("twin", () -> {
+      throw new AssertionError("test");
+    });
+
+    assertThatExceptionOfType(CompletionException.class).isThrownBy(result::join)
+        .withCauseInstanceOf(AssertionError.class);
+  }
+
+  @Test
+  public void tasksAfterShutdownAreRejected() {
+    dispatcher.shutdown();
+
+    assertThatExceptionOfType(RejectedExecutionException.class)
+        .isThrownBy(() -> dispatcher.dispatch("twin", () -> "twin"));
+  }
+
+  private String findKeyOnOtherLane(final String key) {
+    final int lane = Math.floorMod(key.hashCode(), dispatcher.getLaneCount());
+
+    for (int i = 0;; i++) {
+      final String candidate = "key" + i;
+      if (Math.floorMod(candidate.hashCode(), dispatcher.getLaneCount()) != lane) {
+        return candidate;
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Property;
+import com.microsoft.twins.reflector.model.Relationship;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+
+public class PartialUpdateCoalescerTest {
+
+  private final TopologyUpdater topologyUpdater = mock(TopologyUpdater.class);
+  private final TelemetryForwarder telemetryForwarder = mock(TelemetryForwarder.class);
+
+  private final PartialUpdateCoalescer coalescer =
+      new PartialUpdateCoalescer(topologyUpdater, telemetryForwarder, 100);
+
+  @AfterEach
+  public void shutdown() {
+    coalescer.shutdown();
+  }
+
+  @Test
+  public void partialUpdatesAreMergedUntilFlush() {
+    final UUID firstCorrelationId = UUID.randomUUID();
+    final UUID secondCorrelationId = UUID.randomUUID();
+
+    final CompletableFuture<Void> first = coalescer.submit(IngressMessage.builder().id("device1")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE)
+        .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_STATUS, "active",
+            IngressMessage.ATTRIBUTE_V1_DESCRIPTION, "first"))
+        .properties(List.of(Property.builder().name("temperature").value("1").build()))
+        .relationships(List.of(Relationship.builder().entityType(IngressMessage.ENTITY_V1_SPACE)
+            .name(Relationship.RELATIONSHIP_PARENT).targetId("space1").build()))
+        .telemetry("t1").build(), firstCorrelationId);
+
+    final CompletableFuture<Void> second = coalescer.submit(IngressMessage.builder().id("device1")
+        .entityType(IngressMessage.ENTITY_V1_DEVICE)
+        .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_DESCRIPTION, "second"))
+        .properties(List.of(Property.builder().name("temperature").value("2").build(),
+            Property.builder().name("humidity").value("3").build()))
+        .relationships(List.of(Relationship.builder().entityType(IngressMessage.ENTITY_V1_SPACE)
+            .name(Relationship.RELATIONSHIP_PARENT).targetId("space2").build()))
+        .telemetry("t2").build(), secondCorrelationId);
+
+    assertThat(first).isSameAs(second).isNotDone();
+    verify(topologyUpdater, never()).updateTopologyElementPartial(any(), any());
+
+    coalescer.flush(IngressMessage.ENTITY_V1_DEVICE, "device1");
+
+    final ArgumentCaptor<IngressMessage> merged = ArgumentCaptor.forClass(IngressMessage.class);
+    final InOrder order = inOrder(topologyUpdater, telemetryForwarder);
+    order.verify(topologyUpdater).updateTopologyElementPartial(merged.capture(),
+        eq(secondCorrelationId));
+    order.verify(telemetryForwarder).sendMessage("t1", firstCorrelationId, "device1");
+    order.verify(telemetryForwarder).sendMessage("t2", secondCorrelationId, "device1");
+
+    assertThat(merged.getValue().getAttributes()).containsOnly(
+        Map.entry(IngressMessage.ATTRIBUTE_V1_STATUS, "active"),
+        Map.entry(IngressMessage.ATTRIBUTE_V1_DESCRIPTION, "second"));
+    assertThat(merged.getValue().getProperties()).extracting(Property::getValue)
+        .containsExactly("2", "3");
+    assertThat(merged.getValue().getRelationships()).extracting(Relationship::getTargetId)
+        .containsExactly("space2");
+    assertThat(first).isCompleted();
+  }
+
+  @Test
+  public void pendingUpdatesAreAppliedWhenMaxMessagesReached() {
+    final PartialUpdateCoalescer small =
+        new PartialUpdateCoalescer(topologyUpdater, telemetryForwarder, 2);
+
+    try {
+      final IngressMessage update = IngressMessage.builder().id("device1")
+          .entityType(IngressMessage.ENTITY_V1_DEVICE).build();
+
+      small.submit(update, null);
+      verify(topologyUpdater, never()).updateTopologyElementPartial(any(), any());
+
+      assertThat(small.submit(update, null)).isCompleted();
+      verify(topologyUpdater).updateTopologyElementPartial(any(), any());
+    } finally {
+      small.shutdown();
+    }
+  }
+
+  @Test
+  public void failedUpdateCompletesExceptionally() {
+    final IngressMessage update = IngressMessage.builder().id("device1")
+        .entityType("unsupported").build();
+    doThrow(new IllegalStateException("test")).when(topologyUpdater)
+        .updateTopologyElementPartial(any(), any());
+
+    final CompletableFuture<Void> result = coalescer.submit(update, null);
+    coalescer.flush("unsupported", "device1");
+
+    assertThat(result).isCompletedExceptionally();
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.twins.reflector.model.IngressMessage;
+
+public class RawTelemetryModuleTest {
+
+  private static final String TELEMETRY = "{\"temperature\": 21.5, \"tags\": [\"a\", \"b\"]}";
+  private static final String MESSAGE = "{\"id\": \"device1\", \"entity-type\": \"devices\", "
+      + "\"telemetry\": " + TELEMETRY + ", \"attributes\": {\"status\": \"active\"}}";
+
+  private final ObjectMapper mapper = new ObjectMapper().registerModule(new RawTelemetryModule());
+
+  @Test
+  public void telemetryIsSlicedFromByteInput() throws IOException {
+    final IngressMessage message =
+        mapper.readValue(MESSAGE.getBytes(StandardCharsets.UTF_8), IngressMessage.class);
+
+    assertThat(message.getTelemetry()).isInstanceOf(byte[].class);
+    assertThat(new String((byte[]) message.getTelemetry(), StandardCharsets.UTF_8))
+        .isEqualTo(TELEMETRY);
+    assertThat(message.getAttributes()).containsEntry("status", "active");
+  }
+
+  @Test
+  public void telemetryIsCopiedFromStreamInput() throws IOException {
+    final IngressMessage message = mapper.readValue(
+        new ByteArrayInputStream(MESSAGE.getBytes(StandardCharsets.UTF_8)), IngressMessage.class);
+
+    assertThat(mapper.readTree((byte[]) message.getTelemetry()))
+        .isEqualTo(mapper.readTree(TELEMETRY));
+  }
+
+  @Test
+  public void scalarTelemetryIsKeptAsJson() throws IOException {
+    final IngressMessage message = mapper.readValue(
+        "{\"id\": \"device1\", \"entity-type\": \"devices\", \"telemetry\": \"on\"}"
+            .getBytes(StandardCharsets.UTF_8),
+        IngressMessage.class);
+
+    assertThat(new String((byte[]) message.getTelemetry(), StandardCharsets.UTF_8))
+        .isEqualTo("\"on\"");
+  }
+
+  @Test
+  public void rawTelemetryIsSerializedAsJson() throws IOException {
+    final IngressMessage message =
+        mapper.readValue(MESSAGE.getBytes(StandardCharsets.UTF_8), IngressMessage.class);
+
+    assertThat(mapper.readTree(mapper.writeValueAsBytes(message)).get("telemetry"))
+        .isEqualTo(mapper.readTree(TELEMETRY));
+  }
+}
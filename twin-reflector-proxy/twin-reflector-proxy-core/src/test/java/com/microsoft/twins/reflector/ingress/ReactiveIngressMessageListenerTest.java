@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.ingress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.proxy.ReactiveDigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.telemetry.TelemetryForwarder;
+import com.microsoft.twins.reflector.topology.TopologyUpdater;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+public class ReactiveIngressMessageListenerTest {
+  private static final String PARTIAL = "partial";
+
+  private final TopologyUpdater topologyUpdater = mock(TopologyUpdater.class);
+  private final TelemetryForwarder telemetryForwarder = mock(TelemetryForwarder.class);
+  private final ReactiveDigitalTwinTopologyProxy reactiveProxy =
+      mock(ReactiveDigitalTwinTopologyProxy.class);
+  private final Scheduler scheduler = Schedulers.newParallel("reactive-test", 2);
+
+  private ReactiveIngressMessageListener listener;
+
+  @BeforeEach
+  public void setup() {
+    listener = new ReactiveIngressMessageListener(topologyUpdater, telemetryForwarder,
+        new TwinReflectorProxyProperties(), reactiveProxy, scheduler);
+  }
+
+  @AfterEach
+  public void shutdown() {
+    scheduler.dispose();
+  }
+
+  @Test
+  public void recordIsAcknowledgedAfterReactiveUpdateWithLimiterPermit() {
+    final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, Duration.ofSeconds(5), null);
+    ReflectionTestUtils.setField(listener, "limiter", limiter);
+
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    final AtomicInteger permitsDuringUpdate = new AtomicInteger(-1);
+    when(reactiveProxy.getDeviceByName("device1")).thenReturn(Mono.just(device));
+    when(reactiveProxy.updateDevicePartial(eq(device), isNull(), isNull(), any()))
+        .thenReturn(Mono.delay(Duration.ofMillis(50))
+            .doOnNext(tick -> permitsDuringUpdate.set(limiter.getInFlight())).then());
+
+    listener.getIngress(device("device1"), PARTIAL, Optional.empty());
+
+    assertThat(permitsDuringUpdate).hasValue(1);
+    assertThat(limiter.getInFlight()).isZero();
+    assertThat(listener.getInFlight()).isZero();
+    verify(topologyUpdater, never()).updateTopologyElementPartial(any(), any());
+  }
+
+  @Test
+  public void unknownElementIsAppliedBlocking() {
+    when(reactiveProxy.getDeviceByName("device1")).thenReturn(Mono.empty());
+
+    final IngressMessage message = device("device1");
+    listener.getIngress(message, PARTIAL, Optional.empty());
+
+    verify(topologyUpdater).updateTopologyElementPartial(message, null);
+  }
+
+  private static IngressMessage device(final String id) {
+    return IngressMessage.builder().id(id).entityType(IngressMessage.ENTITY_V1_DEVICE)
+        .attributes(Map.of(IngressMessage.ATTRIBUTE_V1_STATUS, "active")).build();
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final SingleFlight singleFlight = new SingleFlight(meterRegistry);
+
+  @Test
+  public void concurrentLoadsOfSameKeyAreCollapsed() throws Exception {
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+
+    final CompletableFuture<String> first =
+        CompletableFuture.supplyAsync(() -> singleFlight.load("cache", "key", () -> {
+          loads.incrementAndGet();
+          loading.countDown();
+          await(release);
+          return "value";
+        }));
+    assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+    final CompletableFuture<String> second =
+        CompletableFuture.supplyAsync(() -> singleFlight.load("cache", "key", () -> {
+          loads.incrementAndGet();
+          return "other";
+        }));
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (singleFlight.getCollapsed() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(singleFlight.getCollapsed()).isEqualTo(1);
+
+    // Different key is not collapsed
+    assertThat(singleFlight.load("cache", "otherKey", () -> "otherValue")).isEqualTo("otherValue");
+
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(loads).hasValue(1);
+    assertThat(meterRegistry.get("twins.reflector.proxy.collapsed").tag("cache", "cache")
+        .counter().count()).isEqualTo(1);
+
+    // Completed loads are not kept
+    assertThat(singleFlight.load("cache", "key", () -> "reloaded")).isEqualTo("reloaded");
+  }
+
+  @Test
+  public void failedLoadIsPropagated() {
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> singleFlight.load("cache", "key", () -> {
+          throw new IllegalStateException("ADT unavailable");
+        }));
+
+    assertThat(singleFlight.load("cache", "key", () -> "value")).isEqualTo("value");
+  }
+
+  @Test
+  public void asyncLoadsShareFlightWithBlockingLoads() {
+    final CompletableFuture<String> loading = new CompletableFuture<>();
+    final AtomicInteger loads = new AtomicInteger();
+
+    final CompletableFuture<String> first = singleFlight.loadAsync("cache", "key", () -> {
+      loads.incrementAndGet();
+      return loading;
+    });
+    final CompletableFuture<String> second = singleFlight.loadAsync("cache", "key", () -> {
+      loads.incrementAndGet();
+      return CompletableFuture.completedFuture("other");
+    });
+    final CompletableFuture<String> blocking =
+        CompletableFuture.supplyAsync(() -> singleFlight.load("cache", "key", () -> "blocking"));
+
+    loading.complete("value");
+
+    assertThat(first.join()).isEqualTo("value");
+    assertThat(second.join()).isEqualTo("value");
+    assertThat(loads).hasValue(1);
+    assertThat(blocking.join()).isIn("value", "blocking");
+  }
+
+  @Test
+  public void resultIsCachedBeforeWaitingCallersReturn() throws Exception {
+    final ConcurrentMapCache cache = new ConcurrentMapCache("cache");
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final CompletableFuture<Optional<String>> first =
+        CompletableFuture.supplyAsync(() -> singleFlight.load(cache, "key", () -> {
+          loading.countDown();
+          await(release);
+          return Optional.of("value");
+        }));
+    assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+    final CompletableFuture<ValueWrapper> cachedOnReturn = CompletableFuture.supplyAsync(() -> {
+      singleFlight.load(cache, "key", Optional::empty);
+      return cache.get("key");
+    });
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (singleFlight.getCollapsed() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).contains("value");
+    assertThat(cachedOnReturn.get(5, TimeUnit.SECONDS).get()).isEqualTo("value");
+
+    // Misses are cached like by Cacheable
+    final Optional<String> missing = singleFlight.load(cache, "missing", Optional::empty);
+    assertThat(missing).isEmpty();
+    assertThat(cache.get("missing").get()).isNull();
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -5,6 +5,7 @@ package com.microsoft.twins.reflector.proxy.v1;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -15,6 +16,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,16 +36,22 @@ import com.microsoft.twins.api.EndpointsApi;
 import com.microsoft.twins.api.SensorsApi;
 import com.microsoft.twins.api.SpacesApi;
 import com.microsoft.twins.api.SpacesApi.SpacesRetrieveQueryParams;
+import com.microsoft.twins.client.CorrelationIdContext;
 import com.microsoft.twins.event.model.TopologyOperationEvent;
 import com.microsoft.twins.event.model.TopologyOperationEvent.AccessType;
 import com.microsoft.twins.event.model.TopologyOperationEvent.Type;
 import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.DeviceStatusEnum;
 import com.microsoft.twins.model.EndpointCreate;
 import com.microsoft.twins.model.EndpointRetrieve;
 import com.microsoft.twins.model.EventTypesEnum;
+import com.microsoft.twins.model.ExtendedPropertyCreate;
+import com.microsoft.twins.model.ExtendedPropertyRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
 import com.microsoft.twins.model.SpaceRetrieveWithChildren;
 import com.microsoft.twins.reflector.AbstractTest;
 import com.microsoft.twins.reflector.TwinReflectorProxyProperties;
+import com.microsoft.twins.reflector.model.Property;
 import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
 import com.microsoft.twins.reflector.proxy.DigitalTwinTopologyProxy;
 import com.microsoft.twins.reflector.proxy.v1.CachedDigitalTwinProxyTest.CachedDigitalTwinProxyTestConfiguration;
@@ -56,6 +64,7 @@ public class CachedDigitalTwinProxyTest extends AbstractTest {
   private static final String CACHE_DEVICE_BY_NAME = "deviceByName";
   private static final String CACHE_SPACE_BY_NAME = "spaceByName";
   private static final String CACHE_SPACE_BY_ID = "spaceById";
+  private static final String CACHE_OWN_WRITE = "topologyOwnWrite";
 
   @Autowired
   private CacheManager cacheManager;
@@ -100,7 +109,8 @@ public class CachedDigitalTwinProxyTest extends AbstractTest {
       final SimpleCacheManager cacheManager = new SimpleCacheManager();
       cacheManager.setCaches(Arrays.asList(new ConcurrentMapCache(CACHE_GATEWAY_ID_BY_HARDWARE_ID),
           new ConcurrentMapCache(CACHE_DEVICE_BY_ID), new ConcurrentMapCache(CACHE_DEVICE_BY_NAME),
-          new ConcurrentMapCache(CACHE_SPACE_BY_ID), new ConcurrentMapCache(CACHE_SPACE_BY_NAME)));
+          new ConcurrentMapCache(CACHE_SPACE_BY_ID), new ConcurrentMapCache(CACHE_SPACE_BY_NAME),
+          new ConcurrentMapCache(CACHE_OWN_WRITE)));
       return cacheManager;
     }
 
@@ -146,6 +156,11 @@ public class CachedDigitalTwinProxyTest extends AbstractTest {
 
   }
 
+  @AfterEach
+  public void clearCaches() {
+    cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+  }
+
   @Test
   public void proxyDoesNotCreateEndpointIfExists() {
     verify(endpointsApi).endpointsRetrieve(any(EndpointsApi.EndpointsRetrieveQueryParams.class));
@@ -264,4 +279,194 @@ public class CachedDigitalTwinProxyTest extends AbstractTest {
     assertThat(nameCache).isEmpty();
   }
 
+  @Test
+  public void createdAndUpdatedDevicesAreWrittenThrough() {
+    final UUID testDeviceId = UUID.randomUUID();
+    final UUID testGatewayId = UUID.randomUUID();
+    final UUID correlationId = UUID.randomUUID();
+    final String testDeviceName = "writtenDevice";
+
+    // Unknown device, the miss is cached
+    when(testConfiguration.getDevicesApi().devicesRetrieve(any(DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of());
+    assertThat(cachedDigitalTwinProxy.getDeviceByName(testDeviceName)).isEmpty();
+
+    when(testConfiguration.getDevicesApi().devicesCreate(any())).thenReturn(testDeviceId);
+    final UUID testParentId = UUID.randomUUID();
+    final UUID movedParentId = UUID.randomUUID();
+
+    CorrelationIdContext.setCorrelationId(correlationId);
+    try {
+      cachedDigitalTwinProxy.createDevice(testDeviceName, testParentId, testGatewayId, null,
+          null);
+
+      // Built from the create request and the returned ID
+      final DeviceRetrieve created = cacheManager.getCache(CACHE_DEVICE_BY_NAME)
+          .get(testDeviceName, DeviceRetrieve.class);
+      assertThat(created.getId()).isEqualTo(testDeviceId);
+      assertThat(created.getSpaceId()).isEqualTo(testParentId);
+      assertThat(created.getHardwareId()).isEqualTo(testDeviceName);
+      assertThat(cacheManager.getCache(CACHE_DEVICE_BY_ID).get(testDeviceId, DeviceRetrieve.class))
+          .isEqualTo(created);
+      assertThat(cachedDigitalTwinProxy.getGatewayIdByHardwareId(testDeviceName))
+          .contains(testGatewayId);
+
+      cachedDigitalTwinProxy.updateDevicePartial(created, movedParentId, null, null, null);
+    } finally {
+      CorrelationIdContext.clear();
+    }
+
+    // Event caused by the update keeps the written through entry
+    final TopologyOperationEvent ownUpdate = new TopologyOperationEvent();
+    ownUpdate.setAccessType(AccessType.UPDATE);
+    ownUpdate.setType(Type.DEVICE);
+    ownUpdate.setId(testDeviceId);
+    ownUpdate.setCorrelationId(correlationId.toString());
+    topologyOperationSink.inputChannel().send(MessageBuilder.withPayload(ownUpdate).build());
+
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_ID).get(testDeviceId, DeviceRetrieve.class)
+        .getSpaceId()).isEqualTo(movedParentId);
+
+    // As does any further event of the same update
+    topologyOperationSink.inputChannel().send(MessageBuilder.withPayload(ownUpdate).build());
+
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_ID).get(testDeviceId)).isNotNull();
+
+    // Any other update evicts it
+    ownUpdate.setCorrelationId(UUID.randomUUID().toString());
+    topologyOperationSink.inputChannel().send(MessageBuilder.withPayload(ownUpdate).build());
+
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_ID).get(testDeviceId)).isNull();
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_NAME).get(testDeviceName)).isNull();
+    // Only the miss, writes are not retrieved again
+    verify(testConfiguration.getDevicesApi(), times(1))
+        .devicesRetrieve(any(DevicesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void writtenPropertiesAreMergedByName() {
+    final List<ExtendedPropertyRetrieve> existing =
+        List.of(new ExtendedPropertyRetrieve().name("kept").value("1").dataType("int"),
+            new ExtendedPropertyRetrieve().name("replaced").value("old"));
+
+    assertThat(Cachedv1DigitalTwinTopologyProxy.writtenProperties(existing,
+        List.of(new ExtendedPropertyCreate().name("replaced").value("new"),
+            new ExtendedPropertyCreate().name("added").value("2")))).containsExactly(
+                new ExtendedPropertyRetrieve().name("kept").value("1").dataType("int"),
+                new ExtendedPropertyRetrieve().name("replaced").value("new"),
+                new ExtendedPropertyRetrieve().name("added").value("2"));
+    assertThat(existing.get(1).getValue()).isEqualTo("old");
+    // Properties not known before stay unknown, i.e. the next update writes all of them
+    assertThat(Cachedv1DigitalTwinTopologyProxy.writtenProperties(null,
+        List.of(new ExtendedPropertyCreate().name("added").value("2")))).isNull();
+  }
+
+  @Test
+  public void bulkDeviceLookupRetrievesMissesInOneRequest() {
+    final DeviceRetrieve cached = new DeviceRetrieve();
+    cached.setId(UUID.randomUUID());
+    cached.setName("bulkCached");
+    final DeviceRetrieve retrieved = new DeviceRetrieve();
+    retrieved.setId(UUID.randomUUID());
+    retrieved.setName("bulkRetrieved");
+    cacheManager.getCache(CACHE_DEVICE_BY_NAME).put(cached.getName(), cached);
+
+    when(testConfiguration.getDevicesApi().devicesRetrieve(any(DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(retrieved));
+
+    assertThat(cachedDigitalTwinProxy
+        .getDevicesByNames(List.of("bulkCached", "bulkRetrieved", "bulkUnknown")))
+            .containsOnlyKeys("bulkCached", "bulkRetrieved")
+            .containsEntry("bulkCached", cached).containsEntry("bulkRetrieved", retrieved);
+
+    final ArgumentCaptor<DevicesRetrieveQueryParams> params =
+        ArgumentCaptor.forClass(DevicesRetrieveQueryParams.class);
+    verify(testConfiguration.getDevicesApi()).devicesRetrieve(params.capture());
+    assertThat(params.getValue()).containsEntry("names", "bulkRetrieved,bulkUnknown");
+
+    // Found and missing devices are cached
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_NAME).get("bulkRetrieved").get())
+        .isEqualTo(retrieved);
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_NAME).get("bulkUnknown").get()).isNull();
+    assertThat(cacheManager.getCache(CACHE_DEVICE_BY_ID).get(retrieved.getId())).isNotNull();
+  }
+
+  @Test
+  public void bulkGatewayLookupRetrievesMissesInOneRequestPerType() {
+    final UUID cachedGateway = UUID.randomUUID();
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setHardwareId("gatewayDevice");
+    final DeviceRetrieve sensorDevice = new DeviceRetrieve();
+    sensorDevice.setId(UUID.randomUUID());
+    sensorDevice.setGatewayId(UUID.randomUUID());
+    final SensorRetrieve sensor = new SensorRetrieve();
+    sensor.setHardwareId("gatewaySensor");
+    sensor.setDevice(sensorDevice);
+    cacheManager.getCache(CACHE_GATEWAY_ID_BY_HARDWARE_ID).put("gatewayCached", cachedGateway);
+
+    when(testConfiguration.getDevicesApi().devicesRetrieve(any(DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(device));
+    when(testConfiguration.getSensorsApi()
+        .sensorsRetrieve(any(SensorsApi.SensorsRetrieveQueryParams.class)))
+            .thenReturn(List.of(sensor));
+
+    assertThat(cachedDigitalTwinProxy.getGatewayIdsByHardwareIds(
+        List.of("gatewayCached", "gatewayDevice", "gatewaySensor", "gatewayUnknown")))
+            .containsOnlyKeys("gatewayCached", "gatewayDevice", "gatewaySensor")
+            .containsEntry("gatewayCached", cachedGateway)
+            .containsEntry("gatewayDevice", device.getId())
+            .containsEntry("gatewaySensor", sensorDevice.getGatewayId());
+
+    final ArgumentCaptor<DevicesRetrieveQueryParams> params =
+        ArgumentCaptor.forClass(DevicesRetrieveQueryParams.class);
+    verify(testConfiguration.getDevicesApi()).devicesRetrieve(params.capture());
+    assertThat(params.getValue()).containsEntry("hardwareIds",
+        "gatewayDevice,gatewaySensor,gatewayUnknown");
+
+    // Found and missing hardware IDs are cached
+    assertThat(cachedDigitalTwinProxy.getGatewayIdByHardwareId("gatewaySensor"))
+        .contains(sensorDevice.getGatewayId());
+    assertThat(cachedDigitalTwinProxy.getGatewayIdByHardwareId("gatewayUnknown")).isEmpty();
+    verify(testConfiguration.getSensorsApi())
+        .sensorsRetrieve(any(SensorsApi.SensorsRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void completeDeviceUpdateWritesChangesOnly() {
+    final UUID parent = UUID.randomUUID();
+    final UUID gateway = UUID.randomUUID();
+    final DeviceRetrieve existing = new DeviceRetrieve();
+    existing.setId(UUID.randomUUID());
+    existing.setName("diffDevice");
+    existing.setSpaceId(parent);
+    existing.setGatewayId(gateway);
+    existing.setDescription("");
+    existing.setFriendlyName("");
+    existing.setTypeId(0);
+    existing.setSubtypeId(0);
+    existing.setStatus(DeviceStatusEnum.PROVISIONED);
+    existing.setProperties(List.of(new ExtendedPropertyRetrieve().name("prop1").value("1"),
+        new ExtendedPropertyRetrieve().name("prop2").value("2")));
+
+    when(testConfiguration.getCachedDigitalTwinMetadataProxy().getOrCreatePropertykey(any(),
+        any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+    cachedDigitalTwinProxy.updateDeviceComplete(existing, parent, gateway,
+        List.of(Property.builder().name("prop1").value("1").build(),
+            Property.builder().name("prop2").value("3").build()),
+        null);
+
+    verify(testConfiguration.getDevicesApi()).devicesUpdateProperties(
+        eq(List.of(new ExtendedPropertyCreate().name("prop2").value("3"))),
+        eq(existing.getId()));
+    verify(testConfiguration.getDevicesApi(), never()).devicesUpdate(any(), any());
+
+    cachedDigitalTwinProxy.updateDeviceComplete(existing, parent, gateway,
+        List.of(Property.builder().name("prop1").value("1").build()), null);
+
+    verify(testConfiguration.getDevicesApi()).devicesUpdateProperties(any(), any());
+    verify(testConfiguration.getDevicesApi(), never()).devicesUpdate(any(), any());
+  }
+
 }
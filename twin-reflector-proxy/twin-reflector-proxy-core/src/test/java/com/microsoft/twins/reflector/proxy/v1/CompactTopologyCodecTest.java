@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.DeviceStatusEnum;
+import com.microsoft.twins.model.ExtendedPropertyRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import com.microsoft.twins.reflector.cache.EstimatedSizeWeigher;
+import com.microsoft.twins.reflector.cache.OffHeapCache;
+import com.microsoft.twins.reflector.cache.ReflectorCacheManager;
+
+public class CompactTopologyCodecTest {
+  private final CompactTopologyCodec codec = new CompactTopologyCodec();
+
+  private static DeviceRetrieve device() {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setSpaceId(UUID.randomUUID());
+    device.setName("device1");
+    device.setHardwareId("device1");
+    device.setFriendlyName("Device 1");
+    device.setDescription("");
+    device.setTypeId(3);
+    device.setStatus(DeviceStatusEnum.PROVISIONED);
+    device.setProperties(List.of(new ExtendedPropertyRetrieve().name("prop1").value("1")));
+    device.setConnectionString("HostName=hub.azure-devices.net;DeviceId=device1;SharedAccessKey=k");
+    final SensorRetrieve sensor = new SensorRetrieve();
+    sensor.setHardwareId("sensor1");
+    device.setSensors(List.of(sensor));
+    return device;
+  }
+
+  @Test
+  public void deviceFieldsReadByTheReflectorAreKept() {
+    final DeviceRetrieve device = device();
+
+    final DeviceRetrieve expanded = (DeviceRetrieve) codec.expand(codec.compact(device));
+
+    assertThat(expanded).isNotSameAs(device);
+    assertThat(expanded.getId()).isEqualTo(device.getId());
+    assertThat(expanded.getSpaceId()).isEqualTo(device.getSpaceId());
+    assertThat(expanded.getGatewayId()).isNull();
+    assertThat(expanded.getName()).isEqualTo("device1");
+    assertThat(expanded.getHardwareId()).isEqualTo("device1");
+    assertThat(expanded.getFriendlyName()).isEqualTo("Device 1");
+    assertThat(expanded.getDescription()).isEmpty();
+    assertThat(expanded.getTypeId()).isEqualTo(3);
+    assertThat(expanded.getSubtypeId()).isNull();
+    assertThat(expanded.getStatus()).isEqualTo(DeviceStatusEnum.PROVISIONED);
+    assertThat(expanded.getProperties()).extracting(ExtendedPropertyRetrieve::getName,
+        ExtendedPropertyRetrieve::getValue).containsExactly(tuple("prop1", "1"));
+
+    assertThat(expanded.getConnectionString()).isNull();
+    assertThat(expanded.getSensors()).isNull();
+  }
+
+  @Test
+  public void spaceFieldsReadByTheReflectorAreKept() {
+    final SpaceRetrieve space = new SpaceRetrieve();
+    space.setId(UUID.randomUUID());
+    space.setParentSpaceId(UUID.randomUUID());
+    space.setName("space1");
+    space.setStatusId(1);
+    space.setSpacePaths(List.of("/tenant/space1"));
+
+    final SpaceRetrieve expanded = (SpaceRetrieve) codec.expand(codec.compact(space));
+
+    assertThat(expanded.getId()).isEqualTo(space.getId());
+    assertThat(expanded.getParentSpaceId()).isEqualTo(space.getParentSpaceId());
+    assertThat(expanded.getName()).isEqualTo("space1");
+    assertThat(expanded.getStatusId()).isEqualTo(1);
+    // Not retrieved, i.e. unknown rather than empty
+    assertThat(expanded.getProperties()).isNull();
+    assertThat(expanded.getSpacePaths()).isNull();
+  }
+
+  @Test
+  public void compactEntriesAreStoredAndExpandedOnLookup() {
+    final ReflectorCacheManager cacheManager = new ReflectorCacheManager(
+        new CacheSpec(10L, null, Duration.ofDays(1), null), Map.of(), null, null);
+    CompactTopologyCodec.CACHES.forEach(name -> cacheManager.registerCodec(name, codec));
+    final DeviceRetrieve device = device();
+
+    final Cache cache = cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID);
+    cache.put(device.getId(), device);
+
+    final Object stored = ((com.github.benmanes.caffeine.cache.Cache<?, ?>) cache.getNativeCache())
+        .getIfPresent(device.getId());
+    assertThat(stored).isInstanceOf(CompactDevice.class);
+    assertThat(EstimatedSizeWeigher.estimate(stored))
+        .isLessThan(EstimatedSizeWeigher.estimate(device));
+    assertThat(cache.get(device.getId(), DeviceRetrieve.class).getName()).isEqualTo("device1");
+    assertThat(codec.compact(stored)).isSameAs(stored);
+  }
+
+  @Test
+  public void compactEntriesAreSerializedOffHeap() {
+    final OffHeapCache cache = new OffHeapCache("deviceById", 64 * 1024, 512, null, codec, codec);
+    final DeviceRetrieve device = device();
+    device.setGatewayId(UUID.randomUUID());
+    final SpaceRetrieve space = new SpaceRetrieve();
+    space.setId(UUID.randomUUID());
+    space.setName("space1");
+
+    cache.put(device.getId(), device);
+    cache.put(space.getId(), space);
+
+    final DeviceRetrieve cached = cache.get(device.getId(), DeviceRetrieve.class);
+    assertThat(cached).isEqualToComparingOnlyGivenFields(device, "id", "spaceId", "gatewayId",
+        "name", "hardwareId", "friendlyName", "description", "typeId", "subtypeId", "status",
+        "properties");
+    assertThat(cache.get(space.getId(), SpaceRetrieve.class).getName()).isEqualTo("space1");
+    assertThat(cache.rejectedCount()).isZero();
+  }
+
+  @Test
+  public void devicesAreRetrievedWithConnectionStringUnlessStoredCompact() {
+    final ReflectorCacheManager cacheManager = new ReflectorCacheManager(
+        new CacheSpec(10L, null, Duration.ofDays(1), null), Map.of(), null, null);
+
+    assertThat(CompactTopologyCodec.deviceIncludes(cacheManager)).startsWith("ConnectionString,");
+
+    CompactTopologyCodec.CACHES.forEach(name -> cacheManager.registerCodec(name, codec));
+
+    assertThat(CompactTopologyCodec.deviceIncludes(cacheManager))
+        .doesNotContain("ConnectionString");
+  }
+
+  @Test
+  public void onlyStringsOfFewDistinctValuesAreShared() {
+    final DeviceRetrieve first = device();
+    final DeviceRetrieve second = device();
+    second.setFriendlyName(new String("Device 1"));
+    second.setProperties(List.of(new ExtendedPropertyRetrieve().name(new String("prop1"))
+        .value(new String("1"))));
+
+    final DeviceRetrieve firstExpanded = (DeviceRetrieve) codec.expand(codec.compact(first));
+    final DeviceRetrieve secondExpanded = (DeviceRetrieve) codec.expand(codec.compact(second));
+
+    assertThat(secondExpanded.getProperties().get(0).getName())
+        .isSameAs(firstExpanded.getProperties().get(0).getName());
+    assertThat(secondExpanded.getProperties().get(0).getValue())
+        .isNotSameAs(firstExpanded.getProperties().get(0).getValue());
+    assertThat(secondExpanded.getFriendlyName()).isNotSameAs(firstExpanded.getFriendlyName());
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.microsoft.twins.api.PropertyKeysApi;
+import com.microsoft.twins.api.PropertyKeysApi.PropertyKeysRetrieveQueryParams;
+import com.microsoft.twins.api.TypesApi;
+import com.microsoft.twins.api.TypesApi.TypesRetrieveQueryParams;
+import com.microsoft.twins.event.model.TopologyOperationEvent;
+import com.microsoft.twins.event.model.TopologyOperationEvent.AccessType;
+import com.microsoft.twins.event.model.TopologyOperationEvent.Type;
+import com.microsoft.twins.model.CategoryEnum;
+import com.microsoft.twins.model.ExtendedPropertyKeyCreate;
+import com.microsoft.twins.model.ExtendedPropertyKeyRetrieve;
+import com.microsoft.twins.model.ExtendedTypeCreate;
+import com.microsoft.twins.model.ExtendedTypeRetrieve;
+import com.microsoft.twins.model.ScopeEnum;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
+import com.microsoft.twins.reflector.proxy.TenantResolver;
+
+public class MetadataLookupIndexTest {
+  private final TenantResolver tenantResolver = mock(TenantResolver.class);
+  private final PropertyKeysApi propertyKeysApi = mock(PropertyKeysApi.class);
+  private final TypesApi typesApi = mock(TypesApi.class);
+
+  private final MetadataLookupIndex index = new MetadataLookupIndex(tenantResolver,
+      propertyKeysApi, typesApi, new SingleFlight(null));
+
+  @BeforeEach
+  public void setup() {
+    when(tenantResolver.getTenant()).thenReturn(UUID.randomUUID());
+    when(propertyKeysApi.propertyKeysRetrieve(any(PropertyKeysRetrieveQueryParams.class)))
+        .thenReturn(List.of(propertyKey("Temperature")));
+    when(typesApi.typesRetrieve(any(TypesRetrieveQueryParams.class)))
+        .thenReturn(List.of(type(42, "MyDeviceType")));
+  }
+
+  @Test
+  public void preloadedEntriesAreFoundIgnoringCase() {
+    index.preload();
+
+    assertThat(index.getOrCreatePropertyKey("temperature", ScopeEnum.DEVICES))
+        .isEqualTo("temperature");
+    assertThat(index.getOrCreateType("My device type", CategoryEnum.DEVICETYPE)).isEqualTo(42);
+    assertThat(index.getOrCreateType("mydevicetype", CategoryEnum.DEVICETYPE)).isEqualTo(42);
+
+    verify(propertyKeysApi, times(MetadataLookupIndex.PRELOAD_SCOPES.size()))
+        .propertyKeysRetrieve(any(PropertyKeysRetrieveQueryParams.class));
+    verify(typesApi, times(MetadataLookupIndex.PRELOAD_CATEGORIES.size()))
+        .typesRetrieve(any(TypesRetrieveQueryParams.class));
+    verify(propertyKeysApi, never()).propertyKeysCreate(any(ExtendedPropertyKeyCreate.class));
+    verify(typesApi, never()).typesCreate(any(ExtendedTypeCreate.class));
+  }
+
+  @Test
+  public void missingEntriesAreCreatedOnce() {
+    when(typesApi.typesCreate(any(ExtendedTypeCreate.class))).thenReturn(7);
+
+    assertThat(index.getOrCreatePropertyKey("Humidity", ScopeEnum.DEVICES)).isEqualTo("Humidity");
+    assertThat(index.getOrCreatePropertyKey("humidity", ScopeEnum.DEVICES)).isEqualTo("humidity");
+    assertThat(index.getOrCreateType("Other Type", CategoryEnum.DEVICETYPE)).isEqualTo(7);
+    assertThat(index.getOrCreateType("OtherType", CategoryEnum.DEVICETYPE)).isEqualTo(7);
+
+    verify(propertyKeysApi, times(1)).propertyKeysCreate(any(ExtendedPropertyKeyCreate.class));
+    verify(typesApi, times(1)).typesCreate(any(ExtendedTypeCreate.class));
+  }
+
+  @Test
+  public void failedCreationIsResolvedByReload() {
+    // Created by another instance meanwhile
+    when(typesApi.typesCreate(any(ExtendedTypeCreate.class)))
+        .thenThrow(new IllegalStateException("conflict"));
+    when(typesApi.typesRetrieve(any(TypesRetrieveQueryParams.class)))
+        .thenReturn(List.of(type(42, "MyDeviceType")))
+        .thenReturn(List.of(type(42, "MyDeviceType"), type(43, "OtherType")));
+
+    assertThat(index.getOrCreateType("OtherType", CategoryEnum.DEVICETYPE)).isEqualTo(43);
+    assertThat(index.getOrCreateType("OtherType", CategoryEnum.DEVICETYPE)).isEqualTo(43);
+
+    verify(typesApi, times(2)).typesRetrieve(any(TypesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void changedPropertyKeysAreReloaded() {
+    index.getOrCreatePropertyKey("Temperature", ScopeEnum.DEVICES);
+
+    index.onTopologyOperation(event(Type.EXTENDEDPROPERTYKEY, AccessType.CREATE));
+    index.getOrCreatePropertyKey("Temperature", ScopeEnum.DEVICES);
+    verify(propertyKeysApi, times(1))
+        .propertyKeysRetrieve(any(PropertyKeysRetrieveQueryParams.class));
+
+    index.onTopologyOperation(event(Type.EXTENDEDPROPERTYKEY, AccessType.DELETE));
+    index.getOrCreatePropertyKey("Temperature", ScopeEnum.DEVICES);
+    verify(propertyKeysApi, times(2))
+        .propertyKeysRetrieve(any(PropertyKeysRetrieveQueryParams.class));
+  }
+
+  private static ExtendedPropertyKeyRetrieve propertyKey(final String name) {
+    final ExtendedPropertyKeyRetrieve propertyKey = new ExtendedPropertyKeyRetrieve();
+    propertyKey.setId(1);
+    propertyKey.setName(name);
+    return propertyKey;
+  }
+
+  private static ExtendedTypeRetrieve type(final int id, final String name) {
+    final ExtendedTypeRetrieve type = new ExtendedTypeRetrieve();
+    type.setId(id);
+    type.setName(name);
+    return type;
+  }
+
+  private static TopologyOperationEvent event(final Type type, final AccessType accessType) {
+    final TopologyOperationEvent event = new TopologyOperationEvent();
+    event.setType(type);
+    event.setAccessType(accessType);
+    event.setId(UUID.randomUUID());
+    return event;
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import com.microsoft.twins.client.TwinsApiClient;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.ScopeEnum;
+import com.microsoft.twins.reflector.model.IngressMessage;
+import com.microsoft.twins.reflector.model.Property;
+import com.microsoft.twins.reflector.proxy.DigitalTwinMetadataProxy;
+import com.microsoft.twins.reflector.proxy.ReactiveDigitalTwinTopologyProxy;
+import com.microsoft.twins.reflector.proxy.SingleFlight;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import feign.FeignException;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+public class Reactivev1DigitalTwinTopologyProxyTest {
+  private final UUID deviceId = UUID.randomUUID();
+  private final UUID correlationId = UUID.randomUUID();
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private final List<String> correlationIds = new CopyOnWriteArrayList<>();
+  private final AtomicInteger throttled = new AtomicInteger();
+
+  private final DigitalTwinMetadataProxy metadataProxy = mock(DigitalTwinMetadataProxy.class);
+  private final ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
+
+  private final Scheduler scheduler = Schedulers.newParallel("reactive-test", 2);
+
+  private HttpServer adt;
+  private Reactivev1DigitalTwinTopologyProxy proxy;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    adt = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    adt.createContext("/api/v1.0/devices", this::handle);
+    adt.start();
+
+    proxy = new Reactivev1DigitalTwinTopologyProxy(metadataProxy,
+        new TwinsApiClient("http://localhost:" + adt.getAddress().getPort()),
+        HttpClient.newHttpClient(), cacheManager, Duration.ofSeconds(5), scheduler,
+        new SingleFlight(null));
+  }
+
+  @AfterEach
+  public void stop() {
+    adt.stop(0);
+    scheduler.dispose();
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+    correlationIds.add(exchange.getRequestHeaders().getFirst("X-Ms-Client-Request-Id"));
+
+    final byte[] body;
+    final int status;
+    if (exchange.getRequestURI().getQuery() != null
+        && exchange.getRequestURI().getQuery().contains("names=unknown")) {
+      status = 200;
+      body = "[]".getBytes(StandardCharsets.UTF_8);
+    } else if ("GET".equals(exchange.getRequestMethod())) {
+      status = 200;
+      body = ("[{\"id\":\"" + deviceId + "\",\"name\":\"device1\"}]")
+          .getBytes(StandardCharsets.UTF_8);
+    } else if (exchange.getRequestURI().getPath().endsWith("/properties")
+        && throttled.getAndIncrement() == 0) {
+      status = 429;
+      body = new byte[0];
+    } else {
+      status = 200;
+      body = new byte[0];
+    }
+
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      exchange.getResponseBody().write(body);
+    }
+    exchange.close();
+  }
+
+  @Test
+  public void deviceLookupIsCachedAndCarriesCorrelationId() {
+    final DeviceRetrieve device = proxy.getDeviceByName("device1")
+        .subscriberContext(
+            Context.of(ReactiveDigitalTwinTopologyProxy.CONTEXT_CORRELATION_ID, correlationId))
+        .block();
+
+    assertThat(device.getId()).isEqualTo(deviceId);
+    assertThat(proxy.getDeviceByName("device1").block()).isSameAs(device);
+    assertThat(cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID)
+        .get(deviceId, DeviceRetrieve.class)).isSameAs(device);
+
+    assertThat(requests).hasSize(1);
+    assertThat(correlationIds).containsExactly(correlationId.toString());
+
+    assertThat(proxy.getDeviceByName("unknown").blockOptional()).isEmpty();
+  }
+
+  @Test
+  public void partialUpdateRetriesThrottledRequests() {
+    when(metadataProxy.getOrCreatePropertykey("prop1", ScopeEnum.DEVICES)).thenReturn("prop1");
+    final DeviceRetrieve existing = new DeviceRetrieve();
+    existing.setId(deviceId);
+
+    proxy.updateDevicePartial(existing, null, List.of(Property.builder().name("prop1")
+        .value("1").build()), Map.of(IngressMessage.ATTRIBUTE_V1_DESCRIPTION, "updated"))
+        .block();
+
+    assertThat(requests).containsExactly("PUT /api/v1.0/devices/" + deviceId + "/properties",
+        "PUT /api/v1.0/devices/" + deviceId + "/properties", "PATCH /api/v1.0/devices/" + deviceId);
+  }
+
+  @Test
+  public void partialUpdateWithoutChangesSendsNothing() {
+    final DeviceRetrieve existing = new DeviceRetrieve();
+    existing.setId(deviceId);
+
+    proxy.updateDevicePartial(existing, null, null, null).block();
+
+    assertThat(requests).isEmpty();
+  }
+
+  @Test
+  public void failedRequestResultsInFeignException() {
+    // The stub has no spaces endpoint
+    assertThatExceptionOfType(FeignException.class)
+        .isThrownBy(() -> proxy.updateSpacePartial(deviceId, UUID.randomUUID(), null, null)
+            .block())
+        .satisfies(e -> assertThat(e.status()).isEqualTo(404));
+  }
+}
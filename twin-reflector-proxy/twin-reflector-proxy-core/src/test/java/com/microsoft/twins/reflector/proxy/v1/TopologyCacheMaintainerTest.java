@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.SensorsApi;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.event.model.TopologyOperationEvent;
+import com.microsoft.twins.event.model.TopologyOperationEvent.AccessType;
+import com.microsoft.twins.event.model.TopologyOperationEvent.Type;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
+
+public class TopologyCacheMaintainerTest {
+  private final DevicesApi devicesApi = mock(DevicesApi.class);
+  private final SpacesApi spacesApi = mock(SpacesApi.class);
+  private final SensorsApi sensorsApi = mock(SensorsApi.class);
+  private final ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
+
+  // Flushed by the tests
+  private final TopologyCacheMaintainer maintainer = new TopologyCacheMaintainer(devicesApi,
+      spacesApi, sensorsApi, cacheManager, null, Duration.ofMinutes(1));
+
+  private final Cache byId =
+      cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID);
+  private final Cache byName =
+      cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME);
+  private final Cache gateways =
+      cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID);
+
+  @AfterEach
+  public void shutdown() {
+    maintainer.shutdown();
+  }
+
+  @Test
+  public void updatedDevicesAreReReadInOneRequest() {
+    final DeviceRetrieve device1 = device("device1", "hardware1");
+    final DeviceRetrieve device2 = device("device2", "hardware2");
+    cache(device1);
+    cache(device2);
+
+    final DeviceRetrieve renamed = device("renamed", "hardware3");
+    renamed.setId(device1.getId());
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(renamed, device2));
+
+    maintainer.onTopologyOperation(event(Type.DEVICE, AccessType.UPDATE, device1.getId()));
+    maintainer.onTopologyOperation(
+        event(Type.DEVICEEXTENDEDPROPERTY, AccessType.UPDATE, device2.getId()));
+
+    // Not evicted meanwhile
+    assertThat(byId.get(device1.getId())).isNotNull();
+
+    maintainer.flush();
+
+    verify(devicesApi, times(1)).devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class));
+    assertThat(byId.get(device1.getId()).get()).isSameAs(renamed);
+    assertThat(byName.get("renamed").get()).isSameAs(renamed);
+    assertThat(byName.get("device1")).isNull();
+    assertThat(gateways.get("hardware1")).isNull();
+    assertThat(gateways.get("hardware3", UUID.class)).isEqualTo(device1.getId());
+    assertThat(byName.get("device2").get()).isSameAs(device2);
+  }
+
+  @Test
+  public void createdDeviceReplacesCachedMiss() {
+    final DeviceRetrieve device = device("device1", "hardware1");
+    byName.put("device1", null);
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(device));
+
+    maintainer.onTopologyOperation(event(Type.DEVICE, AccessType.CREATE, device.getId()));
+    maintainer.flush();
+
+    assertThat(byName.get("device1").get()).isSameAs(device);
+    assertThat(byId.get(device.getId()).get()).isSameAs(device);
+  }
+
+  @Test
+  public void updatesOfUncachedDevicesAreIgnored() {
+    maintainer.onTopologyOperation(event(Type.DEVICE, AccessType.UPDATE, UUID.randomUUID()));
+    maintainer.flush();
+
+    verify(devicesApi, never()).devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void deletedDeviceIsEvictedRightAway() {
+    final DeviceRetrieve device = device("device1", "hardware1");
+    cache(device);
+
+    maintainer.onTopologyOperation(event(Type.DEVICE, AccessType.DELETE, device.getId()));
+
+    assertThat(byId.get(device.getId())).isNull();
+    assertThat(byName.get("device1")).isNull();
+    assertThat(gateways.get("hardware1")).isNull();
+  }
+
+  @Test
+  public void sensorHardwareIdIsMappedToGateway() {
+    final UUID gatewayId = UUID.randomUUID();
+    final DeviceRetrieve device = device("device1", "hardware1");
+    device.setGatewayId(gatewayId);
+
+    final SensorRetrieve sensor = new SensorRetrieve();
+    sensor.setId(UUID.randomUUID());
+    sensor.setHardwareId("sensor1");
+    sensor.setDevice(device);
+    when(sensorsApi.sensorsRetrieve(any(SensorsApi.SensorsRetrieveQueryParams.class)))
+        .thenReturn(List.of(sensor));
+
+    maintainer.onTopologyOperation(event(Type.SENSOR, AccessType.CREATE, sensor.getId()));
+    maintainer.flush();
+
+    assertThat(gateways.get("sensor1", UUID.class)).isEqualTo(gatewayId);
+  }
+
+  @Test
+  public void previousSensorHardwareIdIsEvictedOnUpdateAndDelete() {
+    final DeviceRetrieve device = device("device1", "hardware1");
+    final SensorRetrieve sensor = new SensorRetrieve();
+    sensor.setId(UUID.randomUUID());
+    sensor.setHardwareId("sensor1");
+    sensor.setDevice(device);
+    final SensorRetrieve renamed = new SensorRetrieve();
+    renamed.setId(sensor.getId());
+    renamed.setHardwareId("sensor2");
+    renamed.setDevice(device);
+    when(sensorsApi.sensorsRetrieve(any(SensorsApi.SensorsRetrieveQueryParams.class)))
+        .thenReturn(List.of(sensor), List.of(renamed));
+
+    maintainer.onTopologyOperation(event(Type.SENSOR, AccessType.CREATE, sensor.getId()));
+    maintainer.flush();
+    maintainer.onTopologyOperation(event(Type.SENSOR, AccessType.UPDATE, sensor.getId()));
+    maintainer.flush();
+
+    assertThat(gateways.get("sensor1")).isNull();
+    assertThat(gateways.get("sensor2", UUID.class)).isEqualTo(device.getId());
+
+    maintainer.onTopologyOperation(event(Type.SENSOR, AccessType.DELETE, sensor.getId()));
+
+    assertThat(gateways.get("sensor2")).isNull();
+  }
+
+  private void cache(final DeviceRetrieve device) {
+    byId.put(device.getId(), device);
+    byName.put(device.getName(), device);
+    gateways.put(device.getHardwareId(), device.getId());
+  }
+
+  private static DeviceRetrieve device(final String name, final String hardwareId) {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setName(name);
+    device.setHardwareId(hardwareId);
+    return device;
+  }
+
+  private static TopologyOperationEvent event(final Type type, final AccessType accessType,
+      final UUID id) {
+    final TopologyOperationEvent event = new TopologyOperationEvent();
+    event.setType(type);
+    event.setAccessType(accessType);
+    event.setId(id);
+    return event;
+  }
+}
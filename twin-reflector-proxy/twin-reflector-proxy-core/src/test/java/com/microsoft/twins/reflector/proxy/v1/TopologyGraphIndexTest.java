@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.event.model.TopologyOperationEvent;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.model.SpaceRetrieveWithChildren;
+
+public class TopologyGraphIndexTest {
+  private final UUID parent = UUID.randomUUID();
+  private final UUID otherParent = UUID.randomUUID();
+
+  private final SpacesApi spacesApi = mock(SpacesApi.class);
+  private final DevicesApi devicesApi = mock(DevicesApi.class);
+  private final ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
+
+  private final TopologyGraphIndex index =
+      new TopologyGraphIndex(spacesApi, devicesApi, cacheManager, Duration.ofHours(1), 10);
+
+  @Test
+  public void childrenAreRetrievedOnceAndMaintainedFromWrites() {
+    final DeviceRetrieve device1 = device(parent);
+    final DeviceRetrieve device2 = device(parent);
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(device1, device2), List.of());
+
+    assertThat(index.getDeviceChildrenOf(parent)).containsExactlyInAnyOrder(device1, device2);
+    assertThat(index.getDeviceChildrenOf(otherParent)).isEmpty();
+
+    index.deviceMoved(device1.getId(), otherParent);
+    index.deviceDeleted(device2.getId());
+
+    assertThat(index.getDeviceChildrenOf(parent)).isEmpty();
+    assertThat(index.getDeviceChildrenOf(otherParent)).containsExactly(device1);
+    verify(devicesApi, times(2))
+        .devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void changedElementsAreResolvedFromCache() {
+    final SpaceRetrieve space = space(parent);
+    when(spacesApi.spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class)))
+        .thenReturn(List.of());
+
+    assertThat(index.getSpaceChildrenOf(parent)).isEmpty();
+
+    final TopologyOperationEvent created = new TopologyOperationEvent();
+    created.setId(space.getId());
+    created.setType(TopologyOperationEvent.Type.SPACE);
+    created.setAccessType(TopologyOperationEvent.AccessType.CREATE);
+    index.onTopologyOperation(created);
+    cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).put(space.getId(),
+        space);
+
+    assertThat(index.getSpaceChildrenOf(parent)).containsExactly(space);
+    verify(spacesApi, times(1)).spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void tooManyChangesRebuildIndex() {
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(device(parent)));
+
+    index.getDeviceChildrenOf(parent);
+    for (int i = 0; i < 11; i++) {
+      index.deviceChanged(UUID.randomUUID());
+    }
+
+    index.getDeviceChildrenOf(parent);
+
+    assertThat(index.size()).isEqualTo(1);
+    verify(devicesApi, times(2))
+        .devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void childrenRetrievedDuringChangeAreNotIndexed() {
+    final DeviceRetrieve device = device(parent);
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenAnswer(i -> {
+          // Event received while the children are retrieved
+          index.deviceChanged(device.getId());
+          return List.of(device);
+        });
+
+    assertThat(index.getDeviceChildrenOf(parent)).containsExactly(device);
+    assertThat(index.size()).isZero();
+
+    assertThat(index.getDeviceChildrenOf(parent)).containsExactly(device);
+    verify(devicesApi, times(2))
+        .devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class));
+  }
+
+  @Test
+  public void deletedSpaceRemovesSubtree() {
+    final SpaceRetrieveWithChildren child = space(parent);
+    final SpaceRetrieveWithChildren grandchild = space(child.getId());
+    final DeviceRetrieve device = device(grandchild.getId());
+    when(spacesApi.spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class)))
+        .thenReturn(List.of(child), List.of(grandchild));
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(device));
+
+    index.getSpaceChildrenOf(parent);
+    index.getSpaceChildrenOf(child.getId());
+    index.getDeviceChildrenOf(grandchild.getId());
+    assertThat(index.size()).isEqualTo(3);
+
+    index.spaceDeleted(child.getId());
+
+    assertThat(index.size()).isZero();
+    assertThat(index.getSpaceChildrenOf(parent)).isEmpty();
+  }
+
+  @Test
+  public void childrenAreTakenFromCacheById() {
+    final DeviceRetrieve device = device(parent);
+    final DeviceRetrieve updated = device(parent);
+    updated.setId(device.getId());
+    updated.setName("updated");
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(device));
+
+    index.getDeviceChildrenOf(parent);
+    cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID)
+        .put(device.getId(), updated);
+
+    assertThat(index.getDeviceChildrenOf(parent)).containsExactly(updated);
+  }
+
+  private static DeviceRetrieve device(final UUID parent) {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setSpaceId(parent);
+    return device;
+  }
+
+  private static SpaceRetrieveWithChildren space(final UUID parent) {
+    final SpaceRetrieveWithChildren space = new SpaceRetrieveWithChildren();
+    space.setId(UUID.randomUUID());
+    space.setParentSpaceId(parent);
+    return space;
+  }
+}
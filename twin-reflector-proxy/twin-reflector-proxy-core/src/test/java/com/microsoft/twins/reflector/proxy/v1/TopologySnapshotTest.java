@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SpaceRetrieve;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import com.microsoft.twins.reflector.cache.CacheSnapshot;
+import com.microsoft.twins.reflector.cache.ReflectorCacheManager;
+
+public class TopologySnapshotTest {
+  private final DevicesApi devicesApi = mock(DevicesApi.class);
+  private final SpacesApi spacesApi = mock(SpacesApi.class);
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void cachesAreRestoredAndVerified() throws Exception {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setName("device1");
+    device.setHardwareId("hardware1");
+    device.setDescription("before");
+
+    final SpaceRetrieve space = new SpaceRetrieve();
+    space.setId(UUID.randomUUID());
+    space.setName("space1");
+
+    final UUID gatewayId = UUID.randomUUID();
+    final Path file = dir.resolve("topology.snapshot");
+
+    final ReflectorCacheManager previous = cacheManager();
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).put(device.getId(),
+        device);
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).put("device1",
+        device);
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).put(space.getId(),
+        space);
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+        .put("hardware1", gatewayId);
+    // Cached misses are not persisted
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME).put("missing", null);
+    assertThat(CacheSnapshot.write(previous, Cachedv1DigitalTwinTopologyProxy.REFRESHABLE_CACHES,
+        file)).isEqualTo(4);
+
+    // The device changed and the space was deleted meanwhile
+    final DeviceRetrieve changed = new DeviceRetrieve();
+    changed.setId(device.getId());
+    changed.setName("device1");
+    changed.setHardwareId("hardware1");
+    changed.setDescription("after");
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenReturn(List.of(changed));
+    when(spacesApi.spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class)))
+        .thenReturn(List.of());
+
+    final ReflectorCacheManager restarted = cacheManager();
+    final TopologySnapshot snapshot = new TopologySnapshot(restarted, devicesApi, spacesApi, file,
+        Duration.ofMinutes(10), Duration.ofHours(1), true);
+    snapshot.start();
+
+    // Gateway entries cannot be verified and are not restored
+    assertThat(snapshot.getRestored()).isEqualTo(3);
+    assertThat(restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME)
+        .get("missing")).isNull();
+
+    final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (snapshot.getVerified() + snapshot.getRemoved() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertThat(snapshot.getVerified()).isEqualTo(1);
+    assertThat(snapshot.getRemoved()).isEqualTo(1);
+    assertThat(restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME)
+        .get("device1", DeviceRetrieve.class).getDescription()).isEqualTo("after");
+    assertThat(restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID)
+        .get(space.getId())).isNull();
+    assertThat(restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+        .get("hardware1", UUID.class)).isEqualTo(device.getId());
+
+    snapshot.stop();
+    assertThat(snapshot.getLastWritten()).isNotNull();
+  }
+
+  @Test
+  public void outdatedSnapshotIsIgnored() throws Exception {
+    final Path file = dir.resolve("topology.snapshot");
+    final ReflectorCacheManager previous = cacheManager();
+    final SpaceRetrieve space = new SpaceRetrieve();
+    space.setId(UUID.randomUUID());
+    space.setName("space1");
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID).put(space.getId(),
+        space);
+    CacheSnapshot.write(previous, TopologySnapshot.CACHES, file);
+
+    Thread.sleep(20);
+
+    final ReflectorCacheManager restarted = cacheManager();
+    final TopologySnapshot snapshot = new TopologySnapshot(restarted, devicesApi, spacesApi, file,
+        Duration.ofMinutes(10), Duration.ofMillis(1), true);
+    snapshot.restore();
+
+    assertThat(snapshot.getRestored()).isZero();
+    assertThat(restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID)
+        .get(space.getId())).isNull();
+  }
+
+  @Test
+  public void verificationKeepsEntriesChangedMeanwhile() throws IOException {
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setName("device1");
+    device.setDescription("restored");
+    final Path file = dir.resolve("topology.snapshot");
+
+    final ReflectorCacheManager previous = cacheManager();
+    previous.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID).put(device.getId(),
+        device);
+    CacheSnapshot.write(previous, TopologySnapshot.CACHES, file);
+
+    final ReflectorCacheManager restarted = cacheManager();
+    final DeviceRetrieve retrieved = new DeviceRetrieve();
+    retrieved.setId(device.getId());
+    retrieved.setName("device1");
+    retrieved.setDescription("retrieved");
+    final DeviceRetrieve updated = new DeviceRetrieve();
+    updated.setId(device.getId());
+    updated.setName("device1");
+    updated.setDescription("updated");
+    // A topology operation is applied while the verification waits for ADT
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenAnswer(invocation -> {
+          restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID)
+              .put(device.getId(), updated);
+          return List.of(retrieved);
+        });
+
+    final TopologySnapshot snapshot = new TopologySnapshot(restarted, devicesApi, spacesApi, file,
+        Duration.ofMinutes(10), Duration.ofHours(1), false);
+    snapshot.start();
+    snapshot.verify();
+    snapshot.stop();
+
+    assertThat(snapshot.getVerified()).isZero();
+    assertThat(restarted.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID)
+        .get(device.getId(), DeviceRetrieve.class).getDescription()).isEqualTo("updated");
+  }
+
+  @Test
+  public void failedWriteDeletesTemporaryFile() throws IOException {
+    final Path file = dir.resolve("topology.snapshot");
+    // Cannot be replaced by the snapshot
+    Files.createDirectories(file.resolve("occupied"));
+
+    assertThatThrownBy(() -> CacheSnapshot.write(cacheManager(), TopologySnapshot.CACHES, file))
+        .isInstanceOf(IOException.class);
+    assertThat(dir.resolve("topology.snapshot.tmp")).doesNotExist();
+  }
+
+  private static ReflectorCacheManager cacheManager() {
+    final ReflectorCacheManager cacheManager =
+        new ReflectorCacheManager(new CacheSpec(100L, null, null, null), Map.of(), null, null);
+    final CompactTopologyCodec codec = new CompactTopologyCodec();
+    CompactTopologyCodec.CACHES.forEach(name -> cacheManager.registerCodec(name, codec));
+    return cacheManager;
+  }
+}
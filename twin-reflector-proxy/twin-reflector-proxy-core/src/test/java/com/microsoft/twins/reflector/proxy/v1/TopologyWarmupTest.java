@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import com.microsoft.twins.api.DevicesApi;
+import com.microsoft.twins.api.SensorsApi;
+import com.microsoft.twins.api.SpacesApi;
+import com.microsoft.twins.model.DeviceRetrieve;
+import com.microsoft.twins.model.SensorRetrieve;
+import com.microsoft.twins.model.SpaceRetrieveWithChildren;
+import com.microsoft.twins.reflector.TopologyWarmupHealthIndicator;
+import com.microsoft.twins.reflector.proxy.TenantResolver;
+
+public class TopologyWarmupTest {
+  private final UUID tenant = UUID.randomUUID();
+  private final UUID gatewayId = UUID.randomUUID();
+
+  private final TenantResolver tenantResolver = mock(TenantResolver.class);
+  private final SpacesApi spacesApi = mock(SpacesApi.class);
+  private final DevicesApi devicesApi = mock(DevicesApi.class);
+  private final SensorsApi sensorsApi = mock(SensorsApi.class);
+  private final ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
+
+  private final TopologyWarmup warmup = new TopologyWarmup(tenantResolver, spacesApi, devicesApi,
+      sensorsApi, cacheManager, 2, Duration.ofSeconds(10));
+
+  private final TopologyWarmupHealthIndicator health = new TopologyWarmupHealthIndicator(warmup);
+
+  @Test
+  public void cachesArePopulatedLevelByLevel() {
+    final SpaceRetrieveWithChildren space = new SpaceRetrieveWithChildren();
+    space.setId(UUID.randomUUID());
+    space.setName("space1");
+
+    final SpaceRetrieveWithChildren room = new SpaceRetrieveWithChildren();
+    room.setId(UUID.randomUUID());
+    room.setName("room1");
+
+    final DeviceRetrieve device = new DeviceRetrieve();
+    device.setId(UUID.randomUUID());
+    device.setName("device1");
+    device.setHardwareId("device1");
+    device.setGatewayId(gatewayId);
+
+    final SensorRetrieve sensor = new SensorRetrieve();
+    sensor.setId(UUID.randomUUID());
+    sensor.setHardwareId("sensor1");
+    sensor.setDeviceId(device.getId());
+
+    when(tenantResolver.getTenant()).thenReturn(tenant);
+    when(spacesApi.spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class)))
+        .thenAnswer(i -> isLevelOf(i.getArgument(0), tenant, 1) ? List.of(space)
+            : isLevelOf(i.getArgument(0), space.getId(), 1) ? List.of(room) : List.of());
+    when(devicesApi.devicesRetrieve(any(DevicesApi.DevicesRetrieveQueryParams.class)))
+        .thenAnswer(i -> isLevelOf(i.getArgument(0), room.getId(), 0) ? List.of(device)
+            : List.of());
+    when(sensorsApi.sensorsRetrieve(any(SensorsApi.SensorsRetrieveQueryParams.class)))
+        .thenAnswer(i -> isLevelOf(i.getArgument(0), room.getId(), 0) ? List.of(sensor)
+            : List.of());
+
+    assertThat(health.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+    warmup.start();
+
+    assertThat(warmup.getState()).isEqualTo(TopologyWarmup.State.COMPLETED);
+    assertThat(warmup.getSpaces()).isEqualTo(2);
+    assertThat(warmup.getDevices()).isEqualTo(1);
+    assertThat(warmup.getSensors()).isEqualTo(1);
+
+    assertThat(cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME)
+        .get("space1").get()).isSameAs(space);
+    assertThat(cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_ID)
+        .get(space.getId()).get()).isSameAs(space);
+    assertThat(cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_SPACE_BY_NAME)
+        .get("room1").get()).isSameAs(room);
+    assertThat(cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_NAME)
+        .get("device1").get()).isSameAs(device);
+    assertThat(cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_DEVICE_BY_ID)
+        .get(device.getId()).get()).isSameAs(device);
+    assertThat(
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+            .get("device1").get()).isEqualTo(gatewayId);
+    assertThat(
+        cacheManager.getCache(Cachedv1DigitalTwinTopologyProxy.CACHE_GATEWAY_ID_BY_HARDWARE_ID)
+            .get("sensor1").get()).isEqualTo(gatewayId);
+
+    assertThat(health.health().getStatus()).isEqualTo(Status.UP);
+  }
+
+  @Test
+  public void failedWarmupDoesNotBlockStartup() {
+    when(tenantResolver.getTenant()).thenReturn(tenant);
+    when(spacesApi.spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class)))
+        .thenThrow(new IllegalStateException("ADT unavailable"));
+
+    warmup.start();
+
+    assertThat(warmup.getState()).isEqualTo(TopologyWarmup.State.FAILED);
+    assertThat(warmup.isRunning()).isTrue();
+    assertThat(health.health().getStatus()).isEqualTo(Status.UNKNOWN);
+  }
+
+  @Test
+  public void timedOutWarmupIsCancelled() throws InterruptedException {
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final TopologyWarmup timingOut = new TopologyWarmup(tenantResolver, spacesApi, devicesApi,
+        sensorsApi, cacheManager, 2, Duration.ofMillis(100));
+
+    when(tenantResolver.getTenant()).thenReturn(tenant);
+    when(spacesApi.spacesRetrieve(any(SpacesApi.SpacesRetrieveQueryParams.class)))
+        .thenAnswer(i -> {
+          try {
+            Thread.sleep(10_000);
+          } catch (final InterruptedException e) {
+            interrupted.countDown();
+          }
+          return List.of(new SpaceRetrieveWithChildren());
+        });
+
+    timingOut.start();
+
+    assertThat(timingOut.getState()).isEqualTo(TopologyWarmup.State.FAILED);
+    assertThat(timingOut.getFailure()).isInstanceOf(TimeoutException.class);
+    assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(timingOut.getSpaces()).isZero();
+  }
+
+  private static boolean isLevelOf(final Map<String, Object> params, final UUID space,
+      final int level) {
+    return space.toString().equals(params.get("spaceId"))
+        && String.valueOf(level).equals(params.get("minLevel"))
+        && String.valueOf(level).equals(params.get("maxLevel"));
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.cache.interceptor.SimpleKey;
+import com.microsoft.twins.model.CategoryEnum;
+import com.microsoft.twins.reflector.TwinReflectorProxyProperties.CacheSpec;
+import com.microsoft.twins.reflector.cache.ReflectorCacheManager;
+
+/**
+ * Compares type ID lookups through a Spring cache, as done by <code>@Cacheable</code> with a
+ * {@link SimpleKey} of name and category and a boxed ID, with the {@link TypeIdTable}. Run with
+ * <code>-prof gc</code> to compare the allocation per lookup, e.g. through {@link #main(String[])}.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class TypeIdTableBenchmark {
+  private static final int TYPES = 200;
+
+  private Cache cache;
+  private TypeIdTable table;
+  private String[] names;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    cache = new ReflectorCacheManager(new CacheSpec(10_000L, null, Duration.ofDays(7), null),
+        Map.of(), null, null).getCache("cacheTypeByNameAndcategory");
+    table = new TypeIdTable();
+
+    names = new String[TYPES];
+    for (int i = 0; i < TYPES; i++) {
+      names[i] = "Device Type " + i;
+      cache.put(new SimpleKey(names[i], CategoryEnum.DEVICETYPE), i);
+      table.put(CategoryEnum.DEVICETYPE, names[i], i);
+    }
+  }
+
+  @Benchmark
+  public int cache() {
+    final String name = names[ThreadLocalRandom.current().nextInt(TYPES)];
+    return cache.get(new SimpleKey(name, CategoryEnum.DEVICETYPE), Integer.class);
+  }
+
+  @Benchmark
+  public int table() {
+    return table.get(CategoryEnum.DEVICETYPE, names[ThreadLocalRandom.current().nextInt(TYPES)]);
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(TypeIdTableBenchmark.class.getSimpleName())
+        .addProfiler("gc").build()).run();
+  }
+}
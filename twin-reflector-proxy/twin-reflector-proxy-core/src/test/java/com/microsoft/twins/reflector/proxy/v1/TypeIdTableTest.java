@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) Microsoft Corporation. Licensed under the MIT License.
+ */
+package com.microsoft.twins.reflector.proxy.v1;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+import com.microsoft.twins.model.CategoryEnum;
+
+public class TypeIdTableTest {
+  private final TypeIdTable table = new TypeIdTable();
+
+  @Test
+  public void namesAreComparedWithoutCaseAndWhiteSpace() {
+    table.put(CategoryEnum.DEVICETYPE, "My Device Type", 42);
+
+    assertThat(table.get(CategoryEnum.DEVICETYPE, "My Device Type")).isEqualTo(42);
+    assertThat(table.get(CategoryEnum.DEVICETYPE, "mydevicetype")).isEqualTo(42);
+    assertThat(table.get(CategoryEnum.DEVICETYPE, " MY DEVICE\tTYPE ")).isEqualTo(42);
+    assertThat(table.get(CategoryEnum.DEVICETYPE, "My Device")).isEqualTo(TypeIdTable.MISSING);
+    assertThat(table.get(CategoryEnum.DEVICETYPE, "My Device Types"))
+        .isEqualTo(TypeIdTable.MISSING);
+    assertThat(table.get(CategoryEnum.SPACETYPE, "My Device Type")).isEqualTo(TypeIdTable.MISSING);
+  }
+
+  @Test
+  public void tableGrowsAndReplacesIds() {
+    for (int i = 0; i < 1000; i++) {
+      table.put(CategoryEnum.SPACESTATUS, "Status " + i, i);
+    }
+    table.put(CategoryEnum.SPACESTATUS, "status 7", 7000);
+
+    assertThat(table.size(CategoryEnum.SPACESTATUS)).isEqualTo(1000);
+    assertThat(table.get(CategoryEnum.SPACESTATUS, "Status 7")).isEqualTo(7000);
+    for (int i = 0; i < 1000; i++) {
+      if (i != 7) {
+        assertThat(table.get(CategoryEnum.SPACESTATUS, "Status " + i)).isEqualTo(i);
+      }
+    }
+
+    table.clear();
+    assertThat(table.get(CategoryEnum.SPACESTATUS, "Status 1")).isEqualTo(TypeIdTable.MISSING);
+  }
+}